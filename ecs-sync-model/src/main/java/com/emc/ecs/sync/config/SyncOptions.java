@@ -24,8 +24,12 @@ public class SyncOptions {
 
     public static final int DEFAULT_BUFFER_SIZE = 128 * 1024; // 128k
     public static final int DEFAULT_THREAD_COUNT = 16;
+    public static final int DEFAULT_PARALLEL_READ_THREADS = 4;
+    public static final int DEFAULT_PARALLEL_READ_RANGE_MB = 8;
     public static final int DEFAULT_RETRY_ATTEMPTS = 2; // 3 total attempts
     public static final int DEFAULT_TIMING_WINDOW = 1000;
+    public static final int DEFAULT_DB_WRITE_BATCH_SIZE = 500;
+    public static final int DEFAULT_REMEMBER_FAILED_MAX = 100000;
 
     private boolean syncMetadata = true;
     private boolean syncRetentionExpiration = false;
@@ -40,14 +44,25 @@ public class SyncOptions {
     private boolean ignoreInvalidAcls = false;
 
     private boolean forceSync = false;
+    private boolean summarySkip = false;
     private boolean verify = false;
     private boolean verifyOnly = false;
+    private ChecksumAlgorithm verifyChecksum = ChecksumAlgorithm.md5;
+    private boolean skipChecksum = false;
+    private boolean verifyWriteEtag = false;
+    private int verifySamplePercent = 0;
+    private int verifyChunkSizeMb = 0;
     private boolean deleteSource = false;
     private boolean targetUppercase = false;
 
     private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int parallelReadThresholdMb = 0;
+    private int parallelReadThreads = DEFAULT_PARALLEL_READ_THREADS;
+    private int parallelReadRangeMb = DEFAULT_PARALLEL_READ_RANGE_MB;
 
     private int threadCount = DEFAULT_THREAD_COUNT;
+    private boolean sharedScheduler = false;
+    private boolean virtualThreads = false;
     private int retryAttempts = DEFAULT_RETRY_ATTEMPTS;
     private boolean monitorPerformance = true;
 
@@ -55,11 +70,15 @@ public class SyncOptions {
     private int timingWindow = DEFAULT_TIMING_WINDOW;
 
     private boolean rememberFailed = false;
+    private int rememberFailedMax = DEFAULT_REMEMBER_FAILED_MAX;
+    private String rememberFailedFile;
 
     private String dbFile;
     private String dbConnectString;
     private String dbEncPassword;
     private String dbTable;
+    private boolean dbWriteBehind = false;
+    private int dbWriteBatchSize = DEFAULT_DB_WRITE_BATCH_SIZE;
 
     @Option(orderIndex = 10, cliInverted = true, advanced = true, description = "Metadata is synced by default")
     public boolean isSyncMetadata() {
@@ -142,6 +161,15 @@ public class SyncOptions {
         this.forceSync = forceSync;
     }
 
+    @Option(orderIndex = 85, advanced = true, description = "When the source listing already provides the size and modification time of each object (i.e. S3 bucket listings), compare those to the status database and skip unchanged objects without loading them from the source (saves a HEAD/stat per object on repeat runs and incrementals). Objects that differ from their DB record are loaded and synced as usual. Requires a database and has no effect with forceSync or deleteSource")
+    public boolean isSummarySkip() {
+        return summarySkip;
+    }
+
+    public void setSummarySkip(boolean summarySkip) {
+        this.summarySkip = summarySkip;
+    }
+
     @Option(orderIndex = 90, description = "After a successful object transfer, the object will be read back from the target system and its MD5 checksum will be compared with that of the source object (generated during transfer). This only compares object data (metadata is not compared) and does not include directories")
     public boolean isVerify() {
         return verify;
@@ -160,6 +188,51 @@ public class SyncOptions {
         this.verifyOnly = verifyOnly;
     }
 
+    @Option(orderIndex = 102, advanced = true, description = "The checksum algorithm used to compare source and target data when verifying. Valid algorithms are md5, sha256, crc32c and xxhash64. crc32c (hardware-accelerated on Java 9 and later) and xxhash64 are many times faster than md5, but will not detect deliberate tampering. With anything but md5, the source MD5 is not recorded in the database and target ETags cannot be used to verify objects without reading them back. Default is md5")
+    public ChecksumAlgorithm getVerifyChecksum() {
+        return verifyChecksum;
+    }
+
+    public void setVerifyChecksum(ChecksumAlgorithm verifyChecksum) {
+        this.verifyChecksum = verifyChecksum;
+    }
+
+    @Option(orderIndex = 104, advanced = true, description = "By default, an MD5 checksum of all object data is calculated while it is streamed (it is recorded in the database). When not verifying, this option skips the checksum entirely, which saves considerable CPU on fast networks. Has no effect with verify, verifyOnly or summarySkip (which compares the recorded MD5 to the source ETag)")
+    public boolean isSkipChecksum() {
+        return skipChecksum;
+    }
+
+    public void setSkipChecksum(boolean skipChecksum) {
+        this.skipChecksum = skipChecksum;
+    }
+
+    @Option(orderIndex = 106, advanced = true, description = "When verifying, supported targets (S3 and ECS) record the ETag returned by each write, and it is compared to the source MD5 (or for multipart uploads, to the MD5s of the parts as they were sent) instead of reading the object back from the target. Objects without a usable ETag (i.e. with server-side encryption, remote-copy or when uploading directly from a file) are still read back. Single-part ETags can only be compared when verifyChecksum is md5")
+    public boolean isVerifyWriteEtag() {
+        return verifyWriteEtag;
+    }
+
+    public void setVerifyWriteEtag(boolean verifyWriteEtag) {
+        this.verifyWriteEtag = verifyWriteEtag;
+    }
+
+    @Option(orderIndex = 108, advanced = true, description = "When verifyWriteEtag is enabled, the percentage of objects (chosen at random) that are still fully read back from the target and compared. Default is 0")
+    public int getVerifySamplePercent() {
+        return verifySamplePercent;
+    }
+
+    public void setVerifySamplePercent(int verifySamplePercent) {
+        this.verifySamplePercent = verifySamplePercent;
+    }
+
+    @Option(orderIndex = 109, advanced = true, description = "When verifying, the source data is also checksummed in chunks of this size (in MB) as it is written. If the target supports ranged reads (S3 and ECS), objects larger than one chunk are then read back as parallel ranged GETs (parallelReadThreads at a time), and each chunk is compared as soon as it arrives (a mismatch fails the object without reading the rest). Cannot be used with filters. Default is 0 (disabled)")
+    public int getVerifyChunkSizeMb() {
+        return verifyChunkSizeMb;
+    }
+
+    public void setVerifyChunkSizeMb(int verifyChunkSizeMb) {
+        this.verifyChunkSizeMb = verifyChunkSizeMb;
+    }
+
     @Option(orderIndex = 110, advanced = true, description = "Supported source plugins will delete each source object once it is successfully synced (does not include directories). Use this option with care! Be sure log levels are appropriate to capture transferred (source deleted) objects")
     public boolean isDeleteSource() {
         return deleteSource;
@@ -178,6 +251,33 @@ public class SyncOptions {
         this.bufferSize = bufferSize;
     }
 
+    @Option(orderIndex = 122, valueHint = "size-in-MB", advanced = true, description = "Source objects larger than this size (in MB) are read as several ranges in parallel and reassembled in order, instead of as a single stream (supported source plugins only: S3, ECS and Atmos). Default is 0 (disabled)")
+    public int getParallelReadThresholdMb() {
+        return parallelReadThresholdMb;
+    }
+
+    public void setParallelReadThresholdMb(int parallelReadThresholdMb) {
+        this.parallelReadThresholdMb = parallelReadThresholdMb;
+    }
+
+    @Option(orderIndex = 124, advanced = true, description = "When parallelReadThresholdMb is set, the number of ranges of each large object that are read at once. The source plugin reads ranges with a pool of (threadCount x parallelReadThreads) threads. Default is " + DEFAULT_PARALLEL_READ_THREADS)
+    public int getParallelReadThreads() {
+        return parallelReadThreads;
+    }
+
+    public void setParallelReadThreads(int parallelReadThreads) {
+        this.parallelReadThreads = parallelReadThreads;
+    }
+
+    @Option(orderIndex = 126, valueHint = "size-in-MB", advanced = true, description = "When parallelReadThresholdMb is set, the size of each range (in MB, at most 16MB). Each range is buffered in memory, so up to (parallelReadThreads + 1) ranges are held for each large object. Default is " + DEFAULT_PARALLEL_READ_RANGE_MB + "MB")
+    public int getParallelReadRangeMb() {
+        return parallelReadRangeMb;
+    }
+
+    public void setParallelReadRangeMb(int parallelReadRangeMb) {
+        this.parallelReadRangeMb = parallelReadRangeMb;
+    }
+
     @Option(orderIndex = 130, description = "Specifies the number of objects to sync simultaneously. Default is " + DEFAULT_THREAD_COUNT)
     public int getThreadCount() {
         return threadCount;
@@ -187,6 +287,24 @@ public class SyncOptions {
         this.threadCount = threadCount;
     }
 
+    @Option(orderIndex = 135, advanced = true, description = "Runs the listing, querying, estimation, sync and retry tasks on a single shared work-stealing thread pool instead of a separate fixed pool per task type (verification and plugin read-ahead keep their own pools, because sync tasks wait for them). Each task type is still limited to threadCount concurrent tasks, but threads are only created while there is work to do, which greatly reduces the number of idle platform threads for jobs with a high thread count")
+    public boolean isSharedScheduler() {
+        return sharedScheduler;
+    }
+
+    public void setSharedScheduler(boolean sharedScheduler) {
+        this.sharedScheduler = sharedScheduler;
+    }
+
+    @Option(orderIndex = 136, advanced = true, description = "Runs query and sync tasks on virtual threads (requires Java 21 or later; ignored with a warning on older versions). threadCount still limits how many of these tasks run at once, but blocked tasks no longer need a platform thread each, so I/O-bound jobs with many small objects can use a much higher threadCount")
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
     @Option(orderIndex = 140, advanced = true, description = "Specifies how many times each object should be retried after an error. Default is 2 retries (total of 3 attempts)")
     public int getRetryAttempts() {
         return retryAttempts;
@@ -232,6 +350,24 @@ public class SyncOptions {
         this.rememberFailed = rememberFailed;
     }
 
+    @Option(orderIndex = 182, advanced = true, description = "When rememberFailed is enabled, sets how many failed object identifiers are kept in memory. Any further failures are appended to the rememberFailedFile. Default is " + DEFAULT_REMEMBER_FAILED_MAX)
+    public int getRememberFailedMax() {
+        return rememberFailedMax;
+    }
+
+    public void setRememberFailedMax(int rememberFailedMax) {
+        this.rememberFailedMax = rememberFailedMax;
+    }
+
+    @Option(orderIndex = 184, advanced = true, description = "When rememberFailed is enabled, specifies the file that failed object identifiers are appended to once rememberFailedMax is reached (one per line). Defaults to {dbFile}.failed if a Sqlite database is used, otherwise a temporary file that is removed when the job is discarded")
+    public String getRememberFailedFile() {
+        return rememberFailedFile;
+    }
+
+    public void setRememberFailedFile(String rememberFailedFile) {
+        this.rememberFailedFile = rememberFailedFile;
+    }
+
     @Option(orderIndex = 200, advanced = true, description = "Enables the Sqlite database engine and specifies the file to hold the status database. A database will make repeat runs and incrementals more efficient. With this database type, you can use the sqlite3 client to interrogate the details of all objects in the sync")
     public String getDbFile() {
         return dbFile;
@@ -277,6 +413,24 @@ public class SyncOptions {
         this.dbTable = dbTable;
     }
 
+    @Option(orderIndex = 230, advanced = true, description = "Queues object status updates and writes them to the database in batches (one transaction per batch) instead of one statement at a time. Greatly reduces database round-trips for jobs with many small objects. Pending updates are always written when the job is paused, stopped or completes")
+    public boolean isDbWriteBehind() {
+        return dbWriteBehind;
+    }
+
+    public void setDbWriteBehind(boolean dbWriteBehind) {
+        this.dbWriteBehind = dbWriteBehind;
+    }
+
+    @Option(orderIndex = 235, advanced = true, description = "When dbWriteBehind is enabled, sets the number of queued status updates that will trigger a batch write (pending updates are also written at least once per second). Default is " + DEFAULT_DB_WRITE_BATCH_SIZE)
+    public int getDbWriteBatchSize() {
+        return dbWriteBatchSize;
+    }
+
+    public void setDbWriteBatchSize(int dbWriteBatchSize) {
+        this.dbWriteBatchSize = dbWriteBatchSize;
+    }
+
     public SyncOptions withSyncMetadata(boolean syncMetadata) {
         this.syncMetadata = syncMetadata;
         return this;
@@ -317,6 +471,11 @@ public class SyncOptions {
         return this;
     }
 
+    public SyncOptions withSummarySkip(boolean summarySkip) {
+        this.summarySkip = summarySkip;
+        return this;
+    }
+
     public SyncOptions withVerify(boolean verify) {
         this.verify = verify;
         return this;
@@ -327,11 +486,51 @@ public class SyncOptions {
         return this;
     }
 
+    public SyncOptions withVerifyChecksum(ChecksumAlgorithm verifyChecksum) {
+        this.verifyChecksum = verifyChecksum;
+        return this;
+    }
+
+    public SyncOptions withSkipChecksum(boolean skipChecksum) {
+        this.skipChecksum = skipChecksum;
+        return this;
+    }
+
+    public SyncOptions withVerifyWriteEtag(boolean verifyWriteEtag) {
+        this.verifyWriteEtag = verifyWriteEtag;
+        return this;
+    }
+
+    public SyncOptions withVerifySamplePercent(int verifySamplePercent) {
+        this.verifySamplePercent = verifySamplePercent;
+        return this;
+    }
+
+    public SyncOptions withVerifyChunkSizeMb(int verifyChunkSizeMb) {
+        this.verifyChunkSizeMb = verifyChunkSizeMb;
+        return this;
+    }
+
     public SyncOptions withDeleteSource(boolean deleteSource) {
         this.deleteSource = deleteSource;
         return this;
     }
 
+    public SyncOptions withParallelReadThresholdMb(int parallelReadThresholdMb) {
+        this.parallelReadThresholdMb = parallelReadThresholdMb;
+        return this;
+    }
+
+    public SyncOptions withParallelReadThreads(int parallelReadThreads) {
+        this.parallelReadThreads = parallelReadThreads;
+        return this;
+    }
+
+    public SyncOptions withParallelReadRangeMb(int parallelReadRangeMb) {
+        this.parallelReadRangeMb = parallelReadRangeMb;
+        return this;
+    }
+
     public SyncOptions withBufferSize(int bufferSize) {
         this.bufferSize = bufferSize;
         return this;
@@ -342,6 +541,16 @@ public class SyncOptions {
         return this;
     }
 
+    public SyncOptions withSharedScheduler(boolean sharedScheduler) {
+        this.sharedScheduler = sharedScheduler;
+        return this;
+    }
+
+    public SyncOptions withVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
     public SyncOptions withRetryAttempts(int retryAttempts) {
         this.retryAttempts = retryAttempts;
         return this;
@@ -367,6 +576,16 @@ public class SyncOptions {
         return this;
     }
 
+    public SyncOptions withRememberFailedMax(int rememberFailedMax) {
+        this.rememberFailedMax = rememberFailedMax;
+        return this;
+    }
+
+    public SyncOptions withRememberFailedFile(String rememberFailedFile) {
+        this.rememberFailedFile = rememberFailedFile;
+        return this;
+    }
+
     public SyncOptions withDbFile(String dbFile) {
         this.dbFile = dbFile;
         return this;
@@ -387,6 +606,16 @@ public class SyncOptions {
         return this;
     }
 
+    public SyncOptions withDbWriteBehind(boolean dbWriteBehind) {
+        this.dbWriteBehind = dbWriteBehind;
+        return this;
+    }
+
+    public SyncOptions withDbWriteBatchSize(int dbWriteBatchSize) {
+        this.dbWriteBatchSize = dbWriteBatchSize;
+        return this;
+    }
+
 
     @Override
     public boolean equals(Object o) {
@@ -402,19 +631,35 @@ public class SyncOptions {
         if (recursive != options.recursive) return false;
         if (ignoreInvalidAcls != options.ignoreInvalidAcls) return false;
         if (forceSync != options.forceSync) return false;
+        if (summarySkip != options.summarySkip) return false;
         if (verify != options.verify) return false;
         if (verifyOnly != options.verifyOnly) return false;
+        if (verifyChecksum != options.verifyChecksum) return false;
+        if (skipChecksum != options.skipChecksum) return false;
+        if (verifyWriteEtag != options.verifyWriteEtag) return false;
+        if (verifySamplePercent != options.verifySamplePercent) return false;
+        if (verifyChunkSizeMb != options.verifyChunkSizeMb) return false;
         if (targetUppercase != options.targetUppercase) return false;
         if (deleteSource != options.deleteSource) return false;
         if (bufferSize != options.bufferSize) return false;
+        if (parallelReadThresholdMb != options.parallelReadThresholdMb) return false;
+        if (parallelReadThreads != options.parallelReadThreads) return false;
+        if (parallelReadRangeMb != options.parallelReadRangeMb) return false;
         if (threadCount != options.threadCount) return false;
+        if (sharedScheduler != options.sharedScheduler) return false;
+        if (virtualThreads != options.virtualThreads) return false;
         if (retryAttempts != options.retryAttempts) return false;
         if (monitorPerformance != options.monitorPerformance) return false;
         if (timingsEnabled != options.timingsEnabled) return false;
         if (timingWindow != options.timingWindow) return false;
         if (rememberFailed != options.rememberFailed) return false;
+        if (rememberFailedMax != options.rememberFailedMax) return false;
+        if (dbWriteBehind != options.dbWriteBehind) return false;
+        if (dbWriteBatchSize != options.dbWriteBatchSize) return false;
         if (sourceListFile != null ? !sourceListFile.equals(options.sourceListFile) : options.sourceListFile != null)
             return false;
+        if (rememberFailedFile != null ? !rememberFailedFile.equals(options.rememberFailedFile) : options.rememberFailedFile != null)
+            return false;
         if (dbFile != null ? !dbFile.equals(options.dbFile) : options.dbFile != null) return false;
         if (dbConnectString != null ? !dbConnectString.equals(options.dbConnectString) : options.dbConnectString != null)
             return false;
@@ -431,20 +676,35 @@ public class SyncOptions {
         result = 31 * result + (recursive ? 1 : 0);
         result = 31 * result + (ignoreInvalidAcls ? 1 : 0);
         result = 31 * result + (forceSync ? 1 : 0);
+        result = 31 * result + (summarySkip ? 1 : 0);
         result = 31 * result + (verify ? 1 : 0);
         result = 31 * result + (verifyOnly ? 1 : 0);
+        result = 31 * result + (verifyChecksum != null ? verifyChecksum.hashCode() : 0);
+        result = 31 * result + (skipChecksum ? 1 : 0);
+        result = 31 * result + (verifyWriteEtag ? 1 : 0);
+        result = 31 * result + verifySamplePercent;
+        result = 31 * result + verifyChunkSizeMb;
         result = 31 * result + (targetUppercase ? 1 : 0);
         result = 31 * result + (deleteSource ? 1 : 0);
         result = 31 * result + bufferSize;
+        result = 31 * result + parallelReadThresholdMb;
+        result = 31 * result + parallelReadThreads;
+        result = 31 * result + parallelReadRangeMb;
         result = 31 * result + threadCount;
+        result = 31 * result + (sharedScheduler ? 1 : 0);
+        result = 31 * result + (virtualThreads ? 1 : 0);
         result = 31 * result + retryAttempts;
         result = 31 * result + (monitorPerformance ? 1 : 0);
         result = 31 * result + (timingsEnabled ? 1 : 0);
         result = 31 * result + timingWindow;
         result = 31 * result + (rememberFailed ? 1 : 0);
+        result = 31 * result + rememberFailedMax;
+        result = 31 * result + (rememberFailedFile != null ? rememberFailedFile.hashCode() : 0);
         result = 31 * result + (dbFile != null ? dbFile.hashCode() : 0);
         result = 31 * result + (dbConnectString != null ? dbConnectString.hashCode() : 0);
         result = 31 * result + (dbTable != null ? dbTable.hashCode() : 0);
+        result = 31 * result + (dbWriteBehind ? 1 : 0);
+        result = 31 * result + dbWriteBatchSize;
         return result;
     }
 }
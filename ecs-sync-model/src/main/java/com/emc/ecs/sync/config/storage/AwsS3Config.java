@@ -47,6 +47,7 @@ public class AwsS3Config extends AbstractConfig {
     public static final int DEFAULT_MPU_THRESHOLD_MB = 512;
     public static final int DEFAULT_MPU_PART_SIZE_MB = 128;
     public static final int DEFAULT_MPU_THREAD_COUNT = 4;
+    public static final int DEFAULT_LIST_THREAD_COUNT = 1;
     public static final int DEFAULT_SOCKET_TIMEOUT = 50000; // 50 secs
     public static final int MIN_PART_SIZE_MB = 5;
 
@@ -62,13 +63,19 @@ public class AwsS3Config extends AbstractConfig {
     private String keyPrefix;
     private boolean urlDecodeKeys = true;
     private String[] excludedKeys;
+    private int listThreadCount = DEFAULT_LIST_THREAD_COUNT;
+    private String listPartitionAlphabet;
+    private boolean directoryMode;
     private boolean includeVersions;
     private boolean legacySignatures;
     private int mpuThresholdMb = DEFAULT_MPU_THRESHOLD_MB;
     private int mpuPartSizeMb = DEFAULT_MPU_PART_SIZE_MB;
     private int mpuThreadCount = DEFAULT_MPU_THREAD_COUNT;
+    private int mpuPartLimit;
+    private int mpuBufferMb;
     private int socketTimeoutMs = DEFAULT_SOCKET_TIMEOUT;
     private boolean preserveDirectories;
+    private boolean remoteCopy;
 
     @XmlTransient
     @UriGenerator
@@ -223,6 +230,36 @@ public class AwsS3Config extends AbstractConfig {
         this.excludedKeys = excludedKeys;
     }
 
+    @Role(RoleType.Source)
+    @Option(orderIndex = 104, advanced = true, description = "The number of concurrent listing streams used to enumerate the source bucket. Values greater than 1 split the keyspace into ranges (by the common prefixes under keyPrefix, or by listPartitionAlphabet if specified) and list them in parallel, splitting large ranges further as listing threads become idle. Not used in directoryMode or when urlDecodeKeys is disabled. Default is " + DEFAULT_LIST_THREAD_COUNT + " (a single sequential listing)")
+    public int getListThreadCount() {
+        return listThreadCount;
+    }
+
+    public void setListThreadCount(int listThreadCount) {
+        this.listThreadCount = listThreadCount;
+    }
+
+    @Role(RoleType.Source)
+    @Option(orderIndex = 106, advanced = true, description = "When listThreadCount is greater than 1, partitions the keyspace by these characters (the first character of each key after keyPrefix) instead of by common prefixes. I.e. \"0123456789abcdef\" for hex-named keys. Keys starting with other characters are still listed")
+    public String getListPartitionAlphabet() {
+        return listPartitionAlphabet;
+    }
+
+    public void setListPartitionAlphabet(String listPartitionAlphabet) {
+        this.listPartitionAlphabet = listPartitionAlphabet;
+    }
+
+    @Role(RoleType.Source)
+    @Option(orderIndex = 108, advanced = true, description = "Enumerates the bucket as a hierarchy, using \"/\" as the delimiter. Common prefixes become directories that are crawled in parallel by the sync threads (when recursive), instead of listing the whole bucket in a single stream. Directories without a placeholder object are synced as plain directories. Not supported with includeVersions")
+    public boolean isDirectoryMode() {
+        return directoryMode;
+    }
+
+    public void setDirectoryMode(boolean directoryMode) {
+        this.directoryMode = directoryMode;
+    }
+
     @Option(orderIndex = 110, advanced = true, description = "Transfer all versions of every object. NOTE: this will overwrite all versions of each source key in the target system if any exist!")
     public boolean isIncludeVersions() {
         return includeVersions;
@@ -262,7 +299,7 @@ public class AwsS3Config extends AbstractConfig {
     }
 
     @Role(RoleType.Target)
-    @Option(orderIndex = 150, advanced = true, description = "The number of threads to use for multipart upload (only applicable for file sources)")
+    @Option(orderIndex = 150, advanced = true, description = "The number of threads to use for multipart upload of each object (only applicable for file sources and multipart remote copies; file parts use mpuPartLimit instead when it is set). File parts of all objects share one pool of (threadCount x mpuThreadCount) threads, which take parts from each object in turn")
     public int getMpuThreadCount() {
         return mpuThreadCount;
     }
@@ -271,6 +308,26 @@ public class AwsS3Config extends AbstractConfig {
         this.mpuThreadCount = mpuThreadCount;
     }
 
+    @Role(RoleType.Target)
+    @Option(orderIndex = 152, advanced = true, description = "The maximum number of multipart upload parts in flight at once, across all objects. When set, the plugin drives each multipart upload itself (for file and stream sources alike) and parts from all objects share one scheduler (in place of mpuThreadCount), which takes parts from each object in turn. Parts of a stream are read in order and held in memory until they are sent. Default is 0 (disabled)")
+    public int getMpuPartLimit() {
+        return mpuPartLimit;
+    }
+
+    public void setMpuPartLimit(int mpuPartLimit) {
+        this.mpuPartLimit = mpuPartLimit;
+    }
+
+    @Role(RoleType.Target)
+    @Option(orderIndex = 154, valueHint = "size-in-MB", advanced = true, description = "When mpuPartLimit is set, the maximum size (in MB) of all parts that are queued or in flight at once. Queuing a part that would exceed it waits for earlier parts to complete. Without it, each stream MPU still buffers no more than mpuPartLimit parts at once, so set it to bound the total across all objects. Default is 0 (no limit)")
+    public int getMpuBufferMb() {
+        return mpuBufferMb;
+    }
+
+    public void setMpuBufferMb(int mpuBufferMb) {
+        this.mpuBufferMb = mpuBufferMb;
+    }
+
     @Option(orderIndex = 160, valueHint = "timeout-ms", advanced = true, description = "Sets the socket timeout in milliseconds (default is " + DEFAULT_SOCKET_TIMEOUT + "ms)")
     public int getSocketTimeoutMs() {
         return socketTimeoutMs;
@@ -289,4 +346,14 @@ public class AwsS3Config extends AbstractConfig {
     public void setPreserveDirectories(boolean preserveDirectories) {
         this.preserveDirectories = preserveDirectories;
     }
+
+    @Role(RoleType.Target)
+    @Option(orderIndex = 180, advanced = true, description = "If enabled, a remote-copy command is issued instead of streaming the data (objects over 5GB are copied as multipart copies). Can only be used when the source and target buckets use the same S3 endpoint and region, and the target credentials can read the source bucket")
+    public boolean isRemoteCopy() {
+        return remoteCopy;
+    }
+
+    public void setRemoteCopy(boolean remoteCopy) {
+        this.remoteCopy = remoteCopy;
+    }
 }
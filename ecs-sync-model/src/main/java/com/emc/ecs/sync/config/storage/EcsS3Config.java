@@ -50,6 +50,7 @@ public class EcsS3Config extends AbstractConfig {
     public static final int DEFAULT_MPU_THRESHOLD_MB = 512;
     public static final int DEFAULT_MPU_PART_SIZE_MB = 128;
     public static final int DEFAULT_MPU_THREAD_COUNT = 4;
+    public static final int DEFAULT_LIST_THREAD_COUNT = 1;
     public static final int DEFAULT_CONNECT_TIMEOUT = 15000; // 15 seconds
     public static final int DEFAULT_READ_TIMEOUT = 60000; // 60 seconds
     public static final int MIN_PART_SIZE_MB = 4;
@@ -67,11 +68,16 @@ public class EcsS3Config extends AbstractConfig {
     private boolean createBucket;
     private String keyPrefix;
     private boolean urlEncodeKeys;
+    private int listThreadCount = DEFAULT_LIST_THREAD_COUNT;
+    private String listPartitionAlphabet;
+    private boolean directoryMode;
     private boolean includeVersions;
     private boolean apacheClientEnabled;
     private int mpuThresholdMb = DEFAULT_MPU_THRESHOLD_MB;
     private int mpuPartSizeMb = DEFAULT_MPU_PART_SIZE_MB;
     private int mpuThreadCount = DEFAULT_MPU_THREAD_COUNT;
+    private int mpuPartLimit;
+    private int mpuBufferMb;
     private boolean mpuEnabled;
     private int socketConnectTimeoutMs = DEFAULT_CONNECT_TIMEOUT;
     private int socketReadTimeoutMs = DEFAULT_READ_TIMEOUT;
@@ -246,6 +252,36 @@ public class EcsS3Config extends AbstractConfig {
         this.urlEncodeKeys = urlEncodeKeys;
     }
 
+    @Role(RoleType.Source)
+    @Option(orderIndex = 134, advanced = true, description = "The number of concurrent listing streams used to enumerate the source bucket. Values greater than 1 split the keyspace into ranges (by the common prefixes under keyPrefix, or by listPartitionAlphabet if specified) and list them in parallel, splitting large ranges further as listing threads become idle. Not used in directoryMode or when urlEncodeKeys is enabled. Default is " + DEFAULT_LIST_THREAD_COUNT + " (a single sequential listing)")
+    public int getListThreadCount() {
+        return listThreadCount;
+    }
+
+    public void setListThreadCount(int listThreadCount) {
+        this.listThreadCount = listThreadCount;
+    }
+
+    @Role(RoleType.Source)
+    @Option(orderIndex = 136, advanced = true, description = "When listThreadCount is greater than 1, partitions the keyspace by these characters (the first character of each key after keyPrefix) instead of by common prefixes. I.e. \"0123456789abcdef\" for hex-named keys. Keys starting with other characters are still listed")
+    public String getListPartitionAlphabet() {
+        return listPartitionAlphabet;
+    }
+
+    public void setListPartitionAlphabet(String listPartitionAlphabet) {
+        this.listPartitionAlphabet = listPartitionAlphabet;
+    }
+
+    @Role(RoleType.Source)
+    @Option(orderIndex = 138, advanced = true, description = "Enumerates the bucket as a hierarchy, using \"/\" as the delimiter. Common prefixes become directories that are crawled in parallel by the sync threads (when recursive), instead of listing the whole bucket in a single stream. Directories without a placeholder object are synced as plain directories. Not supported with includeVersions")
+    public boolean isDirectoryMode() {
+        return directoryMode;
+    }
+
+    public void setDirectoryMode(boolean directoryMode) {
+        this.directoryMode = directoryMode;
+    }
+
     @Option(orderIndex = 140, advanced = true, description = "Enable to transfer all versions of every object. NOTE: this will overwrite all versions of each source key in the target system if any exist!")
     public boolean isIncludeVersions() {
         return includeVersions;
@@ -294,6 +330,26 @@ public class EcsS3Config extends AbstractConfig {
         this.mpuThreadCount = mpuThreadCount;
     }
 
+    @Role(RoleType.Target)
+    @Option(orderIndex = 182, advanced = true, description = "The maximum number of multipart upload parts in flight at once, across all objects. When set, parts from all objects share one scheduler (in place of mpuThreadCount threads per object), which takes parts from each object in turn. Default is 0 (disabled)")
+    public int getMpuPartLimit() {
+        return mpuPartLimit;
+    }
+
+    public void setMpuPartLimit(int mpuPartLimit) {
+        this.mpuPartLimit = mpuPartLimit;
+    }
+
+    @Role(RoleType.Target)
+    @Option(orderIndex = 184, valueHint = "size-in-MB", advanced = true, description = "When mpuPartLimit is set, the maximum size (in MB) of all parts that are queued or in flight at once. Queuing a part that would exceed it waits for earlier parts to complete. Default is 0 (no limit)")
+    public int getMpuBufferMb() {
+        return mpuBufferMb;
+    }
+
+    public void setMpuBufferMb(int mpuBufferMb) {
+        this.mpuBufferMb = mpuBufferMb;
+    }
+
     @Role(RoleType.Target)
     @Option(orderIndex = 190, advanced = true, description = "Enables multi-part upload (MPU). Large files will be split into multiple streams and (if possible) sent in parallel")
     public boolean isMpuEnabled() {
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.rest;
+
+/**
+ * Latency statistics for a single timed operation. All times are in microseconds
+ */
+public class OperationTiming {
+    private String name;
+    private long completeCount;
+    private long failedCount;
+    private long minTime;
+    private long maxTime;
+    private long avgTime;
+    private long p50Time;
+    private long p90Time;
+    private long p99Time;
+    private long p999Time;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getCompleteCount() {
+        return completeCount;
+    }
+
+    public void setCompleteCount(long completeCount) {
+        this.completeCount = completeCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public void setFailedCount(long failedCount) {
+        this.failedCount = failedCount;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    public void setMinTime(long minTime) {
+        this.minTime = minTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public void setMaxTime(long maxTime) {
+        this.maxTime = maxTime;
+    }
+
+    public long getAvgTime() {
+        return avgTime;
+    }
+
+    public void setAvgTime(long avgTime) {
+        this.avgTime = avgTime;
+    }
+
+    public long getP50Time() {
+        return p50Time;
+    }
+
+    public void setP50Time(long p50Time) {
+        this.p50Time = p50Time;
+    }
+
+    public long getP90Time() {
+        return p90Time;
+    }
+
+    public void setP90Time(long p90Time) {
+        this.p90Time = p90Time;
+    }
+
+    public long getP99Time() {
+        return p99Time;
+    }
+
+    public void setP99Time(long p99Time) {
+        this.p99Time = p99Time;
+    }
+
+    public long getP999Time() {
+        return p999Time;
+    }
+
+    public void setP999Time(long p999Time) {
+        this.p999Time = p999Time;
+    }
+}
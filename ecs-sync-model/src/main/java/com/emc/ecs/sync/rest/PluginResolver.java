@@ -40,7 +40,8 @@ public class PluginResolver implements ContextResolver<JAXBContext> {
             pluginScanner.addIncludeFilter(new AnnotationTypeFilter(FilterConfig.class));
 
             final List<Class> pluginClasses = new ArrayList<>();
-            pluginClasses.addAll(Arrays.asList(SyncConfig.class, HostInfo.class, JobControl.class, JobList.class, SyncProgress.class));
+            pluginClasses.addAll(Arrays.asList(SyncConfig.class, HostInfo.class, JobControl.class, JobList.class, SyncProgress.class,
+                    TimingList.class));
             for (BeanDefinition beanDef : pluginScanner.findCandidateComponents("com.emc.ecs.sync")) {
                 pluginClasses.add(Class.forName(beanDef.getBeanClassName()));
             }
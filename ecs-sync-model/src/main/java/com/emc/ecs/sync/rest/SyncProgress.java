@@ -32,6 +32,8 @@ public class SyncProgress {
     private long objectsFailed;
     private int objectsAwaitingRetry;
     private long runtimeMs;
+    private long transferTimeMs;
+    private long drainTimeMs;
     private int activeQueryTasks;
     private int activeSyncTasks;
     private long cpuTimeMs;
@@ -44,6 +46,7 @@ public class SyncProgress {
     private long sourceWriteRate;
     private long targetReadRate;
     private long targetWriteRate;
+    private long dbPendingWrites;
     private String runError;
 
     public String getJobName() {
@@ -158,6 +161,28 @@ public class SyncProgress {
         this.runtimeMs = runtimeMs;
     }
 
+    /**
+     * Time spent enumerating the source while feeding the sync pools
+     */
+    public long getTransferTimeMs() {
+        return transferTimeMs;
+    }
+
+    public void setTransferTimeMs(long transferTimeMs) {
+        this.transferTimeMs = transferTimeMs;
+    }
+
+    /**
+     * Time spent waiting for queued work (including retries) to finish after the source was fully enumerated
+     */
+    public long getDrainTimeMs() {
+        return drainTimeMs;
+    }
+
+    public void setDrainTimeMs(long drainTimeMs) {
+        this.drainTimeMs = drainTimeMs;
+    }
+
     public int getActiveQueryTasks() {
         return activeQueryTasks;
     }
@@ -254,6 +279,14 @@ public class SyncProgress {
         this.objectErrorRate = objectErrorRate;
     }
 
+    public long getDbPendingWrites() {
+        return dbPendingWrites;
+    }
+
+    public void setDbPendingWrites(long dbPendingWrites) {
+        this.dbPendingWrites = dbPendingWrites;
+    }
+
     public String getRunError() {
         return runError;
     }
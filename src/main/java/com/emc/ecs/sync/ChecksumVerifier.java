@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync;
+
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
+import com.emc.ecs.sync.config.SyncOptions;
+import com.emc.ecs.sync.model.SyncObject;
+import com.emc.ecs.sync.storage.RangeReadable;
+import com.emc.ecs.sync.util.BufferPool;
+import com.emc.ecs.sync.util.EnhancedThreadPoolExecutor;
+import com.emc.ecs.sync.util.StreamChecksum;
+import com.emc.ecs.sync.util.SyncUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.regex.Pattern;
+
+/**
+ * Verifies object data by comparing the source and target checksums (in the job's verifyChecksum algorithm). When the
+ * algorithm is MD5 and the target reports an ETag that looks like a plain MD5 (a single-part upload), the source MD5 is
+ * compared to the ETag first, and the target is only read back if they differ. If chunk checksums are enabled (see
+ * {@link SyncUtil#getVerifyChunkSize(SyncOptions)}) and the target supports ranged reads, large objects are read back
+ * as parallel ranges (parallelReadThreads at a time), and each range is compared to the checksum of the same chunk of source data
+ */
+public class ChecksumVerifier implements SyncVerifier {
+    private static final Logger log = LoggerFactory.getLogger(ChecksumVerifier.class);
+
+    private static final Pattern MD5_ETAG_PATTERN = Pattern.compile("\"?[0-9a-fA-F]{32}\"?");
+
+    private ExecutorService executor;
+    private long chunkSize;
+    private int chunkWindow;
+
+    /**
+     * Verification always uses a dedicated pool (even with the shared scheduler), because sync tasks wait for its
+     * results
+     */
+    public ChecksumVerifier(SyncOptions syncOptions) {
+        executor = new EnhancedThreadPoolExecutor(syncOptions.getThreadCount() * 2,
+                new LinkedBlockingDeque<Runnable>(), "verify-pool");
+        chunkSize = SyncUtil.getVerifyChunkSize(syncOptions);
+        chunkWindow = Math.max(1, syncOptions.getParallelReadThreads());
+    }
+
+    @Override
+    public void verify(final SyncObject sourceObject, final SyncObject targetObject) {
+
+        // this implementation only verifies data objects
+        if (sourceObject.getMetadata().isDirectory()) {
+            if (!targetObject.getMetadata().isDirectory())
+                throw new RuntimeException("source is directory; target is not");
+        } else {
+            if (targetObject.getMetadata().isDirectory())
+                throw new RuntimeException("source is data object; target is directory");
+
+            verifyData(sourceObject, targetObject);
+        }
+    }
+
+    /**
+     * Verifies the data of a (non-directory) object. Checks the target ETag first, then falls back to
+     * {@link #compareData(SyncObject, SyncObject)}
+     */
+    protected void verifyData(SyncObject sourceObject, SyncObject targetObject) {
+        if (verifyEtag(sourceObject, targetObject)) return;
+        compareData(sourceObject, targetObject);
+    }
+
+    /**
+     * Reads both source and target data (if they have not been read already) and compares their checksums (per chunk,
+     * if the target can be read in ranges)
+     */
+    protected void compareData(SyncObject sourceObject, SyncObject targetObject) {
+        if (isChunkReadable(targetObject)) compareChunks(sourceObject, targetObject);
+        else compareFull(sourceObject, targetObject);
+    }
+
+    void compareFull(final SyncObject sourceObject, final SyncObject targetObject) {
+        // thread the streams for efficiency (in case of verify-only)
+        Future<String> futureSourceChecksum = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return sourceObject.getChecksumHex(true);
+            }
+        });
+        Future<String> futureTargetChecksum = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return targetObject.getChecksumHex(true);
+            }
+        });
+
+        try {
+            String sourceChecksum = futureSourceChecksum.get(), targetChecksum = futureTargetChecksum.get();
+            ChecksumAlgorithm algorithm = sourceObject.getChecksumAlgorithm();
+
+            if (sourceChecksum == null || !sourceChecksum.equals(targetChecksum))
+                throw new RuntimeException(String.format("%s sum mismatch (%s != %s)", algorithm, sourceChecksum, targetChecksum));
+            else
+                log.debug("{} sum verified ({} == {})", algorithm, sourceChecksum, targetChecksum);
+
+        } catch (Exception e) {
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            throw new RuntimeException(e);
+        }
+    }
+
+    boolean isChunkReadable(SyncObject targetObject) {
+        if (chunkSize <= 0 || targetObject.getMetadata().getContentLength() <= chunkSize) return false;
+        if (!(targetObject.getSource() instanceof RangeReadable)) return false;
+        return ((RangeReadable) targetObject.getSource()).isRangeReadable(targetObject);
+    }
+
+    /**
+     * Reads the target back in parallel ranges (one per chunk) and compares each range to the checksum of the same
+     * source chunk. At most parallelReadThreads ranges of the object are read at once; chunks are compared in order,
+     * and each comparison lets the next range start. The first mismatch fails the object (remaining reads are
+     * cancelled). Falls back to a full comparison if the source has no chunk checksums
+     */
+    void compareChunks(final SyncObject sourceObject, final SyncObject targetObject) {
+        final RangeReadable rangeReader = (RangeReadable) targetObject.getSource();
+        final ChecksumAlgorithm algorithm = sourceObject.getChecksumAlgorithm();
+        final long size = targetObject.getMetadata().getContentLength();
+        final int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+
+        // the source has usually been read already (by the sync); if not (verify-only), read it alongside the target
+        Future<List<byte[]>> futureSourceChunks = executor.submit(new Callable<List<byte[]>>() {
+            @Override
+            public List<byte[]> call() throws Exception {
+                return sourceObject.getChunkChecksums(true);
+            }
+        });
+
+        Deque<Future<byte[]>> futureTargetChunks = new ArrayDeque<>();
+        int nextChunk = 0;
+        while (nextChunk < Math.min(chunkWindow, chunkCount)) {
+            futureTargetChunks.add(submitChunk(rangeReader, targetObject, nextChunk++, size, algorithm));
+        }
+
+        try {
+            List<byte[]> sourceChunks = futureSourceChunks.get();
+            if (sourceChunks == null) {
+                log.debug("no chunk checksums for {}; comparing full checksums", sourceObject.getRelativePath());
+                cancelAll(futureTargetChunks);
+                futureTargetChunks.clear();
+                compareFull(sourceObject, targetObject);
+                return;
+            }
+
+            long sourceSize = sourceObject.getMetadata().getContentLength();
+            if (sourceSize != size)
+                throw new RuntimeException(String.format("size mismatch (%d != %d)", sourceSize, size));
+
+            // i.e. the source was checksummed with a different chunk size
+            if (sourceChunks.size() != chunkCount)
+                throw new RuntimeException(String.format("chunk count mismatch (%d != %d)", sourceChunks.size(), chunkCount));
+
+            for (int i = 0; i < chunkCount; i++) {
+                byte[] sourceChunk = sourceChunks.get(i), targetChunk = futureTargetChunks.poll().get();
+                if (nextChunk < chunkCount)
+                    futureTargetChunks.add(submitChunk(rangeReader, targetObject, nextChunk++, size, algorithm));
+                if (!Arrays.equals(sourceChunk, targetChunk))
+                    throw new RuntimeException(String.format("%s sum mismatch in chunk %d of %d (%s != %s)", algorithm,
+                            i + 1, chunkCount, DatatypeConverter.printHexBinary(sourceChunk),
+                            DatatypeConverter.printHexBinary(targetChunk)));
+            }
+            log.debug("{} sums of {} chunks verified", algorithm, chunkCount);
+
+        } catch (Exception e) {
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            throw new RuntimeException(e);
+        } finally {
+            cancelAll(futureTargetChunks);
+        }
+    }
+
+    private Future<byte[]> submitChunk(final RangeReadable rangeReader, final SyncObject targetObject, int chunk,
+                                       long size, final ChecksumAlgorithm algorithm) {
+        final long chunkOffset = chunk * chunkSize, chunkLength = Math.min(chunkSize, size - chunkOffset);
+        return executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                try (InputStream rangeStream = rangeReader.readRange(targetObject, chunkOffset, chunkLength)) {
+                    return checksumRange(rangeStream, chunkLength, algorithm);
+                }
+            }
+        });
+    }
+
+    private byte[] checksumRange(InputStream rangeStream, long length, ChecksumAlgorithm algorithm) throws IOException {
+        StreamChecksum checksum = StreamChecksum.create(algorithm);
+        byte[] buffer = BufferPool.getSharedPool().acquireHeap(64 * 1024);
+        try {
+            long total = 0;
+            int read;
+            while ((read = rangeStream.read(buffer)) != -1) {
+                checksum.update(buffer, 0, read);
+                total += read;
+            }
+            if (total != length)
+                throw new IOException(String.format("range read returned %d bytes (expected %d)", total, length));
+            return checksum.digest();
+        } finally {
+            BufferPool.getSharedPool().release(buffer);
+        }
+    }
+
+    private void cancelAll(Iterable<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * @return true if the target ETag is a plain MD5 that matches the source MD5 (the target does not need to be read)
+     */
+    boolean verifyEtag(SyncObject sourceObject, SyncObject targetObject) {
+        String etag = targetObject.getEtag();
+        if (etag == null || !MD5_ETAG_PATTERN.matcher(etag).matches()) return false;
+        if (sourceObject.getChecksumAlgorithm() != ChecksumAlgorithm.md5) return false;
+
+        etag = etag.replace("\"", "");
+        String sourceMd5 = sourceObject.getMd5Hex(true);
+        if (etag.equalsIgnoreCase(sourceMd5)) {
+            log.debug("MD5 sum verified against target ETag ({} == {})", sourceMd5, etag);
+            return true;
+        }
+
+        // the ETag may not be an MD5 after all (i.e. with server-side encryption), so fall back to reading the target
+        log.debug("target ETag does not match source MD5 ({} != {}); reading target", etag, sourceMd5);
+        return false;
+    }
+
+    @Override
+    public void close() throws Exception {
+        List<Runnable> tasks = executor.shutdownNow();
+        if (!tasks.isEmpty()) log.warn(tasks.size() + " verification tasks still running when closed");
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync;
+
+import com.emc.ecs.sync.model.ObjectContext;
+import com.emc.ecs.sync.service.DbService;
+import com.emc.ecs.sync.storage.BatchDeletable;
+import com.emc.ecs.sync.util.EnhancedThreadPoolExecutor;
+import com.emc.ecs.sync.util.SyncUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Collects source deletes (when deleteSource is enabled) and sends them to the source in batches, instead of one delete
+ * request per object. Only objects whose DB record has a success status are accepted, and pending status updates are
+ * flushed to the DB before each batch is sent, so an object is never deleted from the source unless its record shows
+ * that it was synced. Objects that could not be deleted keep their status and have the error recorded in the DB.
+ * <p>
+ * A batch is sent when it is full, or when its oldest delete has waited for <code>maxDelayMs</code>. Submitting blocks
+ * while too many deletes are pending
+ */
+public class DeleteBatcher implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DeleteBatcher.class);
+
+    public static final int DEFAULT_THREAD_COUNT = 4;
+    public static final long DEFAULT_MAX_DELAY_MS = 1000;
+
+    private final BatchDeletable storage;
+    private final DbService dbService;
+    private final int batchSize;
+    private final long maxDelayMs;
+    private final int maxPending;
+    private final Semaphore pendingPermits;
+    private final EnhancedThreadPoolExecutor deleteExecutor;
+    private final ScheduledExecutorService delayScheduler;
+    private List<PendingDelete> batch = new ArrayList<>();
+    private long batchStartTime;
+    private boolean closed;
+
+    public DeleteBatcher(BatchDeletable storage, DbService dbService) {
+        this(storage, dbService, storage.getMaxDeleteBatchSize(), DEFAULT_THREAD_COUNT, DEFAULT_MAX_DELAY_MS);
+    }
+
+    public DeleteBatcher(BatchDeletable storage, DbService dbService, int batchSize, int threadCount, long maxDelayMs) {
+        if (batchSize <= 0 || batchSize > storage.getMaxDeleteBatchSize())
+            throw new IllegalArgumentException("batchSize must be between 1 and " + storage.getMaxDeleteBatchSize());
+        this.storage = storage;
+        this.dbService = dbService;
+        this.batchSize = batchSize;
+        this.maxDelayMs = maxDelayMs;
+        // one batch being collected and one waiting or in flight per thread
+        this.maxPending = batchSize * (threadCount + 1);
+        this.pendingPermits = new Semaphore(maxPending);
+        this.deleteExecutor = new EnhancedThreadPoolExecutor(threadCount, new LinkedBlockingDeque<Runnable>(), "delete-pool");
+        this.delayScheduler = Executors.newSingleThreadScheduledExecutor();
+        delayScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sendIfDelayed();
+            }
+        }, maxDelayMs, Math.max(maxDelayMs / 4, 1), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the object for deletion from the source. The object's status must be a success status that is (or will be
+     * once flushed) in the DB
+     *
+     * @param newRow passed to {@link DbService#setDeleted(ObjectContext, boolean)}
+     */
+    public void submit(ObjectContext context, boolean newRow) throws InterruptedException {
+        if (context.getStatus() == null || !context.getStatus().isSuccess())
+            throw new IllegalArgumentException("cannot delete " + context.getSourceSummary().getIdentifier()
+                    + " from source with status " + context.getStatus());
+        pendingPermits.acquire();
+        List<PendingDelete> fullBatch = null;
+        synchronized (this) {
+            if (closed) {
+                pendingPermits.release();
+                throw new IllegalStateException("delete batcher is closed");
+            }
+            if (batch.isEmpty()) batchStartTime = System.currentTimeMillis();
+            batch.add(new PendingDelete(context, newRow));
+            if (batch.size() >= batchSize) fullBatch = takeBatch();
+        }
+        if (fullBatch != null) send(fullBatch);
+    }
+
+    private void sendIfDelayed() {
+        try {
+            List<PendingDelete> delayedBatch = null;
+            synchronized (this) {
+                if (!batch.isEmpty() && System.currentTimeMillis() - batchStartTime >= maxDelayMs)
+                    delayedBatch = takeBatch();
+            }
+            if (delayedBatch != null) send(delayedBatch);
+        } catch (Throwable t) {
+            log.warn("could not send delayed delete batch", t);
+        }
+    }
+
+    private synchronized List<PendingDelete> takeBatch() {
+        List<PendingDelete> fullBatch = batch;
+        batch = new ArrayList<>();
+        return fullBatch;
+    }
+
+    private void send(final List<PendingDelete> deletes) {
+        deleteExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deleteBatch(deletes);
+                } finally {
+                    pendingPermits.release(deletes.size());
+                }
+            }
+        });
+    }
+
+    void deleteBatch(List<PendingDelete> deletes) {
+        Map<String, String> failures;
+        Set<String> unwritten = Collections.emptySet();
+        try {
+            // make sure the success status of every object in the batch is in the DB before it is deleted; any object
+            // whose status could not be written is kept (the DB would not reflect that it was synced)
+            unwritten = dbService.flush();
+
+            List<String> identifiers = new ArrayList<>();
+            for (PendingDelete delete : deletes) {
+                String sourceId = delete.context.getSourceSummary().getIdentifier();
+                if (!unwritten.contains(sourceId)) identifiers.add(sourceId);
+            }
+            failures = identifiers.isEmpty() ? new HashMap<String, String>() : storage.deleteBatch(identifiers);
+            log.debug("deleted batch of {} objects from source ({} failed, {} skipped)",
+                    identifiers.size(), failures.size(), deletes.size() - identifiers.size());
+        } catch (Throwable t) {
+            log.warn("!--O could not delete batch of {} objects from source: {}", deletes.size(), t.toString());
+            failures = new HashMap<>();
+            for (PendingDelete delete : deletes) {
+                failures.put(delete.context.getSourceSummary().getIdentifier(), SyncUtil.summarize(t));
+            }
+        }
+
+        for (PendingDelete delete : deletes) {
+            String sourceId = delete.context.getSourceSummary().getIdentifier();
+            if (unwritten.contains(sourceId)) {
+                // already reported as failed by the DB service
+                log.warn("!--O not deleting {} from source: its status could not be written to the database", sourceId);
+                continue;
+            }
+            try {
+                String error = failures.get(sourceId);
+                if (error == null) {
+                    log.info("X--O deleted {} from source", sourceId);
+                    dbService.setDeleted(delete.context, delete.newRow);
+                } else {
+                    log.warn("!--O could not delete {} from source: {}", sourceId, error);
+                    // the status is unchanged (the object was synced); only the error is recorded
+                    dbService.setStatus(delete.context, "could not delete from source: " + error, delete.newRow);
+                }
+            } catch (Throwable t) {
+                log.warn("could not update DB record for deleted object " + sourceId, t);
+            }
+        }
+    }
+
+    /**
+     * @return the number of deletes that have been submitted but not yet completed
+     */
+    public int getPendingCount() {
+        return maxPending - pendingPermits.availablePermits();
+    }
+
+    /**
+     * Sends any remaining deletes and waits for all batches to complete
+     */
+    @Override
+    public void close() {
+        List<PendingDelete> lastBatch;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            lastBatch = takeBatch();
+        }
+        delayScheduler.shutdownNow();
+        if (!lastBatch.isEmpty()) send(lastBatch);
+        deleteExecutor.shutdown();
+        try {
+            while (!deleteExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.info("waiting for {} source deletes to complete", getPendingCount());
+            }
+        } catch (InterruptedException e) {
+            log.warn("interrupted while waiting for source deletes to complete");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static class PendingDelete {
+        final ObjectContext context;
+        final boolean newRow;
+
+        PendingDelete(ObjectContext context, boolean newRow) {
+            this.context = context;
+            this.newRow = newRow;
+        }
+    }
+}
@@ -18,12 +18,14 @@ import com.emc.ecs.sync.cli.CliConfig;
 import com.emc.ecs.sync.cli.CliHelper;
 import com.emc.ecs.sync.config.ConfigUtil;
 import com.emc.ecs.sync.config.ConfigWrapper;
+import com.emc.ecs.sync.config.ConfigurationException;
 import com.emc.ecs.sync.config.SyncConfig;
 import com.emc.ecs.sync.config.SyncOptions;
 import com.emc.ecs.sync.filter.SyncFilter;
 import com.emc.ecs.sync.model.*;
 import com.emc.ecs.sync.rest.RestServer;
 import com.emc.ecs.sync.service.*;
+import com.emc.ecs.sync.storage.BatchDeletable;
 import com.emc.ecs.sync.storage.SyncStorage;
 import com.emc.ecs.sync.util.*;
 import com.sun.management.OperatingSystemMXBean;
@@ -36,6 +38,7 @@ import javax.xml.bind.JAXBException;
 import java.io.File;
 import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
@@ -46,6 +49,9 @@ public class EcsSync implements Runnable, RetryHandler {
 
     public static final String VERSION = EcsSync.class.getPackage().getImplementationVersion();
 
+    // number of listed objects to collect before looking up their DB records in bulk
+    static final int PREFETCH_BATCH_SIZE = 500;
+
     public static void main(String[] args) {
         int exitCode = 0;
 
@@ -109,7 +115,13 @@ public class EcsSync implements Runnable, RetryHandler {
 
                     // print completion stats
                     System.out.print(sync.getStats().getStatsString());
-                    if (sync.getStats().getObjectsFailed() > 0) exitCode = 3;
+                    if (syncConfig.getOptions().isRememberFailed()) {
+                        System.out.println("Failed files:");
+                        sync.getStats().writeFailedObjects(System.out);
+                        System.out.flush();
+                    }
+                    if (sync.getStats().getObjectsFailed() > 0 || sync.getStats().getStatusWriteFailures() > 0)
+                        exitCode = 3;
                 } finally {
                     if (restServer != null) try {
                         restServer.stop(0);
@@ -151,12 +163,15 @@ public class EcsSync implements Runnable, RetryHandler {
     private DbService dbService;
     private Throwable runError;
 
-    private EnhancedThreadPoolExecutor listExecutor;
-    private EnhancedThreadPoolExecutor syncExecutor;
-    private EnhancedThreadPoolExecutor queryExecutor;
-    private EnhancedThreadPoolExecutor estimateQueryExecutor;
-    private EnhancedThreadPoolExecutor estimateExecutor;
-    private EnhancedThreadPoolExecutor retrySubmitter;
+    private SharedScheduler sharedScheduler;
+    private SharedScheduler virtualThreadScheduler;
+    private ControllableExecutor listExecutor;
+    private ControllableExecutor syncExecutor;
+    private ControllableExecutor queryExecutor;
+    private ControllableExecutor estimateQueryExecutor;
+    private ControllableExecutor estimateExecutor;
+    private ControllableExecutor retrySubmitter;
+    private CompletionTracker completionTracker;
     private SyncFilter firstFilter;
     private SyncEstimate syncEstimate;
     private volatile boolean terminated;
@@ -168,6 +183,7 @@ public class EcsSync implements Runnable, RetryHandler {
     private List<SyncFilter> filters;
 
     private SyncVerifier verifier;
+    private DeleteBatcher deleteBatcher;
     private SyncControl syncControl = new SyncControl();
 
     private int perfReportSeconds;
@@ -221,6 +237,10 @@ public class EcsSync implements Runnable, RetryHandler {
                 throw e;
             }
 
+            // chunks are compared to the raw target data, which filters may have changed
+            if (SyncUtil.getVerifyChunkSize(options) > 0 && !filters.isEmpty())
+                throw new ConfigurationException("verifyChunkSizeMb cannot be used with filters");
+
             // TODO: right now, plugins have no way to register themselves
             if (source instanceof OptionChangeListener) addOptionChangeListener((OptionChangeListener) source);
             if (target instanceof OptionChangeListener) addOptionChangeListener((OptionChangeListener) target);
@@ -252,6 +272,12 @@ public class EcsSync implements Runnable, RetryHandler {
             try (SyncStats oldStats = stats) {
                 stats = new SyncStats();
             }
+            stats.setMaxFailedObjects(options.getRememberFailedMax());
+            if (options.getRememberFailedFile() != null) {
+                stats.setFailedObjectsFile(new File(options.getRememberFailedFile()));
+            } else if (options.getDbFile() != null) {
+                stats.setFailedObjectsFile(new File(options.getDbFile() + ".failed"));
+            }
             stats.setStartTime(System.currentTimeMillis());
             stats.setCpuStartTime(((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime() / 1000000);
 
@@ -266,23 +292,60 @@ public class EcsSync implements Runnable, RetryHandler {
                 }
                 if (options.getDbTable() != null) dbService.setObjectsTableName(options.getDbTable());
             }
+            if (options.isDbWriteBehind()) {
+                dbService.setWriteBatchSize(options.getDbWriteBatchSize());
+                dbService.setWriteBehind(true);
+                // a queued status update that could not be written leaves the DB out of step with the target; the
+                // object has already been counted (usually as complete), so it gets its own counter, and is listed
+                // with the failed objects so it can be synced again
+                final boolean rememberFailed = options.isRememberFailed();
+                dbService.setWriteFailureListener(new WriteFailureListener() {
+                    @Override
+                    public void writeFailed(String identifier, String error) {
+                        log.warn("O--! status of {} could not be written to the database: {}", identifier, error);
+                        stats.incStatusWriteFailures();
+                        if (rememberFailed) stats.addFailedObject(identifier);
+                    }
+                });
+            }
 
             // create thread pools
-            listExecutor = new EnhancedThreadPoolExecutor(options.getThreadCount(),
-                    new LinkedBlockingDeque<Runnable>(1000), "list-pool");
-            estimateQueryExecutor = new EnhancedThreadPoolExecutor(options.getThreadCount(),
-                    new LinkedBlockingDeque<Runnable>(), "estimate-q-pool");
-            estimateExecutor = new EnhancedThreadPoolExecutor(options.getThreadCount(),
-                    new LinkedBlockingDeque<Runnable>(1000), "estimate-pool");
-            queryExecutor = new EnhancedThreadPoolExecutor(options.getThreadCount(),
-                    new LinkedBlockingDeque<Runnable>(), "query-pool");
-            syncExecutor = new EnhancedThreadPoolExecutor(options.getThreadCount(),
-                    new LinkedBlockingDeque<Runnable>(1000), "sync-pool");
-            retrySubmitter = new EnhancedThreadPoolExecutor(options.getThreadCount(),
-                    new LinkedBlockingDeque<Runnable>(), "retry-submitter");
+            if (options.isVirtualThreads()) {
+                virtualThreadScheduler = SharedScheduler.newVirtualThreadScheduler("sync-vthread");
+                if (virtualThreadScheduler == null)
+                    log.warn("virtual threads are not supported by this JVM (Java 21+ is required); using platform threads");
+            }
+            if (options.isSharedScheduler()) sharedScheduler = new SharedScheduler(options.getThreadCount());
+            // list, query, estimate and retry tasks all submit to bounded queues, so they may wait for other tasks
+            listExecutor = newExecutor(options.getThreadCount(),
+                    new LinkedBlockingDeque<Runnable>(1000), "list-pool", true);
+            estimateQueryExecutor = newExecutor(options.getThreadCount(),
+                    new LinkedBlockingDeque<Runnable>(), "estimate-q-pool", true);
+            estimateExecutor = newExecutor(options.getThreadCount(),
+                    new LinkedBlockingDeque<Runnable>(1000), "estimate-pool", true);
+            queryExecutor = newIoExecutor(options.getThreadCount(),
+                    new LinkedBlockingDeque<Runnable>(), "query-pool", true);
+            syncExecutor = newIoExecutor(options.getThreadCount(),
+                    new LinkedBlockingDeque<Runnable>(1000), "sync-pool", false);
+            retrySubmitter = newExecutor(options.getThreadCount(),
+                    new LinkedBlockingDeque<Runnable>(), "retry-submitter", true);
+
+            // track all work that must finish before the job is complete (estimation is not included)
+            completionTracker = new CompletionTracker();
+            listExecutor.setCompletionTracker(completionTracker);
+            queryExecutor.setCompletionTracker(completionTracker);
+            retrySubmitter.setCompletionTracker(completionTracker);
+            syncExecutor.setCompletionTracker(completionTracker);
+            // the source is still being enumerated while list or query tasks are outstanding
+            completionTracker.setSubmitters(listExecutor, queryExecutor);
 
             // initialize verifier
-            verifier = new Md5Verifier(options);
+            if (options.isVerifyWriteEtag()) verifier = new EtagVerifier(options);
+            else verifier = new ChecksumVerifier(options);
+
+            // sources that support multi-object deletes get their deletes batched
+            if (options.isDeleteSource() && source instanceof BatchDeletable)
+                deleteBatcher = new DeleteBatcher((BatchDeletable) source, dbService);
 
             // setup performance reporting
             startPerformanceReporting();
@@ -328,28 +391,31 @@ public class EcsSync implements Runnable, RetryHandler {
                     });
                 }
             } else {
+                List<ObjectSummary> batch = new ArrayList<>();
                 for (ObjectSummary summary : source.allObjects()) {
                     if (!syncControl.isRunning()) break;
-                    submitForSync(source, summary);
-                    if (options.isRecursive() && summary.isDirectory()) submitForQuery(source, summary);
+                    batch.add(summary);
+                    if (batch.size() >= PREFETCH_BATCH_SIZE) {
+                        submitBatch(source, batch);
+                        batch.clear();
+                    }
                 }
+                submitBatch(source, batch);
             }
 
             // now we must wait until all submitted tasks are complete
-            while (syncControl.isRunning()) {
-                if (listExecutor.getUnfinishedTasks() <= 0 && queryExecutor.getUnfinishedTasks() <= 0
-                        && syncExecutor.getUnfinishedTasks() <= 0) {
-                    // done
-                    log.info("all tasks complete");
-                    break;
-                } else {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        log.warn("interrupted while sleeping", e);
-                    }
+            completionTracker.submissionComplete();
+            while (syncControl.isRunning() && !completionTracker.isComplete()) {
+                try {
+                    completionTracker.awaitCompletion();
+                } catch (InterruptedException e) {
+                    log.warn("interrupted while waiting for tasks to complete", e);
                 }
             }
+            if (completionTracker.isComplete()) {
+                log.info("all tasks complete (transfer phase: {}ms, drain phase: {}ms)",
+                        completionTracker.getTransferTime(), completionTracker.getDrainTime());
+            }
 
             // run a final timing log
             TimingUtil.logTimings(options);
@@ -366,6 +432,12 @@ public class EcsSync implements Runnable, RetryHandler {
             if (queryExecutor != null) queryExecutor.shutdown();
             if (retrySubmitter != null) retrySubmitter.shutdown();
             if (syncExecutor != null) syncExecutor.shutdown();
+            // stop the phase clocks if we never completed
+            if (completionTracker != null && !completionTracker.isComplete()) completionTracker.abort();
+            // send any remaining source deletes (their status updates must also be flushed below)
+            safeClose(deleteBatcher);
+            // make sure all status updates are in the DB before we report completion
+            flushDbService();
             if (stats != null) stats.setStopTime(System.currentTimeMillis());
 
             // clean up any resources in the plugins
@@ -409,6 +481,7 @@ public class EcsSync implements Runnable, RetryHandler {
         retrySubmitter.pause();
         syncExecutor.pause();
         stats.pause();
+        flushDbService();
     }
 
     /**
@@ -437,6 +510,8 @@ public class EcsSync implements Runnable, RetryHandler {
         if (queryExecutor != null) queryExecutor.stop();
         if (retrySubmitter != null) retrySubmitter.stop();
         if (syncExecutor != null) syncExecutor.stop();
+        if (completionTracker != null) completionTracker.abort();
+        flushDbService();
     }
 
     public String summarizeConfig() {
@@ -455,15 +530,64 @@ public class EcsSync implements Runnable, RetryHandler {
         return summary.toString();
     }
 
+    /**
+     * @param blocking true if the tasks may wait for tasks of another executor (see
+     *                 {@link SharedScheduler#newBlockingLane(String, int, BlockingDeque)})
+     */
+    private ControllableExecutor newExecutor(int poolSize, BlockingDeque<Runnable> workDeque, String poolName,
+                                             boolean blocking) {
+        if (sharedScheduler != null) {
+            if (blocking) return sharedScheduler.newBlockingLane(poolName, poolSize, workDeque);
+            return sharedScheduler.newLane(poolName, poolSize, workDeque);
+        }
+        return new EnhancedThreadPoolExecutor(poolSize, workDeque, poolName);
+    }
+
+    /**
+     * For the I/O-bound query and sync tasks, which may run on virtual threads
+     */
+    private ControllableExecutor newIoExecutor(int poolSize, BlockingDeque<Runnable> workDeque, String poolName,
+                                               boolean blocking) {
+        if (virtualThreadScheduler != null) return virtualThreadScheduler.newLane(poolName, poolSize, workDeque);
+        return newExecutor(poolSize, workDeque, poolName, blocking);
+    }
+
     private void submitForQuery(SyncStorage source, ObjectSummary entry) {
         if (syncControl.isRunning()) queryExecutor.blockingSubmit(new QueryTask(source, entry));
         else log.debug("not submitting task for query because terminate() was called: " + entry.getIdentifier());
     }
 
+    /**
+     * Submits a batch of listed objects for sync (and directories for query). The DB records for the entire batch are
+     * looked up first in as few queries as possible, so the sync tasks don't each have to query the DB
+     */
+    private void submitBatch(SyncStorage source, List<ObjectSummary> summaries) {
+        if (summaries.isEmpty()) return;
+        if (summaries.size() > 1) {
+            List<String> sourceIds = new ArrayList<>();
+            for (ObjectSummary summary : summaries) {
+                sourceIds.add(summary.getIdentifier());
+            }
+            try {
+                dbService.prefetchSyncRecords(sourceIds);
+            } catch (Throwable t) {
+                log.warn("could not prefetch DB records (each object will be queried separately)", t);
+            }
+        }
+        for (ObjectSummary summary : summaries) {
+            if (!syncControl.isRunning()) break;
+            submitForSync(source, summary);
+            if (syncConfig.getOptions().isRecursive() && summary.isDirectory()) {
+                log.debug("{} is directory; submitting for query", summary);
+                submitForQuery(source, summary);
+            }
+        }
+    }
+
     private void submitForSync(SyncStorage source, ObjectContext objectContext) {
         if (syncControl.isRunning()) {
             SyncTask syncTask = new SyncTask(objectContext, source, firstFilter, verifier,
-                    dbService, this, syncControl, stats);
+                    dbService, this, syncControl, stats, deleteBatcher);
             syncExecutor.blockingSubmit(syncTask);
         } else {
             log.debug("not submitting task for sync because terminate() was called: " + objectContext.getSourceSummary().getIdentifier());
@@ -515,6 +639,8 @@ public class EcsSync implements Runnable, RetryHandler {
         }
         safeClose(target);
         safeClose(verifier);
+        safeClose(sharedScheduler);
+        safeClose(virtualThreadScheduler);
         if (perfScheduler != null) try {
             perfScheduler.shutdownNow();
         } catch (Throwable t) {
@@ -522,6 +648,17 @@ public class EcsSync implements Runnable, RetryHandler {
         }
     }
 
+    /**
+     * durability barrier for write-behind status updates
+     */
+    private void flushDbService() {
+        try {
+            if (dbService != null) dbService.flush();
+        } catch (Throwable t) {
+            log.warn("could not flush pending status updates", t);
+        }
+    }
+
     private void safeClose(AutoCloseable closeable) {
         try {
             if (closeable != null) closeable.close();
@@ -583,6 +720,20 @@ public class EcsSync implements Runnable, RetryHandler {
         return syncEstimate.getTotalByteCount();
     }
 
+    /**
+     * Time (in ms) spent enumerating the source while feeding the pools
+     */
+    public long getTransferTime() {
+        return completionTracker == null ? 0 : completionTracker.getTransferTime();
+    }
+
+    /**
+     * Time (in ms) spent waiting for queued work to finish after the source was fully enumerated
+     */
+    public long getDrainTime() {
+        return completionTracker == null ? 0 : completionTracker.getDrainTime();
+    }
+
     public int getActiveQueryThreads() {
         if (queryExecutor != null) return queryExecutor.getActiveCount();
         return 0;
@@ -594,6 +745,16 @@ public class EcsSync implements Runnable, RetryHandler {
         return count;
     }
 
+    public int getQueryQueueSize() {
+        if (queryExecutor != null) return queryExecutor.getQueue().size();
+        return 0;
+    }
+
+    public int getSyncQueueSize() {
+        if (syncExecutor != null) return syncExecutor.getQueue().size();
+        return 0;
+    }
+
     /**
      * Counts the objects in the sync queue that have failed at least once (and are waiting to be retried)
      */
@@ -682,14 +843,15 @@ public class EcsSync implements Runnable, RetryHandler {
             try {
                 if (parent.isDirectory()) {
                     log.debug(">>>> querying children of {}", parent.getIdentifier());
+                    List<ObjectSummary> batch = new ArrayList<>();
                     for (ObjectSummary child : source.children(parent)) {
-                        submitForSync(source, child);
-
-                        if (syncConfig.getOptions().isRecursive() && child.isDirectory()) {
-                            log.debug("{} is directory; submitting for query", child);
-                            submitForQuery(source, child);
+                        batch.add(child);
+                        if (batch.size() >= PREFETCH_BATCH_SIZE) {
+                            submitBatch(source, batch);
+                            batch.clear();
                         }
                     }
+                    submitBatch(source, batch);
                     log.debug("<<<< finished querying children of {}", parent.getIdentifier());
                 }
             } catch (Throwable t) {
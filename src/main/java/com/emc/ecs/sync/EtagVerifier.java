@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync;
+
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
+import com.emc.ecs.sync.config.SyncOptions;
+import com.emc.ecs.sync.model.SyncObject;
+import com.emc.ecs.sync.util.PartMd5InputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Verifies object data using the ETag that the target returned when the object was written, so the target does not
+ * need to be read back. A single-part ETag is compared to the source MD5, and a multipart ETag is compared to the MD5s
+ * of the parts as they were sent. Objects without a usable write ETag, objects whose ETag does not match and a random
+ * sample of {@link SyncOptions#getVerifySamplePercent()} percent of all objects are verified by reading the target
+ * (as in {@link ChecksumVerifier})
+ */
+public class EtagVerifier extends ChecksumVerifier {
+    private static final Logger log = LoggerFactory.getLogger(EtagVerifier.class);
+
+    private int samplePercent;
+
+    public EtagVerifier(SyncOptions syncOptions) {
+        super(syncOptions);
+        this.samplePercent = syncOptions.getVerifySamplePercent();
+    }
+
+    @Override
+    protected void verifyData(SyncObject sourceObject, SyncObject targetObject) {
+        if (isSampled()) {
+            log.debug("{} was sampled for a full verification", sourceObject.getRelativePath());
+            compareData(sourceObject, targetObject);
+        } else if (!verifyWriteEtag(sourceObject)) {
+            super.verifyData(sourceObject, targetObject);
+        }
+    }
+
+    boolean isSampled() {
+        return samplePercent > 0 && ThreadLocalRandom.current().nextInt(100) < samplePercent;
+    }
+
+    /**
+     * @return true if the write ETag of the object matches the data that was sent
+     */
+    boolean verifyWriteEtag(SyncObject object) {
+        String etag = object.getWriteEtag();
+        if (etag == null) return false;
+        etag = etag.replace("\"", "");
+
+        String expectedEtag;
+        int dash = etag.indexOf('-');
+        if (dash < 0) {
+            if (object.getChecksumAlgorithm() != ChecksumAlgorithm.md5) return false;
+            expectedEtag = object.getMd5Hex(true);
+        } else {
+            List<byte[]> partMd5s = object.getWritePartMd5s();
+            if (partMd5s == null) return false;
+            expectedEtag = PartMd5InputStream.multipartEtag(partMd5s);
+        }
+
+        if (etag.equalsIgnoreCase(expectedEtag)) {
+            log.debug("{} verified against write ETag ({})", object.getRelativePath(), etag);
+            return true;
+        }
+
+        // the ETag may not be an MD5 (i.e. with server-side encryption) or the target may have chosen a different part
+        // size, so fall back to reading the target
+        log.debug("write ETag of {} does not match the data sent ({} != {}); reading target",
+                object.getRelativePath(), etag, expectedEtag);
+        return false;
+    }
+}
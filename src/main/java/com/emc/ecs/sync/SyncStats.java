@@ -14,18 +14,47 @@
  */
 package com.emc.ecs.sync;
 
+import com.emc.ecs.sync.config.SyncOptions;
 import com.emc.ecs.sync.util.PerformanceWindow;
 import com.sun.management.OperatingSystemMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.*;
 import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters are updated by every sync thread (several times per object), so they are {@link LongAdder}s, which don't
+ * contend with each other. Reads sum the cells and are not an atomic snapshot across counters, which is fine for
+ * progress reporting.
+ * <p>
+ * Failed object identifiers are held in memory up to {@link #getMaxFailedObjects()}. Beyond that, they are appended to
+ * the failed objects file (a temporary file unless one is set), so a run with millions of failures does not exhaust
+ * the heap. Use {@link #writeFailedObjects(OutputStream)} to stream the complete list (this still works after
+ * {@link #close()}).
+ */
 public class SyncStats implements AutoCloseable {
-    private long objectsComplete, objectsSkipped, objectsFailed;
-    private long bytesComplete, bytesSkipped, pastRunTime, startTime, stopTime, cpuStartTime;
-    private Set<String> failedObjects = new HashSet<>();
+    private static final Logger log = LoggerFactory.getLogger(SyncStats.class);
+
+    public static final int DEFAULT_MAX_FAILED_OBJECTS = SyncOptions.DEFAULT_REMEMBER_FAILED_MAX;
+
+    private final LongAdder objectsComplete = new LongAdder(), objectsSkipped = new LongAdder(), objectsFailed = new LongAdder();
+    private final LongAdder bytesComplete = new LongAdder(), bytesSkipped = new LongAdder();
+    private final LongAdder statusWriteFailures = new LongAdder();
+    private long pastRunTime, startTime, stopTime, cpuStartTime;
+    private volatile Set<String> failedObjects = ConcurrentHashMap.newKeySet();
+    private final LongAdder failedObjectsSpilled = new LongAdder(), failedObjectsDropped = new LongAdder();
+    private int maxFailedObjects = DEFAULT_MAX_FAILED_OBJECTS;
+    private final Object spillLock = new Object();
+    private File failedObjectsFile;
+    private boolean tempFailedObjectsFile, failedObjectsFileWritten;
+    private OutputStream failedObjectsOut;
     private PerformanceWindow objectCompleteRate = new PerformanceWindow(500, 20);
     private PerformanceWindow objectSkipRate = new PerformanceWindow(500, 20);
     private PerformanceWindow objectErrorRate = new PerformanceWindow(500, 20);
@@ -35,6 +64,7 @@ public class SyncStats implements AutoCloseable {
         objectCompleteRate.close();
         objectSkipRate.close();
         objectErrorRate.close();
+        closeFailedObjectsFile();
     }
 
     @Override
@@ -47,32 +77,62 @@ public class SyncStats implements AutoCloseable {
     }
 
     public void reset() {
-        objectsComplete = objectsSkipped = objectsFailed = 0;
-        bytesComplete = bytesSkipped = 0;
-        failedObjects = new HashSet<>();
+        objectsComplete.reset();
+        objectsSkipped.reset();
+        objectsFailed.reset();
+        bytesComplete.reset();
+        bytesSkipped.reset();
+        statusWriteFailures.reset();
+        discardFailedObjects();
+    }
+
+    /**
+     * Forgets all failed objects and removes the failed objects file if it is temporary
+     */
+    public void discardFailedObjects() {
+        synchronized (spillLock) {
+            failedObjects = ConcurrentHashMap.newKeySet();
+            closeFailedObjectsFile();
+            if (tempFailedObjectsFile) {
+                if (!failedObjectsFile.delete()) log.warn("could not delete temporary file {}", failedObjectsFile);
+                failedObjectsFile = null;
+                tempFailedObjectsFile = false;
+            }
+            failedObjectsFileWritten = false;
+            failedObjectsSpilled.reset();
+            failedObjectsDropped.reset();
+        }
     }
 
-    public synchronized void incObjectsComplete() {
-        objectsComplete++;
+    public void incObjectsComplete() {
+        objectsComplete.increment();
         objectCompleteRate.increment(1);
     }
 
-    public synchronized void incObjectsSkipped() {
-        objectsSkipped++;
+    public void incObjectsSkipped() {
+        objectsSkipped.increment();
         objectSkipRate.increment(1);
     }
 
-    public synchronized void incObjectsFailed() {
-        objectsFailed++;
+    public void incObjectsFailed() {
+        objectsFailed.increment();
         objectErrorRate.increment(1);
     }
 
-    public synchronized void incBytesComplete(long bytes) {
-        bytesComplete += bytes;
+    /**
+     * Counts an object whose status could not be written to the database. The object is not counted as failed (it has
+     * already been counted as complete, skipped or failed), but the database no longer matches the target
+     */
+    public void incStatusWriteFailures() {
+        statusWriteFailures.increment();
+    }
+
+    public void incBytesComplete(long bytes) {
+        bytesComplete.add(bytes);
     }
 
-    public synchronized void incBytesSkipped(long bytes) {
-        bytesSkipped += bytes;
+    public void incBytesSkipped(long bytes) {
+        bytesSkipped.add(bytes);
     }
 
     public long getObjectCompleteRate() {
@@ -97,8 +157,82 @@ public class SyncStats implements AutoCloseable {
         stopTime = 0;
     }
 
+    /**
+     * Remembers the identifier of a failed object. Once {@link #getMaxFailedObjects()} identifiers are held (checked
+     * without locking, so the set may overshoot by up to one per thread), further failures are appended to the failed
+     * objects file
+     */
     public void addFailedObject(String name) {
-        failedObjects.add(name);
+        Set<String> failedObjects = this.failedObjects;
+        if (failedObjects.size() < maxFailedObjects) failedObjects.add(name);
+        else spillFailedObject(name);
+    }
+
+    private void spillFailedObject(String name) {
+        synchronized (spillLock) {
+            try {
+                if (failedObjectsOut == null) {
+                    if (failedObjectsFile == null) {
+                        failedObjectsFile = File.createTempFile("ecs-sync-failed-", ".txt");
+                        failedObjectsFile.deleteOnExit();
+                        tempFailedObjectsFile = true;
+                    }
+                    // truncate anything left from a previous run (but append if we were closed and are still getting failures)
+                    failedObjectsOut = new BufferedOutputStream(new FileOutputStream(failedObjectsFile, failedObjectsFileWritten));
+                    if (!failedObjectsFileWritten) log.info("more than {} objects have failed; writing the remainder to {}",
+                            maxFailedObjects, failedObjectsFile);
+                    failedObjectsFileWritten = true;
+                }
+                failedObjectsOut.write(name.getBytes(StandardCharsets.UTF_8));
+                failedObjectsOut.write('\n');
+                failedObjectsSpilled.increment();
+            } catch (IOException e) {
+                if (failedObjectsDropped.sum() == 0) log.warn("could not write to failed objects file " + failedObjectsFile, e);
+                failedObjectsDropped.increment();
+            }
+        }
+    }
+
+    /**
+     * Writes all remembered failed object identifiers (one per line, UTF-8) to the given stream, starting with those
+     * held in memory, followed by the contents of the failed objects file. Failures that occur while streaming may or
+     * may not be included
+     */
+    public void writeFailedObjects(OutputStream out) throws IOException {
+        for (String name : failedObjects) {
+            out.write(name.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+        File file;
+        long length;
+        synchronized (spillLock) {
+            if (!failedObjectsFileWritten) return;
+            if (failedObjectsOut != null) failedObjectsOut.flush();
+            file = failedObjectsFile;
+            length = file.length();
+        }
+        // only copy what was flushed above (the file is append-only, so this is always a complete set of lines)
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while (length > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, length))) != -1) {
+                out.write(buffer, 0, read);
+                length -= read;
+            }
+        }
+    }
+
+    private void closeFailedObjectsFile() {
+        synchronized (spillLock) {
+            if (failedObjectsOut != null) {
+                try {
+                    failedObjectsOut.close();
+                } catch (IOException e) {
+                    log.warn("could not close failed objects file " + failedObjectsFile, e);
+                }
+                failedObjectsOut = null;
+            }
+        }
     }
 
     public long getTotalRunTime() {
@@ -119,34 +253,45 @@ public class SyncStats implements AutoCloseable {
     public String getStatsString() {
         long secs = (System.currentTimeMillis() - startTime) / 1000L;
         if (secs == 0) secs = 1;
+        long bytesComplete = getBytesComplete(), objectsComplete = getObjectsComplete();
         long byteRate = bytesComplete / secs;
         double objectRate = (double) objectsComplete / secs;
 
-        return MessageFormat.format("Transferred {0} bytes in {1} seconds ({2} bytes/s) - skipped {3} bytes\n",
-                bytesComplete, secs, byteRate, bytesSkipped) +
+        String statsString = MessageFormat.format("Transferred {0} bytes in {1} seconds ({2} bytes/s) - skipped {3} bytes\n",
+                bytesComplete, secs, byteRate, getBytesSkipped()) +
                 MessageFormat.format("Successful files: {0} ({2,number,#.##}/s) Skipped files: {3} Failed Files: {1}\n",
-                        objectsComplete, objectsFailed, objectRate, objectsSkipped) +
-                MessageFormat.format("Failed files: {0}\n", failedObjects);
+                        objectsComplete, getObjectsFailed(), objectRate, getObjectsSkipped());
+        long spilled = getFailedObjectsSpilled(), dropped = getFailedObjectsDropped();
+        long statusFailures = getStatusWriteFailures();
+        if (statusFailures > 0)
+            statsString += MessageFormat.format("Status of {0} files could not be written to the database\n", statusFailures);
+        if (spilled > 0) statsString += MessageFormat.format("({0} failed files written to {1})\n", spilled, failedObjectsFile);
+        if (dropped > 0) statsString += MessageFormat.format("({0} more failed files not listed)\n", dropped);
+        return statsString;
     }
 
     public long getObjectsComplete() {
-        return objectsComplete;
+        return objectsComplete.sum();
     }
 
     public long getObjectsSkipped() {
-        return objectsSkipped;
+        return objectsSkipped.sum();
     }
 
     public long getObjectsFailed() {
-        return objectsFailed;
+        return objectsFailed.sum();
+    }
+
+    public long getStatusWriteFailures() {
+        return statusWriteFailures.sum();
     }
 
     public long getBytesComplete() {
-        return bytesComplete;
+        return bytesComplete.sum();
     }
 
     public long getBytesSkipped() {
-        return bytesSkipped;
+        return bytesSkipped.sum();
     }
 
     public long getPastRunTime() {
@@ -177,7 +322,50 @@ public class SyncStats implements AutoCloseable {
         this.cpuStartTime = cpuStartTime;
     }
 
+    /**
+     * @return a read-only view of the remembered failed objects (at most {@link #getMaxFailedObjects()})
+     */
     public Set<String> getFailedObjects() {
-        return failedObjects;
+        return Collections.unmodifiableSet(failedObjects);
+    }
+
+    /**
+     * @return the number of failed objects that were written to the failed objects file because the in-memory limit
+     * was reached
+     */
+    public long getFailedObjectsSpilled() {
+        return failedObjectsSpilled.sum();
+    }
+
+    /**
+     * @return the number of failed objects that were not remembered at all (because the failed objects file could not
+     * be written)
+     */
+    public long getFailedObjectsDropped() {
+        return failedObjectsDropped.sum();
+    }
+
+    public File getFailedObjectsFile() {
+        return failedObjectsFile;
+    }
+
+    /**
+     * Sets the file that failed objects are appended to once the in-memory limit is reached. Must be called before any
+     * failures are recorded. If not set, a temporary file is created as needed (and removed by
+     * {@link #discardFailedObjects()})
+     */
+    public void setFailedObjectsFile(File failedObjectsFile) {
+        synchronized (spillLock) {
+            this.failedObjectsFile = failedObjectsFile;
+            this.tempFailedObjectsFile = false;
+        }
+    }
+
+    public int getMaxFailedObjects() {
+        return maxFailedObjects;
+    }
+
+    public void setMaxFailedObjects(int maxFailedObjects) {
+        this.maxFailedObjects = maxFailedObjects;
     }
 }
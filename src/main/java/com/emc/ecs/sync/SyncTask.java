@@ -14,6 +14,7 @@
  */
 package com.emc.ecs.sync;
 
+import com.emc.ecs.sync.config.SyncOptions;
 import com.emc.ecs.sync.filter.SyncFilter;
 import com.emc.ecs.sync.model.*;
 import com.emc.ecs.sync.service.DbService;
@@ -38,10 +39,14 @@ public class SyncTask implements Runnable {
     private RetryHandler retryHandler;
     private SyncControl syncControl;
     private SyncStats syncStats;
+    private DeleteBatcher deleteBatcher;
 
+    /**
+     * @param deleteBatcher if not null, source deletes (when deleteSource is enabled) are sent through this batcher
+     */
     public SyncTask(ObjectContext objectContext, SyncStorage source, SyncFilter filterChain,
                     SyncVerifier verifier, DbService dbService, RetryHandler retryHandler, SyncControl syncControl,
-                    SyncStats syncStats) {
+                    SyncStats syncStats, DeleteBatcher deleteBatcher) {
         this.objectContext = objectContext;
         this.source = source;
         this.filterChain = filterChain;
@@ -50,6 +55,7 @@ public class SyncTask implements Runnable {
         this.retryHandler = retryHandler;
         this.syncControl = syncControl;
         this.syncStats = syncStats;
+        this.deleteBatcher = deleteBatcher;
     }
 
     @Override
@@ -68,6 +74,13 @@ public class SyncTask implements Runnable {
             record = dbService.getSyncRecord(objectContext);
             recordExists = record != null;
 
+            if (isUnchangedBySummary(record)) {
+                log.info("O--* skipping {} because its listing matches the DB record (not loaded)", sourceId);
+                syncStats.incObjectsSkipped();
+                syncStats.incBytesSkipped(objectContext.getSourceSummary().getSize());
+                return;
+            }
+
             // this should lazy-load all but metadata from the storage; this is so we see ObjectNotFoundException here
             objectContext.setObject(source.loadObject(sourceId));
 
@@ -166,9 +179,17 @@ public class SyncTask implements Runnable {
 
             try { // delete object if the source supports deletion (implements the delete() method)
                 if (objectContext.getOptions().isDeleteSource()) {
-                    source.delete(sourceId);
-                    log.info("X--O deleted {} from source", sourceId);
-                    dbService.setDeleted(objectContext, !recordExists);
+                    if (deleteBatcher != null) {
+                        // if the object was skipped, its (successful) status is the one in the DB record
+                        if (!objectContext.getStatus().isSuccess() && record != null)
+                            objectContext.setStatus(record.getStatus());
+                        deleteBatcher.submit(objectContext, !recordExists);
+                        log.debug("X--? queued {} for deletion from source", sourceId);
+                    } else {
+                        source.delete(sourceId);
+                        log.info("X--O deleted {} from source", sourceId);
+                        dbService.setDeleted(objectContext, !recordExists);
+                    }
                 }
             } catch (Throwable t) {
                 log.warn("!--O could not delete {} from source: {}", sourceId, t);
@@ -198,6 +219,40 @@ public class SyncTask implements Runnable {
         }
     }
 
+    /**
+     * Determines whether the object can be skipped using only its listing summary (without loading it from the
+     * source). This is only possible when summarySkip is enabled, the listing provided an mtime, the object has not
+     * failed in this run and the DB record shows a successful sync (and verification, if enabled) of an object with the
+     * same size, the same or a newer mtime and (where both are known) the same MD5
+     */
+    boolean isUnchangedBySummary(SyncRecord record) {
+        SyncOptions options = objectContext.getOptions();
+        if (!options.isSummarySkip() || options.isForceSync() || options.isDeleteSource()) return false;
+        if (record == null || record.getStatus() == null || record.getMtime() == null) return false;
+        if (objectContext.getFailures() > 0) return false;
+
+        ObjectSummary summary = objectContext.getSourceSummary();
+        if (summary.getMtime() == null) return false;
+
+        if (options.isVerify() || options.isVerifyOnly()) {
+            if (record.getStatus() != ObjectStatus.Verified) return false;
+        } else if (!record.getStatus().isSuccess()) return false;
+
+        if (summary.isDirectory() != record.isDirectory() || summary.getSize() != record.getSize()) return false;
+
+        // truncate milliseconds (the DB only stores to the second)
+        Date mtime = new Date(summary.getMtime().getTime() / 1000 * 1000);
+        if (mtime.after(record.getMtime())) return false;
+
+        // multipart ETags are not an MD5 of the object data, so only compare simple ones
+        String etag = summary.getEtag();
+        if (etag != null) etag = etag.replace("\"", "");
+        if (etag != null && !etag.contains("-") && record.getSourceMd5() != null)
+            return etag.equalsIgnoreCase(record.getSourceMd5());
+
+        return true;
+    }
+
     public ObjectContext getObjectContext() {
         return objectContext;
     }
@@ -226,6 +281,10 @@ public class SyncTask implements Runnable {
         return syncControl;
     }
 
+    public DeleteBatcher getDeleteBatcher() {
+        return deleteBatcher;
+    }
+
     public SyncStats getSyncStats() {
         return syncStats;
     }
@@ -14,11 +14,15 @@
  */
 package com.emc.ecs.sync.model;
 
+import java.util.Date;
+
 public class ObjectSummary {
     private String identifier;
     private boolean directory;
     private long size;
     private String listFileRow;
+    private Date mtime;
+    private String etag;
 
     public ObjectSummary(String identifier, boolean directory, long size) {
         this.identifier = identifier;
@@ -49,4 +53,37 @@ public class ObjectSummary {
     public void setListFileRow(String listFileRow) {
         this.listFileRow = listFileRow;
     }
+
+    /**
+     * The modification time of the object as reported by the listing, if the storage provides it for free (i.e. S3
+     * bucket listings). May be null
+     */
+    public Date getMtime() {
+        return mtime;
+    }
+
+    public void setMtime(Date mtime) {
+        this.mtime = mtime;
+    }
+
+    /**
+     * The ETag of the object as reported by the listing, if the storage provides it for free. May be null
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public ObjectSummary withMtime(Date mtime) {
+        setMtime(mtime);
+        return this;
+    }
+
+    public ObjectSummary withEtag(String etag) {
+        setEtag(etag);
+        return this;
+    }
 }
@@ -14,7 +14,9 @@
  */
 package com.emc.ecs.sync.model;
 
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
 import com.emc.ecs.sync.storage.SyncStorage;
+import com.emc.ecs.sync.util.ChunkChecksumInputStream;
 import com.emc.ecs.sync.util.EnhancedInputStream;
 import com.emc.ecs.sync.util.LazyValue;
 import com.emc.ecs.sync.util.PerformanceListener;
@@ -26,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import javax.xml.bind.DatatypeConverter;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class SyncObject implements AutoCloseable {
@@ -35,10 +38,14 @@ public class SyncObject implements AutoCloseable {
     private String relativePath;
     private ObjectMetadata metadata;
     private EnhancedInputStream enhancedStream;
+    private ChunkChecksumInputStream chunkStream;
     private ObjectAcl acl;
     private boolean postStreamUpdateRequired;
     private Map<String, Object> properties = new HashMap<>();
-    private byte[] md5;
+    private byte[] checksum;
+    private String etag;
+    private String writeEtag;
+    private List<byte[]> writePartMd5s;
     private LazyValue<InputStream> lazyStream;
     private LazyValue<ObjectAcl> lazyAcl;
     private long bytesRead;
@@ -90,19 +97,32 @@ public class SyncObject implements AutoCloseable {
 
     public synchronized InputStream getDataStream() {
         if (enhancedStream == null && lazyStream != null) {
-            setDataStream(lazyStream.get());
+            InputStream dataStream = lazyStream.get();
+            if (dataStream != null) wrap(dataStream);
         }
         return enhancedStream;
     }
 
+    /**
+     * Replaces the data stream (i.e. in a filter). Because the storage ETag no longer describes the data, it is cleared
+     */
     public void setDataStream(InputStream dataStream) {
+        etag = null;
         if (dataStream == null) {
             enhancedStream = null;
+            chunkStream = null;
         } else {
             wrap(dataStream);
         }
     }
 
+    /**
+     * @return true if the data stream has been opened or replaced (i.e. by a filter)
+     */
+    public synchronized boolean isDataStreamOpened() {
+        return enhancedStream != null;
+    }
+
     public void setLazyStream(LazyValue<InputStream> lazyStream) {
         this.lazyStream = lazyStream;
     }
@@ -173,10 +193,79 @@ public class SyncObject implements AutoCloseable {
         this.bytesRead = bytesRead;
     }
 
+    /**
+     * The ETag reported by the storage when the object was loaded, if it provides one. May be null
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    /**
+     * The ETag returned by the target storage when this object's data was written, if it provides one. May be null
+     */
+    public String getWriteEtag() {
+        return writeEtag;
+    }
+
+    public void setWriteEtag(String writeEtag) {
+        this.writeEtag = writeEtag;
+    }
+
+    /**
+     * If the data was written in parts (i.e. a multipart upload), the MD5 of each part as it was sent. May be null
+     */
+    public List<byte[]> getWritePartMd5s() {
+        return writePartMd5s;
+    }
+
+    public void setWritePartMd5s(List<byte[]> writePartMd5s) {
+        this.writePartMd5s = writePartMd5s;
+    }
+
+    /**
+     * @return the algorithm of the checksum calculated on the object data as it is streamed, or null if no checksum is
+     * needed for this job (see {@link SyncUtil#getStreamChecksum(com.emc.ecs.sync.config.SyncOptions)})
+     */
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        if (source == null) return ChecksumAlgorithm.md5;
+        return SyncUtil.getStreamChecksum(source.getOptions());
+    }
+
+    /**
+     * Sets the checksum of the object data, calculated with {@link #getChecksumAlgorithm()}. Used by plugins that
+     * transfer the data without reading the data stream
+     */
+    public synchronized void setChecksum(byte[] checksum) {
+        this.checksum = checksum;
+    }
+
+    public String getChecksumHex(boolean forceRead) {
+        byte[] checksum = getChecksum(forceRead);
+        if (checksum == null) return null;
+        return DatatypeConverter.printHexBinary(checksum);
+    }
+
+    /**
+     * @return the MD5 of the object data, or null if the data is not checksummed with MD5 in this job
+     */
     public String getMd5Hex(boolean forceRead) {
-        byte[] md5 = getMd5(forceRead);
-        if (md5 == null) return null;
-        return DatatypeConverter.printHexBinary(md5);
+        if (getChecksumAlgorithm() != ChecksumAlgorithm.md5) return null;
+        return getChecksumHex(forceRead);
+    }
+
+    /**
+     * @return the checksum (in {@link #getChecksumAlgorithm()}) of each consecutive chunk of the object data (see
+     * {@link SyncUtil#getVerifyChunkSize(com.emc.ecs.sync.config.SyncOptions)}), or null if chunks are not checksummed
+     * in this job or the data was not streamed in full (i.e. it was transferred directly by a plugin)
+     */
+    public synchronized List<byte[]> getChunkChecksums(boolean forceRead) {
+        getChecksum(forceRead); // makes sure the stream has been read completely
+        if (chunkStream == null || chunkStream.getTotalBytes() != metadata.getContentLength()) return null;
+        return chunkStream.getChunkChecksums();
     }
 
     @Override
@@ -204,24 +293,29 @@ public class SyncObject implements AutoCloseable {
         return relativePath.hashCode();
     }
 
-    private synchronized byte[] getMd5(boolean forceRead) {
-        if (md5 == null) {
+    private synchronized byte[] getChecksum(boolean forceRead) {
+        if (checksum == null) {
             if (forceRead) getDataStream(); // make sure lazy streams are initialized
-            if (enhancedStream == null) return null;
+            if (enhancedStream == null || enhancedStream.getChecksumAlgorithm() == null) return null;
             if (!enhancedStream.isClosed()) {
                 if (!forceRead || enhancedStream.getBytesRead() > 0)
-                    throw new IllegalStateException("Cannot call getMd5 until stream is closed");
+                    throw new IllegalStateException("Cannot get checksum until stream is closed");
                 SyncUtil.consumeAndCloseStream(enhancedStream);
             }
-            md5 = enhancedStream.getMd5Digest();
+            checksum = enhancedStream.getChecksum();
         }
-        return md5;
+        return checksum;
     }
 
     private void wrap(InputStream dataStream) {
         if (source != null && source.getOptions().isMonitorPerformance())
             dataStream = new ProgressInputStream(dataStream, new PerformanceListener(source.getReadWindow()));
-        enhancedStream = new EnhancedInputStream(dataStream, true);
+        ChecksumAlgorithm algorithm = getChecksumAlgorithm();
+        long chunkSize = source == null ? 0 : SyncUtil.getVerifyChunkSize(source.getOptions());
+        if (algorithm != null && chunkSize > 0)
+            dataStream = chunkStream = new ChunkChecksumInputStream(dataStream, chunkSize, algorithm);
+        else chunkStream = null;
+        enhancedStream = new EnhancedInputStream(dataStream, EnhancedInputStream.UNSIZED, algorithm);
     }
 
     public SyncObject withAcl(ObjectAcl acl) {
@@ -14,6 +14,7 @@
  */
 package com.emc.ecs.sync.rest;
 
+import com.emc.ecs.sync.util.RingBufferPipe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,15 +29,16 @@ public abstract class AbstractCsvWriter<T> implements Runnable {
     public static final String DATE_FORMAT = "yyyy/MM/dd HH:mm:ss z";
 
     private Iterable<T> records;
-    private PipedInputStream readStream;
+    private InputStream readStream;
     private Writer writer;
     private Throwable error;
     protected DateFormat formatter = new SimpleDateFormat(DATE_FORMAT);
 
     public AbstractCsvWriter(Iterable<T> records) throws IOException {
         this.records = records;
-        this.readStream = new PipedInputStream(BUFFER_SIZE);
-        this.writer = new OutputStreamWriter(new PipedOutputStream(readStream));
+        RingBufferPipe pipe = new RingBufferPipe(BUFFER_SIZE);
+        this.readStream = pipe.getInputStream();
+        this.writer = new OutputStreamWriter(pipe.getOutputStream());
     }
 
     protected abstract String[] getHeaders();
@@ -18,14 +18,17 @@ import com.emc.ecs.sync.config.ConfigurationException;
 import com.emc.ecs.sync.config.SyncConfig;
 import com.emc.ecs.sync.service.JobNotFoundException;
 import com.emc.ecs.sync.service.SyncJobService;
+import com.emc.ecs.sync.util.RingBufferPipe;
 import com.sun.jersey.api.NotFoundException;
 import com.sun.jersey.api.client.ClientResponse;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import java.io.IOException;
+import java.io.OutputStream;
 
 @Path("job")
 public class JobResource {
@@ -102,6 +105,15 @@ public class JobResource {
         return syncProgress;
     }
 
+    @GET
+    @Path("{jobId}/timings")
+    @Produces(MediaType.APPLICATION_XML)
+    public TimingList getTimings(@PathParam("jobId") int jobId) {
+        TimingList timingList = SyncJobService.getInstance().getTimings(jobId);
+        if (timingList == null) throw new NotFoundException(); // job not found
+        return timingList;
+    }
+
     @GET
     @Path("{jobId}/errors.csv")
     @Produces("text/csv")
@@ -110,9 +122,7 @@ public class JobResource {
 
         ErrorReportWriter reportWriter = new ErrorReportWriter(SyncJobService.getInstance().getSyncErrors(jobId));
 
-        Thread writerThread = new Thread(reportWriter);
-        writerThread.setDaemon(true);
-        writerThread.start();
+        RingBufferPipe.getProducerExecutor().execute(reportWriter);
 
         return Response.ok(reportWriter.getReadStream()).build();
     }
@@ -125,13 +135,25 @@ public class JobResource {
 
         ErrorReportWriter reportWriter = new ErrorReportWriter(SyncJobService.getInstance().getSyncRetries(jobId));
 
-        Thread writerThread = new Thread(reportWriter);
-        writerThread.setDaemon(true);
-        writerThread.start();
+        RingBufferPipe.getProducerExecutor().execute(reportWriter);
 
         return Response.ok(reportWriter.getReadStream()).build();
     }
 
+    @GET
+    @Path("{jobId}/failed.txt")
+    @Produces(MediaType.TEXT_PLAIN)
+    public StreamingOutput getFailedObjects(@PathParam("jobId") final int jobId) {
+        if (!SyncJobService.getInstance().jobExists(jobId)) throw new NotFoundException(); // job not found
+
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                SyncJobService.getInstance().writeFailedObjects(jobId, output);
+            }
+        };
+    }
+
     @GET
     @Path("{jobId}/all-objects-report.csv")
     @Produces("text/csv")
@@ -140,9 +162,7 @@ public class JobResource {
 
         DbDumpWriter reportWriter = new DbDumpWriter(SyncJobService.getInstance().getAllRecords(jobId));
 
-        Thread writerThread = new Thread(reportWriter);
-        writerThread.setDaemon(true);
-        writerThread.start();
+        RingBufferPipe.getProducerExecutor().execute(reportWriter);
 
         return Response.ok(reportWriter.getReadStream()).build();
     }
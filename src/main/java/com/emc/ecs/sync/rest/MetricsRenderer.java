@@ -0,0 +1,297 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.rest;
+
+import com.emc.ecs.sync.EcsSync;
+import com.emc.ecs.sync.service.SyncJobService;
+import com.emc.ecs.sync.storage.SyncStorage;
+import com.emc.ecs.sync.util.BufferPool;
+import com.emc.ecs.sync.util.LatencyHistogram;
+import com.emc.ecs.sync.util.TimingUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renders the state of all sync jobs in the Prometheus text exposition format (version 0.0.4). Metrics are read
+ * directly from the live counters; the output buffer and all label strings are cached and reused, so steady-state
+ * scrapes do not allocate model objects, histogram snapshots or intermediate strings.
+ */
+public class MetricsRenderer {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILE_LABELS = {",quantile=\"0.5\"", ",quantile=\"0.9\"", ",quantile=\"0.99\"",
+            ",quantile=\"0.999\""};
+
+    private final StringBuilder buffer = new StringBuilder(16 * 1024);
+    private byte[] bytes = new byte[16 * 1024];
+    private final long[] percentileValues = new long[PERCENTILES.length];
+    private final Map<Integer, JobLabels> jobLabels = new HashMap<>();
+    private final OperationWriter summaryWriter = new OperationWriter(true);
+    private final OperationWriter failureWriter = new OperationWriter(false);
+
+    /**
+     * Renders metrics for the given jobs and writes them to <code>out</code>. Calls are serialized, since the
+     * buffers are shared
+     */
+    public synchronized void writeTo(Map<Integer, EcsSync> jobs, OutputStream out) throws IOException {
+        render(jobs);
+        int length = encode();
+        if (length < 0) out.write(buffer.toString().getBytes(StandardCharsets.UTF_8));
+        else out.write(bytes, 0, length);
+    }
+
+    private void render(Map<Integer, EcsSync> jobs) {
+        buffer.setLength(0);
+        jobLabels.keySet().retainAll(jobs.keySet());
+
+        family("ecs_sync_job_info", "gauge", "Job name and status (value is always 1)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            EcsSync sync = job.getValue();
+            JobLabels labels = getLabels(job.getKey(), sync);
+            buffer.append("ecs_sync_job_info{").append(labels.job).append(labels.jobName)
+                    .append(",status=\"").append(SyncJobService.getInstance().getJobStatus(sync).name()).append("\"} 1\n");
+        }
+
+        family("ecs_sync_objects_complete_total", "counter", "Objects successfully synced");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_objects_complete_total", job, job.getValue().getStats().getObjectsComplete());
+        }
+        family("ecs_sync_bytes_complete_total", "counter", "Bytes successfully synced");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_bytes_complete_total", job, job.getValue().getStats().getBytesComplete());
+        }
+        family("ecs_sync_objects_skipped_total", "counter", "Objects skipped (already up-to-date)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_objects_skipped_total", job, job.getValue().getStats().getObjectsSkipped());
+        }
+        family("ecs_sync_bytes_skipped_total", "counter", "Bytes skipped (already up-to-date)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_bytes_skipped_total", job, job.getValue().getStats().getBytesSkipped());
+        }
+        family("ecs_sync_objects_failed_total", "counter", "Objects that failed to sync");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_objects_failed_total", job, job.getValue().getStats().getObjectsFailed());
+        }
+        family("ecs_sync_status_write_failures_total", "counter", "Objects whose status could not be written to the database");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_status_write_failures_total", job, job.getValue().getStats().getStatusWriteFailures());
+        }
+        family("ecs_sync_runtime_milliseconds", "gauge", "Total run time of the job");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_runtime_milliseconds", job, job.getValue().getStats().getTotalRunTime());
+        }
+        family("ecs_sync_cpu_milliseconds", "gauge", "CPU time used by the job");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_cpu_milliseconds", job, job.getValue().getStats().getTotalCpuTime());
+        }
+
+        family("ecs_sync_object_complete_rate", "gauge", "Objects completed per second (recent window)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_object_complete_rate", job, job.getValue().getStats().getObjectCompleteRate());
+        }
+        family("ecs_sync_object_skip_rate", "gauge", "Objects skipped per second (recent window)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_object_skip_rate", job, job.getValue().getStats().getObjectSkipRate());
+        }
+        family("ecs_sync_object_error_rate", "gauge", "Objects failed per second (recent window)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            sample("ecs_sync_object_error_rate", job, job.getValue().getStats().getObjectErrorRate());
+        }
+        family("ecs_sync_storage_read_bytes_rate", "gauge", "Bytes read per second from each storage (recent window)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            SyncStorage<?> source = job.getValue().getSource(), target = job.getValue().getTarget();
+            if (source != null) storageSample("ecs_sync_storage_read_bytes_rate", job, "source", source.getReadRate());
+            if (target != null) storageSample("ecs_sync_storage_read_bytes_rate", job, "target", target.getReadRate());
+        }
+        family("ecs_sync_storage_write_bytes_rate", "gauge", "Bytes written per second to each storage (recent window)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            SyncStorage<?> source = job.getValue().getSource(), target = job.getValue().getTarget();
+            if (source != null) storageSample("ecs_sync_storage_write_bytes_rate", job, "source", source.getWriteRate());
+            if (target != null) storageSample("ecs_sync_storage_write_bytes_rate", job, "target", target.getWriteRate());
+        }
+
+        family("ecs_sync_active_tasks", "gauge", "Tasks currently executing in each pool");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            poolSample("ecs_sync_active_tasks", job, "query", job.getValue().getActiveQueryThreads());
+            poolSample("ecs_sync_active_tasks", job, "sync", job.getValue().getActiveSyncThreads());
+        }
+        family("ecs_sync_queued_tasks", "gauge", "Tasks waiting in the queue of each pool");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            poolSample("ecs_sync_queued_tasks", job, "query", job.getValue().getQueryQueueSize());
+            poolSample("ecs_sync_queued_tasks", job, "sync", job.getValue().getSyncQueueSize());
+        }
+
+        BufferPool pool = BufferPool.getSharedPool();
+        family("ecs_sync_buffer_pool_requests_total", "counter", "Buffers requested from the shared pool (hit if reused)");
+        bufferPoolSample("ecs_sync_buffer_pool_requests_total", "heap", "hit", pool.getHeap().getHits());
+        bufferPoolSample("ecs_sync_buffer_pool_requests_total", "heap", "miss", pool.getHeap().getMisses());
+        bufferPoolSample("ecs_sync_buffer_pool_requests_total", "direct", "hit", pool.getDirect().getHits());
+        bufferPoolSample("ecs_sync_buffer_pool_requests_total", "direct", "miss", pool.getDirect().getMisses());
+        family("ecs_sync_buffer_pool_hit_ratio", "gauge", "Fraction of buffer requests satisfied by a pooled buffer");
+        bufferPoolSample("ecs_sync_buffer_pool_hit_ratio", "heap", pool.getHeap().getHitRate());
+        bufferPoolSample("ecs_sync_buffer_pool_hit_ratio", "direct", pool.getDirect().getHitRate());
+        family("ecs_sync_buffer_pool_outstanding_bytes", "gauge", "Bytes in buffers currently in use by copy loops");
+        bufferPoolSample("ecs_sync_buffer_pool_outstanding_bytes", "heap", pool.getHeap().getOutstandingBytes());
+        bufferPoolSample("ecs_sync_buffer_pool_outstanding_bytes", "direct", pool.getDirect().getOutstandingBytes());
+        family("ecs_sync_buffer_pool_retained_bytes", "gauge", "Bytes in idle buffers held by the pool");
+        bufferPoolSample("ecs_sync_buffer_pool_retained_bytes", "heap", pool.getHeap().getRetainedBytes());
+        bufferPoolSample("ecs_sync_buffer_pool_retained_bytes", "direct", pool.getDirect().getRetainedBytes());
+
+        family("ecs_sync_operation_seconds", "summary", "Latency of timed operations (only if timings are enabled)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            summaryWriter.labels = getLabels(job.getKey(), job.getValue());
+            TimingUtil.visitTimings(job.getValue().getSyncConfig().getOptions(), summaryWriter);
+        }
+        family("ecs_sync_operation_failures_total", "counter", "Failed timed operations (only if timings are enabled)");
+        for (Map.Entry<Integer, EcsSync> job : jobs.entrySet()) {
+            failureWriter.labels = getLabels(job.getKey(), job.getValue());
+            TimingUtil.visitTimings(job.getValue().getSyncConfig().getOptions(), failureWriter);
+        }
+    }
+
+    private JobLabels getLabels(Integer jobId, EcsSync sync) {
+        JobLabels labels = jobLabels.get(jobId);
+        String jobName = sync.getSyncConfig().getJobName();
+        if (labels == null || !equal(labels.jobNameValue, jobName)) {
+            labels = new JobLabels(jobId, jobName);
+            jobLabels.put(jobId, labels);
+        }
+        return labels;
+    }
+
+    private void family(String name, String type, String help) {
+        buffer.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        buffer.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(String name, Map.Entry<Integer, EcsSync> job, long value) {
+        buffer.append(name).append('{').append(getLabels(job.getKey(), job.getValue()).job).append("} ")
+                .append(value).append('\n');
+    }
+
+    private void storageSample(String name, Map.Entry<Integer, EcsSync> job, String storage, long value) {
+        buffer.append(name).append('{').append(getLabels(job.getKey(), job.getValue()).job)
+                .append(",storage=\"").append(storage).append("\"} ").append(value).append('\n');
+    }
+
+    private void poolSample(String name, Map.Entry<Integer, EcsSync> job, String pool, long value) {
+        buffer.append(name).append('{').append(getLabels(job.getKey(), job.getValue()).job)
+                .append(",pool=\"").append(pool).append("\"} ").append(value).append('\n');
+    }
+
+    private void bufferPoolSample(String name, String type, long value) {
+        buffer.append(name).append("{type=\"").append(type).append("\"} ").append(value).append('\n');
+    }
+
+    private void bufferPoolSample(String name, String type, String result, long value) {
+        buffer.append(name).append("{type=\"").append(type).append("\",result=\"").append(result).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    private void bufferPoolSample(String name, String type, double value) {
+        buffer.append(name).append("{type=\"").append(type).append("\"} ").append(value).append('\n');
+    }
+
+    private void seconds(long nanos) {
+        // fixed-point with nanosecond precision (avoids exponent notation and double formatting)
+        long fraction = nanos % 1000000000L;
+        buffer.append(nanos / 1000000000L).append('.');
+        for (long digit = 100000000L; digit > 1 && digit > fraction; digit /= 10) {
+            buffer.append('0');
+        }
+        buffer.append(fraction);
+    }
+
+    /**
+     * Copies the buffer to the reusable byte array if it is pure ASCII (the common case)
+     *
+     * @return the number of bytes, or -1 if the buffer contains non-ASCII characters
+     */
+    private int encode() {
+        int length = buffer.length();
+        if (bytes.length < length) bytes = new byte[Math.max(length, bytes.length * 2)];
+        for (int i = 0; i < length; i++) {
+            char c = buffer.charAt(i);
+            if (c >= 0x80) return -1;
+            bytes[i] = (byte) c;
+        }
+        return length;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class JobLabels {
+        final String job;
+        final String jobNameValue;
+        final String jobName;
+        final Map<String, String> operations = new HashMap<>();
+
+        JobLabels(Integer jobId, String jobNameValue) {
+            this.job = "job=\"" + jobId + "\"";
+            this.jobNameValue = jobNameValue;
+            this.jobName = jobNameValue == null ? "" : ",job_name=\"" + escapeLabelValue(jobNameValue) + "\"";
+        }
+
+        String operation(String name) {
+            String label = operations.get(name);
+            if (label == null) {
+                label = job + ",operation=\"" + escapeLabelValue(name) + "\"";
+                operations.put(name, label);
+            }
+            return label;
+        }
+    }
+
+    private class OperationWriter implements TimingUtil.TimingVisitor {
+        private final boolean summary;
+        JobLabels labels;
+
+        OperationWriter(boolean summary) {
+            this.summary = summary;
+        }
+
+        @Override
+        public void visit(String name, long completeCount, long failedCount, long grossTime, LatencyHistogram histogram) {
+            String operation = labels.operation(name);
+            if (summary) {
+                histogram.getValuesAtPercentiles(PERCENTILES, percentileValues);
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    buffer.append("ecs_sync_operation_seconds{").append(operation).append(QUANTILE_LABELS[i]).append("} ");
+                    seconds(percentileValues[i]);
+                    buffer.append('\n');
+                }
+                buffer.append("ecs_sync_operation_seconds_sum{").append(operation).append("} ");
+                seconds(grossTime);
+                buffer.append('\n');
+                buffer.append("ecs_sync_operation_seconds_count{").append(operation).append("} ")
+                        .append(completeCount + failedCount).append('\n');
+            } else {
+                buffer.append("ecs_sync_operation_failures_total{").append(operation).append("} ")
+                        .append(failedCount).append('\n');
+            }
+        }
+    }
+}
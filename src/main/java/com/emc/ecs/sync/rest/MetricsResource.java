@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.rest;
+
+import com.emc.ecs.sync.service.SyncJobService;
+import com.sun.jersey.spi.resource.Singleton;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Prometheus scrape endpoint. Exports the counters, rates, pool depths and (if enabled) operation timings of all jobs,
+ * labeled by job ID
+ */
+@Singleton
+@Path("/metrics")
+public class MetricsResource {
+    private final MetricsRenderer renderer = new MetricsRenderer();
+
+    @GET
+    @Produces(MetricsRenderer.CONTENT_TYPE)
+    public StreamingOutput get() {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                renderer.writeTo(SyncJobService.getInstance().getAllSyncs(), output);
+            }
+        };
+    }
+}
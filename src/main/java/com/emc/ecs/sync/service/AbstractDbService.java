@@ -23,10 +23,21 @@ import org.slf4j.LoggerFactory;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractDbService implements DbService {
     private static Logger log = LoggerFactory.getLogger(AbstractDbService.class);
@@ -36,12 +47,35 @@ public abstract class AbstractDbService implements DbService {
 
     public static final String DEFAULT_OBJECTS_TABLE_NAME = "objects";
     public static final int DEFAULT_MAX_ERROR_SIZE = 2048;
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 500;
+    public static final long DEFAULT_WRITE_FLUSH_INTERVAL = 1000; // ms
+    public static final int DEFAULT_PREFETCH_CACHE_SIZE = 10000;
+    public static final int MAX_PREFETCH_QUERY_SIZE = 500; // sqlite allows 999 parameters by default
 
     protected String objectsTableName = DEFAULT_OBJECTS_TABLE_NAME;
     protected int maxErrorSize = DEFAULT_MAX_ERROR_SIZE;
+    protected boolean writeBehind = false;
+    protected int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+    protected long writeFlushInterval = DEFAULT_WRITE_FLUSH_INTERVAL;
     private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
     private boolean initialized = false;
-    private final Set<String> locks = new HashSet<>();
+    private final ObjectLockTable locks = new ObjectLockTable();
+
+    // write-behind state: pendingUpdates and pendingIds are guarded by pendingLock; flushLock serializes flushes
+    private final Object pendingLock = new Object();
+    private final Object flushLock = new Object();
+    private List<PendingUpdate> pendingUpdates = new ArrayList<>();
+    private final Map<String, Integer> pendingIds = new HashMap<>();
+    private final AtomicLong pendingWriteCount = new AtomicLong();
+    private ScheduledExecutorService flushScheduler;
+    // identifiers whose latest queued update could not be written
+    private final Set<String> unwrittenIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile WriteFailureListener writeFailureListener;
+
+    // prefetched records (see prefetchSyncRecords); each entry is removed when it is used or the object is updated
+    private final ConcurrentMap<String, PrefetchedRecord> prefetchCache = new ConcurrentHashMap<>();
+    private int prefetchCacheSize = DEFAULT_PREFETCH_CACHE_SIZE;
 
     protected abstract JdbcTemplate createJdbcTemplate();
 
@@ -61,24 +95,12 @@ public abstract class AbstractDbService implements DbService {
 
     @Override
     public void lock(String identifier) {
-        synchronized (locks) {
-            while (locks.contains(identifier)) {
-                try {
-                    locks.wait();
-                } catch (InterruptedException e) {
-                    throw new RuntimeException("interrupted while waiting for lock", e);
-                }
-            }
-            locks.add(identifier);
-        }
+        locks.lock(identifier);
     }
 
     @Override
-    public synchronized void unlock(String identifier) {
-        synchronized (locks) {
-            locks.remove(identifier);
-            locks.notifyAll();
-        }
+    public void unlock(String identifier) {
+        locks.unlock(identifier);
     }
 
     @Override
@@ -116,7 +138,8 @@ public abstract class AbstractDbService implements DbService {
                     String insert = SyncRecord.insert(objectsTableName, SyncRecord.SOURCE_ID, SyncRecord.TARGET_ID,
                             SyncRecord.IS_DIRECTORY, SyncRecord.SIZE, SyncRecord.MTIME, SyncRecord.STATUS,
                             dateField, SyncRecord.RETRY_COUNT, SyncRecord.ERROR_MESSAGE, SyncRecord.SOURCE_MD5);
-                    getJdbcTemplate().update(insert, context.getSourceSummary().getIdentifier(), context.getTargetId(),
+                    update(context.getSourceSummary().getIdentifier(), insert,
+                            context.getSourceSummary().getIdentifier(), context.getTargetId(),
                             fDirectory, fContentLength, getDateParam(fMtime), status.getValue(),
                             getDateParam(dateValue), context.getFailures(), fitString(error, maxErrorSize), fSourceMd5);
                 } else {
@@ -135,7 +158,7 @@ public abstract class AbstractDbService implements DbService {
                     if (fSourceMd5 != null) params.add(fSourceMd5);
                     params.add(context.getSourceSummary().getIdentifier());
 
-                    getJdbcTemplate().update(update, params.toArray());
+                    update(context.getSourceSummary().getIdentifier(), update, params.toArray());
                 }
                 return null;
             }
@@ -166,11 +189,11 @@ public abstract class AbstractDbService implements DbService {
                 if (newRow) {
                     String insert = SyncRecord.insert(objectsTableName, SyncRecord.SOURCE_ID, SyncRecord.TARGET_ID,
                             SyncRecord.IS_DIRECTORY, SyncRecord.SIZE, SyncRecord.MTIME);
-                    getJdbcTemplate().update(insert, sourceId, context.getTargetId(),
+                    update(sourceId, insert, sourceId, context.getTargetId(),
                             fDirectory, fContentLength, getDateParam(fMtime));
                 } else {
                     String update = SyncRecord.updateBySourceId(objectsTableName, SyncRecord.IS_SOURCE_DELETED);
-                    getJdbcTemplate().update(update, true, sourceId);
+                    update(sourceId, update, true, sourceId);
                 }
                 return null;
             }
@@ -181,6 +204,9 @@ public abstract class AbstractDbService implements DbService {
     @Override
     public SyncRecord getSyncRecord(final ObjectContext context) {
         initCheck();
+        PrefetchedRecord prefetched = prefetchCache.remove(context.getSourceSummary().getIdentifier());
+        if (prefetched != null) return prefetched.record;
+        if (isPending(context.getSourceSummary().getIdentifier())) flush();
         return TimingUtil.time(context.getOptions(), OPERATION_OBJECT_QUERY, new Function<SyncRecord>() {
             @Override
             public SyncRecord call() {
@@ -194,9 +220,52 @@ public abstract class AbstractDbService implements DbService {
         });
     }
 
+    @Override
+    public void prefetchSyncRecords(Collection<String> sourceIds) {
+        initCheck();
+
+        // skip anything that is in-flight (locked or not yet written); those will be queried individually
+        List<String> ids = new ArrayList<>();
+        for (String sourceId : sourceIds) {
+            if (!locks.isLocked(sourceId) && !isPending(sourceId)) ids.add(sourceId);
+        }
+        if (ids.isEmpty()) return;
+
+        // bounded; if the cache is full (sync tasks are not keeping up), don't prefetch any more
+        if (prefetchCache.size() + ids.size() > prefetchCacheSize) {
+            log.debug("prefetch cache is full; skipping prefetch of {} records", ids.size());
+            return;
+        }
+
+        for (int start = 0; start < ids.size(); start += MAX_PREFETCH_QUERY_SIZE) {
+            List<String> chunk = ids.subList(start, Math.min(start + MAX_PREFETCH_QUERY_SIZE, ids.size()));
+            Map<String, PrefetchedRecord> results = new HashMap<>();
+            for (String sourceId : chunk) {
+                results.put(sourceId, new PrefetchedRecord(null)); // no row means no record
+            }
+            boolean exactMatches = true;
+            for (SyncRecord record : getJdbcTemplate().query(SyncRecord.selectBySourceIds(objectsTableName, chunk.size()),
+                    new Mapper(), chunk.toArray())) {
+                if (results.containsKey(record.getSourceId()))
+                    results.put(record.getSourceId(), new PrefetchedRecord(record));
+                else exactMatches = false;
+            }
+            // if the DB collation matched an ID that we didn't ask for (i.e. case-insensitive), we can't be sure which
+            // IDs really have no record, so only cache the records we found
+            if (!exactMatches) {
+                Iterator<PrefetchedRecord> i = results.values().iterator();
+                while (i.hasNext()) {
+                    if (i.next().record == null) i.remove();
+                }
+            }
+            prefetchCache.putAll(results);
+        }
+    }
+
     @Override
     public Iterable<SyncRecord> getAllRecords() {
         initCheck();
+        flush();
         return new Iterable<SyncRecord>() {
             @Override
             public Iterator<SyncRecord> iterator() {
@@ -209,6 +278,7 @@ public abstract class AbstractDbService implements DbService {
     @Override
     public Iterable<SyncRecord> getSyncErrors() {
         initCheck();
+        flush();
         return new Iterable<SyncRecord>() {
             @Override
             public Iterator<SyncRecord> iterator() {
@@ -221,6 +291,7 @@ public abstract class AbstractDbService implements DbService {
     @Override
     public Iterable<SyncRecord> getSyncRetries() {
         initCheck();
+        flush();
         return new Iterable<SyncRecord>() {
             @Override
             public Iterator<SyncRecord> iterator() {
@@ -233,18 +304,213 @@ public abstract class AbstractDbService implements DbService {
     protected synchronized void initCheck() {
         if (!initialized) {
             jdbcTemplate = createJdbcTemplate();
+            if (jdbcTemplate != null)
+                transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
             createTable();
+            if (writeBehind) startFlushScheduler();
             initialized = true;
         }
     }
 
     /**
-     * Be sure to override in implementations to close the datasource completely, then call super.close(). This method
-     * should be idempotent! (it might get called twice)
+     * Be sure to override in implementations to call {@link #flush()}, close the datasource completely, then call
+     * super.close(). This method should be idempotent! (it might get called twice)
      */
     @Override
     public void close() {
+        synchronized (this) {
+            if (flushScheduler != null) flushScheduler.shutdownNow();
+            flushScheduler = null;
+        }
+        // closing is a durability barrier too, so write anything that is still queued
+        try {
+            if (jdbcTemplate != null) flush();
+        } catch (Throwable t) {
+            log.warn("could not flush pending status updates", t);
+        }
+        if (pendingWriteCount.get() > 0)
+            log.warn("{} pending status updates were not written to the database", pendingWriteCount.get());
+        prefetchCache.clear();
         jdbcTemplate = null;
+        transactionTemplate = null;
+    }
+
+    /**
+     * Executes an update statement for the specified source identifier. In write-behind mode, the statement is queued
+     * and will be executed in a batch by {@link #flush()}; otherwise it is executed immediately
+     */
+    protected void update(String identifier, String sql, Object... params) {
+        // any prefetched record is now stale
+        prefetchCache.remove(identifier);
+
+        if (!writeBehind) {
+            getJdbcTemplate().update(sql, params);
+            return;
+        }
+
+        int queueSize;
+        synchronized (pendingLock) {
+            pendingUpdates.add(new PendingUpdate(identifier, sql, params));
+            Integer count = pendingIds.get(identifier);
+            pendingIds.put(identifier, count == null ? 1 : count + 1);
+            queueSize = pendingUpdates.size();
+        }
+        pendingWriteCount.incrementAndGet();
+
+        // size threshold (this also applies back-pressure to the sync threads if the DB can't keep up)
+        if (queueSize >= writeBatchSize) flush();
+    }
+
+    /**
+     * Writes all pending (write-behind) updates to the database in batches inside a single transaction. When this
+     * method returns, every update queued before it was called has been written (or has failed and is included in
+     * the result). Writes nothing if write-behind is disabled or there is nothing to write
+     */
+    @Override
+    public Set<String> flush() {
+        synchronized (flushLock) {
+            List<PendingUpdate> batch;
+            synchronized (pendingLock) {
+                if (pendingUpdates.isEmpty()) return getUnwrittenIds();
+                batch = pendingUpdates;
+                pendingUpdates = new ArrayList<>();
+            }
+
+            try {
+                writeBatch(batch);
+            } finally {
+                synchronized (pendingLock) {
+                    for (PendingUpdate update : batch) {
+                        Integer count = pendingIds.get(update.identifier);
+                        if (count == null || count <= 1) pendingIds.remove(update.identifier);
+                        else pendingIds.put(update.identifier, count - 1);
+                    }
+                }
+                pendingWriteCount.addAndGet(-batch.size());
+            }
+            return getUnwrittenIds();
+        }
+    }
+
+    private Set<String> getUnwrittenIds() {
+        if (unwrittenIds.isEmpty()) return Collections.emptySet();
+        return new HashSet<>(unwrittenIds);
+    }
+
+    @Override
+    public long getPendingWriteCount() {
+        return pendingWriteCount.get();
+    }
+
+    protected boolean isPending(String identifier) {
+        if (!writeBehind) return false;
+        synchronized (pendingLock) {
+            return pendingIds.containsKey(identifier);
+        }
+    }
+
+    /**
+     * Writes the batch and records (and reports) the identifiers whose updates could not be written. An update that
+     * matches no row counts as a failure, as the record does not reflect it
+     */
+    private void writeBatch(final List<PendingUpdate> batch) {
+        final JdbcTemplate template = jdbcTemplate;
+        final TransactionTemplate transaction = transactionTemplate;
+        // an identifier that fails stays failed for the rest of the batch (its later updates depend on the earlier ones)
+        final Map<String, String> failures = new LinkedHashMap<>();
+        if (template == null || transaction == null) {
+            log.warn("database is closed; {} pending status updates could not be written", batch.size());
+            for (PendingUpdate update : batch) {
+                failures.put(update.identifier, "database is closed");
+            }
+        } else try {
+            transaction.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus transactionStatus) {
+                    // updates to the same object must be applied in order, so we take one update per object in each
+                    // round and batch together the statements that are identical
+                    Map<String, LinkedList<PendingUpdate>> updatesById = new LinkedHashMap<>();
+                    for (PendingUpdate update : batch) {
+                        LinkedList<PendingUpdate> updates = updatesById.get(update.identifier);
+                        if (updates == null) updatesById.put(update.identifier, updates = new LinkedList<>());
+                        updates.add(update);
+                    }
+                    while (!updatesById.isEmpty()) {
+                        Map<String, List<PendingUpdate>> round = new LinkedHashMap<>();
+                        Iterator<LinkedList<PendingUpdate>> i = updatesById.values().iterator();
+                        while (i.hasNext()) {
+                            LinkedList<PendingUpdate> updates = i.next();
+                            PendingUpdate update = updates.removeFirst();
+                            List<PendingUpdate> statements = round.get(update.sql);
+                            if (statements == null) round.put(update.sql, statements = new ArrayList<>());
+                            statements.add(update);
+                            if (updates.isEmpty()) i.remove();
+                        }
+                        for (Map.Entry<String, List<PendingUpdate>> entry : round.entrySet()) {
+                            List<Object[]> params = new ArrayList<>();
+                            for (PendingUpdate update : entry.getValue()) {
+                                params.add(update.params);
+                            }
+                            int[] counts = template.batchUpdate(entry.getKey(), params);
+                            for (int c = 0; c < counts.length && c < entry.getValue().size(); c++) {
+                                if (counts[c] == 0) failures.put(entry.getValue().get(c).identifier, "no record was updated");
+                            }
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // one bad statement rolls back the whole batch, so fall back to writing each update on its own
+            log.warn("batch status update failed ({}); writing {} updates individually", e.toString(), batch.size());
+            failures.clear();
+            for (PendingUpdate update : batch) {
+                if (failures.containsKey(update.identifier)) continue;
+                try {
+                    if (template.update(update.sql, update.params) == 0)
+                        failures.put(update.identifier, "no record was updated");
+                } catch (RuntimeException e2) {
+                    log.warn("could not write status update for {}: {}", update.identifier, e2.toString());
+                    failures.put(update.identifier, e2.toString());
+                }
+            }
+        }
+
+        for (PendingUpdate update : batch) {
+            if (!failures.containsKey(update.identifier)) unwrittenIds.remove(update.identifier);
+        }
+        for (Map.Entry<String, String> failure : failures.entrySet()) {
+            unwrittenIds.add(failure.getKey());
+            WriteFailureListener listener = writeFailureListener;
+            if (listener != null) {
+                try {
+                    listener.writeFailed(failure.getKey(), failure.getValue());
+                } catch (Throwable t) {
+                    log.warn("write failure listener failed for " + failure.getKey(), t);
+                }
+            }
+        }
+    }
+
+    private synchronized void startFlushScheduler() {
+        if (flushScheduler != null) return;
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "db-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flushScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    log.warn("scheduled flush of status updates failed", t);
+                }
+            }
+        }, writeFlushInterval, writeFlushInterval, TimeUnit.MILLISECONDS);
     }
 
     protected String getDateFieldForStatus(ObjectStatus status) {
@@ -344,6 +610,78 @@ public abstract class AbstractDbService implements DbService {
         this.maxErrorSize = maxErrorSize;
     }
 
+    @Override
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    @Override
+    public synchronized void setWriteBehind(boolean writeBehind) {
+        if (!writeBehind) flush();
+        this.writeBehind = writeBehind;
+        if (writeBehind && initialized) startFlushScheduler();
+    }
+
+    @Override
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    @Override
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    @Override
+    public long getWriteFlushInterval() {
+        return writeFlushInterval;
+    }
+
+    /**
+     * Sets the maximum time (in ms) a write-behind update will wait before it is flushed. Takes effect the next time
+     * the service is initialized
+     */
+    @Override
+    public void setWriteFlushInterval(long writeFlushInterval) {
+        this.writeFlushInterval = writeFlushInterval;
+    }
+
+    @Override
+    public void setWriteFailureListener(WriteFailureListener writeFailureListener) {
+        this.writeFailureListener = writeFailureListener;
+    }
+
+    public int getPrefetchCacheSize() {
+        return prefetchCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of prefetched records to hold in memory
+     */
+    public void setPrefetchCacheSize(int prefetchCacheSize) {
+        this.prefetchCacheSize = prefetchCacheSize;
+    }
+
+    private static class PrefetchedRecord {
+        final SyncRecord record;
+
+        PrefetchedRecord(SyncRecord record) {
+            this.record = record;
+        }
+    }
+
+    private static class PendingUpdate {
+        final String identifier;
+        final String sql;
+        final Object[] params;
+
+        PendingUpdate(String identifier, String sql, Object[] params) {
+            this.identifier = identifier;
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+
     /**
      * Uses best-effort to populate fields based on the available columns in the result set.  If a field
      * is not present in the result set, the field is left null or whatever its default value is.
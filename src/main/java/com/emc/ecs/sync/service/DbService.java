@@ -17,6 +17,8 @@ package com.emc.ecs.sync.service;
 import com.emc.ecs.sync.model.ObjectContext;
 
 import java.io.Closeable;
+import java.util.Collection;
+import java.util.Set;
 
 public interface DbService extends Closeable {
 
@@ -43,6 +45,29 @@ public interface DbService extends Closeable {
 
     SyncRecord getSyncRecord(ObjectContext context);
 
+    /**
+     * Looks up the records for a batch of source identifiers (i.e. a listing page) in as few queries as possible and
+     * caches the results (including the fact that there is no record) so that subsequent calls to
+     * {@link #getSyncRecord(ObjectContext)} for those identifiers do not need to query the database. Each cached
+     * result is used at most once and is discarded if the object's status is updated in the meantime. This is an
+     * optimization only; implementations may ignore it
+     */
+    void prefetchSyncRecords(Collection<String> sourceIds);
+
+    /**
+     * Makes sure all pending (write-behind) status updates have been written to the database. This is the durability
+     * barrier used when a sync is paused, terminated or completed
+     *
+     * @return the identifiers whose latest status update could not be written (by this or an earlier flush). Their
+     * records do not reflect the last status that was set
+     */
+    Set<String> flush();
+
+    /**
+     * @return the number of status updates queued in write-behind mode that have not yet been written
+     */
+    long getPendingWriteCount();
+
     Iterable<SyncRecord> getAllRecords();
 
     Iterable<SyncRecord> getSyncErrors();
@@ -56,4 +81,25 @@ public interface DbService extends Closeable {
     int getMaxErrorSize();
 
     void setMaxErrorSize(int maxErrorSize);
+
+    boolean isWriteBehind();
+
+    /**
+     * When enabled, status updates are queued and written in JDBC batches (one transaction per batch) when the queue
+     * reaches {@link #getWriteBatchSize()} updates or every {@link #getWriteFlushInterval()} ms, whichever is first
+     */
+    void setWriteBehind(boolean writeBehind);
+
+    int getWriteBatchSize();
+
+    void setWriteBatchSize(int writeBatchSize);
+
+    long getWriteFlushInterval();
+
+    void setWriteFlushInterval(long writeFlushInterval);
+
+    /**
+     * Sets a listener to be notified when a write-behind status update could not be written
+     */
+    void setWriteFailureListener(WriteFailureListener writeFailureListener);
 }
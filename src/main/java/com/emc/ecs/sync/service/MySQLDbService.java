@@ -102,6 +102,11 @@ public class MySQLDbService extends AbstractDbService {
 
     @Override
     public void close() {
+        try {
+            if (!closed) flush();
+        } catch (Throwable t) {
+            log.warn("could not flush pending status updates", t);
+        }
         try {
             if (!closed) close(getJdbcTemplate());
         } finally {
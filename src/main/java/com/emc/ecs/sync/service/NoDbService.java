@@ -17,6 +17,8 @@ package com.emc.ecs.sync.service;
 import com.emc.ecs.sync.model.ObjectContext;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.util.Collection;
+
 public class NoDbService extends AbstractDbService {
     @Override
     public void deleteDatabase() {
@@ -36,6 +38,10 @@ public class NoDbService extends AbstractDbService {
         return null;
     }
 
+    @Override
+    public void prefetchSyncRecords(Collection<String> sourceIds) {
+    }
+
     @Override
     public boolean setStatus(ObjectContext objectContext, String error, boolean newRow) {
         return true;
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-identifier lock registry. Each locked identifier gets its own entry (a single-permit semaphore plus a reference
+ * count), so threads only contend with (and are only woken by) other threads waiting on the <em>same</em> identifier.
+ * Entries are created on demand and removed as soon as the last holder or waiter releases them, so the table only ever
+ * contains identifiers that are currently in use.
+ * <p>
+ * Locks are not owned by a thread; any thread may unlock an identifier and the lock is not
+ * reentrant.
+ */
+public class ObjectLockTable {
+    private final ConcurrentMap<String, LockEntry> entries;
+
+    public ObjectLockTable() {
+        this(16);
+    }
+
+    /**
+     * @param concurrencyLevel hint for the expected number of concurrently locked identifiers (usually thread count)
+     */
+    public ObjectLockTable(int concurrencyLevel) {
+        entries = new ConcurrentHashMap<>(Math.max(16, concurrencyLevel * 2));
+    }
+
+    /**
+     * Locks the identifier, waiting until any other holder unlocks it
+     *
+     * @throws RuntimeException if interrupted while waiting
+     */
+    public void lock(String identifier) {
+        LockEntry entry = reference(identifier);
+        try {
+            entry.permit.acquire();
+        } catch (InterruptedException e) {
+            release(identifier, entry);
+            throw new RuntimeException("interrupted while waiting for lock", e);
+        }
+    }
+
+    /**
+     * Locks the identifier only if it is not currently locked
+     *
+     * @return true if the lock was acquired
+     */
+    public boolean tryLock(String identifier) {
+        LockEntry entry = reference(identifier);
+        if (entry.permit.tryAcquire()) return true;
+        release(identifier, entry);
+        return false;
+    }
+
+    /**
+     * Unlocks the identifier, waking at most one thread waiting on the same identifier. Unlocking an identifier that
+     * is not locked has no effect
+     */
+    public void unlock(String identifier) {
+        LockEntry entry = entries.get(identifier);
+        if (entry == null) return;
+        entry.permit.release();
+        release(identifier, entry);
+    }
+
+    /**
+     * @return whether the identifier is currently locked (or has threads waiting to lock it)
+     */
+    public boolean isLocked(String identifier) {
+        return entries.containsKey(identifier);
+    }
+
+    /**
+     * @return the number of identifiers currently locked or waited on
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private LockEntry reference(String identifier) {
+        while (true) {
+            LockEntry entry = entries.get(identifier);
+            if (entry == null) {
+                entry = new LockEntry();
+                LockEntry existing = entries.putIfAbsent(identifier, entry);
+                if (existing == null) return entry; // new entries start with one reference
+                entry = existing;
+            }
+            if (entry.retain()) return entry;
+            // entry was retired concurrently; make sure it is gone and try again
+            entries.remove(identifier, entry);
+        }
+    }
+
+    private void release(String identifier, LockEntry entry) {
+        if (entry.releaseReference()) entries.remove(identifier, entry);
+    }
+
+    private static class LockEntry {
+        final Semaphore permit = new Semaphore(1);
+        // number of threads holding or waiting on this entry; zero means retired
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        boolean retain() {
+            while (true) {
+                int current = references.get();
+                if (current <= 0) return false;
+                if (references.compareAndSet(current, current + 1)) return true;
+            }
+        }
+
+        /**
+         * @return true if this was the last reference (the entry is now retired)
+         */
+        boolean releaseReference() {
+            return references.decrementAndGet() == 0;
+        }
+    }
+}
@@ -50,6 +50,11 @@ public class SqliteDbService extends AbstractDbService {
 
     @Override
     public void close() {
+        try {
+            if (!closed) flush();
+        } catch (Throwable t) {
+            log.warn("could not flush pending status updates", t);
+        }
         try {
             if (!closed) ((SingleConnectionDataSource) getJdbcTemplate().getDataSource()).destroy();
         } catch (Throwable t) {
@@ -20,11 +20,13 @@ import com.emc.ecs.sync.config.SyncConfig;
 import com.emc.ecs.sync.config.SyncOptions;
 import com.emc.ecs.sync.rest.*;
 import com.emc.ecs.sync.util.SyncUtil;
+import com.emc.ecs.sync.util.TimingUtil;
 import com.sun.management.OperatingSystemMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.Map;
@@ -97,6 +99,13 @@ public class SyncJobService {
         return jobList;
     }
 
+    /**
+     * @return a read-only view of all registered sync instances by job ID
+     */
+    public Map<Integer, EcsSync> getAllSyncs() {
+        return Collections.unmodifiableMap(syncCache);
+    }
+
     public boolean jobExists(int jobId) {
         return syncCache.containsKey(jobId);
     }
@@ -157,6 +166,9 @@ public class SyncJobService {
         syncCache.remove(jobId);
         configCache.remove(jobId);
 
+        // remove the failed objects file if it is temporary
+        sync.getStats().discardFailedObjects();
+
         // delete database
         if (sync.getDbService() != null) {
             if (!keepDatabase) sync.getDbService().deleteDatabase();
@@ -227,7 +239,10 @@ public class SyncJobService {
         syncProgress.setActiveQueryTasks(sync.getActiveQueryThreads());
         syncProgress.setActiveSyncTasks(sync.getActiveSyncThreads());
         syncProgress.setRuntimeMs(stats.getTotalRunTime());
+        syncProgress.setTransferTimeMs(sync.getTransferTime());
+        syncProgress.setDrainTimeMs(sync.getDrainTime());
         syncProgress.setCpuTimeMs(stats.getTotalCpuTime());
+        if (sync.getDbService() != null) syncProgress.setDbPendingWrites(sync.getDbService().getPendingWriteCount());
 
         OperatingSystemMXBean osBean = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
 
@@ -252,6 +267,40 @@ public class SyncJobService {
         return syncProgress;
     }
 
+    public TimingList getTimings(int jobId) {
+        EcsSync sync = syncCache.get(jobId);
+
+        if (sync == null) return null;
+
+        TimingList timingList = new TimingList();
+        for (TimingUtil.TimingStats stats : TimingUtil.getTimingStats(sync.getSyncConfig().getOptions())) {
+            OperationTiming timing = new OperationTiming();
+            timing.setName(stats.getName());
+            timing.setCompleteCount(stats.getCompleteCount());
+            timing.setFailedCount(stats.getFailedCount());
+            timing.setMinTime(stats.getMinTime() / 1000);
+            timing.setMaxTime(stats.getMaxTime() / 1000);
+            timing.setAvgTime(stats.getAvgTime() / 1000);
+            timing.setP50Time(stats.getP50Time() / 1000);
+            timing.setP90Time(stats.getP90Time() / 1000);
+            timing.setP99Time(stats.getP99Time() / 1000);
+            timing.setP999Time(stats.getP999Time() / 1000);
+            timingList.getTimings().add(timing);
+        }
+        return timingList;
+    }
+
+    /**
+     * Streams the identifiers of all remembered failed objects (one per line)
+     */
+    public void writeFailedObjects(int jobId, OutputStream out) throws IOException {
+        EcsSync sync = syncCache.get(jobId);
+
+        if (sync == null) throw new JobNotFoundException("the specified job ID does not exist");
+
+        sync.getStats().writeFailedObjects(out);
+    }
+
     public Iterable<SyncRecord> getAllRecords(int jobId) {
         EcsSync sync = syncCache.get(jobId);
 
@@ -279,7 +328,7 @@ public class SyncJobService {
         else return sync.getDbService().getSyncRetries();
     }
 
-    protected JobControlStatus getJobStatus(EcsSync sync) {
+    public JobControlStatus getJobStatus(EcsSync sync) {
         if (sync.isPaused()) {
             if (sync.getActiveSyncThreads() > 0 || sync.getActiveQueryThreads() > 0) return JobControlStatus.Pausing;
             else return JobControlStatus.Paused;
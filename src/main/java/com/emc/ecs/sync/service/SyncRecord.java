@@ -85,6 +85,16 @@ public class SyncRecord {
                 + " from " + tableName + " where " + SOURCE_ID + " = ?";
     }
 
+    public static String selectBySourceIds(String tableName, int idCount) {
+        StringBuilder select = new StringBuilder("select ").append(StringUtils.collectionToCommaDelimitedString(ALL_FIELDS))
+                .append(" from ").append(tableName).append(" where ").append(SOURCE_ID).append(" in (");
+        for (int i = 0; i < idCount; i++) {
+            select.append("?");
+            if (i < idCount - 1) select.append(", ");
+        }
+        return select.append(")").toString();
+    }
+
     public static String selectAll(String tableName) {
         return "select " + StringUtils.collectionToCommaDelimitedString(ALL_FIELDS)
                 + " from " + tableName;
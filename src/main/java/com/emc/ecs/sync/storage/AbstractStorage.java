@@ -19,13 +19,18 @@ import com.emc.ecs.sync.config.RoleType;
 import com.emc.ecs.sync.filter.SyncFilter;
 import com.emc.ecs.sync.model.ObjectSummary;
 import com.emc.ecs.sync.model.SyncObject;
+import com.emc.ecs.sync.util.BufferPool;
+import com.emc.ecs.sync.util.EnhancedThreadPoolExecutor;
+import com.emc.ecs.sync.util.ParallelRangeInputStream;
 import com.emc.ecs.sync.util.PerformanceWindow;
 import org.apache.commons.csv.CSVRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.concurrent.LinkedBlockingDeque;
 
 public abstract class AbstractStorage<C> extends AbstractPlugin<C> implements SyncStorage<C> {
     private static final Logger log = LoggerFactory.getLogger(AbstractStorage.class);
@@ -35,6 +40,7 @@ public abstract class AbstractStorage<C> extends AbstractPlugin<C> implements Sy
     private PerformanceWindow writePerformanceCounter = new PerformanceWindow(500, 20);
 
     private RoleType role;
+    private EnhancedThreadPoolExecutor rangeReadExecutor;
 
     /**
      * Try to create an appropriate ObjectSummary representing the specified object. Exceptions are allowed and it is
@@ -85,6 +91,10 @@ public abstract class AbstractStorage<C> extends AbstractPlugin<C> implements Sy
     public void close() {
         try (PerformanceWindow readWindow = readPerformanceCounter;
              PerformanceWindow writeWindow = writePerformanceCounter) {
+            synchronized (this) {
+                if (rangeReadExecutor != null) rangeReadExecutor.shutdownNow();
+                rangeReadExecutor = null;
+            }
             super.close();
         }
     }
@@ -98,6 +108,35 @@ public abstract class AbstractStorage<C> extends AbstractPlugin<C> implements Sy
         }
     }
 
+    /**
+     * If this storage is {@link RangeReadable} and the object is larger than the parallel-read threshold, returns a
+     * stream that reads the object's data as concurrent ranged reads (reassembled in order). Otherwise returns null and
+     * the caller should read the data as a single stream
+     */
+    protected InputStream parallelReadStream(SyncObject object) {
+        if (!(this instanceof RangeReadable) || options.getParallelReadThresholdMb() <= 0) return null;
+        long size = object.getMetadata().getContentLength();
+        if (size <= (long) options.getParallelReadThresholdMb() * 1024 * 1024) return null;
+        RangeReadable storage = (RangeReadable) this;
+        if (!storage.isRangeReadable(object)) return null;
+        int rangeSize = (int) Math.min((long) options.getParallelReadRangeMb() * 1024 * 1024, BufferPool.MAX_BUFFER_SIZE);
+        log.debug("reading {} ({} bytes) in {}-byte ranges", object.getRelativePath(), size, rangeSize);
+        return new ParallelRangeInputStream(storage, object, size, rangeSize, options.getParallelReadThreads(),
+                getRangeReadExecutor());
+    }
+
+    /**
+     * Ranges of all objects are read by one pool owned by this storage. Each stream keeps at most parallelReadThreads
+     * ranges in flight, so the pool is bounded at threadCount x parallelReadThreads threads (every sync thread can read
+     * a large object at full width)
+     */
+    private synchronized EnhancedThreadPoolExecutor getRangeReadExecutor() {
+        if (rangeReadExecutor == null)
+            rangeReadExecutor = new EnhancedThreadPoolExecutor(options.getThreadCount() * options.getParallelReadThreads(),
+                    new LinkedBlockingDeque<Runnable>(), "range-read-pool");
+        return rangeReadExecutor;
+    }
+
     @Override
     public void delete(String identifier) {
         throw new UnsupportedOperationException(String.format("Delete is not supported by the %s plugin", getClass().getSimpleName()));
@@ -42,7 +42,7 @@ import java.util.*;
 import static com.emc.ecs.sync.config.storage.AtmosConfig.AccessType.namespace;
 import static com.emc.ecs.sync.config.storage.AtmosConfig.AccessType.objectspace;
 
-public class AtmosStorage extends AbstractStorage<AtmosConfig> {
+public class AtmosStorage extends AbstractStorage<AtmosConfig> implements RangeReadable {
     private static final Logger log = LoggerFactory.getLogger(AtmosStorage.class);
 
     public static final String PROP_ATMOS_METADATA = "atmos.metadata";
@@ -272,15 +272,16 @@ public class AtmosStorage extends AbstractStorage<AtmosConfig> {
             String uid = uidMeta == null ? null : uidMeta.getValue();
             ObjectAcl acl = getSyncAcl(uid, atmosMeta.getAcl());
 
+            final SyncObject object = new SyncObject(this, getRelativePath(identifier, metadata.isDirectory()), metadata).withAcl(acl);
+
             LazyValue<InputStream> lazyStream = new LazyValue<InputStream>() {
                 @Override
                 public InputStream get() {
-                    return readDataStream(identifier);
+                    InputStream parallelStream = parallelReadStream(object);
+                    return parallelStream != null ? parallelStream : readDataStream(identifier);
                 }
             };
-
-            SyncObject object = new SyncObject(this, getRelativePath(identifier, metadata.isDirectory()), metadata).withAcl(acl)
-                    .withLazyStream(lazyStream);
+            object.setLazyStream(lazyStream);
 
             object.setProperty(PROP_ATMOS_METADATA, atmosMeta);
 
@@ -387,6 +388,22 @@ public class AtmosStorage extends AbstractStorage<AtmosConfig> {
         }, OPERATION_READ_OBJECT_STREAM);
     }
 
+    @Override
+    public boolean isRangeReadable(SyncObject object) {
+        return !object.getMetadata().isDirectory();
+    }
+
+    @Override
+    public InputStream readRange(SyncObject object, final long offset, final long length) {
+        final String identifier = getIdentifier(object.getRelativePath(), false);
+        return time(new Function<InputStream>() {
+            @Override
+            public InputStream call() {
+                return atmos.readObjectStream(getObjectIdentifier(identifier), new Range(offset, offset + length - 1)).getObject();
+            }
+        }, OPERATION_READ_OBJECT_STREAM);
+    }
+
     private com.emc.atmos.api.bean.ObjectMetadata getAtmosMetadata(final ObjectIdentifier id) {
         return time(new Function<com.emc.atmos.api.bean.ObjectMetadata>() {
             @Override
@@ -602,7 +619,7 @@ public class AtmosStorage extends AbstractStorage<AtmosConfig> {
         } else { // retention is not enabled, so follow standard wschecksum process (create -> append...)
             // create
             RunningChecksum ck = new RunningChecksum(ChecksumAlgorithm.valueOf(checksumType.toString().toUpperCase()));
-            byte[] buffer = new byte[options.getBufferSize()];
+            int bufferSize = options.getBufferSize();
             long read = 0;
             int c;
             cRequest.wsChecksum(ck);
@@ -614,8 +631,11 @@ public class AtmosStorage extends AbstractStorage<AtmosConfig> {
             }, OPERATION_CREATE_OBJECT);
 
             if (options.isSyncData()) {
+                // the buffer is only referenced by each (synchronous) update request, so it can go back to the pool
+                byte[] buffer = BufferPool.getSharedPool().acquireHeap(bufferSize);
                 try (InputStream in = obj.getDataStream()) {
-                    while ((c = in.read(buffer)) != -1) {
+                    // pooled buffers may be larger, so limit each append to the configured buffer size
+                    while ((c = in.read(buffer, 0, bufferSize)) != -1) {
                         // append
                         ck.update(buffer, 0, c);
                         final UpdateObjectRequest uRequest = new UpdateObjectRequest();
@@ -632,6 +652,8 @@ public class AtmosStorage extends AbstractStorage<AtmosConfig> {
                         getWriteWindow().increment(c);
                         read += c;
                     }
+                } finally {
+                    BufferPool.getSharedPool().release(buffer);
                 }
             }
         }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.storage;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implemented by storage plugins that can delete many objects in a single request (i.e. S3 multi-object delete). When
+ * deleteSource is enabled, deletes from such a source are collected and sent in batches
+ */
+public interface BatchDeletable {
+    /**
+     * @return the maximum number of identifiers that may be passed to {@link #deleteBatch(List)}
+     */
+    int getMaxDeleteBatchSize();
+
+    /**
+     * Deletes the specified objects. Objects that could not be deleted are returned (mapped to a description of the
+     * error); all others were deleted. Throws an exception only if the request as a whole failed
+     */
+    Map<String, String> deleteBatch(List<String> identifiers);
+}
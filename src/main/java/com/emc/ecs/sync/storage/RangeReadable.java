@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.storage;
+
+import com.emc.ecs.sync.model.SyncObject;
+
+import java.io.InputStream;
+
+/**
+ * Implemented by storage plugins that can read an arbitrary byte range of an object's data without reading the rest
+ * (i.e. a ranged GET). Used to read large objects back in parallel
+ */
+public interface RangeReadable {
+    /**
+     * @return true if {@link #readRange(SyncObject, long, long)} can be used on the specified object (which was loaded
+     * from this storage)
+     */
+    boolean isRangeReadable(SyncObject object);
+
+    /**
+     * Opens a stream of <code>length</code> bytes of the object's data, starting at <code>offset</code>. The caller
+     * must close the stream
+     */
+    InputStream readRange(SyncObject object, long offset, long length);
+}
@@ -33,7 +33,7 @@ import java.io.InputStream;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
 
-public class TestStorage extends AbstractStorage<TestConfig> {
+public class TestStorage extends AbstractStorage<TestConfig> implements RangeReadable {
     private static final Logger log = LoggerFactory.getLogger(TestStorage.class);
 
     private static final String ROOT_PATH = "/root";
@@ -79,7 +79,8 @@ public class TestStorage extends AbstractStorage<TestConfig> {
 
     private ObjectSummary createSummary(TestSyncObject object) {
         return new ObjectSummary(getIdentifier(object.getRelativePath(), object.getMetadata().isDirectory()),
-                object.getMetadata().isDirectory(), object.getMetadata().getContentLength());
+                object.getMetadata().isDirectory(), object.getMetadata().getContentLength())
+                .withMtime(object.getMetadata().getModificationTime());
     }
 
     @Override
@@ -107,6 +108,22 @@ public class TestStorage extends AbstractStorage<TestConfig> {
         return object.deepCopy();
     }
 
+    @Override
+    public boolean isRangeReadable(SyncObject object) {
+        if (object.getMetadata().isDirectory()) return false;
+        TestSyncObject testObject = idMap.get(getIdentifier(object.getRelativePath(), false));
+        return testObject != null && testObject.getData() != null;
+    }
+
+    @Override
+    public InputStream readRange(SyncObject object, long offset, long length) {
+        String identifier = getIdentifier(object.getRelativePath(), false);
+        TestSyncObject testObject = idMap.get(identifier);
+        if (testObject == null) throw new ObjectNotFoundException(identifier);
+        byte[] data = testObject.getData();
+        return new ByteArrayInputStream(data, (int) offset, (int) Math.min(length, data.length - offset));
+    }
+
     @Override
     public void updateObject(String identifier, SyncObject object) {
         try {
@@ -14,6 +14,7 @@
  */
 package com.emc.ecs.sync.storage.file;
 
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
 import com.emc.ecs.sync.config.ConfigurationException;
 import com.emc.ecs.sync.config.storage.FilesystemConfig;
 import com.emc.ecs.sync.filter.SyncFilter;
@@ -24,13 +25,16 @@ import com.emc.ecs.sync.model.SyncObject;
 import com.emc.ecs.sync.storage.AbstractStorage;
 import com.emc.ecs.sync.storage.ObjectNotFoundException;
 import com.emc.ecs.sync.storage.SyncStorage;
+import com.emc.ecs.sync.util.BufferPool;
 import com.emc.ecs.sync.util.Iso8601Util;
 import com.emc.ecs.sync.util.LazyValue;
+import com.emc.ecs.sync.util.StreamChecksum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.activation.MimetypesFileTypeMap;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.*;
@@ -53,8 +57,13 @@ public abstract class AbstractFilesystemStorage<C extends FilesystemConfig> exte
     public static final String TYPE_LINK = "application/x-symlink";
     public static final String META_LINK_TARGET = "x-emc-link-target";
 
+    // progress is reported after each chunk of a direct transfer
+    private static final long TRANSFER_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int CHECKSUM_BUFFER_SIZE = 1024 * 1024;
+
     private Date modifiedSince;
     private List<Pattern> excludedPathPatterns;
+    private boolean directTransfer;
 
     private MimetypesFileTypeMap mimeMap;
     private SourceFilter filter;
@@ -64,6 +73,14 @@ public abstract class AbstractFilesystemStorage<C extends FilesystemConfig> exte
         filter = new SourceFilter();
     }
 
+    /**
+     * Override to return true if files created by {@link #createFile(String)} can be read and written directly with
+     * {@link FileChannel}s (i.e. they are not inside an archive)
+     */
+    protected boolean isDirectTransferSupported() {
+        return false;
+    }
+
     /**
      * Implement to provide an InputStream implementation (i.e. TFileInputStream)
      */
@@ -137,6 +154,13 @@ public abstract class AbstractFilesystemStorage<C extends FilesystemConfig> exte
                 }
             }
         }
+
+        // if we are the target, the source is a plain filesystem and no filters could change the data, we can let
+        // the kernel copy file contents (FileChannel.transferTo) instead of streaming them through the heap
+        if (target == this && source instanceof AbstractFilesystemStorage && !filters.hasNext()) {
+            directTransfer = isDirectTransferSupported() && ((AbstractFilesystemStorage<?>) source).isDirectTransferSupported();
+            if (directTransfer) log.info("source and target are both filesystems; file data will be transferred directly");
+        }
     }
 
     @Override
@@ -343,8 +367,11 @@ public abstract class AbstractFilesystemStorage<C extends FilesystemConfig> exte
                         Files.createSymbolicLink(path, Paths.get(targetPath));
                     }
                 } else {
-                    if (streamData) copyData(object.getDataStream(), file);
-                    else if (!Files.isRegularFile(path)) Files.createFile(path);
+                    if (streamData) {
+                        File sourceFile = getDirectTransferSource(object);
+                        if (sourceFile != null) transferData(sourceFile, file, object);
+                        else copyData(object.getDataStream(), file);
+                    } else if (!Files.isRegularFile(path)) Files.createFile(path);
                 }
             } catch (IOException e) {
                 throw new RuntimeException("error writing: " + file, e);
@@ -462,14 +489,97 @@ public abstract class AbstractFilesystemStorage<C extends FilesystemConfig> exte
     }
 
     private void copyData(InputStream inStream, File outFile) throws IOException {
-        byte[] buffer = new byte[options.getBufferSize()];
+        BufferPool pool = BufferPool.getSharedPool();
+        byte[] buffer = pool.acquireHeap(options.getBufferSize());
+        ByteBuffer directBuffer = null;
         int c;
         try (InputStream input = inStream; OutputStream output = createOutputStream(outFile)) {
+            // FileOutputStream copies large writes through a native buffer it allocates for every call, so write
+            // plain files through their channel from a pooled direct buffer instead
+            FileChannel channel = null;
+            if (output instanceof FileOutputStream) {
+                channel = ((FileOutputStream) output).getChannel();
+                directBuffer = pool.acquireDirect(buffer.length);
+            }
             while ((c = input.read(buffer)) != -1) {
-                output.write(buffer, 0, c);
+                if (channel != null) {
+                    directBuffer.clear();
+                    directBuffer.put(buffer, 0, c).flip();
+                    while (directBuffer.hasRemaining()) channel.write(directBuffer);
+                } else {
+                    output.write(buffer, 0, c);
+                }
                 if (options.isMonitorPerformance()) getWriteWindow().increment(c);
             }
+        } finally {
+            pool.release(buffer);
+            pool.release(directBuffer);
+        }
+    }
+
+    /**
+     * @return the source file if the object's data can be transferred directly (null otherwise)
+     */
+    private File getDirectTransferSource(SyncObject object) {
+        if (!directTransfer || object.isDataStreamOpened()) return null;
+        Object sourceFile = object.getProperty(PROP_FILE);
+        if (!(sourceFile instanceof File)) return null;
+        // the source would provide an empty stream for a link it does not follow
+        AbstractFilesystemStorage<?> source = (AbstractFilesystemStorage<?>) object.getSource();
+        if (!source.getConfig().isFollowLinks() && source.isSymLink((File) sourceFile)) return null;
+        return (File) sourceFile;
+    }
+
+    /**
+     * Copies file data with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so the
+     * data never enters the heap. Byte counts and progress are updated as if the data stream had been read. The checksum
+     * (only needed for verification) is calculated by reading the source file again through a pooled direct buffer
+     */
+    private void transferData(File sourceFile, File outFile, SyncObject object) throws IOException {
+        long position = 0;
+        try (FileChannel input = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = input.size();
+            while (position < size) {
+                long count = input.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), output);
+                if (count <= 0) break; // source was truncated
+                position += count;
+                if (options.isMonitorPerformance()) {
+                    object.getSource().getReadWindow().increment(count);
+                    getWriteWindow().increment(count);
+                }
+            }
+
+            ChecksumAlgorithm checksumAlgorithm = object.getChecksumAlgorithm();
+            if (options.isVerify() && checksumAlgorithm != null)
+                object.setChecksum(fileChecksum(input, position, checksumAlgorithm));
+        }
+        object.setBytesRead(position);
+    }
+
+    /**
+     * Reads the file with positional reads rather than mapping it; mapped regions are only released when they are
+     * garbage collected, so mapping every verified file pins address space and page cache until the next GC
+     */
+    private byte[] fileChecksum(FileChannel channel, long size, ChecksumAlgorithm algorithm) throws IOException {
+        StreamChecksum checksum = StreamChecksum.create(algorithm);
+        ByteBuffer buffer = BufferPool.getSharedPool().acquireDirect(CHECKSUM_BUFFER_SIZE);
+        try {
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                if (size - position < buffer.capacity()) buffer.limit((int) (size - position));
+                int c = channel.read(buffer, position);
+                if (c < 0) break; // source was truncated
+                position += c;
+                buffer.flip();
+                checksum.update(buffer);
+            }
+        } finally {
+            BufferPool.getSharedPool().release(buffer);
         }
+        return checksum.digest();
     }
 
     @Override
@@ -19,6 +19,11 @@ import com.emc.ecs.sync.config.storage.FilesystemConfig;
 import java.io.*;
 
 public class FilesystemStorage extends AbstractFilesystemStorage<FilesystemConfig> {
+    @Override
+    protected boolean isDirectTransferSupported() {
+        return true;
+    }
+
     @Override
     protected InputStream createInputStream(File f) throws IOException {
         return new FileInputStream(f);
@@ -27,6 +27,7 @@ import com.emc.ecs.sync.model.SyncObject;
 import com.emc.ecs.sync.storage.AbstractStorage;
 import com.emc.ecs.sync.storage.ObjectNotFoundException;
 import com.emc.ecs.sync.storage.SyncStorage;
+import com.emc.ecs.sync.util.BufferPool;
 import com.emc.ecs.sync.util.Iso8601Util;
 import com.emc.ecs.sync.util.LazyValue;
 
@@ -650,7 +651,7 @@ public abstract class AbstractNfsStorage<C extends NfsConfig, N extends Nfs<F>,
      * @throws IOException
      */
     private void copyData(InputStream inStream, F nfsFile) throws IOException {
-        byte[] buffer = new byte[options.getBufferSize()];
+        byte[] buffer = BufferPool.getSharedPool().acquireHeap(options.getBufferSize());
         int c;
         try (InputStream input = inStream; OutputStream output = createOutputStream(nfsFile)) {
             while ((c = input.read(buffer)) != -1) {
@@ -658,6 +659,8 @@ public abstract class AbstractNfsStorage<C extends NfsConfig, N extends Nfs<F>,
                 if (options.isMonitorPerformance())
                     getWriteWindow().increment(c);
             }
+        } finally {
+            BufferPool.getSharedPool().release(buffer);
         }
     }
 
@@ -14,20 +14,24 @@
  */
 package com.emc.ecs.sync.storage.s3;
 
+import com.emc.ecs.sync.model.ObjectAcl;
+import com.emc.ecs.sync.model.ObjectSummary;
 import com.emc.ecs.sync.model.SyncObject;
 import com.emc.ecs.sync.storage.AbstractStorage;
+import com.emc.ecs.sync.storage.BatchDeletable;
 import com.emc.ecs.sync.storage.ObjectNotFoundException;
+import com.emc.ecs.sync.storage.RangeReadable;
+import com.emc.ecs.sync.util.ReadOnlyIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.util.HashMap;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
+import java.util.*;
 
-public abstract class AbstractS3Storage<C> extends AbstractStorage<C> {
+public abstract class AbstractS3Storage<C> extends AbstractStorage<C> implements RangeReadable, BatchDeletable {
     private static final Logger log = LoggerFactory.getLogger(AbstractS3Storage.class);
 
     static final String PROP_OBJECT_VERSIONS = "s3.objectVersions";
@@ -37,6 +41,8 @@ public abstract class AbstractS3Storage<C> extends AbstractStorage<C> {
 
     static final String TYPE_DIRECTORY = "application/x-directory";
 
+    static final int MAX_DELETE_OBJECTS = 1000; // maximum keys in a multi-object delete request
+
     // Invalid for metadata names
     private static final char[] HTTP_SEPARATOR_CHARS = new char[]{
             '(', ')', '<', '>', '@', ',', ';', ':', '\\', '"', '/', '[', ']', '?', '=', ' ', '\t'};
@@ -47,6 +53,24 @@ public abstract class AbstractS3Storage<C> extends AbstractStorage<C> {
 
     abstract SyncObject loadObject(String key, String versionId);
 
+    /**
+     * Opens a ranged GET of the object data. If an ETag is given, the read must fail if the object no longer matches it
+     * (the object was overwritten after it was loaded)
+     *
+     * @param versionId the version to read, or null for the latest version
+     * @param etag      the ETag of the loaded object, or null
+     */
+    abstract InputStream getS3DataRange(String key, String versionId, String etag, long offset, long length);
+
+    /**
+     * Issues a single bucket list call
+     *
+     * @param prefix    the prefix to list under (empty for the whole bucket)
+     * @param delimiter the delimiter, or null for a flat listing
+     * @param marker    the start-after marker, or null to start at the beginning of the prefix
+     */
+    abstract ParallelListingIterator.ListingPage listPage(String prefix, String delimiter, String marker);
+
     SyncObject loadObject(String identifier, boolean includeVersions) throws ObjectNotFoundException {
         if (includeVersions) {
             List<S3ObjectVersion> objectVersions = loadVersions(identifier);
@@ -55,6 +79,7 @@ public abstract class AbstractS3Storage<C> extends AbstractStorage<C> {
                 S3ObjectVersion object = objectVersions.get(objectVersions.size() - 1);
 
                 object.setProperty(PROP_OBJECT_VERSIONS, objectVersions);
+                object.setEtag(null); // the checksum of this object is an aggregate of all versions
 
                 return object;
             }
@@ -64,6 +89,38 @@ public abstract class AbstractS3Storage<C> extends AbstractStorage<C> {
         }
     }
 
+    @Override
+    public int getMaxDeleteBatchSize() {
+        return MAX_DELETE_OBJECTS;
+    }
+
+    @Override
+    public boolean isRangeReadable(SyncObject object) {
+        if (object.getMetadata().isDirectory()) return false;
+        if (object.getProperty(PROP_OBJECT_VERSIONS) != null) return false; // the data is an aggregate of all versions
+        if (object instanceof S3ObjectVersion) return !((S3ObjectVersion) object).isDeleteMarker();
+        // every range must come from the same object, so without an ETag to pin them to, read it as one stream
+        return object.getEtag() != null;
+    }
+
+    @Override
+    public InputStream readRange(SyncObject object, long offset, long length) {
+        String key = getIdentifier(object.getRelativePath(), false);
+        String versionId = null;
+        if (object instanceof S3ObjectVersion) versionId = ((S3ObjectVersion) object).getVersionId();
+        return getS3DataRange(key, versionId, object.getEtag(), offset, length);
+    }
+
+    /**
+     * In directory mode, a common prefix is a directory, but there may not be a placeholder object for it. In that
+     * case, this object stands in for the directory
+     */
+    SyncObject createDirectoryObject(String key) {
+        com.emc.ecs.sync.model.ObjectMetadata metadata = new com.emc.ecs.sync.model.ObjectMetadata()
+                .withDirectory(true).withContentLength(0).withContentType(TYPE_DIRECTORY);
+        return new SyncObject(this, getRelativePath(key, true), metadata, new ByteArrayInputStream(new byte[0]), new ObjectAcl());
+    }
+
     boolean isDirectoryPlaceholder(String contentType, long size) {
         return TYPE_DIRECTORY.equals(contentType) && size == 0;
     }
@@ -161,4 +218,43 @@ public abstract class AbstractS3Storage<C> extends AbstractStorage<C> {
             throw new RuntimeException("Missing ASCII encoding", e);
         }
     }
+
+    /**
+     * Lists one level of the bucket under a prefix (using "/" as the delimiter). Objects are returned as-is and common
+     * prefixes are returned as directories, so they can be crawled (in parallel) via {@link #children(ObjectSummary)}
+     */
+    class DirectoryIterator extends ReadOnlyIterator<ObjectSummary> {
+        private String prefix;
+        private ParallelListingIterator.ListingPage page;
+        private Iterator<ObjectSummary> objectIterator;
+        private Iterator<String> prefixIterator;
+
+        DirectoryIterator(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected ObjectSummary getNextObject() {
+            while (true) {
+                if (page == null || (!objectIterator.hasNext() && !prefixIterator.hasNext()
+                        && page.isTruncated() && page.getNextMarker() != null)) {
+                    page = listPage(prefix, ParallelListingIterator.DELIMITER, page == null ? null : page.getNextMarker());
+                    objectIterator = page.getObjects().iterator();
+                    prefixIterator = page.getCommonPrefixes().iterator();
+                }
+
+                if (objectIterator.hasNext()) {
+                    ObjectSummary summary = objectIterator.next();
+                    // the placeholder for this directory is listed under its own prefix
+                    if (summary.getIdentifier().equals(prefix)) continue;
+                    return summary;
+                }
+
+                if (prefixIterator.hasNext()) return new ObjectSummary(prefixIterator.next(), true, 0);
+
+                // page is not truncated and iterators are finished; no more objects
+                return null;
+            }
+        }
+    }
 }
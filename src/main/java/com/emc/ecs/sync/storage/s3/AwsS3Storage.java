@@ -25,12 +25,14 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.internal.Constants;
 import com.amazonaws.services.s3.model.*;
+import com.amazonaws.services.s3.transfer.Copy;
 import com.amazonaws.services.s3.transfer.PersistableTransfer;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.amazonaws.services.s3.transfer.Upload;
 import com.amazonaws.services.s3.transfer.internal.S3ProgressListener;
 import com.emc.ecs.sync.config.ConfigurationException;
+import com.emc.ecs.sync.config.SyncOptions;
 import com.emc.ecs.sync.config.storage.AwsS3Config;
 import com.emc.ecs.sync.filter.SyncFilter;
 import com.emc.ecs.sync.model.Checksum;
@@ -49,16 +51,24 @@ import org.springframework.util.Assert;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
-public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
+public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> implements OptionChangeListener {
     private static final Logger log = LoggerFactory.getLogger(AwsS3Storage.class);
 
     private static final int MAX_PUT_SIZE_MB = 5 * 1024; // 5GB
     private static final int MIN_PART_SIZE_MB = 5;
+    private static final int MAX_MPU_PARTS = 10000;
 
     // timed operations
     private static final String OPERATION_LIST_OBJECTS = "AwsS3ListObjects";
@@ -70,10 +80,16 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
     private static final String OPERATION_DELETE_OBJECTS = "AwsS3DeleteObjects";
     private static final String OPERATION_DELETE_OBJECT = "AwsS3DeleteObject";
     private static final String OPERATION_UPDATE_METADATA = "AwsS3UpdateMetadata";
+    private static final String OPERATION_REMOTE_COPY = "AwsS3RemoteCopy";
 
     private AmazonS3 s3;
     private PerformanceWindow sourceReadWindow;
     private List<Pattern> excludedKeyPatterns;
+    private EnhancedThreadPoolExecutor listExecutor;
+    private EnhancedThreadPoolExecutor uploadExecutor;
+    private TransferManager transferManager;
+    private PartUploadScheduler partScheduler;
+    private AwsS3Storage source;
 
     @Override
     public void configure(SyncStorage source, Iterator<SyncFilter> filters, SyncStorage target) {
@@ -84,36 +100,7 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
         Assert.hasText(config.getBucketName(), "bucketName is required");
         Assert.isTrue(config.getBucketName().matches("[A-Za-z0-9._-]+"), config.getBucketName() + " is not a valid bucket name");
 
-        AWSCredentials creds = new BasicAWSCredentials(config.getAccessKey(), config.getSecretKey());
-        ClientConfiguration cc = new ClientConfiguration();
-
-        if (config.getProtocol() != null)
-            cc.setProtocol(Protocol.valueOf(config.getProtocol().toString().toUpperCase()));
-
-        if (config.isLegacySignatures()) cc.setSignerOverride("S3SignerType");
-
-        if (config.getSocketTimeoutMs() >= 0) cc.setSocketTimeout(config.getSocketTimeoutMs());
-
-        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
-                .withCredentials(new AWSStaticCredentialsProvider(creds))
-                .withClientConfiguration(cc);
-
-        if (config.getHost() != null) {
-            String endpoint = "";
-            if (config.getProtocol() != null) endpoint += config.getProtocol() + "://";
-            endpoint += config.getHost();
-            if (config.getPort() > 0) endpoint += ":" + config.getPort();
-            builder.setEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, config.getRegion()));
-        } else if (config.getRegion() != null) {
-            builder.withRegion(config.getRegion());
-        }
-
-        if (config.isDisableVHosts()) {
-            log.info("The use of virtual hosted buckets has been DISABLED.  Path style buckets will be used.");
-            builder.withPathStyleAccessEnabled(true);
-        }
-
-        s3 = builder.build();
+        s3 = createS3Client();
 
         boolean bucketExists = s3.doesBucketExistV2(config.getBucketName());
 
@@ -134,6 +121,14 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
                     excludedKeyPatterns.add(Pattern.compile(pattern));
                 }
             }
+
+            if (config.getListThreadCount() > 1 && !config.isDirectoryMode()) {
+                if (config.isUrlDecodeKeys())
+                    listExecutor = new EnhancedThreadPoolExecutor(config.getListThreadCount(),
+                            new LinkedBlockingDeque<Runnable>(), "s3-list-pool");
+                else
+                    log.warn("parallel listing is not supported when urlDecodeKeys is disabled; the bucket will be listed sequentially");
+            }
         }
 
         if (target == this) {
@@ -161,12 +156,38 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
             }
 
             if (source != null) sourceReadWindow = source.getReadWindow();
+
+            // all uploads share one transfer manager (building one per object means a new thread pool per object)
+            if (transferManager != null) transferManager.shutdownNow(false);
+            // MPU parts never share a queue with whole-object uploads (a file MPU would queue all of its parts ahead of
+            // the other uploads). With mpuPartLimit, the parts of every MPU go through the scheduler; otherwise only
+            // file parts do (mpuThreadCount per object, so the pool has that many for each sync thread), and a stream
+            // MPU sends its parts serially in the transfer manager
+            if (partScheduler != null) partScheduler.close();
+            if (config.getMpuPartLimit() > 0)
+                partScheduler = new PartUploadScheduler(config.getMpuPartLimit(),
+                        (long) config.getMpuBufferMb() * 1024 * 1024, "s3-part-pool");
+            else
+                partScheduler = new PartUploadScheduler(getFilePartPoolSize(options), 0, "s3-part-pool");
+            uploadExecutor = new EnhancedThreadPoolExecutor(getUploadPoolSize(options),
+                    new LinkedBlockingDeque<Runnable>(), "s3-upload-pool");
+            transferManager = TransferManagerBuilder.standard()
+                    .withS3Client(s3)
+                    .withExecutorFactory(() -> uploadExecutor)
+                    .withMultipartUploadThreshold((long) config.getMpuThresholdMb() * 1024 * 1024)
+                    .withMinimumUploadPartSize((long) config.getMpuPartSizeMb() * 1024 * 1024)
+                    .withMultipartCopyThreshold((long) MAX_PUT_SIZE_MB * 1024 * 1024)
+                    .withShutDownThreadPools(true)
+                    .build();
         }
 
         // make sure bucket exists
         if (!bucketExists)
             throw new ConfigurationException("The bucket " + config.getBucketName() + " does not exist.");
 
+        if (config.isDirectoryMode() && config.isIncludeVersions())
+            throw new ConfigurationException("directoryMode is not supported with includeVersions");
+
         // if syncing versions, make sure plugins support it and bucket has versioning enabled
         if (config.isIncludeVersions()) {
             if (!(source instanceof AbstractS3Storage && target instanceof AbstractS3Storage))
@@ -175,6 +196,81 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
             if (!bucketHasVersions)
                 throw new ConfigurationException("The specified bucket does not have versioning enabled.");
         }
+
+        // if remote copy, make sure source is also S3
+        if (config.isRemoteCopy()) {
+            if (source instanceof AwsS3Storage) this.source = (AwsS3Storage) source;
+            else throw new ConfigurationException("Remote copy is only supported between two S3 plugins");
+
+            // the copy request is sent to the target endpoint with the target credentials, so the source bucket must be
+            // on the same endpoint
+            AwsS3Config sourceConfig = this.source.getConfig();
+            if (!Objects.equals(sourceConfig.getProtocol(), config.getProtocol())
+                    || !Objects.equals(sourceConfig.getHost(), config.getHost())
+                    || sourceConfig.getPort() != config.getPort()
+                    || !Objects.equals(sourceConfig.getRegion(), config.getRegion()))
+                throw new ConfigurationException("Remote copy requires the source and target to use the same endpoint and region");
+            // other credentials may still be allowed to read the source bucket
+            if (!Objects.equals(sourceConfig.getAccessKey(), config.getAccessKey()))
+                log.warn("remote copy uses the target credentials; they must be able to read the source bucket {}",
+                        sourceConfig.getBucketName());
+        }
+    }
+
+    /**
+     * The transfer manager runs one task per upload, so the pool needs a thread for every sync thread. A multipart copy
+     * (remote copy) also runs its parts in this pool, so it then needs the part threads as well
+     */
+    private int getUploadPoolSize(SyncOptions options) {
+        return options.getThreadCount() + (config.isRemoteCopy() ? config.getMpuThreadCount() : 0);
+    }
+
+    private int getFilePartPoolSize(SyncOptions options) {
+        return options.getThreadCount() * Math.max(config.getMpuThreadCount(), 1);
+    }
+
+    @Override
+    public void optionsChanged(SyncOptions options) {
+        if (uploadExecutor != null) uploadExecutor.resizeThreadPool(getUploadPoolSize(options));
+        if (partScheduler != null && config.getMpuPartLimit() <= 0)
+            partScheduler.setMaxParts(getFilePartPoolSize(options));
+    }
+
+    PartUploadScheduler getPartScheduler() {
+        return partScheduler;
+    }
+
+    protected AmazonS3 createS3Client() {
+        AWSCredentials creds = new BasicAWSCredentials(config.getAccessKey(), config.getSecretKey());
+        ClientConfiguration cc = new ClientConfiguration();
+
+        if (config.getProtocol() != null)
+            cc.setProtocol(Protocol.valueOf(config.getProtocol().toString().toUpperCase()));
+
+        if (config.isLegacySignatures()) cc.setSignerOverride("S3SignerType");
+
+        if (config.getSocketTimeoutMs() >= 0) cc.setSocketTimeout(config.getSocketTimeoutMs());
+
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+                .withCredentials(new AWSStaticCredentialsProvider(creds))
+                .withClientConfiguration(cc);
+
+        if (config.getHost() != null) {
+            String endpoint = "";
+            if (config.getProtocol() != null) endpoint += config.getProtocol() + "://";
+            endpoint += config.getHost();
+            if (config.getPort() > 0) endpoint += ":" + config.getPort();
+            builder.setEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, config.getRegion()));
+        } else if (config.getRegion() != null) {
+            builder.withRegion(config.getRegion());
+        }
+
+        if (config.isDisableVHosts()) {
+            log.info("The use of virtual hosted buckets has been DISABLED.  Path style buckets will be used.");
+            builder.withPathStyleAccessEnabled(true);
+        }
+
+        return builder.build();
     }
 
     @Override
@@ -205,21 +301,75 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
 
     @Override
     public Iterable<ObjectSummary> allObjects() {
-        if (config.isIncludeVersions()) {
-            return () -> new CombinedIterator<>(Arrays.asList(new PrefixIterator(config.getKeyPrefix()), new DeletedObjectIterator(config.getKeyPrefix())));
+        if (config.isDirectoryMode()) {
+            return () -> new DirectoryIterator(config.getKeyPrefix());
+        } else if (config.isIncludeVersions()) {
+            return () -> new CombinedIterator<>(Arrays.asList(prefixIterator(config.getKeyPrefix()), new DeletedObjectIterator(config.getKeyPrefix())));
         } else {
-            return () -> new PrefixIterator(config.getKeyPrefix());
+            return () -> prefixIterator(config.getKeyPrefix());
+        }
+    }
+
+    private Iterator<ObjectSummary> prefixIterator(String prefix) {
+        if (listExecutor != null)
+            return new ParallelListingIterator(prefix, config.getListPartitionAlphabet(), config.getListThreadCount(),
+                    listExecutor, this::listPage, ParallelListingIterator.DEFAULT_QUEUE_SIZE);
+        return new PrefixIterator(prefix);
+    }
+
+    @Override
+    ParallelListingIterator.ListingPage listPage(String prefix, String delimiter, String marker) {
+        ObjectListing listing = time(() -> {
+            ListObjectsRequest request = new ListObjectsRequest().withBucketName(config.getBucketName());
+            request.setPrefix("".equals(prefix) ? null : prefix);
+            request.setDelimiter(delimiter);
+            request.setMarker(marker);
+            if (!config.isUrlDecodeKeys()) request.setEncodingType(Constants.URL_ENCODING);
+            return s3.listObjects(request);
+        }, OPERATION_LIST_OBJECTS);
+
+        List<ObjectSummary> objects = new ArrayList<>();
+        String lastKey = null;
+        for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+            lastKey = summary.getKey();
+            if (isExcluded(summary.getKey())) continue;
+            objects.add(new ObjectSummary(summary.getKey(), false, summary.getSize())
+                    .withMtime(summary.getLastModified()).withEtag(summary.getETag()));
+        }
+        for (String commonPrefix : listing.getCommonPrefixes()) {
+            if (lastKey == null || commonPrefix.compareTo(lastKey) > 0) lastKey = commonPrefix;
         }
+        String nextMarker = listing.getNextMarker() != null ? listing.getNextMarker() : lastKey;
+        return new ParallelListingIterator.ListingPage(objects, listing.getCommonPrefixes(), listing.isTruncated(), nextMarker);
+    }
+
+    private boolean isExcluded(String key) {
+        if (excludedKeyPatterns != null) {
+            for (Pattern p : excludedKeyPatterns) {
+                if (p.matcher(key).matches()) {
+                    log.info("excluding file {}: matches pattern: {}", key, p);
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
-    // TODO: implement directoryMode, using prefix+delimiter
     @Override
     public Iterable<ObjectSummary> children(ObjectSummary parent) {
+        if (config.isDirectoryMode() && parent.isDirectory()) return () -> new DirectoryIterator(parent.getIdentifier());
         return Collections.emptyList();
     }
 
     @Override
     public SyncObject loadObject(String identifier) throws ObjectNotFoundException {
+        if (config.isDirectoryMode() && identifier.endsWith("/")) {
+            try {
+                return loadObject(identifier, null);
+            } catch (ObjectNotFoundException e) {
+                return createDirectoryObject(identifier);
+            }
+        }
         return loadObject(identifier, config.isIncludeVersions());
     }
 
@@ -227,8 +377,11 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
     SyncObject loadObject(final String key, final String versionId) throws ObjectNotFoundException {
         // load metadata
         com.emc.ecs.sync.model.ObjectMetadata metadata;
+        String etag;
         try {
-            metadata = syncMetaFromS3Meta(getS3Metadata(key, versionId));
+            ObjectMetadata s3meta = getS3Metadata(key, versionId);
+            metadata = syncMetaFromS3Meta(s3meta);
+            etag = s3meta.getETag();
         } catch (AmazonS3Exception e) {
             if (e.getStatusCode() == 404) {
                 throw new ObjectNotFoundException(key + (versionId == null ? "" : " (versionId=" + versionId + ")"));
@@ -243,10 +396,15 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
         } else {
             object = new S3ObjectVersion(this, getRelativePath(key, metadata.isDirectory()), metadata);
         }
+        object.setEtag(etag);
 
         object.setLazyAcl(() -> syncAclFromS3Acl(getS3Acl(key, versionId)));
 
-        object.setLazyStream(() -> getS3DataStream(key, versionId));
+        final SyncObject fObject = object;
+        object.setLazyStream(() -> {
+            InputStream parallelStream = parallelReadStream(fObject);
+            return parallelStream != null ? parallelStream : getS3DataStream(key, versionId);
+        });
 
         return object;
     }
@@ -387,6 +545,10 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
 
                 // if object has new metadata after the stream (i.e. encryption checksum), we must update S3 again
                 if (object.isPostStreamUpdateRequired()) {
+                    // can't modify objects during a remote copy
+                    if (config.isRemoteCopy())
+                        throw new RuntimeException("You cannot apply a transforming filter on a remote-copy");
+
                     log.debug("[{}]: updating metadata after sync as required", object.getRelativePath());
                     final CopyObjectRequest cReq = new CopyObjectRequest(config.getBucketName(), identifier, config.getBucketName(), identifier);
                     cReq.setNewObjectMetadata(s3MetaFromSyncMeta(object.getMetadata()));
@@ -409,9 +571,24 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
 
         if (obj.getMetadata().isDirectory()) om.setContentType(TYPE_DIRECTORY);
 
+        // directories are written as placeholders (the source may not have one to copy)
+        if (config.isRemoteCopy() && !obj.getMetadata().isDirectory()) {
+            remoteCopy(obj, targetKey, om);
+            return;
+        }
+
+        // this storage drives the MPU itself when its parts go through the part scheduler (see configure)
+        boolean fileSource = obj.getProperty(AbstractFilesystemStorage.PROP_FILE) != null;
+        if (!obj.getMetadata().isDirectory() && (config.getMpuPartLimit() > 0 || fileSource)
+                && obj.getMetadata().getContentLength() > (long) config.getMpuThresholdMb() * 1024 * 1024) {
+            scheduledMultipartUpload(obj, targetKey, om);
+            return;
+        }
+
         PutObjectRequest req;
         File file = (File) obj.getProperty(AbstractFilesystemStorage.PROP_FILE);
         S3ProgressListener progressListener = null;
+        PartMd5InputStream partMd5Stream = null;
         if (obj.getMetadata().isDirectory()) {
             req = new PutObjectRequest(config.getBucketName(), targetKey, new ByteArrayInputStream(new byte[0]), om);
         } else if (file != null) {
@@ -421,40 +598,188 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
             InputStream stream = obj.getDataStream();
             if (options.isMonitorPerformance())
                 stream = new ProgressInputStream(stream, new PerformanceListener(getWriteWindow()));
+            long contentLength = obj.getMetadata().getContentLength();
+            if (options.isVerify() && options.isVerifyWriteEtag()
+                    && contentLength > (long) config.getMpuThresholdMb() * 1024 * 1024) {
+                // the transfer manager raises the part size to stay within the maximum part count
+                long partSize = Math.max((long) config.getMpuPartSizeMb() * 1024 * 1024,
+                        (contentLength + MAX_MPU_PARTS - 1) / MAX_MPU_PARTS);
+                stream = partMd5Stream = new PartMd5InputStream(stream, partSize);
+            }
             req = new PutObjectRequest(config.getBucketName(), targetKey, stream, om);
         }
 
         if (options.isSyncAcl())
             req.setAccessControlList(s3AclFromSyncAcl(obj.getAcl(), options.isIgnoreInvalidAcls()));
 
-        TransferManager xferManager = null;
+        // xfer manager will figure out if MPU is needed (based on threshold), do the MPU if necessary,
+        // and abort if it fails
+        final Upload upload = transferManager.upload(req, progressListener);
         try {
-            // xfer manager will figure out if MPU is needed (based on threshold), do the MPU if necessary,
-            // and abort if it fails
-            xferManager = TransferManagerBuilder.standard()
-                    .withS3Client(s3)
-                    .withExecutorFactory(() -> Executors.newFixedThreadPool(config.getMpuThreadCount()))
-                    .withMultipartUploadThreshold((long) config.getMpuThresholdMb() * 1024 * 1024)
-                    .withMinimumUploadPartSize((long) config.getMpuPartSizeMb() * 1024 * 1024)
-                    .withShutDownThreadPools(true)
-                    .build();
+            String eTag = time((Callable<String>) () -> upload.waitForUploadResult().getETag(), OPERATION_MPU);
+            log.debug("Wrote {}, etag: {}", targetKey, eTag);
+            obj.setWriteEtag(eTag);
+            if (partMd5Stream != null) obj.setWritePartMd5s(partMd5Stream.getPartMd5s());
+        } catch (Exception e) {
+            log.error("upload exception", e);
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            throw new RuntimeException("upload thread was interrupted", e);
+        }
+    }
 
-            // directly update
+    /**
+     * Uploads the object as a multipart upload whose parts are queued in the part scheduler (with the object as the
+     * owner and the real size of each part). File parts are read by the part threads; stream parts are read here in
+     * order and buffered until they are sent. An object never has more parts queued or in flight than the scheduler
+     * sends at once, so (with or without a byte budget) each stream MPU buffers at most that many parts
+     */
+    private void scheduledMultipartUpload(final SyncObject obj, final String targetKey, ObjectMetadata om) {
+        final long contentLength = obj.getMetadata().getContentLength();
+        // raise the part size to stay within the maximum part count (as the transfer manager does)
+        final long partSize = Math.max((long) config.getMpuPartSizeMb() * 1024 * 1024,
+                (contentLength + MAX_MPU_PARTS - 1) / MAX_MPU_PARTS);
+        final File file = (File) obj.getProperty(AbstractFilesystemStorage.PROP_FILE);
+        InputStream stream = null;
+        PartMd5InputStream partMd5Stream = null;
+        if (file == null) {
+            stream = obj.getDataStream();
+            if (options.isMonitorPerformance())
+                stream = new ProgressInputStream(stream, new PerformanceListener(getWriteWindow()));
+            if (options.isVerify() && options.isVerifyWriteEtag())
+                stream = partMd5Stream = new PartMd5InputStream(stream, partSize);
+        }
 
-            final Upload upload = xferManager.upload(req, progressListener);
+        final InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(config.getBucketName(), targetKey, om);
+        if (options.isSyncAcl())
+            initRequest.setAccessControlList(s3AclFromSyncAcl(obj.getAcl(), options.isIgnoreInvalidAcls()));
+
+        final InputStream fStream = stream;
+        final S3ProgressListener progressListener = file == null ? null : new ByteTransferListener(obj);
+        final Object owner = new Object(); // the parts of this upload share one queue in the scheduler
+        // without a part limit, each object sends mpuThreadCount parts at once
+        final Semaphore partPermits = new Semaphore(config.getMpuPartLimit() > 0
+                ? partScheduler.getMaxParts() : Math.max(config.getMpuThreadCount(), 1));
+        final AtomicBoolean partFailed = new AtomicBoolean();
+        String eTag = time((Function<String>) () -> {
+            String uploadId = s3.initiateMultipartUpload(initRequest).getUploadId();
+            List<Future<PartETag>> parts = new ArrayList<>();
             try {
-                String eTag = time((Callable<String>) () -> upload.waitForUploadResult().getETag(), OPERATION_MPU);
-                log.debug("Wrote {}, etag: {}", targetKey, eTag);
-            } catch (Exception e) {
-                log.error("upload exception", e);
-                if (e instanceof RuntimeException) throw (RuntimeException) e;
-                throw new RuntimeException("upload thread was interrupted", e);
+                int partNumber = 1;
+                // stop reading the source as soon as a part fails (the failure is thrown below)
+                for (long offset = 0; offset < contentLength && !partFailed.get(); offset += partSize, partNumber++) {
+                    long length = Math.min(partSize, contentLength - offset);
+                    // wait for an earlier part of this object to finish before reading another
+                    partPermits.acquire();
+                    final UploadPartRequest partRequest = new UploadPartRequest().withBucketName(config.getBucketName())
+                            .withKey(targetKey).withUploadId(uploadId).withPartNumber(partNumber).withPartSize(length);
+                    final byte[] buffer;
+                    if (file != null) {
+                        buffer = null;
+                        partRequest.withFile(file).withFileOffset(offset).withGeneralProgressListener(progressListener);
+                    } else {
+                        try {
+                            buffer = readPart(fStream, (int) length);
+                        } catch (IOException | RuntimeException e) {
+                            partPermits.release();
+                            throw e;
+                        }
+                        partRequest.withInputStream(new ByteArrayInputStream(buffer, 0, (int) length));
+                    }
+                    // the buffer belongs to whichever runs first: the part, or done() if it was cancelled before it
+                    // started (a cancelled task never runs its body)
+                    final AtomicBoolean bufferClaimed = new AtomicBoolean();
+                    FutureTask<PartETag> part = new FutureTask<PartETag>(() -> {
+                        if (!bufferClaimed.compareAndSet(false, true)) throw new CancellationException();
+                        try {
+                            return s3.uploadPart(partRequest).getPartETag();
+                        } catch (RuntimeException e) {
+                            partFailed.set(true);
+                            throw e;
+                        } finally {
+                            if (buffer != null) BufferPool.getSharedPool().release(buffer);
+                        }
+                    }) {
+                        @Override
+                        protected void done() {
+                            if (buffer != null && bufferClaimed.compareAndSet(false, true))
+                                BufferPool.getSharedPool().release(buffer);
+                            partPermits.release();
+                        }
+                    };
+                    parts.add(part);
+                    // blocks while the byte budget is exhausted
+                    try {
+                        partScheduler.execute(owner, length, part);
+                    } catch (RuntimeException e) {
+                        part.cancel(false); // returns the buffer
+                        throw e;
+                    }
+                }
+
+                List<PartETag> partETags = new ArrayList<>();
+                for (Future<PartETag> part : parts) {
+                    partETags.add(part.get());
+                }
+                return s3.completeMultipartUpload(new CompleteMultipartUploadRequest(config.getBucketName(), targetKey,
+                        uploadId, partETags)).getETag();
+            } catch (Throwable t) {
+                for (Future<PartETag> part : parts) {
+                    part.cancel(true);
+                }
+                try {
+                    s3.abortMultipartUpload(new AbortMultipartUploadRequest(config.getBucketName(), targetKey, uploadId));
+                } catch (Throwable t2) {
+                    log.warn("could not abort MPU " + uploadId + " of " + targetKey, t2);
+                }
+                if (t instanceof InterruptedException) Thread.currentThread().interrupt();
+                if (t instanceof ExecutionException) t = t.getCause();
+                if (t instanceof RuntimeException) throw (RuntimeException) t;
+                throw new RuntimeException("multipart upload of " + targetKey + " failed", t);
             }
-        } finally {
-            // NOTE: apparently if we do not reference xferManager again after the upload() call (as in this finally
-            // block), the JVM will for some crazy reason determine it is eligible for GC and call finalize(), which
-            // shuts down the thread pool, fails the upload, and gives absolutely no indication of what's going on...
-            if (xferManager != null) xferManager.shutdownNow(false);
+        }, OPERATION_MPU);
+        log.debug("Wrote {} as MPU; etag: {}", targetKey, eTag);
+        obj.setWriteEtag(eTag);
+        if (partMd5Stream != null) obj.setWritePartMd5s(partMd5Stream.getPartMd5s());
+    }
+
+    private byte[] readPart(InputStream stream, int length) throws IOException {
+        byte[] buffer = BufferPool.getSharedPool().acquireHeap(length);
+        try {
+            int read = 0;
+            while (read < length) {
+                int c = stream.read(buffer, read, length - read);
+                if (c == -1) throw new IOException(String.format("stream ended after %d bytes of a %d-byte part", read, length));
+                read += c;
+            }
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            BufferPool.getSharedPool().release(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the object from the source bucket without reading its data. The transfer manager issues a single copy
+     * request, or a multipart copy (UploadPartCopy) for objects over 5GB
+     */
+    private void remoteCopy(SyncObject obj, String targetKey, ObjectMetadata om) {
+        String sourceKey = source.getIdentifier(obj.getRelativePath(), false);
+        final CopyObjectRequest copyRequest = new CopyObjectRequest(source.getConfig().getBucketName(), sourceKey,
+                config.getBucketName(), targetKey);
+        if (obj instanceof S3ObjectVersion) copyRequest.setSourceVersionId(((S3ObjectVersion) obj).getVersionId());
+        if (options.isSyncMetadata()) copyRequest.setNewObjectMetadata(om);
+        if (options.isSyncAcl())
+            copyRequest.setAccessControlList(s3AclFromSyncAcl(obj.getAcl(), options.isIgnoreInvalidAcls()));
+
+        final Copy copy = transferManager.copy(copyRequest);
+        try {
+            // the write ETag is not kept; the source data was never read, so there is nothing to check it against
+            String eTag = time((Callable<String>) () -> copy.waitForCopyResult().getETag(), OPERATION_REMOTE_COPY);
+            log.debug("Copied {} to {}, etag: {}", sourceKey, targetKey, eTag);
+        } catch (Exception e) {
+            log.error("copy exception", e);
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            throw new RuntimeException("copy thread was interrupted", e);
         }
     }
 
@@ -466,6 +791,40 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
         }, OPERATION_DELETE_OBJECT);
     }
 
+    @Override
+    public Map<String, String> deleteBatch(List<String> identifiers) {
+        final List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
+        for (String identifier : identifiers) {
+            keys.add(new DeleteObjectsRequest.KeyVersion(identifier));
+        }
+        Map<String, String> failures = new HashMap<>();
+        try {
+            // quiet mode only returns the keys that failed
+            time((Function<Void>) () -> {
+                s3.deleteObjects(new DeleteObjectsRequest(config.getBucketName()).withKeys(keys).withQuiet(true));
+                return null;
+            }, OPERATION_DELETE_OBJECTS);
+        } catch (MultiObjectDeleteException e) {
+            for (MultiObjectDeleteException.DeleteError error : e.getErrors()) {
+                failures.put(error.getKey(), error.getCode() + ": " + error.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public void close() {
+        try {
+            // stops any listing threads that are still blocked on an abandoned iterator
+            if (listExecutor != null) listExecutor.shutdownNow();
+            // also shuts down the upload pool
+            if (transferManager != null) transferManager.shutdownNow(false);
+            if (partScheduler != null) partScheduler.close();
+        } finally {
+            super.close();
+        }
+    }
+
     // COMMON S3 CALLS
 
     private ObjectMetadata getS3Metadata(final String key, final String versionId) {
@@ -489,6 +848,20 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
         }, OPERATION_OPEN_DATA_STREAM);
     }
 
+    @Override
+    InputStream getS3DataRange(final String key, final String versionId, final String etag, final long offset, final long length) {
+        return time((Function<InputStream>) () -> {
+            GetObjectRequest request = new GetObjectRequest(config.getBucketName(), key, versionId)
+                    .withRange(offset, offset + length - 1);
+            if (etag != null) request.withMatchingETagConstraint(etag);
+            S3Object s3Object = s3.getObject(request);
+            // the SDK returns null instead of throwing when a constraint fails (412)
+            if (s3Object == null)
+                throw new RuntimeException(String.format("%s changed while it was being read (ETag %s no longer matches)", key, etag));
+            return s3Object.getObjectContent();
+        }, OPERATION_OPEN_DATA_STREAM);
+    }
+
     private List<S3VersionSummary> getS3Versions(final String key) {
         List<S3VersionSummary> versions = new ArrayList<>();
 
@@ -621,7 +994,6 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
 
         @Override
         protected ObjectSummary getNextObject() {
-            nextObjectLoop:
             while (true) {
                 if (listing == null || (!objectIterator.hasNext() && listing.isTruncated())) {
                     getNextBatch();
@@ -632,16 +1004,10 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
                     String key = summary.getKey();
 
                     // apply exclusion filter
-                    if (excludedKeyPatterns != null) {
-                        for (Pattern p : excludedKeyPatterns) {
-                            if (p.matcher(key).matches()) {
-                                log.info("excluding file {}: matches pattern: {}", key, p);
-                                continue nextObjectLoop;
-                            }
-                        }
-                    }
+                    if (isExcluded(key)) continue;
 
-                    return new ObjectSummary(key, false, summary.getSize());
+                    return new ObjectSummary(key, false, summary.getSize())
+                            .withMtime(summary.getLastModified()).withEtag(summary.getETag());
                 }
 
                 // list is not truncated and iterators are finished; no more objects
@@ -726,6 +1092,10 @@ public class AwsS3Storage extends AbstractS3Storage<AwsS3Config> {
         }
     }
 
+    /**
+     * Sends part uploads to the part scheduler and everything else to the upload pool. The transfer manager submits
+     * all parts of an upload from the thread that runs that upload, so the submitting thread identifies the object
+     */
     private class ByteTransferListener implements S3ProgressListener {
         private final SyncObject object;
 
@@ -24,6 +24,7 @@ import com.emc.ecs.sync.storage.SyncStorage;
 import com.emc.ecs.sync.storage.file.AbstractFilesystemStorage;
 import com.emc.ecs.sync.util.*;
 import com.emc.object.Protocol;
+import com.emc.object.Range;
 import com.emc.object.s3.*;
 import com.emc.object.s3.bean.*;
 import com.emc.object.s3.jersey.S3JerseyClient;
@@ -42,6 +43,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 
@@ -66,6 +68,8 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
     private S3Client s3;
     private PerformanceWindow sourceReadWindow;
     private EcsS3Storage source;
+    private EnhancedThreadPoolExecutor listExecutor;
+    private PartUploadScheduler partScheduler;
 
     @Override
     public void configure(SyncStorage source, Iterator<SyncFilter> filters, SyncStorage target) {
@@ -121,12 +125,7 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
             s3Config.setGeoPinningEnabled(true);
         }
 
-        if (config.isApacheClientEnabled()) {
-            s3 = new S3JerseyClient(s3Config);
-        } else {
-            System.setProperty("http.maxConnections", "1000");
-            s3 = new S3JerseyClient(s3Config, new URLConnectionClientHandler());
-        }
+        s3 = createS3Client(s3Config);
 
         boolean bucketExists = s3.bucketExists(config.getBucketName());
 
@@ -140,6 +139,14 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
 
         if (config.getKeyPrefix() == null) config.setKeyPrefix(""); // make sure keyPrefix isn't null
 
+        if (source == this && config.getListThreadCount() > 1 && !config.isDirectoryMode()) {
+            if (!config.isUrlEncodeKeys())
+                listExecutor = new EnhancedThreadPoolExecutor(config.getListThreadCount(),
+                        new LinkedBlockingDeque<Runnable>(), "s3-list-pool");
+            else
+                log.warn("parallel listing is not supported when urlEncodeKeys is enabled; the bucket will be listed sequentially");
+        }
+
         if (target == this) {
             // create bucket if it doesn't exist
             if (!bucketExists && config.isCreateBucket()) {
@@ -158,6 +165,13 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
                 config.setMpuPartSizeMb(MIN_PART_SIZE_MB);
             }
 
+            // parts from all objects share one scheduler (instead of mpuThreadCount threads per object)
+            if (partScheduler != null) partScheduler.close();
+            partScheduler = null;
+            if (config.getMpuPartLimit() > 0)
+                partScheduler = new PartUploadScheduler(config.getMpuPartLimit(),
+                        (long) config.getMpuBufferMb() * 1024 * 1024, "ecs-part-pool");
+
             if (source != null) sourceReadWindow = source.getReadWindow();
         }
 
@@ -165,6 +179,9 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
         if (!bucketExists)
             throw new ConfigurationException("The bucket " + config.getBucketName() + " does not exist.");
 
+        if (config.isDirectoryMode() && config.isIncludeVersions())
+            throw new ConfigurationException("directoryMode is not supported with includeVersions");
+
         // if syncing versions, make sure plugins support it and bucket has versioning enabled
         if (config.isIncludeVersions()) {
             if (!(source instanceof AbstractS3Storage && target instanceof AbstractS3Storage))
@@ -181,6 +198,15 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
         }
     }
 
+    protected S3Client createS3Client(S3Config s3Config) {
+        if (config.isApacheClientEnabled()) {
+            return new S3JerseyClient(s3Config);
+        } else {
+            System.setProperty("http.maxConnections", "1000");
+            return new S3JerseyClient(s3Config, new URLConnectionClientHandler());
+        }
+    }
+
     @Override
     public String getRelativePath(String identifier, boolean directory) {
         String relativePath = identifier;
@@ -213,21 +239,66 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
 
     @Override
     public Iterable<ObjectSummary> allObjects() {
-        if (config.isIncludeVersions()) {
-            return () -> new CombinedIterator<>(Arrays.asList(new PrefixIterator(config.getKeyPrefix()), new DeletedObjectIterator(config.getKeyPrefix())));
+        if (config.isDirectoryMode()) {
+            return () -> new DirectoryIterator(config.getKeyPrefix());
+        } else if (config.isIncludeVersions()) {
+            return () -> new CombinedIterator<>(Arrays.asList(prefixIterator(config.getKeyPrefix()), new DeletedObjectIterator(config.getKeyPrefix())));
         } else {
-            return () -> new PrefixIterator(config.getKeyPrefix());
+            return () -> prefixIterator(config.getKeyPrefix());
         }
     }
 
-    // TODO: implement directoryMode, using prefix+delimiter
+    private Iterator<ObjectSummary> prefixIterator(String prefix) {
+        if (listExecutor != null)
+            return new ParallelListingIterator(prefix, config.getListPartitionAlphabet(), config.getListThreadCount(),
+                    listExecutor, this::listPage, ParallelListingIterator.DEFAULT_QUEUE_SIZE);
+        return new PrefixIterator(prefix);
+    }
+
+    @Override
+    ParallelListingIterator.ListingPage listPage(String prefix, String delimiter, String marker) {
+        ListObjectsResult listing = time(() -> {
+            ListObjectsRequest request = new ListObjectsRequest(config.getBucketName());
+            request.setPrefix("".equals(prefix) ? null : prefix);
+            request.setDelimiter(delimiter);
+            request.setMarker(marker);
+            if (config.isUrlEncodeKeys()) request.setEncodingType(EncodingType.url);
+            return s3.listObjects(request);
+        }, OPERATION_LIST_OBJECTS);
+
+        List<ObjectSummary> objects = new ArrayList<>();
+        String lastKey = null;
+        for (S3Object object : listing.getObjects()) {
+            lastKey = object.getKey();
+            objects.add(new ObjectSummary(object.getKey(), false, object.getSize())
+                    .withMtime(object.getLastModified()).withEtag(object.getETag()));
+        }
+        List<String> commonPrefixes = listing.getCommonPrefixes();
+        if (commonPrefixes == null) commonPrefixes = Collections.emptyList();
+        for (String commonPrefix : commonPrefixes) {
+            if (lastKey == null || commonPrefix.compareTo(lastKey) > 0) lastKey = commonPrefix;
+        }
+        String nextMarker = listing.getNextMarker() != null ? listing.getNextMarker() : lastKey;
+        return new ParallelListingIterator.ListingPage(objects, commonPrefixes, listing.isTruncated(), nextMarker);
+    }
+
     @Override
     public Iterable<ObjectSummary> children(ObjectSummary parent) {
+        if (config.isDirectoryMode() && parent.isDirectory()) return () -> new DirectoryIterator(parent.getIdentifier());
         return Collections.emptyList();
     }
 
     @Override
     public SyncObject loadObject(String identifier) throws ObjectNotFoundException {
+        if (config.isDirectoryMode() && identifier.endsWith("/")) {
+            // pure remote-copy does not HEAD objects, so there's no way to tell if a placeholder exists
+            if (config.isRemoteCopy() && !options.isSyncMetadata()) return createDirectoryObject(identifier);
+            try {
+                return loadObject(identifier, null);
+            } catch (ObjectNotFoundException e) {
+                return createDirectoryObject(identifier);
+            }
+        }
         return loadObject(identifier, config.isIncludeVersions());
     }
 
@@ -235,9 +306,12 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
     SyncObject loadObject(final String key, final String versionId) {
         // load metadata
         com.emc.ecs.sync.model.ObjectMetadata metadata;
+        String etag = null;
         try {
             if (!config.isRemoteCopy() || options.isSyncMetadata()) {
-                metadata = syncMetaFromS3Meta(getS3Metadata(key, versionId));
+                S3ObjectMetadata s3meta = getS3Metadata(key, versionId);
+                metadata = syncMetaFromS3Meta(s3meta);
+                etag = s3meta.getETag();
             } else {
                 metadata = new ObjectMetadata(); // for pure remote-copy; avoid HEAD requests
             }
@@ -255,10 +329,15 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
         } else {
             object = new S3ObjectVersion(this, getRelativePath(key, metadata.isDirectory()), metadata);
         }
+        object.setEtag(etag);
 
         object.setLazyAcl(() -> syncAclFromS3Acl(getS3Acl(key, versionId)));
 
-        object.setLazyStream(() -> getS3DataStream(key, versionId));
+        final SyncObject fObject = object;
+        object.setLazyStream(() -> {
+            InputStream parallelStream = parallelReadStream(fObject);
+            return parallelStream != null ? parallelStream : getS3DataStream(key, versionId);
+        });
 
         return object;
     }
@@ -470,8 +549,11 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
             PutObjectResult result = time(() -> s3.putObject(req), OPERATION_PUT_OBJECT);
 
             log.debug("Wrote {} etag: {}", targetKey, result.getETag());
+            obj.setWriteEtag(result.getETag());
         } else {
             LargeFileUploader uploader;
+            long partSize = (long) config.getMpuPartSizeMb() * 1024 * 1024;
+            PartMd5InputStream partMd5Stream = null;
 
             // we can read file parts in parallel
             File file = (File) obj.getProperty(AbstractFilesystemStorage.PROP_FILE);
@@ -484,9 +566,13 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
                 InputStream dataStream = obj.getDataStream();
                 if (options.isMonitorPerformance())
                     dataStream = new ProgressInputStream(dataStream, new PerformanceListener(getWriteWindow()));
+                if (options.isVerify() && options.isVerifyWriteEtag())
+                    dataStream = partMd5Stream = new PartMd5InputStream(dataStream, partSize);
                 uploader = new LargeFileUploader(s3, config.getBucketName(), targetKey, dataStream, obj.getMetadata().getContentLength());
             }
-            uploader.withPartSize((long) config.getMpuPartSizeMb() * 1024 * 1024).withThreads(config.getMpuThreadCount());
+            uploader.withPartSize(partSize);
+            if (partScheduler != null) uploader.setExecutorService(partScheduler.newObjectExecutor(partSize));
+            else uploader.setThreads(config.getMpuThreadCount());
             uploader.setObjectMetadata(om);
 
             if (options.isSyncAcl()) uploader.setAcl(acl);
@@ -497,6 +583,8 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
                 return null;
             }, OPERATION_MPU);
             log.debug("Wrote {} as MPU; etag: {}", targetKey, uploader.getETag());
+            obj.setWriteEtag(uploader.getETag());
+            if (partMd5Stream != null) obj.setWritePartMd5s(partMd5Stream.getPartMd5s());
         }
     }
 
@@ -508,6 +596,35 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
         }, OPERATION_DELETE_OBJECT);
     }
 
+    @Override
+    public Map<String, String> deleteBatch(List<String> identifiers) {
+        final List<ObjectKey> keys = new ArrayList<>();
+        for (String identifier : identifiers) {
+            keys.add(new ObjectKey(identifier, null));
+        }
+        DeleteObjectsResult result = time(() -> s3.deleteObjects(new DeleteObjectsRequest(config.getBucketName()).withKeys(keys)),
+                OPERATION_DELETE_OBJECTS);
+        Map<String, String> failures = new HashMap<>();
+        for (AbstractDeleteResult deleteResult : result.getResults()) {
+            if (deleteResult instanceof DeleteError) {
+                DeleteError error = (DeleteError) deleteResult;
+                failures.put(error.getKey(), error.getCode() + ": " + error.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public void close() {
+        try {
+            // stops any listing threads that are still blocked on an abandoned iterator
+            if (listExecutor != null) listExecutor.shutdownNow();
+            if (partScheduler != null) partScheduler.close();
+        } finally {
+            super.close();
+        }
+    }
+
     // COMMON S3 CALLS
 
     private S3ObjectMetadata getS3Metadata(final String key, final String versionId) {
@@ -525,6 +642,22 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
         }, OPERATION_OPEN_DATA_STREAM);
     }
 
+    @Override
+    InputStream getS3DataRange(final String key, final String versionId, final String etag, final long offset, final long length) {
+        return time(() -> {
+            GetObjectRequest request = new GetObjectRequest(config.getBucketName(), key).withVersionId(versionId)
+                    .withRange(new Range(offset, offset + length - 1));
+            if (etag != null) request.withIfMatch(etag);
+            try {
+                return s3.getObject(request, InputStream.class).getObject();
+            } catch (S3Exception e) {
+                if (e.getHttpCode() == 412)
+                    throw new RuntimeException(String.format("%s changed while it was being read (ETag %s no longer matches)", key, etag), e);
+                throw e;
+            }
+        }, OPERATION_OPEN_DATA_STREAM);
+    }
+
     private List<AbstractVersion> getS3Versions(final String key) {
         List<AbstractVersion> versions = new ArrayList<>();
 
@@ -665,7 +798,8 @@ public class EcsS3Storage extends AbstractS3Storage<EcsS3Config> {
 
             if (objectIterator.hasNext()) {
                 S3Object object = objectIterator.next();
-                return new ObjectSummary(object.getKey(), false, object.getSize());
+                return new ObjectSummary(object.getKey(), false, object.getSize())
+                        .withMtime(object.getLastModified()).withEtag(object.getETag());
             }
 
             // list is not truncated and iterators are finished; no more objects
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.storage.s3;
+
+import com.emc.ecs.sync.model.ObjectSummary;
+import com.emc.ecs.sync.util.ReadOnlyIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists a bucket using several concurrent listing streams and merges them into a single iterator. The keyspace under
+ * the prefix is split into ranges, either by the common prefixes found with a delimiter listing or by a fixed
+ * alphabet of leading characters. Each range is listed (start-after marker to inclusive end key) as a separate task
+ * on the supplied executor. When a range is still truncated and there are fewer ranges in flight than listing threads,
+ * the remainder of the range is split in two at a key sampled between the current marker and the range end, so a
+ * skewed keyspace still keeps all threads busy.
+ * <p>
+ * Listed objects are handed to the consumer through a bounded queue, so listing threads block (and memory stays
+ * flat) when the consumer can't keep up. Object order is not preserved across ranges.
+ */
+class ParallelListingIterator extends ReadOnlyIterator<ObjectSummary> {
+    private static final Logger log = LoggerFactory.getLogger(ParallelListingIterator.class);
+
+    static final String DELIMITER = "/";
+    static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    // split points are calculated on this many characters (after the range prefix) in the printable ASCII range
+    private static final int SPLIT_DEPTH = 6;
+    private static final char SPLIT_MIN_CHAR = ' ', SPLIT_MAX_CHAR = '~';
+    private static final int SPLIT_RADIX = SPLIT_MAX_CHAR - SPLIT_MIN_CHAR + 1;
+
+    private static final ObjectSummary END_MARKER = new ObjectSummary("", false, 0);
+
+    private final String prefix;
+    private final String alphabet;
+    private final int threadCount;
+    private final ExecutorService executor;
+    private final PageLister lister;
+    private final BlockingQueue<ObjectSummary> queue;
+    private final AtomicInteger outstandingRanges = new AtomicInteger();
+    private volatile Throwable failure;
+    private boolean started, finished;
+
+    /**
+     * @param prefix      the prefix to list under (empty for the whole bucket)
+     * @param alphabet    if not null, initial ranges are split by these leading characters; otherwise by common prefixes
+     * @param threadCount the number of concurrent listing streams to aim for (should match the executor size)
+     */
+    ParallelListingIterator(String prefix, String alphabet, int threadCount, ExecutorService executor,
+                            PageLister lister, int queueSize) {
+        this.prefix = prefix == null ? "" : prefix;
+        this.alphabet = alphabet == null || alphabet.isEmpty() ? null : alphabet;
+        this.threadCount = threadCount;
+        this.executor = executor;
+        this.lister = lister;
+        this.queue = new LinkedBlockingQueue<>(queueSize);
+    }
+
+    @Override
+    protected ObjectSummary getNextObject() {
+        if (finished) return null;
+        if (!started) start();
+        try {
+            ObjectSummary summary = queue.take();
+            if (summary == END_MARKER) {
+                finished = true;
+                if (failure != null) throw new RuntimeException("parallel listing failed", failure);
+                return null;
+            }
+            return summary;
+        } catch (InterruptedException e) {
+            throw new RuntimeException("interrupted while waiting for listing results", e);
+        }
+    }
+
+    private void start() {
+        started = true;
+        // hold a reference until all initial ranges are submitted, so the listing can't end early
+        outstandingRanges.incrementAndGet();
+        if (alphabet != null) {
+            for (Range range : alphabetRanges(prefix, alphabet)) {
+                submit(range);
+            }
+        } else {
+            submit(new Range(prefix, DELIMITER, null, null));
+        }
+        complete();
+    }
+
+    private void submit(Range range) {
+        outstandingRanges.incrementAndGet();
+        try {
+            executor.execute(new RangeTask(range));
+        } catch (RejectedExecutionException e) {
+            fail(e);
+        }
+    }
+
+    private void complete() {
+        if (outstandingRanges.decrementAndGet() == 0) endOfListing();
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) failure = t;
+        endOfListing();
+    }
+
+    private void endOfListing() {
+        // make room for the marker if necessary (the consumer will stop at the marker anyway after a failure)
+        while (!queue.offer(END_MARKER)) {
+            if (failure == null) {
+                try {
+                    queue.put(END_MARKER);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            queue.clear();
+        }
+    }
+
+    private void emit(ObjectSummary summary) throws InterruptedException {
+        if (failure != null) throw new InterruptedException("listing aborted");
+        queue.put(summary);
+    }
+
+    /**
+     * Splits the prefix keyspace by the given leading characters. Ranges are (startAfter, end], so every key falls
+     * into exactly one of them, including keys that start with characters not in the alphabet
+     */
+    static List<Range> alphabetRanges(String prefix, String alphabet) {
+        SortedSet<String> boundaries = new TreeSet<>();
+        for (char c : alphabet.toCharArray()) {
+            boundaries.add(prefix + c);
+        }
+        List<Range> ranges = new ArrayList<>();
+        String startAfter = null;
+        for (String boundary : boundaries) {
+            ranges.add(new Range(prefix, null, startAfter, boundary));
+            startAfter = boundary;
+        }
+        ranges.add(new Range(prefix, null, startAfter, null));
+        return ranges;
+    }
+
+    /**
+     * @return a key between <code>low</code> (exclusive) and <code>high</code> (exclusive; null means no upper bound)
+     * that shares the range prefix, or null if the range is too narrow to split
+     */
+    static String splitPoint(String prefix, String low, String high) {
+        long lowValue = keyValue(prefix, low, SPLIT_MIN_CHAR);
+        long highValue = high == null ? maxKeyValue() : keyValue(prefix, high, SPLIT_MIN_CHAR);
+        if (highValue - lowValue < 2) return null;
+
+        long midValue = lowValue + (highValue - lowValue) / 2;
+        char[] chars = new char[SPLIT_DEPTH];
+        for (int i = SPLIT_DEPTH - 1; i >= 0; i--) {
+            chars[i] = (char) (SPLIT_MIN_CHAR + midValue % SPLIT_RADIX);
+            midValue /= SPLIT_RADIX;
+        }
+        String mid = prefix + new String(chars);
+
+        // characters outside the sampled range are approximated, so make sure the point is really inside the range
+        if (mid.compareTo(low) <= 0 || (high != null && mid.compareTo(high) >= 0)) return null;
+        return mid;
+    }
+
+    private static long keyValue(String prefix, String key, char pad) {
+        long value = 0;
+        for (int i = 0; i < SPLIT_DEPTH; i++) {
+            int index = prefix.length() + i;
+            char c = index < key.length() ? key.charAt(index) : pad;
+            if (c < SPLIT_MIN_CHAR) c = SPLIT_MIN_CHAR;
+            if (c > SPLIT_MAX_CHAR) c = SPLIT_MAX_CHAR;
+            value = value * SPLIT_RADIX + (c - SPLIT_MIN_CHAR);
+        }
+        return value;
+    }
+
+    private static long maxKeyValue() {
+        long value = 1;
+        for (int i = 0; i < SPLIT_DEPTH; i++) {
+            value *= SPLIT_RADIX;
+        }
+        return value - 1;
+    }
+
+    private class RangeTask implements Runnable {
+        private final Range range;
+
+        RangeTask(Range range) {
+            this.range = range;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String marker = range.startAfter;
+                int prefixCount = 0;
+                while (failure == null) {
+                    ListingPage page = lister.listPage(range.prefix, range.delimiter, marker);
+                    for (ObjectSummary summary : page.getObjects()) {
+                        if (range.contains(summary.getIdentifier())) emit(summary);
+                    }
+                    // each common prefix becomes its own (flat) range
+                    for (String commonPrefix : page.getCommonPrefixes()) {
+                        if (range.contains(commonPrefix)) {
+                            submit(new Range(commonPrefix, null, null, null));
+                            prefixCount++;
+                        }
+                    }
+                    if (!page.isTruncated() || page.getNextMarker() == null) break;
+                    marker = page.getNextMarker();
+                    if (range.end != null && marker.compareTo(range.end) >= 0) break;
+
+                    // hand off the rest of this range if there are idle listing threads
+                    if (outstandingRanges.get() < threadCount) {
+                        String split = splitPoint(range.prefix, marker, range.end);
+                        if (split != null) {
+                            log.debug("splitting listing range {} at {}", range, split);
+                            submit(new Range(range.prefix, range.delimiter, split, range.end));
+                            range.end = split;
+                        }
+                    }
+                }
+                if (prefixCount > 0)
+                    log.info("parallel listing discovered {} common prefixes in range {}", prefixCount, range);
+                complete();
+            } catch (InterruptedException e) {
+                fail(e);
+            } catch (Throwable t) {
+                log.warn("parallel listing of range " + range + " failed", t);
+                fail(t);
+            }
+        }
+    }
+
+    static class Range {
+        final String prefix;
+        final String delimiter;
+        final String startAfter;
+        String end;
+
+        /**
+         * @param delimiter  if not null, common prefixes found in this range are listed as separate ranges
+         * @param startAfter exclusive start key (null means the beginning of the prefix)
+         * @param end        inclusive end key (null means the end of the prefix)
+         */
+        Range(String prefix, String delimiter, String startAfter, String end) {
+            this.prefix = prefix;
+            this.delimiter = delimiter;
+            this.startAfter = startAfter;
+            this.end = end;
+        }
+
+        /**
+         * A key or common prefix belongs to exactly one range. A listing may return entries outside of it when the
+         * range was split (a common prefix that spans the split point is returned to both sides)
+         */
+        boolean contains(String key) {
+            return (startAfter == null || key.compareTo(startAfter) > 0) && (end == null || key.compareTo(end) <= 0);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + prefix + "](" + startAfter + ", " + end + "]";
+        }
+    }
+
+    /**
+     * Implemented by each S3 plugin to issue a single list-objects call
+     */
+    interface PageLister {
+        /**
+         * @param prefix    the prefix to list under (empty for the whole bucket)
+         * @param delimiter the delimiter, or null for a flat listing
+         * @param marker    the start-after marker, or null to start at the beginning of the prefix
+         */
+        ListingPage listPage(String prefix, String delimiter, String marker);
+    }
+
+    static class ListingPage {
+        private final List<ObjectSummary> objects;
+        private final List<String> commonPrefixes;
+        private final boolean truncated;
+        private final String nextMarker;
+
+        /**
+         * @param objects    the (already filtered) objects in this page
+         * @param nextMarker the marker to continue listing from (the last key or common prefix in the raw page)
+         */
+        ListingPage(List<ObjectSummary> objects, List<String> commonPrefixes, boolean truncated, String nextMarker) {
+            this.objects = objects;
+            this.commonPrefixes = commonPrefixes == null ? Collections.<String>emptyList() : commonPrefixes;
+            this.truncated = truncated;
+            this.nextMarker = nextMarker;
+        }
+
+        List<ObjectSummary> getObjects() {
+            return objects;
+        }
+
+        List<String> getCommonPrefixes() {
+            return commonPrefixes;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        String getNextMarker() {
+            return nextMarker;
+        }
+    }
+}
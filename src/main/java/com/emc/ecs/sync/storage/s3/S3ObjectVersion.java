@@ -87,20 +87,20 @@ public class S3ObjectVersion extends SyncObject {
     }
 
     /**
-     * Generates a standard MD5 (from the object data) for individual versions, but for an instance that holds the entire
-     * version list, generates an aggregate MD5 (of the individual MD5s) of all versions
+     * Generates a standard checksum (from the object data) for individual versions, but for an instance that holds the
+     * entire version list, generates an aggregate MD5 (of the individual checksums) of all versions
      */
     @Override
-    public String getMd5Hex(boolean forceRead) {
+    public String getChecksumHex(boolean forceRead) {
         // only the latest version (the one that is referenced by the ObjectContext) will have this property
         List versions = (List) getProperty(AbstractS3Storage.PROP_OBJECT_VERSIONS);
-        if (versions == null) return super.getMd5Hex(forceRead);
+        if (versions == null) return super.getChecksumHex(forceRead);
 
         // build canonical string of all versions (deleteMarker, eTag) and hash it
         StringBuilder canonicalString = new StringBuilder("[");
         for (Object versionO : versions) {
             S3ObjectVersion version = (S3ObjectVersion) versionO;
-            String md5 = (version == this) ? super.getMd5Hex(forceRead) : version.getMd5Hex(forceRead);
+            String md5 = (version == this) ? super.getChecksumHex(forceRead) : version.getChecksumHex(forceRead);
             canonicalString.append("{")
                     .append("\"deleteMarker\":").append(version.isDeleteMarker())
                     .append("\"md5\":\"").append(md5).append("\"")
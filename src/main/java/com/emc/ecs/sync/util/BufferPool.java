@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A shared pool of I/O buffers for the copy loops in storage plugins and streams. Buffers are recycled in
+ * power-of-two size classes from {@link #MIN_BUFFER_SIZE} to {@link #MAX_BUFFER_SIZE}; heap arrays and direct
+ * buffers are kept separately. Each size class is a fixed number of slots that are claimed and filled with
+ * compare-and-set, so acquiring and releasing never blocks or allocates. When a size class is empty, a new buffer is
+ * allocated (a miss), and when it is full (or the pool already retains its maximum), a released buffer is left to the
+ * GC. Requests larger than
+ * {@link #MAX_BUFFER_SIZE} are never pooled.
+ * <p>
+ * A buffer must be released at most once, and must not be used after it is released. Because a buffer may be larger
+ * than requested, callers that depend on the size (i.e. to size a request) must not rely on its length.
+ */
+public class BufferPool {
+    public static final int MIN_BUFFER_SIZE = 4 * 1024; // 4k
+    public static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024; // 16M
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 64 * 1024 * 1024; // 64M per type
+
+    static final int MIN_SIZE_BITS = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    static final int SIZE_CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SIZE_BITS + 1;
+    static final int MAX_SLOTS = 64;
+
+    private static final BufferPool sharedPool = new BufferPool(DEFAULT_MAX_RETAINED_BYTES);
+
+    /**
+     * @return the pool shared by all sync jobs in this JVM
+     */
+    public static BufferPool getSharedPool() {
+        return sharedPool;
+    }
+
+    /**
+     * @return the index of the smallest size class that will hold <code>size</code> bytes (-1 if it is too large to
+     * be pooled)
+     */
+    static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE) return 0;
+        if (size > MAX_BUFFER_SIZE) return -1;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SIZE_BITS;
+    }
+
+    static int classSize(int sizeClass) {
+        return MIN_BUFFER_SIZE << sizeClass;
+    }
+
+    private final Buffers<byte[]> heap;
+    private final Buffers<ByteBuffer> direct;
+
+    /**
+     * @param maxRetainedBytes the most idle memory to keep for each type of buffer
+     */
+    public BufferPool(long maxRetainedBytes) {
+        heap = new Buffers<byte[]>(maxRetainedBytes) {
+            @Override
+            byte[] allocate(int size) {
+                return new byte[size];
+            }
+
+            @Override
+            int size(byte[] buffer) {
+                return buffer.length;
+            }
+        };
+        direct = new Buffers<ByteBuffer>(maxRetainedBytes) {
+            @Override
+            ByteBuffer allocate(int size) {
+                return ByteBuffer.allocateDirect(size);
+            }
+
+            @Override
+            int size(ByteBuffer buffer) {
+                return buffer.capacity();
+            }
+        };
+    }
+
+    /**
+     * @return a heap buffer of at least <code>minSize</code> bytes (its contents are undefined)
+     */
+    public byte[] acquireHeap(int minSize) {
+        return heap.acquire(minSize);
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer != null) heap.release(buffer);
+    }
+
+    /**
+     * @return a cleared direct buffer with a capacity of at least <code>minSize</code> bytes
+     */
+    public ByteBuffer acquireDirect(int minSize) {
+        ByteBuffer buffer = direct.acquire(minSize);
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect()) direct.release(buffer);
+    }
+
+    public Buffers<byte[]> getHeap() {
+        return heap;
+    }
+
+    public Buffers<ByteBuffer> getDirect() {
+        return direct;
+    }
+
+    /**
+     * The size classes and statistics of one type of buffer
+     */
+    public static abstract class Buffers<T> {
+        private final AtomicReferenceArray<T>[] slots;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final AtomicLong outstandingBytes = new AtomicLong();
+        private final AtomicLong retainedBytes = new AtomicLong();
+        private final long maxRetainedBytes;
+
+        @SuppressWarnings("unchecked")
+        Buffers(long maxRetainedBytes) {
+            this.maxRetainedBytes = maxRetainedBytes;
+            slots = new AtomicReferenceArray[SIZE_CLASS_COUNT];
+            for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+                long slotCount = Math.max(1, Math.min(MAX_SLOTS, maxRetainedBytes / classSize(i)));
+                slots[i] = new AtomicReferenceArray<>((int) slotCount);
+            }
+        }
+
+        abstract T allocate(int size);
+
+        abstract int size(T buffer);
+
+        T acquire(int minSize) {
+            int sizeClass = sizeClass(minSize);
+            T buffer = null;
+            if (sizeClass >= 0) {
+                AtomicReferenceArray<T> classSlots = slots[sizeClass];
+                int start = startSlot(classSlots.length());
+                for (int i = 0; i < classSlots.length() && buffer == null; i++) {
+                    int slot = (start + i) % classSlots.length();
+                    if (classSlots.get(slot) != null) buffer = classSlots.getAndSet(slot, null);
+                }
+            }
+            if (buffer != null) {
+                hits.increment();
+                retainedBytes.addAndGet(-size(buffer));
+            } else {
+                misses.increment();
+                buffer = allocate(sizeClass >= 0 ? classSize(sizeClass) : minSize);
+            }
+            outstandingBytes.addAndGet(size(buffer));
+            return buffer;
+        }
+
+        void release(T buffer) {
+            int size = size(buffer);
+            int sizeClass = sizeClass(size);
+            // ignore buffers that did not come from the pool
+            if (sizeClass >= 0 && classSize(sizeClass) != size) return;
+            outstandingBytes.addAndGet(-size);
+            if (sizeClass < 0) return;
+            // reserve the space first, so concurrent releases can't exceed the limit
+            if (retainedBytes.addAndGet(size) <= maxRetainedBytes) {
+                AtomicReferenceArray<T> classSlots = slots[sizeClass];
+                int start = startSlot(classSlots.length());
+                for (int i = 0; i < classSlots.length(); i++) {
+                    int slot = (start + i) % classSlots.length();
+                    if (classSlots.get(slot) == null && classSlots.compareAndSet(slot, null, buffer)) return;
+                }
+            }
+            retainedBytes.addAndGet(-size);
+        }
+
+        // spread threads across the slots to reduce CAS contention
+        private int startSlot(int slotCount) {
+            long id = Thread.currentThread().getId();
+            return (int) ((id ^ (id >>> 16)) & 0x7fffffff) % slotCount;
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /**
+         * @return the fraction of requests that were satisfied by a pooled buffer (0 if there were no requests)
+         */
+        public double getHitRate() {
+            long hits = getHits(), total = hits + getMisses();
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        /**
+         * @return the total size of buffers that have been acquired and not yet released
+         */
+        public long getOutstandingBytes() {
+            return outstandingBytes.get();
+        }
+
+        /**
+         * @return the total size of idle buffers held by the pool
+         */
+        public long getRetainedBytes() {
+            return retainedBytes.get();
+        }
+    }
+}
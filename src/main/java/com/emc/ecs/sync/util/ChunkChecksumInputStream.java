@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calculates a checksum of each consecutive <code>chunkSize</code> chunk of the data as it is read. The last chunk may
+ * be shorter than <code>chunkSize</code>
+ */
+public class ChunkChecksumInputStream extends FilterInputStream {
+    private final long chunkSize;
+    private final StreamChecksum checksum;
+    private final List<byte[]> chunkChecksums = new ArrayList<>();
+    private long chunkBytes;
+    private long totalBytes;
+
+    public ChunkChecksumInputStream(InputStream in, long chunkSize, ChecksumAlgorithm algorithm) {
+        super(in);
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive");
+        this.chunkSize = chunkSize;
+        this.checksum = StreamChecksum.create(algorithm);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) update(new byte[]{(byte) b}, 0, 1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int c = super.read(b, off, len);
+        if (c > 0) update(b, off, c);
+        return c;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        throw new IOException("skip is not supported (all data must be digested)");
+    }
+
+    // a reset would digest the same bytes twice
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private synchronized void update(byte[] b, int off, int len) {
+        totalBytes += len;
+        while (len > 0) {
+            int count = (int) Math.min(len, chunkSize - chunkBytes);
+            checksum.update(b, off, count);
+            chunkBytes += count;
+            off += count;
+            len -= count;
+            if (chunkBytes == chunkSize) {
+                chunkChecksums.add(checksum.digest());
+                chunkBytes = 0;
+            }
+        }
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public ChecksumAlgorithm getAlgorithm() {
+        return checksum.getAlgorithm();
+    }
+
+    /**
+     * @return the total number of bytes read so far
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the checksum of each chunk read so far (including the last, partial chunk). Call once all data is read
+     */
+    public synchronized List<byte[]> getChunkChecksums() {
+        if (chunkBytes > 0) {
+            chunkChecksums.add(checksum.digest());
+            chunkBytes = 0;
+        }
+        return chunkChecksums;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks outstanding tasks across one or more {@link EnhancedThreadPoolExecutor}s and signals the moment the last one
+ * finishes. Tasks are counted when they are submitted (before they can possibly run) and released when they finish
+ * executing, so a task that submits follow-up work (i.e. a query task submitting children or a sync task submitting a
+ * retry) always keeps the count above zero until that work is counted.
+ * <p>
+ * The submitter holds one reference of its own from construction until {@link #submissionComplete()}, so the count
+ * can't reach zero while the source is still being enumerated. The time until the source is fully enumerated is
+ * reported as the transfer phase (the pools are being fed) and the time after it as the drain phase (no more objects
+ * will be found; remaining queued work is finishing). Enumeration ends when {@link #submissionComplete()} has been
+ * called <em>and</em> none of the {@link #setSubmitters(ControllableExecutor...) submitters} (the executors that list
+ * and query the source) has unfinished tasks; in a recursive job, most objects are found by query tasks long after the
+ * root objects are submitted.
+ */
+public class CompletionTracker {
+    private final AtomicLong outstandingTasks = new AtomicLong(1); // submitter's reference
+    private final CountDownLatch completeLatch = new CountDownLatch(1);
+    private final long startTime;
+    private volatile ControllableExecutor[] submitters = new ControllableExecutor[0];
+    private volatile long drainStartTime;
+    private volatile long completeTime;
+    private volatile boolean submissionComplete;
+    private volatile boolean aborted;
+
+    public CompletionTracker() {
+        startTime = System.currentTimeMillis();
+    }
+
+    public void taskSubmitted() {
+        outstandingTasks.incrementAndGet();
+    }
+
+    public void taskFinished() {
+        long remaining = outstandingTasks.decrementAndGet();
+        // submitter executors count a task as finished before they call this, so the last one to finish sees them idle
+        if (submissionComplete && drainStartTime == 0) checkDrainStart();
+        if (remaining == 0) {
+            completeTime = System.currentTimeMillis();
+            completeLatch.countDown();
+        }
+    }
+
+    /**
+     * Call once all root tasks have been submitted; releases the submitter's reference
+     */
+    public synchronized void submissionComplete() {
+        if (submissionComplete) return;
+        submissionComplete = true;
+        taskFinished();
+    }
+
+    /**
+     * Sets the executors whose tasks find more objects to submit (i.e. list and query executors). Their tasks must
+     * also be tracked by this tracker. The drain phase doesn't start until none of them has unfinished tasks
+     */
+    public void setSubmitters(ControllableExecutor... submitters) {
+        this.submitters = submitters;
+    }
+
+    private synchronized void checkDrainStart() {
+        if (drainStartTime > 0 || aborted) return;
+        for (ControllableExecutor submitter : submitters) {
+            if (submitter.getUnfinishedTasks() > 0) return;
+        }
+        drainStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Wakes up any thread waiting for completion (i.e. when the job is terminated)
+     */
+    public void abort() {
+        aborted = true;
+        if (completeTime == 0) completeTime = System.currentTimeMillis();
+        completeLatch.countDown();
+    }
+
+    /**
+     * Waits until all tracked tasks are finished (or {@link #abort()} is called)
+     */
+    public void awaitCompletion() throws InterruptedException {
+        completeLatch.await();
+    }
+
+    /**
+     * @return true if all tracked tasks finished (or the tracker was aborted) within the timeout
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return completeLatch.await(timeout, unit);
+    }
+
+    public boolean isComplete() {
+        return completeTime > 0 && !aborted;
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    public long getOutstandingTasks() {
+        return outstandingTasks.get();
+    }
+
+    /**
+     * @return time (in ms) spent feeding the pools, from start until the source was fully enumerated (or until now)
+     */
+    public long getTransferTime() {
+        long drainStart = drainStartTime;
+        long end = drainStart > 0 ? drainStart : aborted ? completeTime : System.currentTimeMillis();
+        return end - startTime;
+    }
+
+    /**
+     * @return time (in ms) spent draining the pools after the source was fully enumerated (0 if still enumerating)
+     */
+    public long getDrainTime() {
+        long drainStart = drainStartTime;
+        if (drainStart == 0) return 0;
+        long end = completeTime > 0 ? completeTime : System.currentTimeMillis();
+        return end - drainStart;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An executor that can be resized, paused and resumed while running. Implemented by
+ * {@link EnhancedThreadPoolExecutor} (a dedicated thread pool) and {@link SharedScheduler.Lane} (a concurrency-limited
+ * view of a shared work-stealing pool or of virtual threads).
+ */
+public interface ControllableExecutor extends ExecutorService {
+    /**
+     * Submits the task and, in the case where the queue is full, blocks until space is available
+     *
+     * @throws IllegalStateException if the executor is shutting down or terminated
+     */
+    void blockingSubmit(Runnable task);
+
+    <T> Future<T> blockingSubmit(Callable<T> task);
+
+    /**
+     * Changes the number of tasks that may execute concurrently. Running tasks are not interrupted
+     */
+    void resizeThreadPool(int newPoolSize);
+
+    /**
+     * Running tasks will complete, but no new tasks will be started until resumed
+     *
+     * @return true if the state of the executor was changed from running to paused, false if already paused
+     */
+    boolean pause();
+
+    boolean isPaused();
+
+    /**
+     * @return true if the state of the executor was changed from paused to running, false if already running
+     */
+    boolean resume();
+
+    /**
+     * Stops any new tasks from executing while allowing running tasks to complete (queued tasks are discarded)
+     */
+    void stop();
+
+    int getActiveCount();
+
+    long getUnfinishedTasks();
+
+    BlockingQueue<Runnable> getQueue();
+
+    void setCompletionTracker(CompletionTracker completionTracker);
+
+    CompletionTracker getCompletionTracker();
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) using slicing-by-8 tables. Only used on Java 8; later JDKs provide java.util.zip.CRC32C, which
+ * is a hardware-accelerated intrinsic (see {@link StreamChecksum})
+ */
+public class Crc32c implements Checksum {
+    private static final int POLYNOMIAL = 0x82F63B78; // reversed
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++) {
+                int previous = TABLES[t - 1][i];
+                TABLES[t][i] = (previous >>> 8) ^ TABLES[0][previous & 0xff];
+            }
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) throw new ArrayIndexOutOfBoundsException();
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3],
+                t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int c = crc;
+        int end = off + len;
+        for (; off + 8 <= end; off += 8) {
+            int low = c ^ ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24);
+            c = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+                    ^ t3[b[off + 4] & 0xff] ^ t2[b[off + 5] & 0xff] ^ t1[b[off + 6] & 0xff] ^ t0[b[off + 7] & 0xff];
+        }
+        for (; off < end; off++) {
+            c = (c >>> 8) ^ t0[(c ^ b[off]) & 0xff];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+}
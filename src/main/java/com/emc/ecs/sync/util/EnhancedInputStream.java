@@ -14,31 +14,23 @@
  */
 package com.emc.ecs.sync.util;
 
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
+
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 /**
  * InputStream wrapper that counts the number of bytes that have been read and (optionally) calculates a checksum on the
- * data
+ * data (MD5 by default; see {@link ChecksumAlgorithm} for the others)
  */
 public class EnhancedInputStream extends FilterInputStream {
     public static final int UNSIZED = -1;
 
-    protected static MessageDigest createMd5Digest() {
-        try {
-            return MessageDigest.getInstance("md5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Could not initialize MD5", e);
-        }
-    }
-
     private long size;
     private boolean closed = false;
     private long bytesRead = 0;
+    private StreamChecksum checksum;
 
     public EnhancedInputStream(InputStream in) {
         this(in, UNSIZED, false);
@@ -53,8 +45,16 @@ public class EnhancedInputStream extends FilterInputStream {
     }
 
     public EnhancedInputStream(InputStream in, long size, boolean calculateMd5) {
-        super(calculateMd5 ? new DigestInputStream(in, createMd5Digest()) : in);
+        this(in, size, calculateMd5 ? ChecksumAlgorithm.md5 : null);
+    }
+
+    /**
+     * @param checksumAlgorithm the checksum to calculate on the data (null for none)
+     */
+    public EnhancedInputStream(InputStream in, long size, ChecksumAlgorithm checksumAlgorithm) {
+        super(in);
         this.size = size;
+        if (checksumAlgorithm != null) this.checksum = StreamChecksum.create(checksumAlgorithm);
     }
 
 	@Override
@@ -68,6 +68,7 @@ public class EnhancedInputStream extends FilterInputStream {
 		int c = super.read(b, off, len);
 		if(c != -1) {
 			bytesRead += c;
+			if (checksum != null) checksum.update(b, off, c);
 		}
 		return c;
 	}
@@ -76,7 +77,10 @@ public class EnhancedInputStream extends FilterInputStream {
 	public int read() throws IOException {
         checkClosed();
 		int v = super.read();
-		if (v != -1) bytesRead++;
+		if (v != -1) {
+			bytesRead++;
+			if (checksum != null) checksum.update(v);
+		}
 		return v;
 	}
 
@@ -107,9 +111,25 @@ public class EnhancedInputStream extends FilterInputStream {
 		return bytesRead;
 	}
 
+    /**
+     * @return the algorithm of the checksum calculated on the data, or null if there is none
+     */
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksum == null ? null : checksum.getAlgorithm();
+    }
+
+    /**
+     * @return the checksum of all data read (may only be called once, after the stream is closed)
+     */
+    public byte[] getChecksum() {
+        if (checksum == null) throw new UnsupportedOperationException("checksum is not enabled");
+        if (!closed) throw new UnsupportedOperationException("cannot get checksum until stream is closed");
+        return checksum.digest();
+    }
+
     public byte[] getMd5Digest() {
-        if (!(in instanceof DigestInputStream)) throw new UnsupportedOperationException("MD5 checksum is not enabled");
-        if (!closed) throw new UnsupportedOperationException("cannot get MD5 until stream is closed");
-        return ((DigestInputStream) in).getMessageDigest().digest();
+        if (getChecksumAlgorithm() != ChecksumAlgorithm.md5)
+            throw new UnsupportedOperationException("MD5 checksum is not enabled");
+        return getChecksum();
     }
 }
@@ -24,7 +24,7 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
+public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor implements ControllableExecutor {
     private static final Logger log = LoggerFactory.getLogger(EnhancedThreadPoolExecutor.class);
 
     public static final String DEFAULT_POOL_NAME = "x-pool";
@@ -37,6 +37,7 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
     private final Object submitLock = new Object();
     private AtomicLong unfinishedTasks = new AtomicLong();
     private AtomicInteger activeTasks = new AtomicInteger();
+    private volatile CompletionTracker completionTracker;
 
     public EnhancedThreadPoolExecutor(int poolSize, BlockingDeque<Runnable> workDeque) {
         this(poolSize, workDeque, DEFAULT_POOL_NAME);
@@ -97,6 +98,7 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
     protected void afterExecute(Runnable r, Throwable t) {
         long aTasks = activeTasks.decrementAndGet();
         long uTasks = unfinishedTasks.decrementAndGet();
+        if (completionTracker != null) completionTracker.taskFinished();
 
         // triple-check to make sure we don't shutdown too soon
         if (shutdownWhenIdle && aTasks == 0 && uTasks == 0 && workDeque.isEmpty()) {
@@ -149,25 +151,43 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
     @Override
     @Nonnull
     public Future<?> submit(Runnable task) {
-        Future<?> future = super.submit(task);
-        unfinishedTasks.incrementAndGet();
-        return future;
+        trackSubmit();
+        try {
+            Future<?> future = super.submit(task);
+            unfinishedTasks.incrementAndGet();
+            return future;
+        } catch (RuntimeException e) {
+            untrackSubmit();
+            throw e;
+        }
     }
 
     @Override
     @Nonnull
     public <T> Future<T> submit(Runnable task, T result) {
-        Future<T> future = super.submit(task, result);
-        unfinishedTasks.incrementAndGet();
-        return future;
+        trackSubmit();
+        try {
+            Future<T> future = super.submit(task, result);
+            unfinishedTasks.incrementAndGet();
+            return future;
+        } catch (RuntimeException e) {
+            untrackSubmit();
+            throw e;
+        }
     }
 
     @Override
     @Nonnull
     public <T> Future<T> submit(Callable<T> task) {
-        Future<T> future = super.submit(task);
-        unfinishedTasks.incrementAndGet();
-        return future;
+        trackSubmit();
+        try {
+            Future<T> future = super.submit(task);
+            unfinishedTasks.incrementAndGet();
+            return future;
+        } catch (RuntimeException e) {
+            untrackSubmit();
+            throw e;
+        }
     }
 
     /**
@@ -262,6 +282,27 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
         return activeTasks.get();
     }
 
+    /**
+     * Tasks submitted to this executor from now on will be counted by the tracker (the tracker is notified when each
+     * one has finished executing). Several executors can share the same tracker
+     */
+    public void setCompletionTracker(CompletionTracker completionTracker) {
+        this.completionTracker = completionTracker;
+    }
+
+    public CompletionTracker getCompletionTracker() {
+        return completionTracker;
+    }
+
+    // count the task before it is queued, so it can't finish before it is counted
+    private void trackSubmit() {
+        if (completionTracker != null) completionTracker.taskSubmitted();
+    }
+
+    private void untrackSubmit() {
+        if (completionTracker != null) completionTracker.taskFinished();
+    }
+
     public long getUnfinishedTasks() {
         return unfinishedTasks.get();
     }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, fixed-memory latency histogram in the style of HdrHistogram. Values are counted in log-linear buckets:
+ * each power-of-two range is split into {@link #SUB_BUCKET_HALF_COUNT} linear sub-buckets, so every recorded value is
+ * accurate to within ~3% (values below {@link #SUB_BUCKET_HALF_COUNT} * 2 are exact). Values above
+ * {@link #MAX_VALUE} are clamped.
+ * <p>
+ * To keep concurrent recording cheap, counts are striped across several arrays (like a LongAdder). A thread's stripe
+ * is chosen by hashing its id, so threads may share a stripe. Each stripe is {@link #BUCKET_COUNT} longs (~9KB), so a
+ * histogram starts with a single stripe and doubles its stripes only when a record finds its stripe contended, up to
+ * the number of processors (at most {@link #MAX_STRIPES}). An operation that is never recorded concurrently keeps
+ * one stripe. Readers merge the stripes into a {@link Snapshot}. Counts are never reset, so interval statistics are
+ * calculated by subtracting an earlier snapshot, which can't lose concurrent updates.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_BITS; // 32
+    static final int MAX_MAGNITUDE = 40; // in nanoseconds, this is ~18 minutes
+    public static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+    static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    static final int MAX_STRIPES = 16;
+
+    private final int maxStripes;
+    private volatile AtomicLongArray[] stripes;
+
+    public LatencyHistogram() {
+        maxStripes = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors())));
+        stripes = new AtomicLongArray[]{new AtomicLongArray(BUCKET_COUNT)};
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        int bucket = bucketIndex(value);
+        AtomicLongArray[] current = stripes;
+        AtomicLongArray stripe = current[stripeIndex(current.length)];
+        long count = stripe.get(bucket);
+        if (!stripe.compareAndSet(bucket, count, count + 1)) {
+            // another thread is recording to this stripe; add stripes so the next records are spread out
+            if (current.length < maxStripes) grow(current);
+            stripe.incrementAndGet(bucket);
+        }
+    }
+
+    private int stripeIndex(int stripeCount) {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & (stripeCount - 1);
+    }
+
+    /**
+     * Doubles the stripes (existing stripes are kept, so no counts are lost)
+     */
+    private synchronized void grow(AtomicLongArray[] current) {
+        if (stripes != current) return; // already grown
+        AtomicLongArray[] grown = new AtomicLongArray[current.length * 2];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        for (int i = current.length; i < grown.length; i++) {
+            grown[i] = new AtomicLongArray(BUCKET_COUNT);
+        }
+        stripes = grown;
+    }
+
+    int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * @return the merged counts of all stripes (concurrent updates may or may not be included)
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new Snapshot(counts);
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                total += stripe.get(i);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Reads several percentiles directly from the live counts without taking a snapshot (does not allocate)
+     *
+     * @param percentiles in ascending order, i.e. {50, 90, 99, 99.9}
+     * @param values      receives the value at each percentile (0 if nothing was recorded)
+     */
+    public void getValuesAtPercentiles(double[] percentiles, long[] values) {
+        long totalCount = getTotalCount();
+        int p = 0;
+        long cumulative = 0, lastValue = 0;
+        for (int i = 0; i < BUCKET_COUNT && p < percentiles.length && totalCount > 0; i++) {
+            long count = 0;
+            for (AtomicLongArray stripe : stripes) {
+                count += stripe.get(i);
+            }
+            if (count == 0) continue;
+            cumulative += count;
+            lastValue = highestEquivalentValue(i);
+            while (p < percentiles.length && cumulative >= countAtPercentile(percentiles[p], totalCount)) {
+                values[p++] = lastValue;
+            }
+        }
+        // covers an empty histogram and values recorded concurrently
+        while (p < percentiles.length) {
+            values[p++] = lastValue;
+        }
+    }
+
+    static long countAtPercentile(double percentile, long totalCount) {
+        return Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+    }
+
+    static int bucketIndex(long value) {
+        // values that fit in the sub-buckets are their own index
+        if (value < SUB_BUCKET_HALF_COUNT << 1) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS; // >= 1
+        // the top (SUB_BUCKET_BITS + 1) bits of the value, which is in [HALF_COUNT, 2 * HALF_COUNT)
+        int mantissa = (int) (value >>> shift);
+        return shift * SUB_BUCKET_HALF_COUNT + mantissa;
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_HALF_COUNT << 1) return index;
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long mantissa = index - shift * SUB_BUCKET_HALF_COUNT;
+        return mantissa << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_HALF_COUNT << 1) return index;
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long mantissa = index - shift * SUB_BUCKET_HALF_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of the histogram counts
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        /**
+         * @return the values recorded since the <code>earlier</code> snapshot was taken
+         */
+        public Snapshot minus(Snapshot earlier) {
+            if (earlier == null) return this;
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(delta);
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * @param percentile i.e. 99.9
+         * @return the (highest equivalent) value at or below which the given percentage of values fall, or 0 if
+         * nothing was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0) return 0;
+            long target = countAtPercentile(percentile, totalCount);
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= target) return highestEquivalentValue(i);
+            }
+            return getMax();
+        }
+
+        public long getMin() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) return lowestEquivalentValue(i);
+            }
+            return 0;
+        }
+
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) return highestEquivalentValue(i);
+            }
+            return 0;
+        }
+    }
+}
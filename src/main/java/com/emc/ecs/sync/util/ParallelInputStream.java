@@ -20,12 +20,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.concurrent.Future;
 
 public class ParallelInputStream extends FilterInputStream {
     private static final Logger log = LoggerFactory.getLogger(ParallelInputStream.class);
 
     ParallelReader reader;
-    Thread readerThread;
+    Future<?> readerFuture;
 
     public ParallelInputStream(InputStream source, int bufferSize) throws IOException {
         this(source, bufferSize, null);
@@ -34,18 +35,15 @@ public class ParallelInputStream extends FilterInputStream {
     public ParallelInputStream(InputStream source, int bufferSize, ProgressListener sourceListener) throws IOException {
         super(null);
 
-        // create a piped stream (ring buffer) -- the readerThread will be the write side and calling code
-        // will be the read side
-        PipedInputStream pin = new PipedInputStream(bufferSize);
-        PipedOutputStream pout = new PipedOutputStream(pin);
+        // create a pipe (ring buffer) -- the reader task will be the write side and calling code will be the read side
+        RingBufferPipe pipe = new RingBufferPipe(bufferSize);
 
-        in = pin;
+        in = pipe.getInputStream();
 
         if (sourceListener != null) source = new ProgressInputStream(source, sourceListener);
 
-        reader = new ParallelReader(source, pout);
-        readerThread = new Thread(reader);
-        readerThread.start();
+        reader = new ParallelReader(source, pipe.getOutputStream());
+        readerFuture = RingBufferPipe.getProducerExecutor().submit(reader);
     }
 
     @Override
@@ -79,17 +77,12 @@ public class ParallelInputStream extends FilterInputStream {
             super.close();
         } finally {
 
-            // if the reader is active, closing the pipe (above) will throw an exception in PipedOutputStream.write
-            // if it is waiting for buffer space however, it will need to be interrupted or it will be frozen indefinitely
-            if (!reader.isComplete() && !reader.isFailed())
-                readerThread.interrupt();
-
             // if the reader is complete, this does nothing; if close was called early, this will wait until the reader
-            // thread is notified of the close (an IOException will be thrown from PipedOutputStream.write)
+            // is notified of the close (closing the pipe wakes it, and an IOException is thrown from the next write)
             try {
-                readerThread.join();
+                readerFuture.get();
             } catch (Throwable t) {
-                log.warn("could not join reader thread", t);
+                log.warn("could not join reader task", t);
             }
         }
     }
@@ -108,16 +101,24 @@ public class ParallelInputStream extends FilterInputStream {
 
         @Override
         public synchronized void run() {
-            try (OutputStream outputStream = out) { // make sure the write-side of the piped stream is always closed
-                byte[] chunk = new byte[32 * 1024];
+            byte[] chunk = BufferPool.getSharedPool().acquireHeap(32 * 1024);
+            try {
                 int read;
                 while ((read = in.read(chunk)) != -1) {
-                    outputStream.write(chunk, 0, read);
+                    out.write(chunk, 0, read);
                 }
                 complete = true;
             } catch (Throwable t) {
-                failed = true;
+                // must be set before the pipe is closed, so the consumer can't mistake the failure for EOF
                 error = t;
+                failed = true;
+            } finally {
+                BufferPool.getSharedPool().release(chunk);
+                try {
+                    out.close(); // make sure the write-side of the pipe is always closed
+                } catch (Throwable t) {
+                    log.warn("could not close pipe", t);
+                }
             }
         }
 
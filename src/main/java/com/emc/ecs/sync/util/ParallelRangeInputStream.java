@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import com.emc.ecs.sync.model.SyncObject;
+import com.emc.ecs.sync.storage.RangeReadable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the data of an object as consecutive ranges, with up to <code>threads</code> ranges being read at once. Each
+ * range is read completely into a buffer (so the connection is released as soon as possible) and the buffers are
+ * returned in order. At most <code>threads</code> + 1 ranges are held in memory. The ranges are read by the given
+ * executor, which is owned (and shut down) by the caller
+ */
+public class ParallelRangeInputStream extends InputStream {
+    private final RangeReadable storage;
+    private final SyncObject object;
+    private final long size;
+    private final int rangeSize;
+    private final int threads;
+    private final ExecutorService executor;
+    private final Deque<Future<Range>> ranges = new ArrayDeque<>();
+    private long nextOffset;
+    private Range current;
+    private boolean closed;
+
+    public ParallelRangeInputStream(RangeReadable storage, SyncObject object, long size, int rangeSize, int threads,
+                                    ExecutorService executor) {
+        if (rangeSize <= 0) throw new IllegalArgumentException("rangeSize must be positive");
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive");
+        this.storage = storage;
+        this.object = object;
+        this.size = size;
+        this.rangeSize = rangeSize;
+        this.threads = threads;
+        this.executor = executor;
+        while (ranges.size() < threads && nextOffset < size) {
+            readNextRange();
+        }
+    }
+
+    private void readNextRange() {
+        final long offset = nextOffset;
+        final int length = (int) Math.min(rangeSize, size - offset);
+        nextOffset += length;
+        ranges.addLast(executor.submit(new Callable<Range>() {
+            @Override
+            public Range call() throws Exception {
+                byte[] buffer = BufferPool.getSharedPool().acquireHeap(length);
+                try (InputStream in = storage.readRange(object, offset, length)) {
+                    int read = 0;
+                    while (read < length) {
+                        int c = in.read(buffer, read, length - read);
+                        if (c == -1)
+                            throw new IOException(String.format("range at offset %d ended after %d bytes (expected %d)",
+                                    offset, read, length));
+                        read += c;
+                    }
+                    return new Range(buffer, length);
+                } catch (Throwable t) {
+                    BufferPool.getSharedPool().release(buffer);
+                    throw t;
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return true if there is data in the current range (waits for the next range if necessary)
+     */
+    private boolean nextRange() throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        if (current != null && current.position < current.length) return true;
+
+        if (current != null) BufferPool.getSharedPool().release(current.buffer);
+        current = null;
+        if (ranges.isEmpty()) return false;
+
+        Future<Range> future = ranges.removeFirst();
+        if (nextOffset < size) readNextRange(); // keep the window full while we wait
+        try {
+            current = future.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for range");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("could not read range", e.getCause());
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextRange()) return -1;
+        return current.buffer[current.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!nextRange()) return -1;
+        int count = Math.min(len, current.length - current.position);
+        System.arraycopy(current.buffer, current.position, b, off, count);
+        current.position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.length - current.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (current != null) BufferPool.getSharedPool().release(current.buffer);
+        current = null;
+        for (Future<Range> future : ranges) {
+            if (!future.cancel(true) && future.isDone()) {
+                try {
+                    BufferPool.getSharedPool().release(future.get().buffer);
+                } catch (Exception e) {
+                    // the range failed; there is no buffer to release
+                }
+            }
+        }
+        ranges.clear();
+    }
+
+    private static class Range {
+        private final byte[] buffer;
+        private final int length;
+        private int position;
+
+        Range(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
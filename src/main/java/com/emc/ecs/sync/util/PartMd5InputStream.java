@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Calculates the MD5 of each consecutive <code>partSize</code> chunk of the data as it is read. Used to predict the
+ * ETag of a multipart upload, which is the MD5 of the concatenated part MD5s, followed by "-" and the part count
+ */
+public class PartMd5InputStream extends ChunkChecksumInputStream {
+    /**
+     * @return the multipart ETag (without quotes) for the given part MD5s
+     */
+    public static String multipartEtag(List<byte[]> partMd5s) {
+        MessageDigest digest = createDigest();
+        for (byte[] partMd5 : partMd5s) {
+            digest.update(partMd5);
+        }
+        StringBuilder etag = new StringBuilder();
+        for (byte b : digest.digest()) {
+            etag.append(String.format("%02x", b));
+        }
+        return etag.append("-").append(partMd5s.size()).toString();
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not initialize MD5", e);
+        }
+    }
+
+    public PartMd5InputStream(InputStream in, long partSize) {
+        super(in, partSize, ChecksumAlgorithm.md5);
+    }
+
+    /**
+     * @return the MD5 of each part read so far (including the last, partial part). Call once all data is read
+     */
+    public List<byte[]> getPartMd5s() {
+        return getChunkChecksums();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules multipart upload parts from all objects of a storage plugin. At most <code>maxParts</code> parts are
+ * uploaded at once, and (if <code>byteBudget</code> is positive) the parts that are queued or in flight never total
+ * more than <code>byteBudget</code> bytes; submitting a part that would exceed the budget blocks until earlier parts
+ * complete. Each object (owner) has its own queue, and idle slots are given to the owners in turn, so the parts of one
+ * large object cannot starve the others.
+ * <p>
+ * Closing the scheduler cancels the parts that have not started (tasks that are {@link Future}s are cancelled, so
+ * anyone waiting on them is released)
+ */
+public class PartUploadScheduler implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(PartUploadScheduler.class);
+
+    private final EnhancedThreadPoolExecutor executor;
+    private final long byteBudget;
+    private int maxParts;
+
+    // owners with queued parts, in the order they will be served
+    private final Deque<Object> readyOwners = new ArrayDeque<>();
+    private final Map<Object, Deque<Part>> ownerQueues = new HashMap<>();
+    private int partsInFlight;
+    private long bytesScheduled;
+    private boolean closed;
+
+    public PartUploadScheduler(int maxParts, long byteBudget, String poolName) {
+        if (maxParts <= 0) throw new IllegalArgumentException("maxParts must be positive");
+        this.maxParts = maxParts;
+        this.byteBudget = byteBudget;
+        this.executor = new EnhancedThreadPoolExecutor(maxParts, new LinkedBlockingDeque<Runnable>(), poolName);
+    }
+
+    /**
+     * Queues a part of the owner's upload. Blocks while the byte budget is exhausted
+     *
+     * @param owner identifies the object (parts of the same owner are started in the order they are submitted)
+     * @param size  the size of the part in bytes (or an estimate)
+     */
+    public void execute(Object owner, long size, Runnable task) {
+        // a part larger than the whole budget is only admitted when nothing else is scheduled
+        long charge = byteBudget > 0 ? Math.min(size, byteBudget) : size;
+        synchronized (this) {
+            try {
+                while (!closed && byteBudget > 0 && bytesScheduled > 0 && bytesScheduled + charge > byteBudget) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("interrupted while waiting for the MPU byte budget", e);
+            }
+            if (closed) throw new RejectedExecutionException("part scheduler is closed");
+
+            bytesScheduled += charge;
+            Deque<Part> queue = ownerQueues.get(owner);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                ownerQueues.put(owner, queue);
+                readyOwners.addLast(owner);
+            }
+            queue.addLast(new Part(charge, task));
+            dispatch();
+        }
+    }
+
+    /**
+     * @return an executor that submits its tasks as parts of one object (for APIs that take an executor per upload).
+     * Shutting it down does not affect the scheduler
+     */
+    public ExecutorService newObjectExecutor(long partSize) {
+        return new ObjectExecutor(partSize);
+    }
+
+    // starts as many queued parts as the limits allow, taking one part from each owner in turn
+    private synchronized void dispatch() {
+        while (partsInFlight < maxParts && !readyOwners.isEmpty()) {
+            Object owner = readyOwners.removeFirst();
+            Deque<Part> queue = ownerQueues.get(owner);
+            final Part part = queue.removeFirst();
+            if (queue.isEmpty()) ownerQueues.remove(owner);
+            else readyOwners.addLast(owner);
+
+            partsInFlight++;
+            try {
+                // execute (not submit), so parts that never start are returned by shutdownNow and can be cancelled
+                executor.execute(part);
+            } catch (RuntimeException e) {
+                partsInFlight--;
+                bytesScheduled -= part.size;
+                notifyAll();
+                throw e;
+            }
+        }
+    }
+
+    private synchronized void partComplete(Part part) {
+        partsInFlight--;
+        bytesScheduled -= part.size;
+        notifyAll();
+        if (!closed) dispatch();
+    }
+
+    public synchronized void setMaxParts(int maxParts) {
+        if (maxParts <= 0) throw new IllegalArgumentException("maxParts must be positive");
+        this.maxParts = maxParts;
+        executor.resizeThreadPool(maxParts);
+        dispatch();
+    }
+
+    public synchronized int getMaxParts() {
+        return maxParts;
+    }
+
+    public synchronized int getPartsInFlight() {
+        return partsInFlight;
+    }
+
+    public synchronized long getBytesScheduled() {
+        return bytesScheduled;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (!ownerQueues.isEmpty()) log.warn("{} objects still had queued parts when closed", ownerQueues.size());
+            for (Deque<Part> queue : ownerQueues.values()) {
+                for (Part part : queue) part.cancel();
+            }
+            ownerQueues.clear();
+            readyOwners.clear();
+            notifyAll();
+        }
+        for (Runnable runnable : executor.shutdownNow()) {
+            if (runnable instanceof Part) ((Part) runnable).cancel();
+        }
+    }
+
+    private class Part implements Runnable {
+        private final long size;
+        private final Runnable task;
+
+        Part(long size, Runnable task) {
+            this.size = size;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                partComplete(this);
+            }
+        }
+
+        void cancel() {
+            if (task instanceof Future) ((Future<?>) task).cancel(false);
+        }
+    }
+
+    private class ObjectExecutor extends AbstractExecutorService {
+        private final long partSize;
+        private int pendingParts;
+        private boolean shutdown;
+
+        ObjectExecutor(long partSize) {
+            this.partSize = partSize;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            synchronized (this) {
+                if (shutdown) throw new RejectedExecutionException("executor is shut down");
+                pendingParts++;
+            }
+            try {
+                // done() also runs if the part is cancelled before it starts (i.e. when the scheduler is closed)
+                PartUploadScheduler.this.execute(this, partSize, new FutureTask<Void>(command, null) {
+                    @Override
+                    protected void done() {
+                        if (isCancelled() && command instanceof Future) ((Future<?>) command).cancel(false);
+                        partDone();
+                    }
+                });
+            } catch (RuntimeException e) {
+                partDone();
+                throw e;
+            }
+        }
+
+        private synchronized void partDone() {
+            pendingParts--;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && pendingParts == 0;
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+    }
+}
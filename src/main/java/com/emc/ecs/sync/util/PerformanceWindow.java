@@ -17,30 +17,44 @@ package com.emc.ecs.sync.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Tracks statistics for a measurement using a sliding window.  For example, this class can track bytes transferred
  * over time and provide an average bytes/second over the window.
+ * <p>
+ * All windows in the JVM are driven by a single shared timer thread (see {@link Ticker}), and each window keeps its
+ * slices in a fixed-size ring buffer, so completing a slice is O(1) and allocates nothing.
  */
 public class PerformanceWindow implements AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(PerformanceWindow.class);
+
+    private static final Ticker ticker = new Ticker();
+
     private final long sliceInterval;
     private final int sliceCount;
 
     private final AtomicLong currentValue;
-    private final ScheduledExecutorService updater;
-    private final LinkedList<PerformanceSlice> slices;
-
-    private long windowSum;
-    private long windowDuration;
-    private long windowRate;
+    // ring buffer of completed slices (only touched by the ticker thread)
+    private final long[] sliceValues;
+    private final long[] sliceStarts;
+    private int nextSlice;
+    private int filledSlices;
+    private long runningSum;
     private long currentWindowStart;
+    private volatile boolean closed;
+
+    private volatile long windowSum;
+    private volatile long windowDuration;
+    private volatile long windowRate;
 
     /**
      * Creates a new performance window
@@ -52,15 +66,10 @@ public class PerformanceWindow implements AutoCloseable {
         this.sliceCount = sliceCount;
 
         currentValue = new AtomicLong();
+        sliceValues = new long[sliceCount];
+        sliceStarts = new long[sliceCount];
         currentWindowStart = System.currentTimeMillis();
-        slices = new LinkedList<>();
-        updater = Executors.newSingleThreadScheduledExecutor();
-        updater.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                update();
-            }
-        }, sliceInterval, sliceInterval, TimeUnit.MILLISECONDS);
+        ticker.register(this);
     }
 
     /**
@@ -72,55 +81,46 @@ public class PerformanceWindow implements AutoCloseable {
     }
 
     /**
-     * Called by the timer.  Updates the statistics.
+     * Called by the ticker.  Completes the current slice and updates the statistics.
      */
-    private void update() {
-        // Push the current slice into the list and update stats.
-        long now = System.currentTimeMillis();
+    void update(long now) {
         long value = currentValue.getAndSet(0);
-        PerformanceSlice completedSlice = new PerformanceSlice();
-        completedSlice.sliceStart = currentWindowStart;
-        completedSlice.sliceEnd = now;
+        log.trace("New sample: start: {} end: {} value: {}", currentWindowStart, now, value);
+
+        // overwrite the oldest slice
+        runningSum += value - sliceValues[nextSlice];
+        sliceValues[nextSlice] = value;
+        sliceStarts[nextSlice] = currentWindowStart;
+        nextSlice = (nextSlice + 1) % sliceCount;
+        if (filledSlices < sliceCount) filledSlices++;
         currentWindowStart = now;
-        completedSlice.value = value;
-        slices.add(completedSlice);
-
-        log.trace("New sample: start: {} end: {} value: {}", completedSlice.sliceStart,
-                completedSlice.sliceEnd, completedSlice.value);
-
-        long sum = 0;
-        long startTime = Long.MAX_VALUE;
-        long endTime = 0;
-        long maxAge = sliceInterval*(sliceCount) + 50; // 50 ms fudge for timing.
-        for(Iterator<PerformanceSlice> i = slices.iterator(); i.hasNext();) {
-            PerformanceSlice p = i.next();
-            if(now - p.sliceStart > maxAge) {
-                i.remove();
-                continue;
-            }
-            sum += p.value;
-            startTime = Math.min(startTime, p.sliceStart);
-            endTime = Math.max(endTime, p.sliceEnd);
-        }
-        long duration = endTime - startTime;
-        long rate = (long)((double)sum / (duration/1000.0));
-        //long rate = sum / (duration/1000L);
-
-        synchronized(this) {
-            this.windowSum = sum;
-            this.windowDuration = duration;
-            this.windowRate = rate;
-            log.trace("Stat update: sum={} duration={} rate={}", sum, duration, rate);
-        }
+
+        // the oldest slice is the next one to be overwritten (or the first one if the ring isn't full yet)
+        long oldestStart = sliceStarts[filledSlices < sliceCount ? 0 : nextSlice];
+        long duration = now - oldestStart;
+        long rate = duration > 0 ? (long) ((double) runningSum / (duration / 1000.0)) : 0;
+
+        this.windowSum = runningSum;
+        this.windowDuration = duration;
+        this.windowRate = rate;
+        log.trace("Stat update: sum={} duration={} rate={}", runningSum, duration, rate);
+    }
+
+    void startSlice(long now) {
+        currentWindowStart = now;
+    }
+
+    long getSliceInterval() {
+        return sliceInterval;
+    }
+
+    boolean isClosed() {
+        return closed;
     }
 
     @Override
     public void close() {
-        try {
-            updater.shutdownNow();
-        } catch (Throwable t) {
-            log.warn("could not shut down updater", t);
-        }
+        closed = true;
     }
 
     @Override
@@ -158,11 +158,94 @@ public class PerformanceWindow implements AutoCloseable {
     }
 
     /**
-     * Inner class used to track the time slices in the current window.
+     * A hashed timer wheel that completes the slices of every open window on one daemon thread. Windows are held by
+     * weak reference, so a window that is never closed can still be collected. The thread is started when the first
+     * window is created.
      */
-    class PerformanceSlice {
-        long sliceStart;
-        long sliceEnd;
-        long value;
+    static class Ticker implements Runnable {
+        static final long TICK_INTERVAL = 50; // ms
+        static final int WHEEL_SIZE = 64;
+
+        private final List<List<Entry>> wheel = new ArrayList<>(WHEEL_SIZE);
+        private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+        private final List<Entry> due = new ArrayList<>();
+        private ScheduledExecutorService executor;
+        private long tick;
+
+        Ticker() {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel.add(new ArrayList<Entry>());
+            }
+        }
+
+        void register(PerformanceWindow window) {
+            pending.add(new Entry(window));
+            start();
+        }
+
+        private synchronized void start() {
+            if (executor != null) return;
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "perf-window-ticker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleAtFixedRate(this, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            try {
+                tick++;
+                long now = System.currentTimeMillis();
+
+                // new windows start their first slice now (aligned to the tick), so it is a full interval long
+                Entry entry;
+                while ((entry = pending.poll()) != null) {
+                    PerformanceWindow window = entry.window.get();
+                    if (window == null) continue;
+                    window.startSlice(now);
+                    schedule(entry);
+                }
+
+                List<Entry> bucket = wheel.get((int) (tick % WHEEL_SIZE));
+                for (int i = bucket.size() - 1; i >= 0; i--) {
+                    if (bucket.get(i).deadline <= tick) {
+                        // swap-remove (order doesn't matter)
+                        due.add(bucket.get(i));
+                        bucket.set(i, bucket.get(bucket.size() - 1));
+                        bucket.remove(bucket.size() - 1);
+                    }
+                }
+                for (Entry dueEntry : due) {
+                    PerformanceWindow window = dueEntry.window.get();
+                    if (window == null || window.isClosed()) continue; // drop it
+                    window.update(now);
+                    schedule(dueEntry);
+                }
+                due.clear();
+            } catch (Throwable t) {
+                log.warn("error updating performance windows", t);
+            }
+        }
+
+        private void schedule(Entry entry) {
+            PerformanceWindow window = entry.window.get();
+            long ticks = window == null ? 1 : Math.max(1, Math.round((double) window.getSliceInterval() / TICK_INTERVAL));
+            entry.deadline = tick + ticks;
+            wheel.get((int) (entry.deadline % WHEEL_SIZE)).add(entry);
+        }
+    }
+
+    private static class Entry {
+        final WeakReference<PerformanceWindow> window;
+        long deadline;
+
+        Entry(PerformanceWindow window) {
+            this.window = new WeakReference<>(window);
+        }
     }
 }
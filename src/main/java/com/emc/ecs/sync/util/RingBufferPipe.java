@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer/single-consumer pipe backed by a ring buffer; a replacement for
+ * {@link java.io.PipedInputStream}/{@link java.io.PipedOutputStream}. Positions are published through volatile fields
+ * and a side that has to wait (for data or for space) parks until the other side unparks it, so there is no monitor
+ * and no polling. Closing either side wakes the other immediately: the consumer sees EOF once the remaining data is
+ * read, and the producer gets an {@link IOException} on its next write.
+ * <p>
+ * Exactly one thread may write to {@link #getOutputStream()} and one thread may read from {@link #getInputStream()}
+ * at a time. The ring buffer is borrowed from the shared {@link BufferPool} and returned when both sides are closed.
+ */
+public class RingBufferPipe {
+    private static final ExecutorService producerExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pipe-producer-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * @return a pool of daemon threads for pipe producers. The pool is unbounded, because a producer blocks until its
+     * consumer reads the data (limit the number of open pipes instead)
+     */
+    public static ExecutorService getProducerExecutor() {
+        return producerExecutor;
+    }
+
+    private static final int READ_SIDE = 1, WRITE_SIDE = 2;
+
+    private final byte[] buffer;
+    private final int capacity;
+    private volatile long writePosition, readPosition;
+    private volatile boolean writeClosed, readClosed;
+    private volatile Thread waitingReader, waitingWriter;
+    private final AtomicInteger openSides = new AtomicInteger(READ_SIDE | WRITE_SIDE);
+    private final InputStream inputStream = new RingInputStream();
+    private final OutputStream outputStream = new RingOutputStream();
+
+    /**
+     * @param capacity the size of the ring buffer (the most data the producer can write ahead of the consumer)
+     */
+    public RingBufferPipe(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.buffer = BufferPool.getSharedPool().acquireHeap(capacity);
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // the buffer goes back to the pool when the last side is closed (exactly once, even if close is repeated)
+    private void closeSide(int side) {
+        while (true) {
+            int open = openSides.get();
+            if ((open & side) == 0) return;
+            if (openSides.compareAndSet(open, open & ~side)) {
+                if ((open & ~side) == 0) BufferPool.getSharedPool().release(buffer);
+                return;
+            }
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    private void park() throws InterruptedIOException {
+        LockSupport.park(this);
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("interrupted while waiting on pipe");
+    }
+
+    private class RingInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int c = read(single, 0, 1);
+            return c == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+            if (len == 0) return 0;
+            while (true) {
+                if (readClosed) throw new IOException("Pipe closed");
+                long r = readPosition;
+                // writeClosed must be read *before* writePosition, so we can't miss data written just before close
+                boolean eof = writeClosed;
+                long available = writePosition - r;
+                if (available > 0) {
+                    int count = (int) Math.min(len, available);
+                    int index = (int) (r % capacity);
+                    int first = Math.min(count, capacity - index);
+                    System.arraycopy(buffer, index, b, off, first);
+                    if (count > first) System.arraycopy(buffer, 0, b, off + first, count - first);
+                    readPosition = r + count;
+                    unpark(waitingWriter);
+                    return count;
+                }
+                if (eof) return -1;
+
+                // publish that we are waiting, then check again so a concurrent write can't be missed
+                waitingReader = Thread.currentThread();
+                try {
+                    if (writePosition == r && !writeClosed && !readClosed) park();
+                } finally {
+                    waitingReader = null;
+                }
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (readClosed) throw new IOException("Pipe closed");
+            return (int) Math.min(Integer.MAX_VALUE, writePosition - readPosition);
+        }
+
+        @Override
+        public void close() {
+            readClosed = true;
+            unpark(waitingWriter);
+            closeSide(READ_SIDE);
+        }
+    }
+
+    private class RingOutputStream extends OutputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+            if (writeClosed) throw new IOException("Pipe closed");
+            while (len > 0) {
+                if (readClosed) throw new IOException("Pipe closed");
+                long w = writePosition;
+                long r = readPosition;
+                int free = (int) (capacity - (w - r));
+                if (free > 0) {
+                    int count = Math.min(len, free);
+                    int index = (int) (w % capacity);
+                    int first = Math.min(count, capacity - index);
+                    System.arraycopy(b, off, buffer, index, first);
+                    if (count > first) System.arraycopy(b, off + first, buffer, 0, count - first);
+                    writePosition = w + count;
+                    unpark(waitingReader);
+                    off += count;
+                    len -= count;
+                    continue;
+                }
+
+                // publish that we are waiting, then check again so a concurrent read can't be missed
+                waitingWriter = Thread.currentThread();
+                try {
+                    if (readPosition == r && !readClosed) park();
+                } finally {
+                    waitingWriter = null;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            writeClosed = true;
+            unpark(waitingReader);
+            closeSide(WRITE_SIDE);
+        }
+    }
+}
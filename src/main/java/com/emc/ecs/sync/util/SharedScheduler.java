@@ -0,0 +1,474 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single work-stealing pool shared by all task types of a sync job. Each task type gets its own {@link Lane}, which
+ * has its own queue and a semaphore that limits how many of its tasks may run at once. Lanes only hand tasks to the
+ * pool when they hold a permit, so queued work never occupies a thread.
+ * <p>
+ * Sync tasks spend most of their time blocked on I/O (or waiting for other tasks), so a task is run as a
+ * {@link ForkJoinPool.ManagedBlocker} when a spare thread is available. This lets the pool add a thread while the task
+ * is blocked instead of starving the other lanes, and idle threads are retired by the pool. Spare threads are capped
+ * (<code>maxSpareThreads</code>, 3 x parallelism by default): once they are all in use, further tasks run on the
+ * pool's own threads without compensation, and wait in the pool's queue if those are busy.
+ * <p>
+ * A task that waits for the tasks of another lane (i.e. a producer blocked on a full lane queue) must never hold one
+ * of the pool's own threads, or the tasks it waits for may never get one. Such tasks belong in a
+ * {@link #newBlockingLane(String, int, BlockingDeque) blocking lane}, whose tasks are always compensated, outside of the
+ * spare limit. The pool therefore never has more than <code>parallelism + maxSpareThreads</code> live threads plus the
+ * total concurrency of the blocking lanes, however many tasks the lanes allow at once. Tasks that wait for the results
+ * of other tasks (futures) should not use this scheduler at all; give the tasks they wait for a dedicated pool.
+ * <p>
+ * On JDK 21+, {@link #newVirtualThreadScheduler(String)} creates a scheduler that starts a virtual thread for each
+ * task instead. The lane semaphores then become the only limit, so a lane can have thousands of blocked tasks in flight
+ * without the cost of a platform thread for each.
+ */
+public class SharedScheduler implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SharedScheduler.class);
+
+    public static final String DEFAULT_POOL_NAME = "shared-pool";
+
+    private final ExecutorService pool;
+    private final Semaphore spareThreads;
+
+    /**
+     * Creates a scheduler that runs each task on a new virtual thread. Virtual threads are looked up by reflection,
+     * so this class can still be built and run on JDK 8
+     *
+     * @return the new scheduler, or null if this JVM does not support virtual threads (JDK 21+ is required)
+     */
+    public static SharedScheduler newVirtualThreadScheduler(String threadName) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadName + "-", 1L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return new SharedScheduler((ExecutorService) newExecutor.invoke(null, threadFactory));
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            return null;
+        } catch (Exception e) {
+            log.warn("could not create virtual thread executor", e);
+            return null;
+        }
+    }
+
+    private SharedScheduler(ExecutorService pool) {
+        this.pool = pool;
+        this.spareThreads = null; // a virtual thread per task; there is nothing to compensate
+    }
+
+    public SharedScheduler(int parallelism) {
+        this(parallelism, DEFAULT_POOL_NAME);
+    }
+
+    public SharedScheduler(int parallelism, String poolName) {
+        this(parallelism, 3 * Math.max(1, parallelism), poolName);
+    }
+
+    /**
+     * @param parallelism     the number of threads the pool keeps for running tasks
+     * @param maxSpareThreads the maximum number of threads the pool may add while tasks are blocked (so the pool never
+     *                        has more than <code>parallelism + maxSpareThreads</code> threads, plus those of
+     *                        blocking lanes)
+     */
+    public SharedScheduler(int parallelism, int maxSpareThreads, final String poolName) {
+        if (maxSpareThreads < 0) throw new IllegalArgumentException("maxSpareThreads must not be negative");
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(poolName + "-" + threadNumber.getAndIncrement());
+                return thread;
+            }
+        };
+        // async mode processes submitted tasks in FIFO order, which suits event-style tasks that are never joined
+        pool = new ForkJoinPool(Math.max(1, parallelism), threadFactory, null, true);
+        spareThreads = new Semaphore(maxSpareThreads);
+    }
+
+    /**
+     * Creates a new lane (task type) on this scheduler
+     *
+     * @param concurrency the maximum number of tasks from this lane that may run at once
+     * @param workDeque   the queue for tasks waiting for a permit (bound it to make {@link Lane#blockingSubmit(Runnable)}
+     *                    block producers)
+     */
+    public Lane newLane(String name, int concurrency, BlockingDeque<Runnable> workDeque) {
+        return new Lane(name, concurrency, workDeque, false);
+    }
+
+    /**
+     * Creates a new lane for tasks that wait for the tasks of other lanes (i.e. they submit to a bounded lane with
+     * {@link Lane#blockingSubmit(Runnable)}). The pool adds a thread for each running task of this lane (up to its
+     * concurrency), so these tasks never take threads away from the tasks they wait for
+     *
+     * @see #newLane(String, int, BlockingDeque)
+     */
+    public Lane newBlockingLane(String name, int concurrency, BlockingDeque<Runnable> workDeque) {
+        return new Lane(name, concurrency, workDeque, true);
+    }
+
+    /**
+     * @return the number of worker threads currently started in the shared pool (0 for virtual threads)
+     */
+    public int getPoolSize() {
+        return pool instanceof ForkJoinPool ? ((ForkJoinPool) pool).getPoolSize() : 0;
+    }
+
+    /**
+     * Tasks already handed to the pool will complete, but no new tasks are accepted
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * A concurrency-limited view of the shared pool. Behaves like an {@link EnhancedThreadPoolExecutor} of the same
+     * size (including resize, pause and resume), but does not own any threads
+     */
+    public class Lane extends AbstractExecutorService implements ControllableExecutor {
+        private final String name;
+        private final BlockingDeque<Runnable> workDeque;
+        private final boolean blocking;
+        private final ResizableSemaphore permits;
+        private int concurrency;
+        private volatile boolean paused = false;
+        private volatile boolean shutdown = false;
+        private final Object terminationLock = new Object();
+        private final AtomicLong unfinishedTasks = new AtomicLong();
+        private final AtomicInteger activeTasks = new AtomicInteger();
+        private volatile CompletionTracker completionTracker;
+
+        Lane(String name, int concurrency, BlockingDeque<Runnable> workDeque, boolean blocking) {
+            this.name = name;
+            this.concurrency = concurrency;
+            this.workDeque = workDeque;
+            this.blocking = blocking;
+            this.permits = new ResizableSemaphore(concurrency);
+        }
+
+        @Override
+        public void execute(@Nonnull Runnable command) {
+            if (shutdown) throw new RejectedExecutionException(name + " is shut down");
+            taskQueued();
+            if (!workDeque.offer(command)) {
+                taskDone();
+                throw new RejectedExecutionException(name + " queue is full");
+            }
+            dispatch();
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+            return new EnhancedFutureTask<>(runnable, value);
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new EnhancedFutureTask<>(callable);
+        }
+
+        @Override
+        public void blockingSubmit(Runnable task) {
+            blockingEnqueue(newTaskFor(task, null));
+        }
+
+        @Override
+        public <T> Future<T> blockingSubmit(Callable<T> task) {
+            RunnableFuture<T> futureTask = newTaskFor(task);
+            blockingEnqueue(futureTask);
+            return futureTask;
+        }
+
+        private void blockingEnqueue(Runnable task) {
+            taskQueued();
+            try {
+                while (true) {
+                    if (shutdown) throw new IllegalStateException(name + " is shut down");
+                    try {
+                        // wake up periodically to check for shutdown
+                        if (workDeque.offer(task, 500, TimeUnit.MILLISECONDS)) break;
+                        log.debug("{} queue is full; waiting until space is available", name);
+                    } catch (InterruptedException e) {
+                        log.warn("interrupted while waiting to submit a task", e);
+                    }
+                }
+                if (shutdown && workDeque.remove(task)) throw new IllegalStateException(name + " is shut down");
+            } catch (RuntimeException e) {
+                taskDone();
+                throw e;
+            }
+            dispatch();
+        }
+
+        /**
+         * Hands queued tasks to the pool for as long as there are permits available. Called whenever a task is queued,
+         * a task finishes, or the lane is resized or resumed, so a task can't be left in the queue while permits are
+         * free
+         */
+        private void dispatch() {
+            while (!paused && !workDeque.isEmpty() && permits.tryAcquire()) {
+                Runnable task = workDeque.poll();
+                if (task == null) {
+                    // someone else got it; re-check the queue in case a task was added after our poll
+                    permits.release();
+                    continue;
+                }
+                try {
+                    pool.execute(new LaneTask(task));
+                } catch (RejectedExecutionException e) {
+                    log.warn("shared pool rejected a {} task (the pool is shut down)", name);
+                    permits.release();
+                    taskDone();
+                }
+            }
+        }
+
+        private void taskQueued() {
+            unfinishedTasks.incrementAndGet();
+            CompletionTracker tracker = completionTracker;
+            if (tracker != null) tracker.taskSubmitted();
+        }
+
+        private void taskDone() {
+            long uTasks = unfinishedTasks.decrementAndGet();
+            CompletionTracker tracker = completionTracker;
+            if (tracker != null) tracker.taskFinished();
+            if (shutdown && uTasks == 0) {
+                synchronized (terminationLock) {
+                    terminationLock.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void resizeThreadPool(int newPoolSize) {
+            int diff = newPoolSize - concurrency;
+            concurrency = newPoolSize;
+            // a reduction takes effect as running tasks finish
+            if (diff > 0) permits.release(diff);
+            else if (diff < 0) permits.reducePermits(-diff);
+            dispatch();
+        }
+
+        public synchronized int getConcurrency() {
+            return concurrency;
+        }
+
+        @Override
+        public boolean pause() {
+            if (shutdown) throw new IllegalStateException(name + " is shut down");
+            boolean wasPaused = paused;
+            paused = true;
+            return !wasPaused;
+        }
+
+        @Override
+        public boolean isPaused() {
+            return paused;
+        }
+
+        @Override
+        public boolean resume() {
+            if (shutdown) throw new IllegalStateException(name + " is shut down");
+            boolean wasPaused = paused;
+            paused = false;
+            dispatch();
+            return wasPaused;
+        }
+
+        @Override
+        public void stop() {
+            shutdownNow();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            // queued tasks still run after shutdown
+            paused = false;
+            dispatch();
+            if (unfinishedTasks.get() == 0) {
+                synchronized (terminationLock) {
+                    terminationLock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Discards all queued tasks. Running tasks are not interrupted (they are shared pool threads)
+         */
+        @Override
+        @Nonnull
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> tasks = new ArrayList<>();
+            workDeque.drainTo(tasks);
+            for (int i = 0; i < tasks.size(); i++) {
+                taskDone();
+            }
+            paused = false;
+            if (unfinishedTasks.get() == 0) {
+                synchronized (terminationLock) {
+                    terminationLock.notifyAll();
+                }
+            }
+            return tasks;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && unfinishedTasks.get() == 0;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (terminationLock) {
+                while (!isTerminated()) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) return false;
+                    terminationLock.wait(remaining);
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public int getActiveCount() {
+            return activeTasks.get();
+        }
+
+        @Override
+        public long getUnfinishedTasks() {
+            return unfinishedTasks.get();
+        }
+
+        @Override
+        public BlockingQueue<Runnable> getQueue() {
+            return workDeque;
+        }
+
+        @Override
+        public void setCompletionTracker(CompletionTracker completionTracker) {
+            this.completionTracker = completionTracker;
+        }
+
+        @Override
+        public CompletionTracker getCompletionTracker() {
+            return completionTracker;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+        private class LaneTask implements Runnable {
+            private final Runnable task;
+
+            LaneTask(Runnable task) {
+                this.task = task;
+            }
+
+            @Override
+            public void run() {
+                activeTasks.incrementAndGet();
+                // only a task of a blocking lane, or one that holds a spare slot, lets the pool add a thread for it
+                boolean spare = !blocking && spareThreads != null && spareThreads.tryAcquire();
+                try {
+                    if (spare || (blocking && spareThreads != null)) {
+                        TaskBlocker blocker = new TaskBlocker(task);
+                        try {
+                            ForkJoinPool.managedBlock(blocker);
+                        } catch (RejectedExecutionException e) {
+                            // the pool is at its thread limit (JDK 9+); run the task without compensation
+                            if (blocker.started) throw e;
+                            log.debug("shared pool could not add a thread for a {} task", name);
+                            task.run();
+                        }
+                    } else task.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable t) {
+                    log.warn("uncaught exception in " + name + " task", t);
+                } finally {
+                    if (spare) spareThreads.release();
+                    activeTasks.decrementAndGet();
+                    permits.release();
+                    taskDone();
+                    dispatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a (potentially blocking) task so the pool can compensate with another thread while it runs. Only used for
+     * blocking lanes, and while a task holds one of the scheduler's spare slots
+     */
+    private static class TaskBlocker implements ForkJoinPool.ManagedBlocker {
+        private final Runnable task;
+        private boolean started = false, done = false;
+
+        TaskBlocker(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean block() {
+            started = true;
+            task.run();
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
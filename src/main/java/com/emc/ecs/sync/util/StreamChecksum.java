@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/**
+ * A running checksum of object data in one of the supported {@link ChecksumAlgorithm}s. Cryptographic algorithms use
+ * the JCE {@link MessageDigest}; CRC32C uses the JDK implementation when it is available (Java 9 and later, where it
+ * is a hardware-accelerated intrinsic) and {@link Crc32c} otherwise; xxHash64 uses {@link XxHash64}.
+ * <p>
+ * Instances are not thread-safe. {@link #digest()} completes the checksum and resets it.
+ */
+public abstract class StreamChecksum {
+    private static final String JDK_CRC32C_CLASS = "java.util.zip.CRC32C";
+
+    public static StreamChecksum create(ChecksumAlgorithm algorithm) {
+        switch (algorithm) {
+            case md5:
+                return new DigestChecksum(algorithm, "MD5");
+            case sha256:
+                return new DigestChecksum(algorithm, "SHA-256");
+            case crc32c:
+                return new IntChecksum(algorithm, createCrc32c());
+            case xxhash64:
+                return new LongChecksum(algorithm, new XxHash64());
+            default:
+                throw new IllegalArgumentException("unsupported checksum algorithm: " + algorithm);
+        }
+    }
+
+    static Checksum createCrc32c() {
+        try {
+            return (Checksum) Class.forName(JDK_CRC32C_CLASS).getConstructor().newInstance();
+        } catch (Exception e) {
+            return new Crc32c(); // Java 8
+        }
+    }
+
+    private final ChecksumAlgorithm algorithm;
+
+    StreamChecksum(ChecksumAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public ChecksumAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public abstract void update(int b);
+
+    public abstract void update(byte[] b, int off, int len);
+
+    /**
+     * Updates the checksum with the remaining bytes in <code>buffer</code> (i.e. a direct buffer read from a file)
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] chunk = BufferPool.getSharedPool().acquireHeap(64 * 1024);
+            try {
+                while (buffer.hasRemaining()) {
+                    int count = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, count);
+                    update(chunk, 0, count);
+                }
+            } finally {
+                BufferPool.getSharedPool().release(chunk);
+            }
+        }
+    }
+
+    public abstract byte[] digest();
+
+    private static class DigestChecksum extends StreamChecksum {
+        private MessageDigest digest;
+
+        DigestChecksum(ChecksumAlgorithm algorithm, String jceName) {
+            super(algorithm);
+            try {
+                digest = MessageDigest.getInstance(jceName);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Could not initialize " + jceName, e);
+            }
+        }
+
+        @Override
+        public void update(int b) {
+            digest.update((byte) b);
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            digest.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            return digest.digest();
+        }
+    }
+
+    // the value is the low 32 bits of the checksum, in big-endian order
+    private static class IntChecksum extends StreamChecksum {
+        private Checksum checksum;
+
+        IntChecksum(ChecksumAlgorithm algorithm, Checksum checksum) {
+            super(algorithm);
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void update(int b) {
+            checksum.update(b);
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            checksum.update(b, off, len);
+        }
+
+        @Override
+        public byte[] digest() {
+            long value = checksum.getValue();
+            checksum.reset();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+    }
+
+    // the value is all 64 bits of the checksum, in big-endian order (the canonical form of xxHash64)
+    private static class LongChecksum extends StreamChecksum {
+        private Checksum checksum;
+
+        LongChecksum(ChecksumAlgorithm algorithm, Checksum checksum) {
+            super(algorithm);
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void update(int b) {
+            checksum.update(b);
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            checksum.update(b, off, len);
+        }
+
+        @Override
+        public byte[] digest() {
+            long value = checksum.getValue();
+            checksum.reset();
+            byte[] bytes = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                bytes[i] = (byte) value;
+                value >>>= 8;
+            }
+            return bytes;
+        }
+    }
+}
@@ -14,21 +14,50 @@
  */
 package com.emc.ecs.sync.util;
 
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
+import com.emc.ecs.sync.config.SyncOptions;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.List;
 
 public final class SyncUtil {
+    /**
+     * Determines the checksum to calculate on object data as it is streamed. Verification uses the configured
+     * verifyChecksum algorithm; otherwise an MD5 is calculated (it is recorded in the database and compared to source
+     * ETags by summarySkip), unless skipChecksum is set
+     *
+     * @return the checksum algorithm, or null if no checksum is needed
+     */
+    public static ChecksumAlgorithm getStreamChecksum(SyncOptions options) {
+        if (options.isVerify() || options.isVerifyOnly()) {
+            return options.getVerifyChecksum() == null ? ChecksumAlgorithm.md5 : options.getVerifyChecksum();
+        }
+        if (options.isSkipChecksum() && !options.isSummarySkip()) return null;
+        return ChecksumAlgorithm.md5;
+    }
+
+    /**
+     * @return the size (in bytes) of the chunks that are checksummed individually for parallel verification, or 0 if
+     * chunked verification is disabled
+     */
+    public static long getVerifyChunkSize(SyncOptions options) {
+        if (!options.isVerify() && !options.isVerifyOnly()) return 0;
+        return (long) options.getVerifyChunkSizeMb() * 1024 * 1024;
+    }
+
     public static void consumeAndCloseStream(InputStream stream) {
+        byte[] devNull = BufferPool.getSharedPool().acquireHeap(32 * 1024);
         try (InputStream input = stream) {
-            byte[] devNull = new byte[32 * 1024];
             int c = 0;
             while (c != -1) {
                 c = input.read(devNull);
             }
         } catch (IOException e) {
             throw new RuntimeException("error consuming stream", e);
+        } finally {
+            BufferPool.getSharedPool().release(devNull);
         }
     }
 
@@ -20,6 +20,10 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public final class TimingUtil {
     private static final Logger log = LoggerFactory.getLogger(TimingUtil.class);
@@ -77,6 +81,22 @@ public final class TimingUtil {
         getTimings(options).dump();
     }
 
+    /**
+     * @return cumulative statistics (since registration) for all operations timed under the given options, sorted by
+     * name (empty if timings are disabled)
+     */
+    public static List<TimingStats> getTimingStats(SyncOptions options) {
+        return getTimings(options).getStats();
+    }
+
+    /**
+     * Passes the live (cumulative) counters of each operation timed under the given options to the visitor. Unlike
+     * {@link #getTimingStats(SyncOptions)}, this does not copy anything, so it is suitable for frequent polling
+     */
+    public static void visitTimings(SyncOptions options, TimingVisitor visitor) {
+        getTimings(options).visit(visitor);
+    }
+
     private static Timings getTimings(SyncOptions options) {
         Timings timings = registry.get(options);
         if (timings == null) timings = NULL_TIMINGS;
@@ -94,18 +114,29 @@ public final class TimingUtil {
         void failOperation(String name);
 
         void dump();
+
+        List<TimingStats> getStats();
+
+        void visit(TimingVisitor visitor);
+    }
+
+    public interface TimingVisitor {
+        /**
+         * @param grossTime total time of all operations in nanoseconds
+         * @param histogram latencies in nanoseconds
+         */
+        void visit(String name, long completeCount, long failedCount, long grossTime, LatencyHistogram histogram);
     }
 
+    /**
+     * Recording is lock-free: counters are {@link LongAdder}s and latencies go to a striped {@link LatencyHistogram}.
+     * Nothing is ever reset; each dump reports the difference from the values captured by the previous dump.
+     */
     private static class WindowedTimings implements Timings {
-        private ThreadLocal<Map<String, Long>> operationStartTimes = new ThreadLocal<>();
-        private final Map<String, Long> operationMinTimes = new Hashtable<>();
-        private final Map<String, Long> operationMaxTimes = new Hashtable<>();
-        private final Map<String, Long> operationGrossTimes = new Hashtable<>();
-        private final Map<String, Long> operationCompleteCounts = new Hashtable<>();
-        private final Map<String, Long> operationFailedCounts = new Hashtable<>();
+        private final ConcurrentMap<String, OperationTimings> operations = new ConcurrentHashMap<>();
+        private final AtomicBoolean dumpPending = new AtomicBoolean();
 
         private int statsWindow;
-        private boolean dumpPending;
         private long collectionStartTime;
 
         WindowedTimings(int statsWindow) {
@@ -114,7 +145,7 @@ public final class TimingUtil {
         }
 
         public void startOperation(String name) {
-            getOperationStartTimes().put(name, System.currentTimeMillis());
+            getOperationTimings(name).start();
         }
 
         public void completeOperation(String name) {
@@ -126,98 +157,155 @@ public final class TimingUtil {
         }
 
         private void endOperation(String name, boolean failed) {
-            long time = endAndTimeOperation(name), statusCount, totalCount;
-            boolean dump = false;
-            synchronized (this) {
-                statusCount = getValue(failed ? operationFailedCounts : operationCompleteCounts, name);
-                totalCount = statusCount + getValue(failed ? operationCompleteCounts : operationFailedCounts, name);
-                checkMinMaxTime(name, time);
-                operationGrossTimes.put(name, getValue(operationGrossTimes, name) + time);
-                Map<String, Long> statusCounts = failed ? operationFailedCounts : operationCompleteCounts;
-                statusCounts.put(name, statusCount + 1);
-                if (totalCount >= statsWindow && !dumpPending) {
-                    dumpPending = true;
-                    dump = true;
-                }
-            }
-            if (dump) dump();
+            OperationTimings timings = getOperationTimings(name);
+            timings.record(timings.elapsed(), failed);
+            if (timings.getWindowCount() >= statsWindow && dumpPending.compareAndSet(false, true)) dump();
         }
 
         public void dump() {
             List<TimingStats> stats = new ArrayList<>();
+            long now;
             synchronized (this) {
-                for (String name : operationGrossTimes.keySet()) {
-                    stats.add(new TimingStats(name,
-                            getValue(operationCompleteCounts, name),
-                            getValue(operationFailedCounts, name),
-                            getValue(operationMinTimes, name),
-                            getValue(operationMaxTimes, name),
-                            getValue(operationGrossTimes, name)));
+                for (OperationTimings timings : operations.values()) {
+                    stats.add(timings.nextWindow());
                 }
-                operationMinTimes.clear();
-                operationMaxTimes.clear();
-                operationGrossTimes.clear();
-                operationCompleteCounts.clear();
-                operationFailedCounts.clear();
-                dumpPending = false;
+                dumpPending.set(false);
+                now = System.currentTimeMillis();
+                log.info("Start timings dump (" + (now - collectionStartTime)
+                        + "ms since last dump)\n######################################################################");
+                collectionStartTime = now;
             }
-            long now = System.currentTimeMillis();
-            log.info("Start timings dump (" + (now - collectionStartTime)
-                    + "ms since last dump)\n######################################################################");
             Collections.sort(stats);
             for (TimingStats stat : stats) {
                 log.info(stat.toString());
             }
             log.info("End timings dump\n######################################################################");
-            collectionStartTime = now;
         }
 
-        private Map<String, Long> getOperationStartTimes() {
-            Map<String, Long> map = operationStartTimes.get();
-            if (map == null) {
-                map = new HashMap<>();
-                operationStartTimes.set(map);
+        public List<TimingStats> getStats() {
+            List<TimingStats> stats = new ArrayList<>();
+            for (OperationTimings timings : operations.values()) {
+                stats.add(timings.total());
+            }
+            Collections.sort(stats);
+            return stats;
+        }
+
+        public void visit(TimingVisitor visitor) {
+            for (OperationTimings timings : operations.values()) {
+                timings.visit(visitor);
             }
-            return map;
         }
 
-        private long getValue(Map<String, Long> map, String key) {
-            Long value = map.get(key);
-            if (value == null) value = 0L;
-            return value;
+        private OperationTimings getOperationTimings(String name) {
+            OperationTimings timings = operations.get(name);
+            if (timings == null) {
+                timings = new OperationTimings(name);
+                OperationTimings existing = operations.putIfAbsent(name, timings);
+                if (existing != null) timings = existing;
+            }
+            return timings;
+        }
+    }
+
+    private static class OperationTimings {
+        private static final long NOT_STARTED = Long.MIN_VALUE;
+
+        private final String name;
+        private final LongAdder completeCount = new LongAdder();
+        private final LongAdder failedCount = new LongAdder();
+        private final LongAdder grossTime = new LongAdder();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        // start time of this operation on each thread (a primitive slot, so starting an operation doesn't allocate)
+        private final ThreadLocal<long[]> startTime = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[]{NOT_STARTED};
+            }
+        };
+
+        // values as of the last window (only accessed while synchronized on the owning WindowedTimings)
+        private long lastCompleteCount, lastFailedCount, lastGrossTime;
+        private LatencyHistogram.Snapshot lastSnapshot;
+        private volatile long windowStartCount;
+
+        OperationTimings(String name) {
+            this.name = name;
+        }
+
+        void start() {
+            startTime.get()[0] = System.nanoTime();
+        }
+
+        /**
+         * @return nanoseconds since this operation was started on the current thread
+         */
+        long elapsed() {
+            long start = startTime.get()[0];
+            if (start == NOT_STARTED) throw new IllegalStateException("no start time exists for operation " + name);
+            return System.nanoTime() - start;
+        }
+
+        void record(long time, boolean failed) {
+            histogram.record(time);
+            grossTime.add(time);
+            if (failed) failedCount.increment();
+            else completeCount.increment();
+        }
+
+        long getWindowCount() {
+            return completeCount.sum() + failedCount.sum() - windowStartCount;
+        }
+
+        TimingStats nextWindow() {
+            long complete = completeCount.sum(), failed = failedCount.sum(), gross = grossTime.sum();
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            TimingStats stats = new TimingStats(name, complete - lastCompleteCount, failed - lastFailedCount,
+                    gross - lastGrossTime, snapshot.minus(lastSnapshot));
+            lastCompleteCount = complete;
+            lastFailedCount = failed;
+            lastGrossTime = gross;
+            lastSnapshot = snapshot;
+            windowStartCount = complete + failed;
+            return stats;
         }
 
-        private long endAndTimeOperation(String name) {
-            Long startTime = getOperationStartTimes().get(name);
-            if (startTime == null)
-                throw new IllegalStateException("no start time exists for operation " + name);
-            return System.currentTimeMillis() - startTime;
+        void visit(TimingVisitor visitor) {
+            visitor.visit(name, completeCount.sum(), failedCount.sum(), grossTime.sum(), histogram);
         }
 
-        private void checkMinMaxTime(String name, long time) {
-            Long min = operationMinTimes.get(name);
-            if (min == null || min > time) operationMinTimes.put(name, time);
-            Long max = operationMaxTimes.get(name);
-            if (max == null || max < time) operationMaxTimes.put(name, time);
+        TimingStats total() {
+            return new TimingStats(name, completeCount.sum(), failedCount.sum(), grossTime.sum(), histogram.snapshot());
         }
     }
 
-    private static class TimingStats implements Comparable<TimingStats> {
+    /**
+     * Statistics for a single operation (all times are in nanoseconds)
+     */
+    public static class TimingStats implements Comparable<TimingStats> {
         private String name;
         private long completeCount;
         private long failedCount;
         private long minTime;
         private long maxTime;
         private long grossTime;
+        private long p50Time;
+        private long p90Time;
+        private long p99Time;
+        private long p999Time;
 
-        public TimingStats(String name, long completeCount, long failedCount,
-                           long minTime, long maxTime, long grossTime) {
+        TimingStats(String name, long completeCount, long failedCount, long grossTime,
+                    LatencyHistogram.Snapshot snapshot) {
             this.name = name;
             this.completeCount = completeCount;
             this.failedCount = failedCount;
-            this.minTime = minTime;
-            this.maxTime = maxTime;
             this.grossTime = grossTime;
+            this.minTime = snapshot.getMin();
+            this.maxTime = snapshot.getMax();
+            this.p50Time = snapshot.getValueAtPercentile(50);
+            this.p90Time = snapshot.getValueAtPercentile(90);
+            this.p99Time = snapshot.getValueAtPercentile(99);
+            this.p999Time = snapshot.getValueAtPercentile(99.9);
         }
 
         public String getName() {
@@ -244,6 +332,27 @@ public final class TimingUtil {
             return grossTime;
         }
 
+        public long getAvgTime() {
+            long totalCount = completeCount + failedCount;
+            return grossTime / (totalCount == 0 ? 1 : totalCount);
+        }
+
+        public long getP50Time() {
+            return p50Time;
+        }
+
+        public long getP90Time() {
+            return p90Time;
+        }
+
+        public long getP99Time() {
+            return p99Time;
+        }
+
+        public long getP999Time() {
+            return p999Time;
+        }
+
         @Override
         public int compareTo(TimingStats o) {
             return name.compareTo(o.getName());
@@ -251,17 +360,25 @@ public final class TimingUtil {
 
         @Override
         public String toString() {
-            long totalCount = completeCount + failedCount;
-            long avg = grossTime / (totalCount == 0 ? 1 : totalCount);
             return name + '\n'
                     + "    Completed:" + rAlign(Long.toString(completeCount), 6)
                     + "    Failed:" + rAlign(Long.toString(failedCount), 6)
-                    + "    Min/Max/Avg Time:" + rAlign(Long.toString(minTime), 4)
-                    + "/" + rAlign(Long.toString(maxTime), 4)
-                    + "/" + rAlign(Long.toString(avg), 4)
+                    + "    Min/Max/Avg Time:" + rAlign(ms(minTime), 4)
+                    + "/" + rAlign(ms(maxTime), 4)
+                    + "/" + rAlign(ms(getAvgTime()), 4)
+                    + "ms"
+                    + "    p50/p90/p99/p99.9:" + rAlign(ms(p50Time), 4)
+                    + "/" + rAlign(ms(p90Time), 4)
+                    + "/" + rAlign(ms(p99Time), 4)
+                    + "/" + rAlign(ms(p999Time), 4)
                     + "ms";
         }
 
+        private String ms(long nanos) {
+            if (nanos >= 10000000L) return Long.toString(nanos / 1000000L);
+            return String.format("%.3f", nanos / 1000000.0);
+        }
+
         private String rAlign(String string, int length) {
             return String.format("%1$" + length + "s", string);
         }
@@ -286,5 +403,14 @@ public final class TimingUtil {
         @Override
         public void dump() {
         }
+
+        @Override
+        public List<TimingStats> getStats() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void visit(TimingVisitor visitor) {
+        }
     };
 }
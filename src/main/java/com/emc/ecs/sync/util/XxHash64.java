@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * Streaming xxHash64 (seed 0). {@link #getValue()} does not change the state, so more data may be added afterward
+ */
+public class XxHash64 implements Checksum {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private long v1, v2, v3, v4;
+    private long totalLength;
+    private final byte[] stripe = new byte[32];
+    private int stripeLength;
+
+    public XxHash64() {
+        reset();
+    }
+
+    @Override
+    public void update(int b) {
+        stripe[stripeLength++] = (byte) b;
+        totalLength++;
+        if (stripeLength == 32) {
+            consumeStripe(stripe, 0);
+            stripeLength = 0;
+        }
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) throw new ArrayIndexOutOfBoundsException();
+        totalLength += len;
+        int end = off + len;
+
+        // finish a partial stripe first
+        if (stripeLength > 0) {
+            int count = Math.min(32 - stripeLength, len);
+            System.arraycopy(b, off, stripe, stripeLength, count);
+            stripeLength += count;
+            off += count;
+            if (stripeLength < 32) return;
+            consumeStripe(stripe, 0);
+            stripeLength = 0;
+        }
+
+        for (; off + 32 <= end; off += 32) {
+            consumeStripe(b, off);
+        }
+
+        stripeLength = end - off;
+        System.arraycopy(b, off, stripe, 0, stripeLength);
+    }
+
+    private void consumeStripe(byte[] b, int off) {
+        v1 = round(v1, readLong(b, off));
+        v2 = round(v2, readLong(b, off + 8));
+        v3 = round(v3, readLong(b, off + 16));
+        v4 = round(v4, readLong(b, off + 24));
+    }
+
+    @Override
+    public long getValue() {
+        long h;
+        if (totalLength >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = PRIME5;
+        }
+        h += totalLength;
+
+        int off = 0;
+        for (; off + 8 <= stripeLength; off += 8) {
+            h ^= round(0, readLong(stripe, off));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        }
+        if (off + 4 <= stripeLength) {
+            h ^= (readInt(stripe, off) & 0xffffffffL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            off += 4;
+        }
+        for (; off < stripeLength; off++) {
+            h ^= (stripe[off] & 0xff) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        totalLength = 0;
+        stripeLength = 0;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        return (readInt(b, off) & 0xffffffffL) | ((long) readInt(b, off + 4) << 32);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync;
+
+import com.emc.ecs.sync.model.ObjectContext;
+import com.emc.ecs.sync.model.ObjectStatus;
+import com.emc.ecs.sync.model.ObjectSummary;
+import com.emc.ecs.sync.service.NoDbService;
+import com.emc.ecs.sync.storage.BatchDeletable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeleteBatcherTest {
+    @Test
+    public void testBatches() throws Exception {
+        RecordingStorage storage = new RecordingStorage(5, "object-7");
+        RecordingDbService dbService = storage.dbService;
+
+        DeleteBatcher batcher = new DeleteBatcher(storage, dbService, 5, 2, 60000);
+        for (int i = 0; i < 12; i++) {
+            batcher.submit(context("object-" + i), false);
+        }
+        batcher.close(); // sends the last (partial) batch
+
+        List<Integer> batchSizes = new ArrayList<>();
+        for (List<String> batch : storage.batches) batchSizes.add(batch.size());
+        Collections.sort(batchSizes);
+        Assert.assertEquals(Arrays.asList(2, 5, 5), batchSizes);
+
+        // the DB was flushed before every batch was sent
+        Assert.assertEquals(3, dbService.flushes.get());
+        for (int flushes : storage.flushesBeforeBatch) Assert.assertTrue(flushes > 0);
+
+        Assert.assertEquals(11, dbService.deleted.size());
+        Assert.assertFalse(dbService.deleted.contains("object-7"));
+
+        // the failed delete is recorded without changing the status
+        Assert.assertEquals(1, dbService.errors.size());
+        Assert.assertTrue(dbService.errors.get("object-7").contains("AccessDenied"));
+        Assert.assertEquals(ObjectStatus.Transferred, dbService.errorStatuses.get("object-7"));
+    }
+
+    @Test
+    public void testDelayedBatch() throws Exception {
+        RecordingStorage storage = new RecordingStorage(1000, null);
+        RecordingDbService dbService = storage.dbService;
+
+        try (DeleteBatcher batcher = new DeleteBatcher(storage, dbService, 1000, 1, 100)) {
+            batcher.submit(context("foo"), false);
+
+            // the batch is not full, so it is sent after the delay
+            long start = System.currentTimeMillis();
+            while (batcher.getPendingCount() > 0 && System.currentTimeMillis() - start < 5000) {
+                Thread.sleep(20);
+            }
+            Assert.assertEquals(0, batcher.getPendingCount());
+            Assert.assertEquals(Collections.singletonList("foo"), new ArrayList<>(dbService.deleted));
+        }
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception {
+        RecordingStorage storage = new RecordingStorage(1000, null);
+        storage.failAll = true;
+        RecordingDbService dbService = storage.dbService;
+
+        DeleteBatcher batcher = new DeleteBatcher(storage, dbService, 10, 1, 60000);
+        batcher.submit(context("foo"), false);
+        batcher.submit(context("bar"), false);
+        batcher.close();
+
+        Assert.assertTrue(dbService.deleted.isEmpty());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("foo", "bar")), dbService.errors.keySet());
+    }
+
+    @Test
+    public void testUnwrittenStatus() throws Exception {
+        RecordingStorage storage = new RecordingStorage(1000, null);
+        RecordingDbService dbService = storage.dbService;
+        dbService.unwritten.add("bar");
+
+        DeleteBatcher batcher = new DeleteBatcher(storage, dbService, 10, 1, 60000);
+        batcher.submit(context("foo"), false);
+        batcher.submit(context("bar"), false);
+        batcher.close();
+
+        // the object whose status is not in the DB is kept on the source
+        Assert.assertEquals(Collections.singletonList(Collections.singletonList("foo")), storage.batches);
+        Assert.assertEquals(Collections.singleton("foo"), dbService.deleted);
+        Assert.assertTrue(dbService.errors.isEmpty());
+    }
+
+    @Test
+    public void testUnsuccessfulStatus() throws Exception {
+        try (DeleteBatcher batcher = new DeleteBatcher(new RecordingStorage(1000, null), new RecordingDbService())) {
+            try {
+                batcher.submit(context("foo").withStatus(ObjectStatus.InTransfer), false);
+                Assert.fail("object should not be deleted before it is synced");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private ObjectContext context(String identifier) {
+        return new ObjectContext().withSourceSummary(new ObjectSummary(identifier, false, 0))
+                .withStatus(ObjectStatus.Transferred);
+    }
+
+    private static class RecordingStorage implements BatchDeletable {
+        private final int maxBatchSize;
+        private final String failedKey;
+        private volatile boolean failAll;
+        final RecordingDbService dbService = new RecordingDbService();
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        final List<Integer> flushesBeforeBatch = Collections.synchronizedList(new ArrayList<Integer>());
+
+        RecordingStorage(int maxBatchSize, String failedKey) {
+            this.maxBatchSize = maxBatchSize;
+            this.failedKey = failedKey;
+        }
+
+        @Override
+        public int getMaxDeleteBatchSize() {
+            return maxBatchSize;
+        }
+
+        @Override
+        public Map<String, String> deleteBatch(List<String> identifiers) {
+            if (failAll) throw new RuntimeException("connection refused");
+            batches.add(new ArrayList<>(identifiers));
+            flushesBeforeBatch.add(dbService.flushes.get());
+            Map<String, String> failures = new HashMap<>();
+            if (identifiers.contains(failedKey)) failures.put(failedKey, "AccessDenied: Access Denied");
+            return failures;
+        }
+    }
+
+    private static class RecordingDbService extends NoDbService {
+        final AtomicInteger flushes = new AtomicInteger();
+        final Set<String> unwritten = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> deleted = Collections.synchronizedSet(new LinkedHashSet<String>());
+        final Map<String, String> errors = Collections.synchronizedMap(new HashMap<String, String>());
+        final Map<String, ObjectStatus> errorStatuses = Collections.synchronizedMap(new HashMap<String, ObjectStatus>());
+
+        @Override
+        public Set<String> flush() {
+            flushes.incrementAndGet();
+            return new HashSet<>(unwritten);
+        }
+
+        @Override
+        public boolean setStatus(ObjectContext context, String error, boolean newRow) {
+            errors.put(context.getSourceSummary().getIdentifier(), error);
+            errorStatuses.put(context.getSourceSummary().getIdentifier(), context.getStatus());
+            return true;
+        }
+
+        @Override
+        public boolean setDeleted(ObjectContext context, boolean newRow) {
+            deleted.add(context.getSourceSummary().getIdentifier());
+            return true;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.emc.ecs.sync.config.storage.TestConfig;
 import com.emc.ecs.sync.model.SyncObject;
 import com.emc.ecs.sync.service.DbService;
 import com.emc.ecs.sync.service.SqliteDbService;
+import com.emc.ecs.sync.storage.ObjectNotFoundException;
 import com.emc.ecs.sync.storage.TestStorage;
 import org.junit.Assert;
 import org.junit.Test;
@@ -229,13 +230,85 @@ public class IterationTest {
         Assert.assertTrue(sync.getStats().getBytesComplete() > 0);
     }
 
+    @Test
+    public void testSummarySkip() throws Exception {
+        TestConfig testConfig = new TestConfig().withObjectCount(100).withMaxSize(10 * 1024).withObjectOwner("foo")
+                .withDiscardData(false).withReadData(true);
+
+        DbService dbService = new SqliteDbService(":memory:");
+
+        SyncOptions options = new SyncOptions().withThreadCount(Runtime.getRuntime().availableProcessors() * 2)
+                .withSummarySkip(true);
+
+        LoadCountingStorage source = new LoadCountingStorage();
+        source.setConfig(testConfig);
+
+        EcsSync sync = new EcsSync();
+        sync.setSyncConfig(new SyncConfig().withTarget(testConfig).withOptions(options));
+        sync.setSource(source);
+        sync.setDbService(dbService);
+        sync.run();
+
+        long totalObjects = sync.getEstimatedTotalObjects();
+        Assert.assertEquals(0, sync.getStats().getObjectsFailed());
+        Assert.assertEquals(totalObjects, sync.getStats().getObjectsComplete());
+        Assert.assertEquals(totalObjects, source.loadCount.get());
+
+        TestStorage target = new TestStorage();
+        target.setConfig(new TestConfig().withReadData(true).withDiscardData(false));
+        target.ingest(source, null);
+
+        // re-run; nothing should be loaded from the source
+        source.loadCount.set(0);
+        sync = new EcsSync();
+        sync.setSyncConfig(new SyncConfig().withOptions(options));
+        sync.setSource(source);
+        sync.setTarget(target);
+        sync.setDbService(dbService);
+        sync.run();
+
+        Assert.assertEquals(0, sync.getStats().getObjectsFailed());
+        Assert.assertEquals(0, sync.getStats().getObjectsComplete());
+        Assert.assertEquals(totalObjects, sync.getStats().getObjectsSkipped());
+        Assert.assertEquals(0, source.loadCount.get());
+
+        modify(source, source.getRootObjects(), 25, (int) totalObjects);
+
+        // only modified objects should be loaded (and reprocessed)
+        source.loadCount.set(0);
+        sync = new EcsSync();
+        sync.setSyncConfig(new SyncConfig().withOptions(options));
+        sync.setSource(source);
+        sync.setTarget(target);
+        sync.setDbService(dbService);
+        sync.run();
+
+        Assert.assertEquals(0, sync.getStats().getObjectsFailed());
+        Assert.assertEquals(25, sync.getStats().getObjectsComplete());
+        Assert.assertEquals(25, source.loadCount.get());
+
+        // verification has never happened, so everything must be loaded
+        options.setVerify(true);
+        source.loadCount.set(0);
+        sync = new EcsSync();
+        sync.setSyncConfig(new SyncConfig().withOptions(options));
+        sync.setSource(source);
+        sync.setTarget(target);
+        sync.setDbService(dbService);
+        sync.run();
+
+        Assert.assertEquals(0, sync.getStats().getObjectsFailed());
+        Assert.assertEquals(totalObjects, source.loadCount.get());
+    }
+
     private void modify(TestStorage storage, List<? extends SyncObject> objects, int toModify, int totalCount) throws InterruptedException {
         Thread.sleep(1000);
         Set<Integer> modifiedIndexes = new HashSet<>();
         List<String> modified = new ArrayList<>();
         for (int i = 0; i < toModify; i++) {
-            int index = random.nextInt(totalCount);
-            while (modifiedIndexes.contains(index)) index = random.nextInt(totalCount);
+            // crawl indexes are 1-based
+            int index = random.nextInt(totalCount) + 1;
+            while (modifiedIndexes.contains(index)) index = random.nextInt(totalCount) + 1;
             modifiedIndexes.add(index);
             log.info("modifying index {}", index);
             modifyAtCrawlIndex(storage, objects, new AtomicInteger(index), modified);
@@ -257,4 +330,14 @@ public class IterationTest {
                 modifyAtCrawlIndex(storage, storage.getChildren(storage.getIdentifier(object.getRelativePath(), true)), crawlIndex, modified);
         }
     }
+
+    private static class LoadCountingStorage extends TestStorage {
+        final AtomicInteger loadCount = new AtomicInteger();
+
+        @Override
+        public SyncObject loadObject(String identifier) throws ObjectNotFoundException {
+            loadCount.incrementAndGet();
+            return super.loadObject(identifier);
+        }
+    }
 }
@@ -33,7 +33,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermissions;
@@ -74,6 +76,38 @@ public class SyncProcessTest {
         Assert.assertEquals(ObjectStatus.Error, syncRecord.getStatus());
     }
 
+    @Test
+    public void testRememberFailedSpill() throws Exception {
+        com.emc.ecs.sync.config.storage.TestConfig testConfig = new com.emc.ecs.sync.config.storage.TestConfig();
+        testConfig.withObjectCount(50).withMaxSize(1024).withChanceOfChildren(0).withReadData(true).withDiscardData(false);
+
+        // never succeeds
+        ErrorThrowingConfig filterConfig = new ErrorThrowingConfig().withRetriesExpected(Integer.MAX_VALUE);
+
+        File failedFile = File.createTempFile("sync-process-test", ".failed");
+        failedFile.deleteOnExit();
+        SyncOptions options = new SyncOptions().withRetryAttempts(0).withRememberFailed(true)
+                .withRememberFailedMax(10).withRememberFailedFile(failedFile.getPath());
+
+        SyncConfig syncConfig = new SyncConfig().withOptions(options).withSource(testConfig).withTarget(testConfig);
+        syncConfig.withFilters(Collections.singletonList(filterConfig));
+
+        EcsSync sync = new EcsSync();
+        sync.setSyncConfig(syncConfig);
+        sync.run();
+
+        Assert.assertEquals(50, sync.getStats().getObjectsFailed());
+        Assert.assertTrue(sync.getStats().getFailedObjects().size() < 50);
+        Assert.assertEquals(50, sync.getStats().getFailedObjects().size() + sync.getStats().getFailedObjectsSpilled());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sync.getStats().writeFailedObjects(out);
+        Assert.assertEquals(50, new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n").length);
+
+        sync.getStats().close();
+        Assert.assertTrue(failedFile.delete());
+    }
+
     @Test
     public void testRetryQueue() throws Exception {
         int retries = 3;
@@ -111,6 +145,60 @@ public class SyncProcessTest {
         Assert.assertEquals((retries + 1) * sync.getStats().getObjectsComplete(), filterConfig.getTotalAttempts().get());
     }
 
+    @Test
+    public void testSharedScheduler() throws Exception {
+        runSchedulerTest(new SyncOptions().withSharedScheduler(true));
+    }
+
+    @Test(timeout = 120000)
+    public void testSharedSchedulerRecursiveVerify() throws Exception {
+        // a small pool with a deep tree: list and query tasks block on the sync queue while sync tasks wait for the
+        // verifier, which must not starve any of them
+        com.emc.ecs.sync.config.storage.TestConfig testConfig = new com.emc.ecs.sync.config.storage.TestConfig();
+        testConfig.withObjectCount(200).withMaxSize(1024).withMaxDepth(4).withChanceOfChildren(60)
+                .withObjectOwner("Boo Radley").withReadData(true).withDiscardData(false);
+
+        SyncOptions options = new SyncOptions().withSharedScheduler(true).withThreadCount(2).withRecursive(true)
+                .withVerify(true).withParallelReadThreads(2);
+
+        SyncConfig syncConfig = new SyncConfig().withOptions(options).withSource(testConfig).withTarget(testConfig);
+
+        EcsSync sync = new EcsSync();
+        sync.setSyncConfig(syncConfig);
+        sync.run();
+
+        Assert.assertEquals(0, sync.getStats().getObjectsFailed());
+        Assert.assertEquals(sync.getStats().getObjectsComplete(), sync.getEstimatedTotalObjects());
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        // falls back to platform threads before Java 21
+        runSchedulerTest(new SyncOptions().withVirtualThreads(true));
+    }
+
+    private void runSchedulerTest(SyncOptions options) throws Exception {
+        int retries = 2;
+
+        com.emc.ecs.sync.config.storage.TestConfig testConfig = new com.emc.ecs.sync.config.storage.TestConfig();
+        testConfig.withObjectCount(500).withMaxSize(1024).withObjectOwner("Boo Radley").withReadData(true).withDiscardData(false);
+
+        ErrorThrowingConfig filterConfig = new ErrorThrowingConfig().withRetriesExpected(retries);
+
+        options.withThreadCount(8).withRetryAttempts(retries).withVerify(true);
+
+        SyncConfig syncConfig = new SyncConfig().withOptions(options).withSource(testConfig).withTarget(testConfig);
+        syncConfig.withFilters(Collections.singletonList(filterConfig));
+
+        EcsSync sync = new EcsSync();
+        sync.setSyncConfig(syncConfig);
+        sync.run();
+
+        Assert.assertEquals(0, sync.getStats().getObjectsFailed());
+        Assert.assertEquals(sync.getStats().getObjectsComplete(), sync.getEstimatedTotalObjects());
+        Assert.assertEquals((retries + 1) * sync.getStats().getObjectsComplete(), filterConfig.getTotalAttempts().get());
+    }
+
     @Test
     public void testOptionsChangedListener() throws Exception {
         com.emc.ecs.sync.config.storage.TestConfig testConfig = new com.emc.ecs.sync.config.storage.TestConfig();
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync;
+
+import com.emc.ecs.sync.util.PerformanceWindow;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the counter updates every sync thread makes for each object ({@link SyncTask} increments an
+ * object counter and a byte counter), comparing {@link SyncStats} to the original single-monitor counters.
+ * <p>
+ * Run with <code>./gradlew jmh -Pbenchmark=SyncStatsBenchmark</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncStatsBenchmark {
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(SyncStatsBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Stats {
+        SyncStats syncStats;
+        LegacyCounters legacyCounters;
+
+        @Setup
+        public void setup() {
+            syncStats = new SyncStats();
+            legacyCounters = new LegacyCounters();
+        }
+
+        @TearDown
+        public void teardown() {
+            syncStats.close();
+            legacyCounters.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void syncStats1(Stats stats) {
+        stats.syncStats.incObjectsComplete();
+        stats.syncStats.incBytesComplete(1024);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void legacyCounters1(Stats stats) {
+        stats.legacyCounters.incObjectsComplete();
+        stats.legacyCounters.incBytesComplete(1024);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void syncStats16(Stats stats) {
+        syncStats1(stats);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void legacyCounters16(Stats stats) {
+        legacyCounters1(stats);
+    }
+
+    @Benchmark
+    @Threads(128)
+    public void syncStats128(Stats stats) {
+        syncStats1(stats);
+    }
+
+    @Benchmark
+    @Threads(128)
+    public void legacyCounters128(Stats stats) {
+        legacyCounters1(stats);
+    }
+
+    /**
+     * The counters previously used by {@link SyncStats} (every update synchronized on the same monitor)
+     */
+    static class LegacyCounters implements AutoCloseable {
+        private long objectsComplete, bytesComplete;
+        private PerformanceWindow objectCompleteRate = new PerformanceWindow(500, 20);
+
+        synchronized void incObjectsComplete() {
+            objectsComplete++;
+            objectCompleteRate.increment(1);
+        }
+
+        synchronized void incBytesComplete(long bytes) {
+            bytesComplete += bytes;
+        }
+
+        @Override
+        public void close() {
+            objectCompleteRate.close();
+        }
+    }
+}
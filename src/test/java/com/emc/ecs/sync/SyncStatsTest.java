@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SyncStatsTest {
+    @Test
+    public void testConcurrentCounters() throws Exception {
+        final int threads = 16, perThread = 10000;
+        try (final SyncStats stats = new SyncStats()) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < perThread; i++) {
+                            stats.incObjectsComplete();
+                            stats.incBytesComplete(3);
+                            stats.incObjectsSkipped();
+                            stats.incBytesSkipped(2);
+                            if (i % 100 == 0) {
+                                stats.incObjectsFailed();
+                                stats.addFailedObject("thread" + thread + "-object" + i);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            long total = threads * perThread;
+            Assert.assertEquals(total, stats.getObjectsComplete());
+            Assert.assertEquals(total * 3, stats.getBytesComplete());
+            Assert.assertEquals(total, stats.getObjectsSkipped());
+            Assert.assertEquals(total * 2, stats.getBytesSkipped());
+            Assert.assertEquals(total / 100, stats.getObjectsFailed());
+            Assert.assertEquals(total / 100, stats.getFailedObjects().size());
+            Assert.assertEquals(0, stats.getFailedObjectsDropped());
+
+            stats.reset();
+            Assert.assertEquals(0, stats.getObjectsComplete());
+            Assert.assertEquals(0, stats.getBytesComplete());
+            Assert.assertTrue(stats.getFailedObjects().isEmpty());
+        }
+    }
+
+    @Test
+    public void testFailedObjectLimit() throws Exception {
+        File tempFile;
+        try (SyncStats stats = new SyncStats()) {
+            stats.setMaxFailedObjects(10);
+            for (int i = 0; i < 25; i++) {
+                stats.addFailedObject("object" + i);
+            }
+            Assert.assertEquals(10, stats.getFailedObjects().size());
+            Assert.assertEquals(15, stats.getFailedObjectsSpilled());
+            Assert.assertEquals(0, stats.getFailedObjectsDropped());
+            tempFile = stats.getFailedObjectsFile();
+            Assert.assertTrue(tempFile.exists());
+            Assert.assertTrue(stats.getStatsString().contains("15 failed files written to " + tempFile));
+
+            Assert.assertEquals(expectedNames(25), readFailedObjects(stats));
+
+            // can still stream (and record) after close
+            stats.close();
+            stats.addFailedObject("object25");
+            Assert.assertEquals(expectedNames(26), readFailedObjects(stats));
+
+            // temp file is removed on discard/reset
+            stats.reset();
+            Assert.assertFalse(tempFile.exists());
+            Assert.assertTrue(readFailedObjects(stats).isEmpty());
+        }
+    }
+
+    @Test
+    public void testFailedObjectsFile() throws Exception {
+        File file = File.createTempFile("sync-stats-test", ".failed");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write("from a previous run\n".getBytes(StandardCharsets.UTF_8));
+        }
+        try (SyncStats stats = new SyncStats()) {
+            stats.setMaxFailedObjects(2);
+            stats.setFailedObjectsFile(file);
+            for (int i = 0; i < 5; i++) {
+                stats.addFailedObject("object" + i);
+            }
+            Assert.assertEquals(expectedNames(5), readFailedObjects(stats));
+
+            // still streams correctly while more failures are appended
+            stats.addFailedObject("object5");
+            Assert.assertEquals(expectedNames(6), readFailedObjects(stats));
+        }
+        // explicit file is kept (and was truncated at the start of the run)
+        Assert.assertEquals(Arrays.asList("object2", "object3", "object4", "object5"),
+                Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        Assert.assertTrue(file.delete());
+    }
+
+    @Test
+    public void testStatusWriteFailuresNotCountedAsFailed() throws Exception {
+        try (SyncStats stats = new SyncStats()) {
+            stats.incObjectsComplete();
+            stats.incStatusWriteFailures();
+            Assert.assertEquals(1, stats.getObjectsComplete());
+            Assert.assertEquals(0, stats.getObjectsFailed());
+            Assert.assertEquals(1, stats.getStatusWriteFailures());
+            Assert.assertTrue(stats.getStatsString().contains("Status of 1 files could not be written"));
+
+            stats.reset();
+            Assert.assertEquals(0, stats.getStatusWriteFailures());
+        }
+    }
+
+    private Set<String> expectedNames(int count) {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            names.add("object" + i);
+        }
+        return names;
+    }
+
+    private Set<String> readFailedObjects(SyncStats stats) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stats.writeFailedObjects(out);
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        Set<String> names = new HashSet<>(Arrays.asList(lines));
+        names.remove("");
+        Assert.assertEquals("duplicate entries", out.size() == 0 ? 0 : lines.length, names.size());
+        return names;
+    }
+}
@@ -14,16 +14,22 @@
  */
 package com.emc.ecs.sync;
 
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
 import com.emc.ecs.sync.config.SyncConfig;
 import com.emc.ecs.sync.config.SyncOptions;
 import com.emc.ecs.sync.config.storage.TestConfig;
 import com.emc.ecs.sync.model.*;
 import com.emc.ecs.sync.storage.TestStorage;
 import com.emc.ecs.sync.test.ByteAlteringFilter;
+import com.emc.ecs.sync.util.LazyValue;
+import com.emc.ecs.sync.util.PartMd5InputStream;
+import com.emc.ecs.sync.util.SyncUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Random;
@@ -99,6 +105,222 @@ public class VerifyTest {
         Assert.assertEquals(alteringConfig.getModifiedObjects(), sync.getStats().getObjectsFailed());
     }
 
+    @Test
+    public void testChecksumAlgorithms() throws Exception {
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            SyncConfig syncConfig = new SyncConfig();
+            syncConfig.setSource(new TestConfig().withObjectCount(200).withMaxSize(10240).withDiscardData(false));
+            syncConfig.setTarget(new TestConfig().withReadData(true).withDiscardData(false));
+
+            ByteAlteringFilter.ByteAlteringConfig alteringConfig = new ByteAlteringFilter.ByteAlteringConfig();
+            syncConfig.setFilters(Collections.singletonList(alteringConfig));
+            syncConfig.setOptions(new SyncOptions().withThreadCount(16).withVerify(true).withRetryAttempts(0)
+                    .withVerifyChecksum(algorithm));
+
+            EcsSync sync = new EcsSync();
+            sync.setSyncConfig(syncConfig);
+            sync.run();
+
+            Assert.assertTrue(algorithm.toString(), alteringConfig.getModifiedObjects() > 0);
+            Assert.assertEquals(algorithm.toString(), alteringConfig.getModifiedObjects(), sync.getStats().getObjectsFailed());
+        }
+    }
+
+    @Test
+    public void testSkipChecksum() throws Exception {
+        TestStorage storage = new TestStorage();
+        storage.setConfig(new TestConfig());
+        storage.setOptions(new SyncOptions().withSkipChecksum(true));
+
+        SyncObject object = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(3),
+                new ByteArrayInputStream(new byte[]{1, 2, 3}), null);
+        Assert.assertNull(object.getChecksumAlgorithm());
+        Assert.assertNull(object.getChecksumHex(true));
+        Assert.assertNull(object.getMd5Hex(true));
+
+        // a checksum is still needed for verification
+        storage.setOptions(new SyncOptions().withSkipChecksum(true).withVerify(true).withVerifyChecksum(ChecksumAlgorithm.crc32c));
+        object = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(9),
+                new ByteArrayInputStream("123456789".getBytes("UTF-8")), null);
+        Assert.assertEquals(ChecksumAlgorithm.crc32c, object.getChecksumAlgorithm());
+        Assert.assertEquals("E3069283", object.getChecksumHex(true));
+        Assert.assertNull(object.getMd5Hex(true));
+    }
+
+    @Test
+    public void testEtagVerification() throws Exception {
+        TestStorage storage = new TestStorage();
+        storage.setConfig(new TestConfig());
+        storage.setOptions(new SyncOptions().withVerify(true));
+        byte[] data = "Hello World!".getBytes("UTF-8");
+        String md5 = "ED076287532E86365E841E92BFC50D8C";
+
+        ChecksumVerifier verifier = new ChecksumVerifier(storage.getOptions());
+        try {
+            SyncObject source = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+
+            // the target must not be read when its ETag matches
+            SyncObject target = unreadableObject(storage, data.length);
+            target.setEtag("\"" + md5.toLowerCase() + "\"");
+            verifier.verify(source, target);
+            Assert.assertFalse(target.isDataStreamOpened());
+
+            // a multipart ETag is not an MD5, so the target is read
+            source = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            target = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            target.setEtag("\"" + md5 + "-2\"");
+            verifier.verify(source, target);
+            Assert.assertTrue(target.getBytesRead() > 0);
+
+            // an ETag that does not match falls back to reading the target
+            source = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            target = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            target.setEtag("00000000000000000000000000000000");
+            verifier.verify(source, target);
+            Assert.assertTrue(target.getBytesRead() > 0);
+        } finally {
+            verifier.close();
+        }
+    }
+
+    @Test
+    public void testWriteEtagVerification() throws Exception {
+        TestStorage storage = new TestStorage();
+        storage.setConfig(new TestConfig());
+        storage.setOptions(new SyncOptions().withVerify(true).withVerifyWriteEtag(true));
+        byte[] data = "Hello World!".getBytes("UTF-8");
+
+        EtagVerifier verifier = new EtagVerifier(storage.getOptions());
+        try {
+            // single-part
+            SyncObject source = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            SyncUtil.consumeAndCloseStream(source.getDataStream()); // "write" the object
+            source.setWriteEtag("\"ed076287532e86365e841e92bfc50d8c\"");
+            SyncObject target = unreadableObject(storage, data.length);
+            verifier.verify(source, target);
+            Assert.assertFalse(target.isDataStreamOpened());
+
+            // multipart (5-byte parts)
+            source = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            PartMd5InputStream partStream = new PartMd5InputStream(source.getDataStream(), 5);
+            SyncUtil.consumeAndCloseStream(partStream);
+            Assert.assertEquals(3, partStream.getPartMd5s().size());
+            source.setWriteEtag(PartMd5InputStream.multipartEtag(partStream.getPartMd5s()));
+            source.setWritePartMd5s(partStream.getPartMd5s());
+            target = unreadableObject(storage, data.length);
+            verifier.verify(source, target);
+            Assert.assertFalse(target.isDataStreamOpened());
+
+            // a part count that doesn't match falls back to reading the target
+            source.setWriteEtag(source.getWriteEtag().replace("-3", "-2"));
+            target = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            verifier.verify(source, target);
+            Assert.assertTrue(target.getBytesRead() > 0);
+        } finally {
+            verifier.close();
+        }
+
+        // every object is sampled
+        storage.setOptions(new SyncOptions().withVerify(true).withVerifyWriteEtag(true).withVerifySamplePercent(100));
+        verifier = new EtagVerifier(storage.getOptions());
+        try {
+            SyncObject source = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            SyncUtil.consumeAndCloseStream(source.getDataStream());
+            source.setWriteEtag("ed076287532e86365e841e92bfc50d8c");
+            SyncObject target = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            target.setEtag("ed076287532e86365e841e92bfc50d8c");
+            verifier.verify(source, target);
+            Assert.assertTrue(target.getBytesRead() > 0);
+        } finally {
+            verifier.close();
+        }
+    }
+
+    @Test
+    public void testChunkedVerification() throws Exception {
+        SyncOptions options = new SyncOptions().withVerify(true).withVerifyChunkSizeMb(1);
+        TestStorage target = new TestStorage();
+        target.setConfig(new TestConfig().withReadData(true).withDiscardData(false));
+        target.setOptions(options);
+
+        byte[] data = new byte[3 * 1024 * 1024 + 512];
+        new Random().nextBytes(data);
+        target.updateObject(target.getIdentifier("foo", false), new SyncObject(target, "foo",
+                new ObjectMetadata().withContentLength(data.length), new ByteArrayInputStream(data), null));
+
+        ChecksumVerifier verifier = new ChecksumVerifier(options);
+        try {
+            // the target is only read in ranges
+            SyncObject source = new SyncObject(target, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            SyncUtil.consumeAndCloseStream(source.getDataStream()); // "write" the object
+            Assert.assertEquals(4, source.getChunkChecksums(false).size());
+            SyncObject targetObject = unreadableObject(target, data.length);
+            verifier.verify(source, targetObject);
+            Assert.assertFalse(targetObject.isDataStreamOpened());
+
+            // verify-only (source is not read yet)
+            source = new SyncObject(target, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            verifier.verify(source, unreadableObject(target, data.length));
+
+            // a change in the third chunk
+            byte[] altered = Arrays.copyOf(data, data.length);
+            altered[2 * 1024 * 1024 + 10]++;
+            source = new SyncObject(target, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(altered), null);
+            try {
+                verifier.verify(source, unreadableObject(target, data.length));
+                Assert.fail("altered chunk was not detected");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("chunk 3 of 4"));
+            }
+
+            // a source checksummed in different chunks is a mismatch
+            TestStorage twoMbSource = new TestStorage();
+            twoMbSource.setOptions(new SyncOptions().withVerify(true).withVerifyChunkSizeMb(2));
+            source = new SyncObject(twoMbSource, "foo", new ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), null);
+            try {
+                verifier.verify(source, unreadableObject(target, data.length));
+                Assert.fail("different chunk count was not detected");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("chunk count mismatch (2 != 4)"));
+            }
+
+            // objects no larger than one chunk are read in full
+            source = new SyncObject(target, "foo", new ObjectMetadata().withContentLength(3),
+                    new ByteArrayInputStream(new byte[]{1, 2, 3}), null);
+            targetObject = new SyncObject(target, "foo", new ObjectMetadata().withContentLength(3),
+                    new ByteArrayInputStream(new byte[]{1, 2, 3}), null);
+            verifier.verify(source, targetObject);
+            Assert.assertTrue(targetObject.getBytesRead() > 0);
+        } finally {
+            verifier.close();
+        }
+    }
+
+    private SyncObject unreadableObject(TestStorage storage, long size) {
+        SyncObject object = new SyncObject(storage, "foo", new ObjectMetadata().withContentLength(size));
+        object.setLazyStream(new LazyValue<InputStream>() {
+            @Override
+            public InputStream get() {
+                throw new RuntimeException("target should not be read");
+            }
+        });
+        return object;
+    }
+
     @Test
     public void testVerifyOnly() throws Exception {
         TestStorage source = new TestStorage();
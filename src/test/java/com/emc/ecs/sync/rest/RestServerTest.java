@@ -20,6 +20,7 @@ import com.emc.ecs.sync.config.storage.TestConfig;
 import com.emc.ecs.sync.service.SyncJobService;
 import com.emc.ecs.sync.test.ByteAlteringFilter;
 import com.emc.ecs.sync.test.DelayFilter;
+import com.emc.ecs.sync.test.TestUtil;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterfaceException;
@@ -171,6 +172,119 @@ public class RestServerTest {
         }
     }
 
+    @Test
+    public void testGetTimings() throws Exception {
+        SyncConfig syncConfig = new SyncConfig();
+        syncConfig.setSource(new TestConfig().withObjectCount(10).withMaxSize(10240).withDiscardData(false));
+        syncConfig.setTarget(new TestConfig().withReadData(true).withDiscardData(false));
+        syncConfig.setOptions(new SyncOptions().withTimingsEnabled(true));
+
+        ClientResponse response = client.resource(endpoint).path("/job").type(XML).put(ClientResponse.class, syncConfig);
+        String jobId = response.getHeaders().getFirst("x-emc-job-id");
+        try {
+            Assert.assertEquals(response.getEntity(String.class), 201, response.getStatus());
+            response.close(); // must close all responses
+
+            while (!client.resource(endpoint).path("/job/" + jobId + "/control").get(JobControl.class).getStatus().isFinalState()) {
+                Thread.sleep(1000);
+            }
+
+            TimingList timingList = client.resource(endpoint).path("/job/" + jobId + "/timings").get(TimingList.class);
+            Assert.assertNotNull(timingList);
+            for (OperationTiming timing : timingList.getTimings()) {
+                Assert.assertTrue(timing.getP50Time() <= timing.getP999Time());
+            }
+        } finally {
+            response = client.resource(endpoint).path("/job/" + jobId).delete(ClientResponse.class);
+            if (response.getStatus() != 200)
+                log.warn("could not delete job: {}", response.getEntity(String.class));
+            response.close(); // must close all responses
+        }
+
+        try {
+            client.resource(endpoint).path("/job/" + jobId + "/timings").get(TimingList.class);
+            Assert.fail("server should return a 404");
+        } catch (UniformInterfaceException e) {
+            Assert.assertEquals(404, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        SyncConfig syncConfig = new SyncConfig();
+        syncConfig.setJobName("metrics \"test\"");
+        syncConfig.setSource(new TestConfig().withObjectCount(10).withMaxSize(10240).withChanceOfChildren(0).withDiscardData(false));
+        syncConfig.setTarget(new TestConfig().withReadData(true).withDiscardData(false));
+
+        ClientResponse response = client.resource(endpoint).path("/job").type(XML).put(ClientResponse.class, syncConfig);
+        String jobId = response.getHeaders().getFirst("x-emc-job-id");
+        try {
+            Assert.assertEquals(response.getEntity(String.class), 201, response.getStatus());
+            response.close(); // must close all responses
+
+            while (!client.resource(endpoint).path("/job/" + jobId + "/control").get(JobControl.class).getStatus().isFinalState()) {
+                Thread.sleep(1000);
+            }
+
+            response = client.resource(endpoint).path("/metrics").get(ClientResponse.class);
+            Assert.assertEquals(200, response.getStatus());
+            Assert.assertTrue(response.getType().toString().startsWith("text/plain"));
+            String metrics = response.getEntity(String.class);
+            response.close(); // must close all responses
+
+            Assert.assertTrue(metrics.contains("# TYPE ecs_sync_objects_complete_total counter\n"));
+            Assert.assertTrue(metrics.contains("ecs_sync_objects_complete_total{job=\"" + jobId + "\"} 10\n"));
+            Assert.assertTrue(metrics.contains("ecs_sync_job_info{job=\"" + jobId + "\",job_name=\"metrics \\\"test\\\"\",status=\"Complete\"} 1\n"));
+            Assert.assertTrue(metrics.contains("ecs_sync_queued_tasks{job=\"" + jobId + "\",pool=\"sync\"} 0\n"));
+            Assert.assertTrue(metrics.contains("# TYPE ecs_sync_buffer_pool_outstanding_bytes gauge\n"));
+            Assert.assertTrue(metrics.contains("ecs_sync_buffer_pool_requests_total{type=\"heap\",result=\"hit\"} "));
+        } finally {
+            response = client.resource(endpoint).path("/job/" + jobId).delete(ClientResponse.class);
+            if (response.getStatus() != 200)
+                log.warn("could not delete job: {}", response.getEntity(String.class));
+            response.close(); // must close all responses
+        }
+
+        // deleted jobs are no longer exported
+        String metrics = client.resource(endpoint).path("/metrics").get(String.class);
+        Assert.assertFalse(metrics.contains("{job=\"" + jobId + "\""));
+    }
+
+    @Test
+    public void testGetFailedObjects() throws Exception {
+        // none of these objects exist in the source
+        StringBuilder sourceList = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            sourceList.append("does-not-exist-").append(i).append("\n");
+        }
+        File sourceListFile = TestUtil.writeTempFile(sourceList.toString());
+
+        SyncConfig syncConfig = new SyncConfig();
+        syncConfig.setSource(new TestConfig().withObjectCount(0).withDiscardData(false));
+        syncConfig.setTarget(new TestConfig().withReadData(true).withDiscardData(false));
+        syncConfig.setOptions(new SyncOptions().withSourceListFile(sourceListFile.getPath())
+                .withRememberFailed(true).withRememberFailedMax(4));
+
+        ClientResponse response = client.resource(endpoint).path("/job").type(XML).put(ClientResponse.class, syncConfig);
+        String jobId = response.getHeaders().getFirst("x-emc-job-id");
+        try {
+            Assert.assertEquals(response.getEntity(String.class), 201, response.getStatus());
+            response.close(); // must close all responses
+
+            while (!client.resource(endpoint).path("/job/" + jobId + "/control").get(JobControl.class).getStatus().isFinalState()) {
+                Thread.sleep(1000);
+            }
+
+            String failed = client.resource(endpoint).path("/job/" + jobId + "/failed.txt").get(String.class);
+            Assert.assertEquals(10, failed.split("\n").length);
+        } finally {
+            response = client.resource(endpoint).path("/job/" + jobId).delete(ClientResponse.class);
+            if (response.getStatus() != 200)
+                log.warn("could not delete job: {}", response.getEntity(String.class));
+            response.close(); // must close all responses
+        }
+    }
+
     @Test
     public void testListJobs() throws Exception {
         SyncConfig syncConfig = new SyncConfig();
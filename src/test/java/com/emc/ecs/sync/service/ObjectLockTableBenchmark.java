@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares {@link ObjectLockTable} to the original single-monitor lock set under contention. Each sync thread locks
+ * a (mostly) unique identifier, does a little work and unlocks it, which is what {@link com.emc.ecs.sync.SyncTask}
+ * does for every object.
+ * <p>
+ * Run with <code>./gradlew jmh -Pbenchmark=ObjectLockTableBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectLockTableBenchmark {
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ObjectLockTableBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Tables {
+        final ObjectLockTable lockTable = new ObjectLockTable(128);
+        final LegacyLockSet legacyLocks = new LegacyLockSet();
+        final AtomicLong sequence = new AtomicLong();
+
+        /**
+         * number of distinct identifiers in play; a small number simulates duplicate/retried objects colliding
+         */
+        @Param({"1000000", "16"})
+        int identifierSpace;
+    }
+
+    @State(Scope.Thread)
+    public static class Ids {
+        String[] ids;
+        int next;
+
+        @Setup
+        public void setup(Tables tables) {
+            ids = new String[1024];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = "bucket/some/prefix/object-" + (tables.sequence.incrementAndGet() % tables.identifierSpace);
+            }
+        }
+
+        String nextId() {
+            return ids[next++ & (ids.length - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void lockTable64(Tables tables, Ids ids, Blackhole blackhole) {
+        String id = ids.nextId();
+        tables.lockTable.lock(id);
+        try {
+            Blackhole.consumeCPU(50);
+            blackhole.consume(id);
+        } finally {
+            tables.lockTable.unlock(id);
+        }
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void legacyLocks64(Tables tables, Ids ids, Blackhole blackhole) {
+        String id = ids.nextId();
+        tables.legacyLocks.lock(id);
+        try {
+            Blackhole.consumeCPU(50);
+            blackhole.consume(id);
+        } finally {
+            tables.legacyLocks.unlock(id);
+        }
+    }
+
+    @Benchmark
+    @Threads(128)
+    public void lockTable128(Tables tables, Ids ids, Blackhole blackhole) {
+        lockTable64(tables, ids, blackhole);
+    }
+
+    @Benchmark
+    @Threads(128)
+    public void legacyLocks128(Tables tables, Ids ids, Blackhole blackhole) {
+        legacyLocks64(tables, ids, blackhole);
+    }
+
+    /**
+     * The lock implementation previously used by {@link AbstractDbService} (one monitor, notifyAll on every unlock)
+     */
+    static class LegacyLockSet {
+        private final Set<String> locks = new HashSet<>();
+
+        void lock(String identifier) {
+            synchronized (locks) {
+                while (locks.contains(identifier)) {
+                    try {
+                        locks.wait();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException("interrupted while waiting for lock", e);
+                    }
+                }
+                locks.add(identifier);
+            }
+        }
+
+        synchronized void unlock(String identifier) {
+            synchronized (locks) {
+                locks.remove(identifier);
+                locks.notifyAll();
+            }
+        }
+    }
+}
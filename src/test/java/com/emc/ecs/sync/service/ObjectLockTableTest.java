@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ObjectLockTableTest {
+    @Test
+    public void testLockUnlock() {
+        ObjectLockTable locks = new ObjectLockTable();
+
+        locks.lock("foo");
+        Assert.assertTrue(locks.isLocked("foo"));
+        Assert.assertFalse(locks.isLocked("bar"));
+        Assert.assertFalse(locks.tryLock("foo"));
+        Assert.assertTrue(locks.tryLock("bar"));
+        Assert.assertEquals(2, locks.size());
+
+        locks.unlock("foo");
+        locks.unlock("bar");
+        Assert.assertFalse(locks.isLocked("foo"));
+        Assert.assertEquals(0, locks.size());
+
+        // unlocking something that isn't locked should be harmless
+        locks.unlock("baz");
+        Assert.assertEquals(0, locks.size());
+    }
+
+    @Test
+    public void testUnlockFromOtherThread() throws Exception {
+        final ObjectLockTable locks = new ObjectLockTable();
+        locks.lock("foo");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    locks.unlock("foo");
+                }
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertTrue(locks.tryLock("foo"));
+        locks.unlock("foo");
+    }
+
+    @Test
+    public void testOnlySameIdentifierBlocks() throws Exception {
+        final ObjectLockTable locks = new ObjectLockTable();
+        locks.lock("foo");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> other = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    locks.lock("bar");
+                    locks.unlock("bar");
+                }
+            });
+            other.get(5, TimeUnit.SECONDS); // different identifier must not wait
+
+            Future<?> same = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    locks.lock("foo");
+                    locks.unlock("foo");
+                }
+            });
+            try {
+                same.get(200, TimeUnit.MILLISECONDS);
+                Assert.fail("same identifier should block while locked");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            locks.unlock("foo");
+            same.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(0, locks.size());
+    }
+
+    @Test
+    public void testMutualExclusion() throws Exception {
+        final ObjectLockTable locks = new ObjectLockTable();
+        final int threadCount = 32, iterations = 2000, identifierCount = 4;
+        final AtomicInteger[] holders = new AtomicInteger[identifierCount];
+        for (int i = 0; i < identifierCount; i++) holders[i] = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < iterations; i++) {
+                        int id = (i + offset) % identifierCount;
+                        locks.lock("object-" + id);
+                        try {
+                            if (holders[id].incrementAndGet() != 1) violations.incrementAndGet();
+                            holders[id].decrementAndGet();
+                        } finally {
+                            locks.unlock("object-" + id);
+                        }
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(0, violations.get());
+        Assert.assertEquals(0, locks.size());
+    }
+}
@@ -28,8 +28,13 @@ import org.springframework.jdbc.support.rowset.SqlRowSet;
 
 import java.io.ByteArrayInputStream;
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 public class SqliteDbServiceTest {
     private static final String DB_FILE = ":memory:";
@@ -379,6 +384,129 @@ public class SqliteDbServiceTest {
         else Assert.assertEquals("ACBD18DB4CC2F85CEDEF654FCCC4A4D8", rowSet.getString("source_md5"));
     }
 
+    @Test
+    public void testWriteBehind() throws Exception {
+        dbService.setWriteBehind(true);
+        dbService.setWriteBatchSize(10);
+        dbService.setWriteFlushInterval(60000); // make sure the timer doesn't interfere
+
+        ObjectContext[] contexts = new ObjectContext[5];
+        for (int i = 0; i < contexts.length; i++) {
+            String id = "wb-" + i;
+            SyncObject object = new SyncObject(new TestStorage(), id, new ObjectMetadata().withContentLength(i));
+            contexts[i] = new ObjectContext().withSourceSummary(new ObjectSummary(id, false, i)).withObject(object)
+                    .withOptions(new SyncOptions());
+            contexts[i].setStatus(ObjectStatus.InTransfer);
+            dbService.setStatus(contexts[i], null, true);
+        }
+
+        // below the batch size, so nothing should be written yet
+        Assert.assertEquals(contexts.length, dbService.getPendingWriteCount());
+        Assert.assertEquals(0, countRows());
+
+        // reading a pending object must see its latest status
+        SyncRecord record = dbService.getSyncRecord(contexts[0]);
+        Assert.assertNotNull(record);
+        Assert.assertEquals(ObjectStatus.InTransfer, record.getStatus());
+        Assert.assertEquals(0, dbService.getPendingWriteCount());
+        Assert.assertEquals(contexts.length, countRows());
+
+        // hitting the batch size should trigger a flush
+        for (ObjectContext context : contexts) {
+            context.setStatus(ObjectStatus.Transferred);
+            dbService.setStatus(context, null, false);
+            context.setStatus(ObjectStatus.Verified);
+            dbService.setStatus(context, null, false);
+        }
+        Assert.assertEquals(0, dbService.getPendingWriteCount());
+        for (ObjectContext context : contexts) {
+            Assert.assertEquals(ObjectStatus.Verified.getValue(),
+                    getRowSet(context.getSourceSummary().getIdentifier()).getString("status"));
+        }
+
+        // explicit flush (durability barrier)
+        contexts[1].setStatus(ObjectStatus.Error);
+        dbService.setStatus(contexts[1], "foo", false);
+        Assert.assertEquals(1, dbService.getPendingWriteCount());
+        dbService.flush();
+        Assert.assertEquals(0, dbService.getPendingWriteCount());
+        SqlRowSet rowSet = getRowSet(contexts[1].getSourceSummary().getIdentifier());
+        Assert.assertEquals(ObjectStatus.Error.getValue(), rowSet.getString("status"));
+        Assert.assertEquals("foo", rowSet.getString("error_message"));
+    }
+
+    @Test
+    public void testWriteBehindFailure() throws Exception {
+        dbService.setWriteBehind(true);
+        dbService.setWriteBatchSize(10);
+        dbService.setWriteFlushInterval(60000); // make sure the timer doesn't interfere
+        final Map<String, String> failures = Collections.synchronizedMap(new HashMap<String, String>());
+        dbService.setWriteFailureListener(new WriteFailureListener() {
+            @Override
+            public void writeFailed(String identifier, String error) {
+                failures.put(identifier, error);
+            }
+        });
+
+        String id = "wbf-0";
+        SyncObject object = new SyncObject(new TestStorage(), id, new ObjectMetadata().withContentLength(0));
+        ObjectContext context = new ObjectContext().withSourceSummary(new ObjectSummary(id, false, 0)).withObject(object)
+                .withOptions(new SyncOptions());
+        context.setStatus(ObjectStatus.InTransfer);
+        dbService.setStatus(context, null, true);
+        Assert.assertTrue(dbService.flush().isEmpty());
+
+        // a second insert for the same object violates the primary key
+        dbService.setStatus(context, null, true);
+        Set<String> unwritten = dbService.flush();
+        Assert.assertEquals(Collections.singleton(id), unwritten);
+        Assert.assertEquals(Collections.singleton(id), failures.keySet());
+
+        // reported by every flush until a write for the object succeeds
+        Assert.assertEquals(unwritten, dbService.flush());
+        context.setStatus(ObjectStatus.Transferred);
+        dbService.setStatus(context, null, false);
+        Assert.assertTrue(dbService.flush().isEmpty());
+        Assert.assertEquals(ObjectStatus.Transferred.getValue(), getRowSet(id).getString("status"));
+        Assert.assertEquals(1, failures.size());
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        ObjectContext[] contexts = new ObjectContext[4];
+        for (int i = 0; i < contexts.length; i++) {
+            String id = "pf-" + i;
+            SyncObject object = new SyncObject(new TestStorage(), id, new ObjectMetadata().withContentLength(i));
+            contexts[i] = new ObjectContext().withSourceSummary(new ObjectSummary(id, false, i)).withObject(object)
+                    .withOptions(new SyncOptions());
+            contexts[i].setStatus(ObjectStatus.Transferred);
+            if (i < 3) dbService.setStatus(contexts[i], null, true); // last one has no record
+        }
+
+        dbService.prefetchSyncRecords(Arrays.asList("pf-0", "pf-1", "pf-2", "pf-3"));
+
+        // prove the cache is used by pulling the rug out from under it
+        dbService.getJdbcTemplate().update("DELETE FROM " + dbService.getObjectsTableName() + " WHERE source_id = ?", "pf-2");
+
+        Assert.assertEquals(ObjectStatus.Transferred, dbService.getSyncRecord(contexts[0]).getStatus());
+        Assert.assertEquals("pf-2", dbService.getSyncRecord(contexts[2]).getSourceId());
+        Assert.assertNull(dbService.getSyncRecord(contexts[3]));
+
+        // entries are only used once
+        Assert.assertNull(dbService.getSyncRecord(contexts[2]));
+
+        // an update invalidates the prefetched record
+        dbService.prefetchSyncRecords(Arrays.asList("pf-0", "pf-1"));
+        contexts[1].setStatus(ObjectStatus.Verified);
+        dbService.setStatus(contexts[1], null, false);
+        Assert.assertEquals(ObjectStatus.Verified, dbService.getSyncRecord(contexts[1]).getStatus());
+        Assert.assertEquals(ObjectStatus.Transferred, dbService.getSyncRecord(contexts[0]).getStatus());
+    }
+
+    private int countRows() {
+        return dbService.getJdbcTemplate().queryForObject("SELECT COUNT(*) FROM " + dbService.getObjectsTableName(), Integer.class);
+    }
+
     protected long getUnixTime(SqlRowSet rowSet, String field) {
         return rowSet.getLong(field);
     }
@@ -95,6 +95,10 @@ public class FilesystemTest {
             Assert.assertEquals(0, sync.getStats().getObjectsFailed());
             Assert.assertEquals(10, sync.getStats().getObjectsComplete());
 
+            // modifiedSince is formatted with second precision, so make sure it falls in a later second than the
+            // existing files' mtime
+            Thread.sleep(1000);
+
             // get time
             Date modifiedSince = new Date();
 
@@ -180,6 +184,40 @@ public class FilesystemTest {
         Assert.assertArrayEquals(Files.readAllBytes(sFile.toPath()), Files.readAllBytes(tFile.toPath()));
     }
 
+    @Test
+    public void testDirectTransfer() throws Exception {
+        int[] sizes = {0, 1, 100 * 1024, 5 * 1024 * 1024 + 7};
+        long totalSize = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            StreamUtil.copy(new RandomInputStream(sizes[i]), new FileOutputStream(new File(sourceDir, "file-" + i)), sizes[i]);
+            totalSize += sizes[i];
+        }
+        // a file that already exists in the target must be truncated
+        StreamUtil.copy(new RandomInputStream(sizes[3]), new FileOutputStream(new File(targetDir, "file-2")), sizes[3]);
+
+        FilesystemConfig sConfig = new FilesystemConfig();
+        sConfig.setPath(sourceDir.getAbsolutePath());
+
+        FilesystemConfig tConfig = new FilesystemConfig();
+        tConfig.setPath(targetDir.getAbsolutePath());
+
+        // verification requires the MD5 of the source, which is calculated separately by the direct transfer
+        SyncConfig syncConfig = new SyncConfig().withSource(sConfig).withTarget(tConfig)
+                .withOptions(new SyncOptions().withVerify(true).withForceSync(true));
+
+        EcsSync sync = new EcsSync();
+        sync.setSyncConfig(syncConfig);
+        sync.run();
+
+        Assert.assertEquals(0, sync.getStats().getObjectsFailed());
+        Assert.assertEquals(sizes.length, sync.getStats().getObjectsComplete());
+        Assert.assertEquals(totalSize, sync.getStats().getBytesComplete());
+        for (int i = 0; i < sizes.length; i++) {
+            Assert.assertArrayEquals(Files.readAllBytes(new File(sourceDir, "file-" + i).toPath()),
+                    Files.readAllBytes(new File(targetDir, "file-" + i).toPath()));
+        }
+    }
+
     @Test
     public void testRelativeLinkTargets() throws Exception {
         String linkName = "my/link";
@@ -0,0 +1,522 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.storage.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.emc.ecs.sync.config.ConfigurationException;
+import com.emc.ecs.sync.config.SyncOptions;
+import com.emc.ecs.sync.config.storage.AwsS3Config;
+import com.emc.ecs.sync.model.ObjectAcl;
+import com.emc.ecs.sync.model.SyncObject;
+import com.emc.ecs.sync.storage.file.AbstractFilesystemStorage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exercises AwsS3Storage against a stand-in client (no S3 endpoint is required)
+ */
+public class AwsS3StorageTest {
+    @Test
+    public void testDeleteBatch() {
+        StandInS3 s3 = new StandInS3();
+        AwsS3Storage storage = createStorage(s3);
+        storage.configure(storage, null, null);
+        try {
+            Assert.assertTrue(storage.deleteBatch(Arrays.asList("foo", "bar")).isEmpty());
+
+            Map<String, String> failures = storage.deleteBatch(Arrays.asList("baz", "denied-1", "qux", "denied-2"));
+            Assert.assertEquals(new HashSet<>(Arrays.asList("denied-1", "denied-2")), failures.keySet());
+            Assert.assertEquals("AccessDenied: Access Denied", failures.get("denied-1"));
+
+            // one quiet request per batch
+            Assert.assertEquals(2, s3.deleteRequests.size());
+            DeleteObjectsRequest request = s3.deleteRequests.get(1);
+            Assert.assertEquals("bucket", request.getBucketName());
+            Assert.assertTrue(request.getQuiet());
+            List<String> keys = new ArrayList<>();
+            for (DeleteObjectsRequest.KeyVersion keyVersion : request.getKeys()) keys.add(keyVersion.getKey());
+            Assert.assertEquals(Arrays.asList("baz", "denied-1", "qux", "denied-2"), keys);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testRangeReadPinnedToEtag() throws Exception {
+        StandInS3 s3 = new StandInS3();
+        AwsS3Storage storage = createStorage(s3);
+        storage.configure(storage, null, null);
+        try {
+            SyncObject object = new SyncObject(storage, "foo", new com.emc.ecs.sync.model.ObjectMetadata().withContentLength(10));
+            object.setEtag(StandInS3.ETAG);
+            Assert.assertTrue(storage.isRangeReadable(object));
+            try (InputStream in = storage.readRange(object, 2, 4)) {
+                Assert.assertEquals(2, in.read());
+            }
+            Assert.assertEquals(Collections.singletonList(StandInS3.ETAG), s3.getRequests.get(0).getMatchingETagConstraints());
+
+            // the object was overwritten after it was loaded
+            object.setEtag("stale");
+            try {
+                storage.readRange(object, 2, 4).close();
+                Assert.fail("range of a changed object should fail");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage().contains("changed while it was being read"));
+            }
+
+            // nothing to pin the ranges to
+            object.setEtag(null);
+            Assert.assertFalse(storage.isRangeReadable(object));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testScheduledMultipartUpload() {
+        StandInS3 s3 = new StandInS3();
+        AwsS3Storage storage = createStorage(s3);
+        storage.getConfig().setMpuThresholdMb(5);
+        storage.getConfig().setMpuPartSizeMb(5);
+        storage.getConfig().setMpuPartLimit(2);
+        storage.getConfig().setMpuBufferMb(10);
+        storage.configure(null, null, storage);
+        try {
+            int size = 12 * 1024 * 1024;
+            SyncObject object = new SyncObject(null, "foo", new com.emc.ecs.sync.model.ObjectMetadata().withContentLength(size),
+                    new ByteArrayInputStream(new byte[size]), new ObjectAcl());
+            storage.putObject(object, "foo");
+
+            // the stream is split into parts of the real part size, which all go through the scheduler
+            Assert.assertEquals(Arrays.asList(5L * 1024 * 1024, 5L * 1024 * 1024, 2L * 1024 * 1024), s3.sortedPartSizes());
+            Assert.assertTrue(s3.maxPartsInFlight.get() <= 2);
+            Assert.assertEquals(Arrays.asList(1, 2, 3), s3.completedPartNumbers);
+            Assert.assertEquals("mpu-etag", object.getWriteEtag());
+            Assert.assertEquals(0, s3.aborts.get());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testStreamPartsBoundedWithoutBudget() throws Exception {
+        StandInS3 s3 = new StandInS3();
+        s3.partLatch = new CountDownLatch(1);
+        final AwsS3Storage storage = createStorage(s3);
+        storage.getConfig().setMpuThresholdMb(5);
+        storage.getConfig().setMpuPartSizeMb(5);
+        storage.getConfig().setMpuPartLimit(2); // no mpuBufferMb
+        storage.configure(null, null, storage);
+        try {
+            final int size = 30 * 1024 * 1024;
+            final AtomicLong bytesRead = new AtomicLong();
+            InputStream stream = new ByteArrayInputStream(new byte[size]) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    int c = super.read(b, off, len);
+                    if (c > 0) bytesRead.addAndGet(c);
+                    return c;
+                }
+            };
+            final SyncObject object = new SyncObject(null, "foo", new com.emc.ecs.sync.model.ObjectMetadata()
+                    .withContentLength(size), stream, new ObjectAcl());
+            Thread mpuThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    storage.putObject(object, "foo");
+                }
+            });
+            mpuThread.start();
+
+            // while both part slots are stuck, the object does not read (and buffer) any more parts
+            while (s3.partsInFlight.get() < 2) Thread.sleep(10);
+            Thread.sleep(200);
+            Assert.assertEquals(10L * 1024 * 1024, bytesRead.get());
+
+            s3.partLatch.countDown();
+            mpuThread.join(10000);
+            Assert.assertFalse(mpuThread.isAlive());
+            Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), s3.completedPartNumbers);
+            Assert.assertEquals(size, bytesRead.get());
+        } finally {
+            s3.partLatch.countDown();
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testScheduledMultipartUploadFailure() {
+        StandInS3 s3 = new StandInS3();
+        s3.failedPartNumber = 2;
+        AwsS3Storage storage = createStorage(s3);
+        storage.getConfig().setMpuThresholdMb(5);
+        storage.getConfig().setMpuPartSizeMb(5);
+        storage.getConfig().setMpuPartLimit(2);
+        storage.configure(null, null, storage);
+        try {
+            int size = 12 * 1024 * 1024;
+            SyncObject object = new SyncObject(null, "foo", new com.emc.ecs.sync.model.ObjectMetadata().withContentLength(size),
+                    new ByteArrayInputStream(new byte[size]), new ObjectAcl());
+            try {
+                storage.putObject(object, "foo");
+                Assert.fail("failed part should fail the upload");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage().contains("part 2"));
+            }
+            Assert.assertEquals(1, s3.aborts.get());
+            Assert.assertNull(s3.completedPartNumbers);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testFilePartsDoNotBlockUploads() throws Exception {
+        StandInS3 s3 = new StandInS3();
+        s3.partLatch = new CountDownLatch(1);
+        final AwsS3Storage storage = createStorage(s3);
+        storage.getConfig().setMpuThresholdMb(5);
+        storage.getConfig().setMpuPartSizeMb(5);
+        storage.getConfig().setMpuThreadCount(1);
+        storage.setOptions(new SyncOptions().withThreadCount(1));
+        storage.configure(null, null, storage);
+        File file = File.createTempFile("mpu-test", null);
+        file.deleteOnExit();
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(12 * 1024 * 1024);
+            }
+            final SyncObject fileObject = new SyncObject(null, "big", new com.emc.ecs.sync.model.ObjectMetadata()
+                    .withContentLength(file.length()));
+            fileObject.setProperty(AbstractFilesystemStorage.PROP_FILE, file);
+            Thread mpuThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    storage.putObject(fileObject, "big");
+                }
+            });
+            mpuThread.start();
+
+            // the MPU's parts are stuck, but a small upload does not wait behind them
+            SyncObject small = new SyncObject(null, "small", new com.emc.ecs.sync.model.ObjectMetadata().withContentLength(10),
+                    new ByteArrayInputStream(new byte[10]), new ObjectAcl());
+            storage.putObject(small, "small");
+            Assert.assertEquals(Collections.singletonList("small"), s3.putKeys);
+            Assert.assertTrue(mpuThread.isAlive());
+
+            s3.partLatch.countDown();
+            mpuThread.join(10000);
+            Assert.assertFalse(mpuThread.isAlive());
+            Assert.assertEquals(Arrays.asList(1, 2, 3), s3.completedPartNumbers);
+            Assert.assertEquals(Arrays.asList(5L * 1024 * 1024, 5L * 1024 * 1024, 2L * 1024 * 1024), s3.sortedPartSizes());
+        } finally {
+            s3.partLatch.countDown();
+            storage.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFilePartThreads() throws Exception {
+        StandInS3 s3 = new StandInS3();
+        s3.partLatch = new CountDownLatch(1);
+        final AwsS3Storage storage = createStorage(s3);
+        storage.getConfig().setMpuThresholdMb(5);
+        storage.getConfig().setMpuPartSizeMb(5);
+        storage.getConfig().setMpuThreadCount(3);
+        storage.setOptions(new SyncOptions().withThreadCount(4));
+        storage.configure(null, null, storage);
+        File file = File.createTempFile("mpu-test", null);
+        file.deleteOnExit();
+        try {
+            // mpuThreadCount threads for each sync thread
+            Assert.assertEquals(12, storage.getPartScheduler().getMaxParts());
+            storage.optionsChanged(new SyncOptions().withThreadCount(2));
+            Assert.assertEquals(6, storage.getPartScheduler().getMaxParts());
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(30 * 1024 * 1024);
+            }
+            final SyncObject fileObject = new SyncObject(null, "big", new com.emc.ecs.sync.model.ObjectMetadata()
+                    .withContentLength(file.length()));
+            fileObject.setProperty(AbstractFilesystemStorage.PROP_FILE, file);
+            Thread mpuThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    storage.putObject(fileObject, "big");
+                }
+            });
+            mpuThread.start();
+
+            // one object sends mpuThreadCount parts at once
+            while (s3.partsInFlight.get() < 3) Thread.sleep(10);
+            Thread.sleep(200);
+            Assert.assertEquals(3, s3.partsInFlight.get());
+
+            s3.partLatch.countDown();
+            mpuThread.join(10000);
+            Assert.assertFalse(mpuThread.isAlive());
+            Assert.assertEquals(3, s3.maxPartsInFlight.get());
+            Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), s3.completedPartNumbers);
+        } finally {
+            s3.partLatch.countDown();
+            storage.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRemoteCopy() {
+        StandInS3 s3 = new StandInS3();
+        s3.objectSizes.put("small", 1024L * 1024);
+        s3.objectSizes.put("large", 6L * 1024 * 1024 * 1024);
+        AwsS3Storage source = createStorage(s3), target = createStorage(s3);
+        target.getConfig().setRemoteCopy(true);
+        target.setOptions(new SyncOptions().withThreadCount(1));
+        source.configure(source, null, target);
+        target.configure(source, null, target);
+        try {
+            // a small object is one CopyObject request
+            target.putObject(new SyncObject(source, "small", new com.emc.ecs.sync.model.ObjectMetadata()
+                    .withContentLength(1024 * 1024)), "small");
+            Assert.assertEquals(1, s3.copyRequests.size());
+            Assert.assertEquals("small", s3.copyRequests.get(0).getSourceKey());
+            Assert.assertTrue(s3.copyPartSizes.isEmpty());
+            Assert.assertTrue(s3.putKeys.isEmpty());
+
+            // over 5GB is a multipart copy (100MB parts)
+            target.putObject(new SyncObject(source, "large", new com.emc.ecs.sync.model.ObjectMetadata()
+                    .withContentLength(6L * 1024 * 1024 * 1024)), "large");
+            Assert.assertEquals(1, s3.copyRequests.size());
+            Assert.assertEquals(62, s3.copyPartSizes.size());
+            long total = 0;
+            for (long size : s3.copyPartSizes) total += size;
+            Assert.assertEquals(6L * 1024 * 1024 * 1024, total);
+            Assert.assertEquals(62, s3.completedPartNumbers.size());
+            Assert.assertTrue(s3.partSizes.isEmpty());
+        } finally {
+            target.close();
+            source.close();
+        }
+    }
+
+    @Test
+    public void testRemoteCopyAcrossEndpoints() {
+        StandInS3 s3 = new StandInS3();
+        AwsS3Storage source = createStorage(s3), target = createStorage(s3);
+        target.getConfig().setRemoteCopy(true);
+        source.getConfig().setHost("other.s3.host");
+        try {
+            target.configure(source, null, target);
+            Assert.fail("remote copy between endpoints should be rejected");
+        } catch (ConfigurationException e) {
+            Assert.assertTrue(e.getMessage().contains("endpoint"));
+        } finally {
+            target.close();
+        }
+
+        // the target credentials may be allowed to read the source bucket
+        source = createStorage(s3);
+        target = createStorage(s3);
+        target.getConfig().setRemoteCopy(true);
+        source.getConfig().setAccessKey("other");
+        try {
+            target.configure(source, null, target);
+        } finally {
+            target.close();
+        }
+    }
+
+    private AwsS3Storage createStorage(final AmazonS3 s3) {
+        AwsS3Config config = new AwsS3Config();
+        config.setAccessKey("access");
+        config.setSecretKey("secret");
+        config.setBucketName("bucket");
+        config.setListThreadCount(1);
+        AwsS3Storage storage = new AwsS3Storage() {
+            @Override
+            protected AmazonS3 createS3Client() {
+                return s3;
+            }
+        };
+        storage.setConfig(config);
+        return storage;
+    }
+
+    private static class StandInS3 extends AbstractAmazonS3 {
+        static final String ETAG = "0123456789abcdef";
+
+        final List<GetObjectRequest> getRequests = Collections.synchronizedList(new ArrayList<GetObjectRequest>());
+        final List<Long> partSizes = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger partsInFlight = new AtomicInteger(), maxPartsInFlight = new AtomicInteger();
+        final AtomicInteger aborts = new AtomicInteger();
+        final List<String> putKeys = Collections.synchronizedList(new ArrayList<String>());
+        final List<DeleteObjectsRequest> deleteRequests = Collections.synchronizedList(new ArrayList<DeleteObjectsRequest>());
+        final Map<String, Long> objectSizes = new HashMap<>();
+        final List<CopyObjectRequest> copyRequests = Collections.synchronizedList(new ArrayList<CopyObjectRequest>());
+        final List<Long> copyPartSizes = Collections.synchronizedList(new ArrayList<Long>());
+        volatile int failedPartNumber;
+        volatile CountDownLatch partLatch;
+        volatile List<Integer> completedPartNumbers;
+
+        List<Long> sortedPartSizes() {
+            List<Long> sizes = new ArrayList<>(partSizes);
+            Collections.sort(sizes, Collections.<Long>reverseOrder());
+            return sizes;
+        }
+
+        @Override
+        public boolean doesBucketExistV2(String bucketName) {
+            return true;
+        }
+
+        @Override
+        public PutObjectResult putObject(PutObjectRequest request) {
+            putKeys.add(request.getKey());
+            PutObjectResult result = new PutObjectResult();
+            result.setETag("put-etag");
+            return result;
+        }
+
+        @Override
+        public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest request) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(objectSizes.get(request.getKey()));
+            return metadata;
+        }
+
+        @Override
+        public CopyObjectResult copyObject(CopyObjectRequest request) {
+            copyRequests.add(request);
+            CopyObjectResult result = new CopyObjectResult();
+            result.setETag("copy-etag");
+            return result;
+        }
+
+        @Override
+        public CopyPartResult copyPart(CopyPartRequest request) {
+            copyPartSizes.add(request.getLastByte() - request.getFirstByte() + 1);
+            CopyPartResult result = new CopyPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag-" + request.getPartNumber());
+            return result;
+        }
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId("upload-1");
+            return result;
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest request) {
+            int inFlight = partsInFlight.incrementAndGet();
+            try {
+                synchronized (maxPartsInFlight) {
+                    if (inFlight > maxPartsInFlight.get()) maxPartsInFlight.set(inFlight);
+                }
+                if (partLatch != null) partLatch.await(10, TimeUnit.SECONDS);
+                if (request.getPartNumber() == failedPartNumber)
+                    throw new AmazonS3Exception("part " + failedPartNumber + " failed");
+                long read = 0;
+                if (request.getFile() != null) {
+                    Assert.assertTrue(request.getFileOffset() + request.getPartSize() <= request.getFile().length());
+                    read = request.getPartSize();
+                } else {
+                    byte[] buffer = new byte[64 * 1024];
+                    int c;
+                    while ((c = request.getInputStream().read(buffer)) != -1) read += c;
+                    Assert.assertEquals(request.getPartSize(), read);
+                }
+                partSizes.add(read);
+                Thread.sleep(20);
+                UploadPartResult result = new UploadPartResult();
+                result.setPartNumber(request.getPartNumber());
+                result.setETag("etag-" + request.getPartNumber());
+                return result;
+            } catch (java.io.IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                partsInFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            List<Integer> partNumbers = new ArrayList<>();
+            for (PartETag partETag : request.getPartETags()) partNumbers.add(partETag.getPartNumber());
+            completedPartNumbers = partNumbers;
+            CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+            result.setETag("mpu-etag");
+            return result;
+        }
+
+        @Override
+        public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+            aborts.incrementAndGet();
+        }
+
+        @Override
+        public S3Object getObject(GetObjectRequest request) {
+            getRequests.add(request);
+            List<String> etags = request.getMatchingETagConstraints();
+            // like the real client, a failed constraint (412) returns null
+            if (!etags.isEmpty() && !etags.contains(ETAG)) return null;
+            long[] range = request.getRange();
+            byte[] data = new byte[(int) (range[1] - range[0] + 1)];
+            for (int i = 0; i < data.length; i++) data[i] = (byte) (range[0] + i);
+            S3Object s3Object = new S3Object();
+            s3Object.setKey(request.getKey());
+            s3Object.setObjectContent(new ByteArrayInputStream(data));
+            return s3Object;
+        }
+
+        @Override
+        public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+            deleteRequests.add(request);
+            List<DeleteObjectsResult.DeletedObject> deleted = new ArrayList<>();
+            List<MultiObjectDeleteException.DeleteError> errors = new ArrayList<>();
+            for (DeleteObjectsRequest.KeyVersion keyVersion : request.getKeys()) {
+                if (keyVersion.getKey().startsWith("denied")) {
+                    MultiObjectDeleteException.DeleteError error = new MultiObjectDeleteException.DeleteError();
+                    error.setKey(keyVersion.getKey());
+                    error.setCode("AccessDenied");
+                    error.setMessage("Access Denied");
+                    errors.add(error);
+                } else {
+                    DeleteObjectsResult.DeletedObject deletedObject = new DeleteObjectsResult.DeletedObject();
+                    deletedObject.setKey(keyVersion.getKey());
+                    deleted.add(deletedObject);
+                }
+            }
+            // like the real client, any error is thrown (a quiet response only lists the errors)
+            if (!errors.isEmpty()) throw new MultiObjectDeleteException(errors, deleted);
+            return new DeleteObjectsResult(request.getQuiet() ? new ArrayList<DeleteObjectsResult.DeletedObject>() : deleted);
+        }
+    }
+}
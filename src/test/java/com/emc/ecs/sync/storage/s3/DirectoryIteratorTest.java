@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.storage.s3;
+
+import com.emc.ecs.sync.model.ObjectSummary;
+import com.emc.ecs.sync.model.SyncObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.*;
+
+public class DirectoryIteratorTest {
+    @Test
+    public void testCrawl() {
+        TreeSet<String> keys = new TreeSet<>(Arrays.asList(
+                "prefix/", // placeholder for the root
+                "prefix/a.txt",
+                "prefix/b/",
+                "prefix/b/b1.txt",
+                "prefix/b/b2.txt",
+                "prefix/b/c/deep.txt",
+                "prefix/d/d1.txt",
+                "prefix/z.txt",
+                "other/x.txt"));
+        // small pages to exercise markers
+        FakeS3Storage storage = new FakeS3Storage(new ParallelListingIteratorTest.BucketLister(keys, 2));
+
+        List<String> objects = new ArrayList<>(), directories = new ArrayList<>();
+        crawl(storage, "prefix/", objects, directories);
+
+        Assert.assertEquals(Arrays.asList("prefix/a.txt", "prefix/z.txt", "prefix/b/b1.txt", "prefix/b/b2.txt",
+                "prefix/b/c/deep.txt", "prefix/d/d1.txt"), objects);
+        Assert.assertEquals(Arrays.asList("prefix/b/", "prefix/b/c/", "prefix/d/"), directories);
+    }
+
+    @Test
+    public void testDirectoryObject() {
+        FakeS3Storage storage = new FakeS3Storage(null);
+        SyncObject object = storage.createDirectoryObject("prefix/b/");
+        Assert.assertTrue(object.getMetadata().isDirectory());
+        Assert.assertEquals(0, object.getMetadata().getContentLength());
+        Assert.assertEquals("prefix/b", object.getRelativePath());
+    }
+
+    private void crawl(FakeS3Storage storage, String prefix, List<String> objects, List<String> directories) {
+        List<ObjectSummary> subdirectories = new ArrayList<>();
+        Iterator<ObjectSummary> iterator = storage.new DirectoryIterator(prefix);
+        while (iterator.hasNext()) {
+            ObjectSummary summary = iterator.next();
+            if (summary.isDirectory()) subdirectories.add(summary);
+            else objects.add(summary.getIdentifier());
+        }
+        for (ObjectSummary directory : subdirectories) {
+            directories.add(directory.getIdentifier());
+            crawl(storage, directory.getIdentifier(), objects, directories);
+        }
+    }
+
+    private static class FakeS3Storage extends AbstractS3Storage<Object> {
+        private ParallelListingIterator.PageLister lister;
+
+        FakeS3Storage(ParallelListingIterator.PageLister lister) {
+            this.lister = lister;
+        }
+
+        @Override
+        ParallelListingIterator.ListingPage listPage(String prefix, String delimiter, String marker) {
+            return lister.listPage(prefix, delimiter, marker);
+        }
+
+        @Override
+        public String getRelativePath(String identifier, boolean directory) {
+            if (directory && identifier.endsWith("/")) identifier = identifier.substring(0, identifier.length() - 1);
+            return identifier;
+        }
+
+        @Override
+        public String getIdentifier(String relativePath, boolean directory) {
+            return directory ? relativePath + "/" : relativePath;
+        }
+
+        @Override
+        void putObject(SyncObject object, String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        List<S3ObjectVersion> loadVersions(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        SyncObject loadObject(String key, String versionId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        InputStream getS3DataRange(String key, String versionId, String etag, long offset, long length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, String> deleteBatch(List<String> identifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected ObjectSummary createSummary(String identifier) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterable<ObjectSummary> allObjects() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterable<ObjectSummary> children(ObjectSummary parent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SyncObject loadObject(String identifier) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateObject(String identifier, SyncObject object) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(String identifier) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
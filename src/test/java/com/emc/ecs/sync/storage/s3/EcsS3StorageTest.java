@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.storage.s3;
+
+import com.emc.ecs.sync.config.Protocol;
+import com.emc.ecs.sync.config.storage.EcsS3Config;
+import com.emc.object.s3.S3Client;
+import com.emc.object.s3.S3Config;
+import com.emc.object.s3.bean.AbstractDeleteResult;
+import com.emc.object.s3.bean.DeleteError;
+import com.emc.object.s3.bean.DeleteObjectsResult;
+import com.emc.object.s3.bean.DeleteSuccess;
+import com.emc.object.s3.bean.ObjectKey;
+import com.emc.object.s3.request.DeleteObjectsRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Exercises EcsS3Storage against a stand-in client (no ECS endpoint is required)
+ */
+public class EcsS3StorageTest {
+    @Test
+    public void testDeleteBatch() {
+        StandInS3 standIn = new StandInS3();
+        EcsS3Storage storage = createStorage(standIn.proxy());
+        storage.configure(storage, null, null);
+        try {
+            Assert.assertTrue(storage.deleteBatch(Arrays.asList("foo", "bar")).isEmpty());
+
+            Map<String, String> failures = storage.deleteBatch(Arrays.asList("baz", "denied-1", "qux", "denied-2"));
+            Assert.assertEquals(new HashSet<>(Arrays.asList("denied-1", "denied-2")), failures.keySet());
+            Assert.assertEquals("AccessDenied: Access Denied", failures.get("denied-1"));
+
+            // one request per batch
+            Assert.assertEquals(2, standIn.deleteRequests.size());
+            DeleteObjectsRequest request = standIn.deleteRequests.get(1);
+            Assert.assertEquals("bucket", request.getBucketName());
+            List<String> keys = new ArrayList<>();
+            for (ObjectKey key : request.getDeleteObjects().getKeys()) keys.add(key.getKey());
+            Assert.assertEquals(Arrays.asList("baz", "denied-1", "qux", "denied-2"), keys);
+        } finally {
+            storage.close();
+        }
+    }
+
+    private EcsS3Storage createStorage(final S3Client s3) {
+        EcsS3Config config = new EcsS3Config();
+        config.setProtocol(Protocol.http);
+        config.setHost("localhost");
+        config.setAccessKey("access");
+        config.setSecretKey("secret");
+        config.setBucketName("bucket");
+        config.setListThreadCount(1);
+        EcsS3Storage storage = new EcsS3Storage() {
+            @Override
+            protected S3Client createS3Client(S3Config s3Config) {
+                return s3;
+            }
+        };
+        storage.setConfig(config);
+        return storage;
+    }
+
+    /**
+     * S3Client is a large interface, so only the calls these tests make are implemented
+     */
+    private static class StandInS3 implements InvocationHandler {
+        final List<DeleteObjectsRequest> deleteRequests = Collections.synchronizedList(new ArrayList<DeleteObjectsRequest>());
+
+        S3Client proxy() {
+            return (S3Client) Proxy.newProxyInstance(S3Client.class.getClassLoader(), new Class[]{S3Client.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "bucketExists":
+                    return true;
+                case "deleteObjects":
+                    return deleteObjects((DeleteObjectsRequest) args[0]);
+                case "destroy":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        private DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+            deleteRequests.add(request);
+            List<AbstractDeleteResult> results = new ArrayList<>();
+            for (ObjectKey key : request.getDeleteObjects().getKeys()) {
+                if (key.getKey().startsWith("denied")) {
+                    DeleteError error = new DeleteError();
+                    error.setKey(key.getKey());
+                    error.setCode("AccessDenied");
+                    error.setMessage("Access Denied");
+                    results.add(error);
+                } else {
+                    DeleteSuccess success = new DeleteSuccess();
+                    success.setKey(key.getKey());
+                    results.add(success);
+                }
+            }
+            DeleteObjectsResult result = new DeleteObjectsResult();
+            result.setResults(results);
+            return result;
+        }
+    }
+}
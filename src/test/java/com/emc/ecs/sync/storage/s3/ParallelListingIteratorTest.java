@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.storage.s3;
+
+import com.emc.ecs.sync.model.ObjectSummary;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelListingIteratorTest {
+    private static final int THREADS = 8;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCommonPrefixPartitions() {
+        TreeSet<String> keys = new TreeSet<>();
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 50; j++) {
+                keys.add("dir" + i + "/sub" + (j % 3) + "/object" + j);
+            }
+            keys.add("top-level-object" + i);
+        }
+
+        BucketLister lister = new BucketLister(keys, 25);
+        assertListing(keys, "", null, lister, 100);
+        Assert.assertTrue(lister.listCount.get() > 0);
+    }
+
+    @Test
+    public void testAlphabetPartitions() {
+        TreeSet<String> keys = randomHexKeys("prefix/", 3000);
+        keys.add("prefix/"); // boundary corner cases
+        keys.add("prefix/0");
+        keys.add("prefix/f");
+        keys.add("prefix/~outside-alphabet");
+        keys.add("other/not-in-prefix");
+
+        BucketLister lister = new BucketLister(keys, 50);
+        keys.remove("other/not-in-prefix");
+        assertListing(keys, "prefix/", "0123456789abcdef", lister, 10);
+    }
+
+    @Test
+    public void testAdaptiveSplitting() {
+        // flat keyspace with no delimiters; the only way to parallelize is to split the listing range
+        TreeSet<String> keys = randomHexKeys("", 5000);
+
+        BucketLister lister = new BucketLister(keys, 20);
+        assertListing(keys, "", null, lister, 1000);
+        Assert.assertTrue("range was never split", lister.splitCount.get() > 0);
+    }
+
+    @Test
+    public void testListingFailure() {
+        TreeSet<String> keys = randomHexKeys("", 500);
+        BucketLister lister = new BucketLister(keys, 10);
+        lister.failAfter = 5;
+
+        Iterator<ObjectSummary> iterator = new ParallelListingIterator("", null, THREADS, executor, lister, 100);
+        try {
+            while (iterator.hasNext()) iterator.next();
+            Assert.fail("listing failure was not propagated");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("list failure", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testSplitPoint() {
+        String mid = ParallelListingIterator.splitPoint("p/", "p/a", "p/c");
+        Assert.assertNotNull(mid);
+        Assert.assertTrue(mid.compareTo("p/a") > 0 && mid.compareTo("p/c") < 0);
+
+        mid = ParallelListingIterator.splitPoint("p/", "p/zzz", null);
+        Assert.assertNotNull(mid);
+        Assert.assertTrue(mid.compareTo("p/zzz") > 0 && mid.startsWith("p/"));
+
+        // nothing fits between these
+        Assert.assertNull(ParallelListingIterator.splitPoint("", "aaaaaa", "aaaaaa "));
+    }
+
+    private void assertListing(Set<String> expected, String prefix, String alphabet, BucketLister lister, int queueSize) {
+        Iterator<ObjectSummary> iterator = new ParallelListingIterator(prefix, alphabet, THREADS, executor, lister, queueSize);
+        List<String> listed = new ArrayList<>();
+        while (iterator.hasNext()) {
+            listed.add(iterator.next().getIdentifier());
+        }
+        Assert.assertEquals(expected.size(), listed.size()); // no duplicates
+        Assert.assertEquals(expected, new TreeSet<>(listed));
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    private TreeSet<String> randomHexKeys(String prefix, int count) {
+        Random random = new Random();
+        TreeSet<String> keys = new TreeSet<>();
+        while (keys.size() < count) {
+            keys.add(prefix + Long.toHexString(random.nextLong()));
+        }
+        return keys;
+    }
+
+    /**
+     * In-memory bucket with S3 list semantics (prefix, delimiter, start-after marker, max-keys)
+     */
+    static class BucketLister implements ParallelListingIterator.PageLister {
+        final NavigableSet<String> keys;
+        final int maxKeys;
+        final AtomicInteger listCount = new AtomicInteger();
+        final AtomicInteger splitCount = new AtomicInteger();
+        final Set<String> nextMarkers = Collections.synchronizedSet(new HashSet<String>());
+        volatile int failAfter = -1;
+
+        BucketLister(NavigableSet<String> keys, int maxKeys) {
+            this.keys = new TreeSet<>(keys);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        public ParallelListingIterator.ListingPage listPage(String prefix, String delimiter, String marker) {
+            if (listCount.incrementAndGet() == failAfter) throw new RuntimeException("list failure");
+            // a marker we did not hand out means the listing started a new (split) range
+            if (marker != null && !nextMarkers.contains(marker)) splitCount.incrementAndGet();
+
+            String key;
+            if (marker == null) key = keys.ceiling(prefix);
+            else if (delimiter != null && marker.endsWith(delimiter)) key = keys.higher(marker + Character.MAX_VALUE);
+            else key = keys.higher(marker);
+
+            List<ObjectSummary> objects = new ArrayList<>();
+            List<String> commonPrefixes = new ArrayList<>();
+            String last = null;
+            while (key != null && key.startsWith(prefix)) {
+                if (objects.size() + commonPrefixes.size() >= maxKeys) {
+                    nextMarkers.add(last);
+                    return new ParallelListingIterator.ListingPage(objects, commonPrefixes, true, last);
+                }
+                int index = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    // roll up everything under the common prefix
+                    last = key.substring(0, index + delimiter.length());
+                    commonPrefixes.add(last);
+                    key = keys.higher(last + Character.MAX_VALUE);
+                } else {
+                    objects.add(new ObjectSummary(key, false, key.length()));
+                    last = key;
+                    key = keys.higher(key);
+                }
+            }
+            return new ParallelListingIterator.ListingPage(objects, commonPrefixes, false, null);
+        }
+    }
+}
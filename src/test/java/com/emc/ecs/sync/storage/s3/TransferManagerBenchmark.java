@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.storage.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.emc.ecs.sync.config.SyncOptions;
+import com.emc.ecs.sync.config.storage.AwsS3Config;
+import com.emc.ecs.sync.model.ObjectAcl;
+import com.emc.ecs.sync.model.SyncObject;
+import com.emc.ecs.sync.util.SyncUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures small-object upload throughput through a {@link TransferManager} built for every object (as
+ * {@link AwsS3Storage} used to do) against {@link AwsS3Storage#putObject(SyncObject, String)} itself, which shares one
+ * transfer manager between all uploads. The S3 client is an in-process stand-in that only drains the request stream,
+ * so the difference is the per-object cost of the transfer manager and its thread pools.
+ * <p>
+ * Run with <code>./gradlew jmh -Pbenchmark=TransferManagerBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferManagerBenchmark {
+    private static final int SYNC_THREADS = 16;
+    private static final int MPU_THREADS = 4;
+    private static final int OBJECT_SIZE = 4 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(TransferManagerBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Target {
+        StandInS3 s3;
+        AwsS3Storage storage;
+        byte[] data = new byte[OBJECT_SIZE];
+
+        @Setup
+        public void setup() {
+            s3 = new StandInS3();
+            AwsS3Config config = new AwsS3Config();
+            config.setAccessKey("access");
+            config.setSecretKey("secret");
+            config.setBucketName("bucket");
+            config.setMpuThresholdMb(16);
+            config.setMpuPartSizeMb(8);
+            config.setMpuThreadCount(MPU_THREADS);
+            storage = new AwsS3Storage() {
+                @Override
+                protected AmazonS3 createS3Client() {
+                    return s3;
+                }
+            };
+            storage.setConfig(config);
+            storage.setOptions(new SyncOptions().withThreadCount(SYNC_THREADS));
+            storage.configure(null, null, storage);
+        }
+
+        @TearDown
+        public void teardown() {
+            storage.close();
+        }
+
+        TransferManagerBuilder newTransferManager() {
+            return TransferManagerBuilder.standard()
+                    .withS3Client(s3)
+                    .withMultipartUploadThreshold(16L * 1024 * 1024)
+                    .withMinimumUploadPartSize(8L * 1024 * 1024)
+                    .withShutDownThreadPools(true);
+        }
+
+        PutObjectRequest newRequest() {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(data.length);
+            return new PutObjectRequest("bucket", "key", new ByteArrayInputStream(data), metadata);
+        }
+
+        SyncObject newObject() {
+            return new SyncObject(null, "key", new com.emc.ecs.sync.model.ObjectMetadata().withContentLength(data.length),
+                    new ByteArrayInputStream(data), new ObjectAcl());
+        }
+    }
+
+    @Benchmark
+    @Threads(SYNC_THREADS)
+    public String transferManagerPerObject(Target target) throws Exception {
+        TransferManager xferManager = target.newTransferManager()
+                .withExecutorFactory(() -> Executors.newFixedThreadPool(MPU_THREADS))
+                .build();
+        try {
+            return xferManager.upload(target.newRequest()).waitForUploadResult().getETag();
+        } finally {
+            xferManager.shutdownNow(false);
+        }
+    }
+
+    @Benchmark
+    @Threads(SYNC_THREADS)
+    public SyncObject storagePutObject(Target target) {
+        SyncObject object = target.newObject();
+        target.storage.putObject(object, "key");
+        return object;
+    }
+
+    static class StandInS3 extends AbstractAmazonS3 {
+        @Override
+        public boolean doesBucketExistV2(String bucketName) {
+            return true;
+        }
+
+        @Override
+        public PutObjectResult putObject(PutObjectRequest request) {
+            SyncUtil.consumeAndCloseStream(request.getInputStream());
+            PutObjectResult result = new PutObjectResult();
+            result.setETag("d41d8cd98f00b204e9800998ecf8427e");
+            return result;
+        }
+    }
+}
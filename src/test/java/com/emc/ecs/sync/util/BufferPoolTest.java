@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BufferPoolTest {
+    @Test
+    public void testSizeClasses() {
+        Assert.assertEquals(0, BufferPool.sizeClass(1));
+        Assert.assertEquals(0, BufferPool.sizeClass(BufferPool.MIN_BUFFER_SIZE));
+        Assert.assertEquals(1, BufferPool.sizeClass(BufferPool.MIN_BUFFER_SIZE + 1));
+        Assert.assertEquals(5, BufferPool.sizeClass(128 * 1024));
+        Assert.assertEquals(BufferPool.SIZE_CLASS_COUNT - 1, BufferPool.sizeClass(BufferPool.MAX_BUFFER_SIZE));
+        Assert.assertEquals(-1, BufferPool.sizeClass(BufferPool.MAX_BUFFER_SIZE + 1));
+
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES);
+        Assert.assertEquals(32 * 1024, pool.acquireHeap(32 * 1024).length);
+        Assert.assertEquals(64 * 1024, pool.acquireHeap(32 * 1024 + 1).length);
+        Assert.assertEquals(BufferPool.MIN_BUFFER_SIZE, pool.acquireDirect(10).capacity());
+    }
+
+    @Test
+    public void testReuse() {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES);
+        BufferPool.Buffers<byte[]> heap = pool.getHeap();
+
+        byte[] buffer = pool.acquireHeap(32 * 1024);
+        Assert.assertEquals(0, heap.getHits());
+        Assert.assertEquals(1, heap.getMisses());
+        Assert.assertEquals(32 * 1024, heap.getOutstandingBytes());
+
+        pool.release(buffer);
+        Assert.assertEquals(0, heap.getOutstandingBytes());
+        Assert.assertEquals(32 * 1024, heap.getRetainedBytes());
+
+        Assert.assertSame(buffer, pool.acquireHeap(20000));
+        Assert.assertEquals(1, heap.getHits());
+        Assert.assertEquals(0.5, heap.getHitRate(), 0.0001);
+        Assert.assertEquals(0, heap.getRetainedBytes());
+
+        // different size class
+        Assert.assertNotSame(buffer, pool.acquireHeap(64 * 1024));
+        Assert.assertEquals(2, heap.getMisses());
+
+        // direct buffers are cleared and kept separately
+        ByteBuffer direct = pool.acquireDirect(32 * 1024);
+        Assert.assertTrue(direct.isDirect());
+        direct.put(new byte[100]).flip();
+        pool.release(direct);
+        ByteBuffer direct2 = pool.acquireDirect(32 * 1024);
+        Assert.assertSame(direct, direct2);
+        Assert.assertEquals(0, direct2.position());
+        Assert.assertEquals(direct2.capacity(), direct2.limit());
+        Assert.assertEquals(1, pool.getDirect().getHits());
+        Assert.assertEquals(1, heap.getHits());
+    }
+
+    @Test
+    public void testUnpooledBuffers() {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES);
+        BufferPool.Buffers<byte[]> heap = pool.getHeap();
+
+        // too large to pool, but still counted while outstanding
+        byte[] large = pool.acquireHeap(BufferPool.MAX_BUFFER_SIZE + 1);
+        Assert.assertEquals(BufferPool.MAX_BUFFER_SIZE + 1, large.length);
+        Assert.assertEquals(large.length, heap.getOutstandingBytes());
+        pool.release(large);
+        Assert.assertEquals(0, heap.getOutstandingBytes());
+        Assert.assertEquals(0, heap.getRetainedBytes());
+
+        // foreign buffers are ignored
+        pool.release(new byte[1000]);
+        pool.release(ByteBuffer.allocate(BufferPool.MIN_BUFFER_SIZE));
+        Assert.assertEquals(0, heap.getRetainedBytes());
+        Assert.assertEquals(0, pool.getDirect().getRetainedBytes());
+        Assert.assertEquals(0, heap.getOutstandingBytes());
+    }
+
+    @Test
+    public void testRetainedLimit() {
+        int size = 1024 * 1024;
+        BufferPool pool = new BufferPool(3 * size);
+        List<byte[]> buffers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            buffers.add(pool.acquireHeap(size));
+        }
+        Assert.assertEquals(5 * size, pool.getHeap().getOutstandingBytes());
+        for (byte[] buffer : buffers) {
+            pool.release(buffer);
+        }
+        Assert.assertEquals(0, pool.getHeap().getOutstandingBytes());
+        Assert.assertEquals(3 * size, pool.getHeap().getRetainedBytes());
+
+        for (int i = 0; i < 5; i++) {
+            pool.acquireHeap(size);
+        }
+        Assert.assertEquals(3, pool.getHeap().getHits());
+        Assert.assertEquals(7, pool.getHeap().getMisses());
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES);
+        final Set<byte[]> inUse = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>()));
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        byte[] buffer = pool.acquireHeap(8 * 1024);
+                        // no buffer may be handed to two threads at once
+                        Assert.assertTrue(inUse.add(buffer));
+                        Assert.assertTrue(inUse.remove(buffer));
+                        pool.release(buffer);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        BufferPool.Buffers<byte[]> heap = pool.getHeap();
+        Assert.assertEquals(threads * 10000, heap.getHits() + heap.getMisses());
+        Assert.assertTrue(heap.getHitRate() > 0.9);
+        Assert.assertEquals(0, heap.getOutstandingBytes());
+        Assert.assertEquals(heap.getMisses() * 8 * 1024, heap.getRetainedBytes());
+    }
+}
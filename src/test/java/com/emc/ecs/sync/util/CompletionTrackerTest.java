@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompletionTrackerTest {
+    @Test
+    public void testChainedTasks() throws Exception {
+        final EnhancedThreadPoolExecutor parentPool = new EnhancedThreadPoolExecutor(2, new LinkedBlockingDeque<Runnable>());
+        final EnhancedThreadPoolExecutor childPool = new EnhancedThreadPoolExecutor(4, new LinkedBlockingDeque<Runnable>());
+        final CompletionTracker tracker = new CompletionTracker();
+        parentPool.setCompletionTracker(tracker);
+        childPool.setCompletionTracker(tracker);
+
+        final AtomicInteger childCount = new AtomicInteger();
+        try {
+            for (int i = 0; i < 10; i++) {
+                parentPool.blockingSubmit(new Runnable() {
+                    @Override
+                    public void run() {
+                        // parent submits its children and exits before they run
+                        for (int j = 0; j < 5; j++) {
+                            childPool.blockingSubmit(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        Thread.sleep(20);
+                                    } catch (InterruptedException e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                    childCount.incrementAndGet();
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+
+            // the submitter's reference keeps the tracker open
+            Assert.assertFalse(tracker.awaitCompletion(500, TimeUnit.MILLISECONDS));
+            Assert.assertFalse(tracker.isComplete());
+            Assert.assertEquals(0, tracker.getDrainTime());
+
+            tracker.submissionComplete();
+            Assert.assertTrue(tracker.awaitCompletion(10, TimeUnit.SECONDS));
+            Assert.assertTrue(tracker.isComplete());
+            Assert.assertEquals(50, childCount.get());
+            Assert.assertEquals(0, tracker.getOutstandingTasks());
+            Assert.assertTrue(tracker.getTransferTime() >= 500);
+            Assert.assertTrue(tracker.getDrainTime() >= 0);
+        } finally {
+            parentPool.shutdownNow();
+            childPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDrainWaitsForSubmitters() throws Exception {
+        final EnhancedThreadPoolExecutor queryPool = new EnhancedThreadPoolExecutor(1, new LinkedBlockingDeque<Runnable>());
+        final EnhancedThreadPoolExecutor syncPool = new EnhancedThreadPoolExecutor(2, new LinkedBlockingDeque<Runnable>());
+        final CompletionTracker tracker = new CompletionTracker();
+        queryPool.setCompletionTracker(tracker);
+        syncPool.setCompletionTracker(tracker);
+        tracker.setSubmitters(queryPool);
+
+        final CountDownLatch queryRelease = new CountDownLatch(1);
+        try {
+            // a root directory whose query keeps finding objects after the root listing is done
+            queryPool.blockingSubmit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        queryRelease.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    syncPool.blockingSubmit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Thread.sleep(200);
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                }
+            });
+            tracker.submissionComplete();
+
+            // still enumerating
+            Thread.sleep(300);
+            Assert.assertEquals(0, tracker.getDrainTime());
+            Assert.assertTrue(tracker.getTransferTime() >= 300);
+
+            queryRelease.countDown();
+            Assert.assertTrue(tracker.awaitCompletion(10, TimeUnit.SECONDS));
+            Assert.assertTrue(tracker.getTransferTime() >= 300);
+            // the last sync task ran after the query finished
+            Assert.assertTrue(tracker.getDrainTime() >= 150);
+        } finally {
+            queryPool.shutdownNow();
+            syncPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNoTasks() throws Exception {
+        CompletionTracker tracker = new CompletionTracker();
+        tracker.submissionComplete();
+        tracker.submissionComplete(); // should be idempotent
+        Assert.assertTrue(tracker.awaitCompletion(1, TimeUnit.SECONDS));
+        Assert.assertTrue(tracker.isComplete());
+        Assert.assertEquals(0, tracker.getOutstandingTasks());
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        final CompletionTracker tracker = new CompletionTracker();
+        tracker.taskSubmitted();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                tracker.abort();
+            }
+        }).start();
+
+        Assert.assertTrue(tracker.awaitCompletion(10, TimeUnit.SECONDS));
+        Assert.assertTrue(tracker.isAborted());
+        Assert.assertFalse(tracker.isComplete());
+        Assert.assertEquals(2, tracker.getOutstandingTasks());
+
+        // phase clocks are stopped
+        long transferTime = tracker.getTransferTime();
+        Thread.sleep(50);
+        Assert.assertEquals(transferTime, tracker.getTransferTime());
+    }
+}
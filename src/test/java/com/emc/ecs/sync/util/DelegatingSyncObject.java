@@ -14,12 +14,14 @@
  */
 package com.emc.ecs.sync.util;
 
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
 import com.emc.ecs.sync.model.ObjectAcl;
 import com.emc.ecs.sync.model.ObjectMetadata;
 import com.emc.ecs.sync.model.SyncObject;
 import com.emc.ecs.sync.storage.SyncStorage;
 
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 
 public abstract class DelegatingSyncObject extends SyncObject {
@@ -110,11 +112,31 @@ public abstract class DelegatingSyncObject extends SyncObject {
         return delegate.getBytesRead();
     }
 
+    @Override
+    public String getEtag() {
+        return delegate.getEtag();
+    }
+
+    @Override
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return delegate.getChecksumAlgorithm();
+    }
+
+    @Override
+    public String getChecksumHex(boolean forceRead) {
+        return delegate.getChecksumHex(forceRead);
+    }
+
     @Override
     public String getMd5Hex(boolean forceRead) {
         return delegate.getMd5Hex(forceRead);
     }
 
+    @Override
+    public List<byte[]> getChunkChecksums(boolean forceRead) {
+        return delegate.getChunkChecksums(forceRead);
+    }
+
     @Override
     public void close() throws Exception {
         delegate.close();
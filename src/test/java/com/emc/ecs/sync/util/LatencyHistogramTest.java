@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketBoundaries() {
+        long lastHighest = -1;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long lowest = LatencyHistogram.lowestEquivalentValue(i), highest = LatencyHistogram.highestEquivalentValue(i);
+            // buckets are contiguous
+            Assert.assertEquals(lastHighest + 1, lowest);
+            Assert.assertEquals(i, LatencyHistogram.bucketIndex(lowest));
+            Assert.assertEquals(i, LatencyHistogram.bucketIndex(highest));
+            // and within ~3% precision
+            Assert.assertTrue((highest - lowest) * 32 <= Math.max(lowest, 1));
+            lastHighest = highest;
+        }
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE, lastHighest);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000); // 1us - 10ms
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(10000, snapshot.getTotalCount());
+        assertWithin(1000, snapshot.getMin());
+        assertWithin(10000000, snapshot.getMax());
+        assertWithin(5000000, snapshot.getValueAtPercentile(50));
+        assertWithin(9000000, snapshot.getValueAtPercentile(90));
+        assertWithin(9900000, snapshot.getValueAtPercentile(99));
+        assertWithin(9990000, snapshot.getValueAtPercentile(99.9));
+
+        // reading the live counts gives the same result
+        long[] values = new long[4];
+        histogram.getValuesAtPercentiles(new double[]{50, 90, 99, 99.9}, values);
+        Assert.assertEquals(snapshot.getValueAtPercentile(50), values[0]);
+        Assert.assertEquals(snapshot.getValueAtPercentile(90), values[1]);
+        Assert.assertEquals(snapshot.getValueAtPercentile(99), values[2]);
+        Assert.assertEquals(snapshot.getValueAtPercentile(99.9), values[3]);
+        Assert.assertEquals(10000, histogram.getTotalCount());
+
+        // interval snapshot
+        for (int i = 0; i < 100; i++) {
+            histogram.record(50);
+        }
+        LatencyHistogram.Snapshot interval = histogram.snapshot().minus(snapshot);
+        Assert.assertEquals(100, interval.getTotalCount());
+        Assert.assertEquals(50, interval.getMin());
+        Assert.assertEquals(50, interval.getMax());
+        Assert.assertEquals(50, interval.getValueAtPercentile(99.9));
+
+        // empty and out-of-range
+        Assert.assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(50));
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE, histogram.snapshot().getMax());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final int threads = 16, perThread = 20000;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertEquals(threads * perThread, histogram.snapshot().getTotalCount());
+        Assert.assertTrue(histogram.getStripeCount() <= LatencyHistogram.MAX_STRIPES);
+    }
+
+    @Test
+    public void testUncontendedStripes() {
+        // a histogram that is only recorded by one thread never needs more than one stripe
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(1, histogram.getStripeCount());
+        Assert.assertEquals(100000, histogram.getTotalCount());
+    }
+
+    private void assertWithin(long expected, long actual) {
+        Assert.assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 32);
+    }
+}
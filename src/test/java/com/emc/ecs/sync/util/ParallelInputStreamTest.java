@@ -34,7 +34,7 @@ public class ParallelInputStreamTest {
 
         Assert.assertTrue(pStream.reader.isComplete());
         Assert.assertFalse(pStream.reader.isFailed());
-        Assert.assertFalse(pStream.readerThread.isAlive());
+        Assert.assertTrue(pStream.readerFuture.isDone());
     }
 
     @Test
@@ -43,8 +43,9 @@ public class ParallelInputStreamTest {
         String message = "bang";
 
         // use 2-byte buffer to ensure the reader thread doesn't fail too early
+        int bufferSize = 2;
         InputStream rawStream = new FailingInputStream(new ByteArrayInputStream(content), '!', message);
-        ParallelInputStream pStream = new ParallelInputStream(rawStream, 2);
+        ParallelInputStream pStream = new ParallelInputStream(rawStream, bufferSize);
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
         try {
@@ -54,10 +55,15 @@ public class ParallelInputStreamTest {
             Assert.assertEquals("bang", e.getCause().getMessage());
         }
 
-        Assert.assertEquals(24, baos.size()); // should fail {bufferSize} characters before the bang
+        // the reader only fails after writing all 26 bytes before the bang, so at most {bufferSize} bytes were still
+        // in the pipe; the consumer's read that sees the failure discards at most another {bufferSize}
+        String beforeBang = new String(content, "UTF-8").substring(0, 26);
+        Assert.assertTrue("read " + baos.size() + " bytes", baos.size() >= 26 - 2 * bufferSize);
+        Assert.assertTrue("read " + baos.size() + " bytes", baos.size() <= 26);
+        Assert.assertTrue(beforeBang.startsWith(new String(baos.toByteArray(), "UTF-8")));
         Assert.assertFalse(pStream.reader.isComplete());
         Assert.assertTrue(pStream.reader.isFailed());
-        Assert.assertFalse(pStream.readerThread.isAlive());
+        Assert.assertTrue(pStream.readerFuture.isDone());
     }
 
     @Test
@@ -96,7 +102,7 @@ public class ParallelInputStreamTest {
 
         Assert.assertFalse(pStream.reader.isComplete());
         Assert.assertTrue(pStream.reader.isFailed());
-        Assert.assertFalse(pStream.readerThread.isAlive());
+        Assert.assertTrue(pStream.readerFuture.isDone());
     }
 
     private void streamAndClose(InputStream in, OutputStream out) throws IOException {
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import com.emc.ecs.sync.model.ObjectMetadata;
+import com.emc.ecs.sync.model.SyncObject;
+import com.emc.ecs.sync.storage.RangeReadable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelRangeInputStreamTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRangesInOrder() throws Exception {
+        byte[] content = new byte[100 * 1024 + 123]; // last range is short
+        new Random().nextBytes(content);
+        ArrayRangeReader reader = new ArrayRangeReader(content, -1);
+        SyncObject object = new SyncObject(null, "foo", new ObjectMetadata().withContentLength(content.length));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream in = new ParallelRangeInputStream(reader, object, content.length, 8 * 1024, 4, executor)) {
+            byte[] buffer = new byte[3000]; // does not line up with range boundaries
+            int c;
+            while ((c = in.read(buffer)) != -1) baos.write(buffer, 0, c);
+        }
+
+        Assert.assertArrayEquals(content, baos.toByteArray());
+        Assert.assertEquals(13, reader.ranges.get());
+    }
+
+    @Test
+    public void testShortRange() throws Exception {
+        byte[] content = new byte[64 * 1024];
+        new Random().nextBytes(content);
+        // the source only has half of the expected data
+        ArrayRangeReader reader = new ArrayRangeReader(content, content.length / 2);
+        SyncObject object = new SyncObject(null, "foo", new ObjectMetadata().withContentLength(content.length));
+
+        try (InputStream in = new ParallelRangeInputStream(reader, object, content.length, 8 * 1024, 2, executor)) {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) ;
+            Assert.fail("short range should have failed the stream");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("offset 32768"));
+        }
+    }
+
+    @Test
+    public void testEmptyObject() throws Exception {
+        SyncObject object = new SyncObject(null, "foo", new ObjectMetadata().withContentLength(0));
+        try (InputStream in = new ParallelRangeInputStream(new ArrayRangeReader(new byte[0], -1), object, 0, 1024, 2, executor)) {
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    private static class ArrayRangeReader implements RangeReadable {
+        private final byte[] data;
+        private final int available;
+        private final AtomicInteger ranges = new AtomicInteger();
+
+        ArrayRangeReader(byte[] data, int available) {
+            this.data = data;
+            this.available = available < 0 ? data.length : available;
+        }
+
+        @Override
+        public boolean isRangeReadable(SyncObject object) {
+            return true;
+        }
+
+        @Override
+        public InputStream readRange(SyncObject object, long offset, long length) {
+            ranges.incrementAndGet();
+            int end = (int) Math.min(offset + length, available);
+            return new ByteArrayInputStream(data, (int) offset, Math.max(end - (int) offset, 0));
+        }
+    }
+}
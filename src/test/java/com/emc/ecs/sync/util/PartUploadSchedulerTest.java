@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PartUploadSchedulerTest {
+    @Test
+    public void testFairInterleaving() throws Exception {
+        try (PartUploadScheduler scheduler = new PartUploadScheduler(1, 0, "test-part-pool")) {
+            final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch release = new CountDownLatch(1);
+            ExecutorService objectA = scheduler.newObjectExecutor(1), objectB = scheduler.newObjectExecutor(1);
+
+            // occupy the only slot, so the rest of the parts are queued
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(objectA.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    order.add("A1");
+                }
+            }));
+            for (String part : Arrays.asList("A2", "A3", "A4")) futures.add(objectA.submit(recorder(order, part)));
+            futures.add(objectB.submit(recorder(order, "B1")));
+            release.countDown();
+            for (Future<?> future : futures) future.get();
+
+            // B does not wait behind all of A's parts
+            Assert.assertEquals(Arrays.asList("A1", "A2", "B1", "A3", "A4"), order);
+
+            objectA.shutdown();
+            Assert.assertTrue(objectA.awaitTermination(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        final int maxParts = 4, partSize = 10, budget = 30;
+        final PartUploadScheduler scheduler = new PartUploadScheduler(maxParts, budget, "test-part-pool");
+        ExecutorService submitters = Executors.newFixedThreadPool(8);
+        try {
+            final AtomicInteger active = new AtomicInteger(), maxActive = new AtomicInteger();
+            List<Future<?>> objects = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                objects.add(submitters.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ExecutorService object = scheduler.newObjectExecutor(partSize);
+                        List<Future<?>> parts = new ArrayList<>();
+                        for (int p = 0; p < 10; p++) {
+                            parts.add(object.submit(new Runnable() {
+                                @Override
+                                public void run() {
+                                    int count = active.incrementAndGet();
+                                    synchronized (maxActive) {
+                                        if (count > maxActive.get()) maxActive.set(count);
+                                    }
+                                    Assert.assertTrue(scheduler.getBytesScheduled() <= budget);
+                                    try {
+                                        Thread.sleep(1);
+                                    } catch (InterruptedException e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                    active.decrementAndGet();
+                                }
+                            }));
+                        }
+                        for (Future<?> part : parts) part.get();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> object : objects) object.get();
+
+            // the byte budget (3 parts) is lower than the part limit
+            Assert.assertTrue(maxActive.get() <= budget / partSize);
+        } finally {
+            submitters.shutdownNow();
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testCloseCancelsQueuedParts() throws Exception {
+        PartUploadScheduler scheduler = new PartUploadScheduler(1, 0, "test-part-pool");
+        final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        try {
+            // occupy the only slot
+            scheduler.execute(this, 1, new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            FutureTask<String> queued = new FutureTask<>(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "ran";
+                }
+            });
+            scheduler.execute(this, 1, queued);
+            Future<?> objectPart = scheduler.newObjectExecutor(1).submit(recorder(new ArrayList<String>(), "B1"));
+
+            scheduler.close();
+
+            // waiters are released instead of blocking forever
+            try {
+                queued.get(5, TimeUnit.SECONDS);
+                Assert.fail("queued part should be cancelled");
+            } catch (CancellationException e) {
+                // expected
+            }
+            Assert.assertTrue(objectPart.isCancelled());
+        } finally {
+            release.countDown();
+            scheduler.close();
+        }
+    }
+
+    private Runnable recorder(final List<String> order, final String part) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(part);
+            }
+        };
+    }
+}
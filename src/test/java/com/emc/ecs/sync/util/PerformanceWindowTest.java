@@ -60,4 +60,38 @@ public class PerformanceWindowTest {
         assertEquals("Incorrect rate", 31000.0, (double)pw.getWindowRate(), 500.0);
     }
 
+    @Test
+    public void testSharedTicker() throws Exception {
+        int threadsBefore = Thread.activeCount();
+        PerformanceWindow[] windows = new PerformanceWindow[50];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new PerformanceWindow(500, 10);
+            windows[i].increment(i);
+        }
+
+        // all windows are driven by the same ticker thread
+        assertTrue("too many threads started", Thread.activeCount() - threadsBefore <= 1);
+
+        Thread.sleep(1100);
+        for (int i = 0; i < windows.length; i++) {
+            assertEquals("Sum incorrect", i, windows[i].getWindowSum());
+            windows[i].close();
+        }
+    }
+
+    @Test
+    public void testWindowSlides() throws Exception {
+        PerformanceWindow pw = new PerformanceWindow(100, 5);
+
+        pw.increment(5000);
+        Thread.sleep(250);
+        assertEquals("Sum incorrect", 5000, pw.getWindowSum());
+
+        // the slice with the value should fall out of the window after 5 more slices
+        Thread.sleep(700);
+        assertEquals("Sum incorrect", 0, pw.getWindowSum());
+        assertTrue("Window should be about 500ms", pw.getWindowDuration() >= 400 && pw.getWindowDuration() <= 650);
+        pw.close();
+    }
+
 }
\ No newline at end of file
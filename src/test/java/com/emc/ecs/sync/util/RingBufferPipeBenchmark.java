@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of {@link RingBufferPipe} to {@link PipedInputStream}/{@link PipedOutputStream}. Each
+ * operation streams {@link #STREAM_SIZE} bytes through a new pipe (one pipe per object, as in
+ * {@link ParallelInputStream}); a producer task writes 32k chunks and the benchmark thread reads with the given read
+ * size.
+ * <p>
+ * Run with <code>./gradlew jmh -Pbenchmark=RingBufferPipeBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RingBufferPipeBenchmark {
+    static final int STREAM_SIZE = 16 * 1024 * 1024;
+    static final int PIPE_SIZE = 128 * 1024; // the default buffer size
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(RingBufferPipeBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Pipes {
+        // the same pool of producer threads for both implementations
+        ExecutorService producers;
+        byte[] chunk = new byte[32 * 1024];
+
+        @Param({"4096", "65536", "1048576"})
+        int readSize;
+
+        byte[] readBuffer;
+
+        @Setup
+        public void setup() {
+            producers = Executors.newCachedThreadPool();
+            readBuffer = new byte[readSize];
+        }
+
+        @TearDown
+        public void teardown() {
+            producers.shutdown();
+        }
+
+        Future<?> produce(final OutputStream out) {
+            return producers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try (OutputStream output = out) {
+                        for (int written = 0; written < STREAM_SIZE; written += chunk.length) {
+                            output.write(chunk);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        long consume(InputStream in) throws IOException {
+            long total = 0;
+            int c;
+            try (InputStream input = in) {
+                while ((c = input.read(readBuffer)) != -1) {
+                    total += c;
+                }
+            }
+            return total;
+        }
+    }
+
+    @Benchmark
+    public long ringBufferPipe(Pipes pipes) throws Exception {
+        RingBufferPipe pipe = new RingBufferPipe(PIPE_SIZE);
+        Future<?> producer = pipes.produce(pipe.getOutputStream());
+        long total = pipes.consume(pipe.getInputStream());
+        producer.get();
+        return total;
+    }
+
+    @Benchmark
+    public long pipedStreams(Pipes pipes) throws Exception {
+        PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+        Future<?> producer = pipes.produce(new PipedOutputStream(in));
+        long total = pipes.consume(in);
+        producer.get();
+        return total;
+    }
+}
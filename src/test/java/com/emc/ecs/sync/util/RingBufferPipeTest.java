@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class RingBufferPipeTest {
+    @Test
+    public void testTransfer() throws Exception {
+        // odd capacity and chunk sizes, so reads and writes wrap around the end of the ring at different offsets
+        final RingBufferPipe pipe = new RingBufferPipe(1000);
+        final int size = 5 * 1024 * 1024;
+        final Random random = new Random(42);
+        final MessageDigest writeDigest = MessageDigest.getInstance("MD5");
+        Future<?> producer = RingBufferPipe.getProducerExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try (OutputStream out = pipe.getOutputStream()) {
+                    byte[] chunk = new byte[3333];
+                    int written = 0;
+                    while (written < size) {
+                        random.nextBytes(chunk);
+                        int count = Math.min(size - written, 1 + random.nextInt(chunk.length));
+                        if (count == 1) out.write(chunk[0]);
+                        else out.write(chunk, 0, count);
+                        writeDigest.update(chunk, 0, count);
+                        written += count;
+                    }
+                }
+                return null;
+            }
+        });
+
+        MessageDigest readDigest = MessageDigest.getInstance("MD5");
+        long total = 0;
+        try (InputStream in = pipe.getInputStream()) {
+            byte[] buffer = new byte[777];
+            int c;
+            while ((c = in.read(buffer)) != -1) {
+                readDigest.update(buffer, 0, c);
+                total += c;
+                int b = in.read();
+                if (b == -1) break;
+                readDigest.update((byte) b);
+                total++;
+            }
+            Assert.assertEquals(-1, in.read());
+        }
+        producer.get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(size, total);
+        Assert.assertArrayEquals(writeDigest.digest(), readDigest.digest());
+    }
+
+    @Test
+    public void testConsumerWakesImmediately() throws Exception {
+        final RingBufferPipe pipe = new RingBufferPipe(16);
+        Future<Long> consumer = RingBufferPipe.getProducerExecutor().submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                pipe.getInputStream().read();
+                return System.nanoTime();
+            }
+        });
+        Thread.sleep(200); // make sure the consumer is parked
+        long writeTime = System.nanoTime();
+        pipe.getOutputStream().write(1);
+
+        long wakeMs = TimeUnit.NANOSECONDS.toMillis(consumer.get(10, TimeUnit.SECONDS) - writeTime);
+        // piped streams poll once per second
+        Assert.assertTrue("consumer took " + wakeMs + "ms to wake", wakeMs < 500);
+    }
+
+    @Test
+    public void testConsumerClose() throws Exception {
+        final RingBufferPipe pipe = new RingBufferPipe(16);
+        Future<?> producer = RingBufferPipe.getProducerExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                pipe.getOutputStream().write(new byte[100]); // will block when the buffer is full
+                return null;
+            }
+        });
+        Thread.sleep(200);
+        Assert.assertFalse(producer.isDone());
+        Assert.assertEquals(16, pipe.getInputStream().available());
+
+        // closing the read side wakes the blocked producer
+        pipe.getInputStream().close();
+        try {
+            producer.get(500, TimeUnit.MILLISECONDS);
+            Assert.fail("producer should fail when the pipe is closed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertEquals("Pipe closed", e.getCause().getMessage());
+        }
+        try {
+            pipe.getInputStream().read();
+            Assert.fail("read should fail after close");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testProducerClose() throws Exception {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+        pipe.getOutputStream().write(new byte[]{1, 2, 3});
+        pipe.getOutputStream().close();
+
+        // remaining data is still read before EOF
+        byte[] buffer = new byte[16];
+        Assert.assertEquals(3, pipe.getInputStream().read(buffer));
+        Assert.assertEquals(-1, pipe.getInputStream().read(buffer));
+        try {
+            pipe.getOutputStream().write(4);
+            Assert.fail("write should fail after close");
+        } catch (IOException e) {
+            // expected
+        }
+        pipe.getInputStream().close();
+    }
+
+    @Test
+    public void testInterrupt() throws Exception {
+        final RingBufferPipe pipe = new RingBufferPipe(16);
+        final Thread consumer = Thread.currentThread();
+        RingBufferPipe.getProducerExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                consumer.interrupt();
+            }
+        });
+        try {
+            pipe.getInputStream().read();
+            Assert.fail("read should be interrupted");
+        } catch (InterruptedIOException e) {
+            // the interrupt status is preserved
+            Assert.assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void testBufferIsPooled() throws Exception {
+        BufferPool.Buffers<byte[]> heap = BufferPool.getSharedPool().getHeap();
+        int capacity = 3 * 1024 * 1024 + 1; // a size class no other test uses
+        RingBufferPipe pipe = new RingBufferPipe(capacity);
+        Assert.assertEquals(capacity, pipe.getCapacity());
+        long outstanding = heap.getOutstandingBytes();
+
+        pipe.getOutputStream().close();
+        pipe.getOutputStream().close();
+        Assert.assertEquals(outstanding, heap.getOutstandingBytes());
+        pipe.getInputStream().close();
+        Assert.assertEquals(outstanding - 4 * 1024 * 1024, heap.getOutstandingBytes());
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import org.junit.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SharedSchedulerTest {
+    private SharedScheduler scheduler;
+
+    @Before
+    public void setup() {
+        scheduler = new SharedScheduler(4);
+    }
+
+    @After
+    public void teardown() {
+        scheduler.close();
+    }
+
+    @Test
+    public void testLaneConcurrency() throws Exception {
+        ConcurrencyProbe probe1 = new ConcurrencyProbe(), probe2 = new ConcurrencyProbe();
+        SharedScheduler.Lane lane1 = scheduler.newLane("lane1", 3, new LinkedBlockingDeque<Runnable>());
+        SharedScheduler.Lane lane2 = scheduler.newLane("lane2", 5, new LinkedBlockingDeque<Runnable>());
+        for (int i = 0; i < 30; i++) {
+            lane1.blockingSubmit(probe1.newTask(50));
+            lane2.blockingSubmit(probe2.newTask(50));
+        }
+        lane1.shutdown();
+        lane2.shutdown();
+        Assert.assertTrue(lane1.awaitTermination(30, TimeUnit.SECONDS));
+        Assert.assertTrue(lane2.awaitTermination(30, TimeUnit.SECONDS));
+
+        Assert.assertEquals(30, probe1.completed.get());
+        Assert.assertEquals(30, probe2.completed.get());
+        Assert.assertEquals(3, probe1.maxRunning.get());
+        // lane2 is limited by its own semaphore, not by the pool's parallelism (tasks are blocking)
+        Assert.assertEquals(5, probe2.maxRunning.get());
+        Assert.assertEquals(0, lane1.getUnfinishedTasks());
+    }
+
+    @Test
+    public void testSpareThreadLimit() throws Exception {
+        SharedScheduler limitedScheduler = new SharedScheduler(2, 1, "test-limited");
+        try {
+            ConcurrencyProbe probe = new ConcurrencyProbe();
+            SharedScheduler.Lane lane = limitedScheduler.newLane("lane", 10, new LinkedBlockingDeque<Runnable>());
+            int maxPoolSize = 0;
+            for (int i = 0; i < 20; i++) {
+                lane.blockingSubmit(probe.newTask(50));
+            }
+            lane.shutdown();
+            while (!lane.awaitTermination(10, TimeUnit.MILLISECONDS)) {
+                maxPoolSize = Math.max(maxPoolSize, limitedScheduler.getPoolSize());
+            }
+            Assert.assertEquals(20, probe.completed.get());
+            // the lane allows 10 at once, but the pool only has 2 threads plus 1 spare
+            Assert.assertTrue(maxPoolSize <= 3);
+            Assert.assertTrue(probe.maxRunning.get() <= 3);
+            Assert.assertTrue(probe.maxRunning.get() >= 2);
+        } finally {
+            limitedScheduler.close();
+        }
+    }
+
+    @Test
+    public void testBlockingLane() throws Exception {
+        // no spare threads, so a producer running on the pool's only thread would starve its consumers
+        SharedScheduler limitedScheduler = new SharedScheduler(1, 0, "test-blocking");
+        try {
+            final SharedScheduler.Lane producerLane =
+                    limitedScheduler.newBlockingLane("producer", 3, new LinkedBlockingDeque<Runnable>());
+            final SharedScheduler.Lane consumerLane =
+                    limitedScheduler.newLane("consumer", 1, new LinkedBlockingDeque<Runnable>(1));
+            CompletionTracker tracker = new CompletionTracker();
+            producerLane.setCompletionTracker(tracker);
+            consumerLane.setCompletionTracker(tracker);
+
+            final ConcurrencyProbe probe = new ConcurrencyProbe();
+            for (int i = 0; i < 6; i++) {
+                producerLane.blockingSubmit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < 5; j++) {
+                            consumerLane.blockingSubmit(probe.newTask(5));
+                        }
+                    }
+                });
+            }
+            tracker.submissionComplete();
+
+            Assert.assertTrue(tracker.awaitCompletion(30, TimeUnit.SECONDS));
+            Assert.assertEquals(30, probe.completed.get());
+            Assert.assertEquals(1, probe.maxRunning.get());
+        } finally {
+            limitedScheduler.close();
+        }
+    }
+
+    @Test
+    public void testResize() throws Exception {
+        ConcurrencyProbe probe = new ConcurrencyProbe();
+        SharedScheduler.Lane lane = scheduler.newLane("lane", 2, new LinkedBlockingDeque<Runnable>());
+        for (int i = 0; i < 40; i++) {
+            lane.blockingSubmit(probe.newTask(50));
+        }
+        Thread.sleep(120);
+        Assert.assertEquals(2, probe.maxRunning.get());
+
+        lane.resizeThreadPool(6);
+        Thread.sleep(120);
+        Assert.assertEquals(6, probe.maxRunning.get());
+
+        // shrinking takes effect as running tasks finish
+        lane.resizeThreadPool(1);
+        Thread.sleep(120);
+        probe.maxRunning.set(0);
+        Thread.sleep(200);
+        Assert.assertEquals(1, probe.maxRunning.get());
+
+        lane.stop();
+    }
+
+    @Test
+    public void testPauseResume() throws Exception {
+        ConcurrencyProbe probe = new ConcurrencyProbe();
+        SharedScheduler.Lane lane = scheduler.newLane("lane", 2, new LinkedBlockingDeque<Runnable>());
+        Assert.assertTrue(lane.pause());
+        Assert.assertFalse(lane.pause());
+        for (int i = 0; i < 4; i++) {
+            lane.blockingSubmit(probe.newTask(10));
+        }
+        Thread.sleep(200);
+        Assert.assertEquals(0, probe.completed.get());
+        Assert.assertEquals(4, lane.getQueue().size());
+
+        Assert.assertTrue(lane.resume());
+        lane.shutdown();
+        Assert.assertTrue(lane.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(4, probe.completed.get());
+    }
+
+    @Test
+    public void testBlockingSubmit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final SharedScheduler.Lane lane = scheduler.newLane("lane", 1, new LinkedBlockingDeque<Runnable>(1));
+        Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        lane.blockingSubmit(blocked); // running
+        Thread.sleep(100);
+        lane.blockingSubmit(blocked); // queued (queue is now full)
+        try {
+            lane.submit(blocked);
+            Assert.fail("queue should be full");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        Future<?> submitter = Executors.newSingleThreadExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                lane.blockingSubmit(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+            }
+        });
+        Thread.sleep(200);
+        Assert.assertFalse(submitter.isDone());
+
+        release.countDown();
+        submitter.get(10, TimeUnit.SECONDS);
+        lane.shutdown();
+        Assert.assertTrue(lane.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCompletionTracking() throws Exception {
+        final SharedScheduler.Lane parentLane = scheduler.newLane("parent", 2, new LinkedBlockingDeque<Runnable>());
+        final SharedScheduler.Lane childLane = scheduler.newLane("child", 2, new LinkedBlockingDeque<Runnable>(2));
+        CompletionTracker tracker = new CompletionTracker();
+        parentLane.setCompletionTracker(tracker);
+        childLane.setCompletionTracker(tracker);
+
+        final AtomicInteger childCount = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            parentLane.blockingSubmit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 5; j++) {
+                        // the child queue is small, so this will block inside the pool
+                        childLane.blockingSubmit(new Runnable() {
+                            @Override
+                            public void run() {
+                                childCount.incrementAndGet();
+                            }
+                        });
+                    }
+                }
+            });
+        }
+        tracker.submissionComplete();
+
+        Assert.assertTrue(tracker.awaitCompletion(30, TimeUnit.SECONDS));
+        Assert.assertEquals(50, childCount.get());
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        ConcurrencyProbe probe = new ConcurrencyProbe();
+        SharedScheduler.Lane lane = scheduler.newLane("lane", 1, new LinkedBlockingDeque<Runnable>());
+        for (int i = 0; i < 10; i++) {
+            lane.blockingSubmit(probe.newTask(100));
+        }
+        Thread.sleep(50);
+        lane.stop();
+        Assert.assertTrue(lane.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, probe.completed.get());
+        try {
+            lane.blockingSubmit(probe.newTask(0));
+            Assert.fail("stopped lane accepted a task");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testVirtualThreadSupport() {
+        String version = System.getProperty("java.specification.version");
+        boolean supported = !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+        SharedScheduler virtualScheduler = SharedScheduler.newVirtualThreadScheduler("test-vthread");
+        if (supported) {
+            Assert.assertNotNull(virtualScheduler);
+            virtualScheduler.close();
+        } else {
+            Assert.assertNull(virtualScheduler);
+        }
+    }
+
+    @Test
+    public void testVirtualThreadLane() throws Exception {
+        SharedScheduler virtualScheduler = SharedScheduler.newVirtualThreadScheduler("test-vthread");
+        Assume.assumeNotNull(virtualScheduler);
+        try {
+            // far more blocked tasks in flight than we would want platform threads for
+            ConcurrencyProbe probe = new ConcurrencyProbe();
+            SharedScheduler.Lane lane = virtualScheduler.newLane("lane", 500, new LinkedBlockingDeque<Runnable>());
+            for (int i = 0; i < 2000; i++) {
+                lane.blockingSubmit(probe.newTask(100));
+            }
+            lane.shutdown();
+            Assert.assertTrue(lane.awaitTermination(60, TimeUnit.SECONDS));
+            Assert.assertEquals(2000, probe.completed.get());
+            Assert.assertEquals(500, probe.maxRunning.get());
+        } finally {
+            virtualScheduler.close();
+        }
+    }
+
+    private static class ConcurrencyProbe {
+        final AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+
+        Runnable newTask(final long sleepMs) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    int current = running.incrementAndGet();
+                    while (true) {
+                        int max = maxRunning.get();
+                        if (current <= max || maxRunning.compareAndSet(max, current)) break;
+                    }
+                    try {
+                        Thread.sleep(sleepMs);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        running.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2017 EMC Corporation. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.emc.ecs.sync.util;
+
+import com.emc.ecs.sync.config.ChecksumAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+public class StreamChecksumTest {
+    private static final byte[] CHECK = "123456789".getBytes();
+
+    @Test
+    public void testKnownValues() throws Exception {
+        Assert.assertEquals("25F9E794323B453885F5181F1B624D0B", hex(ChecksumAlgorithm.md5, CHECK));
+        Assert.assertEquals("15E2B0D3C33891EBB0F1EF609EC419420C20E320CE94C65FBC8C3312448EB225",
+                hex(ChecksumAlgorithm.sha256, CHECK));
+        Assert.assertEquals("E3069283", hex(ChecksumAlgorithm.crc32c, CHECK));
+        Assert.assertEquals("EF46DB3751D8E999", hex(ChecksumAlgorithm.xxhash64, new byte[0]));
+        Assert.assertEquals("44BC2CF5AD770999", hex(ChecksumAlgorithm.xxhash64, "abc".getBytes()));
+    }
+
+    @Test
+    public void testCrc32cFallback() throws Exception {
+        Crc32c crc = new Crc32c();
+        crc.update(CHECK, 0, CHECK.length);
+        Assert.assertEquals(0xE3069283L, crc.getValue());
+
+        // the fallback must agree with the JDK implementation (if there is one) for every length and alignment
+        Checksum jdk = StreamChecksum.createCrc32c();
+        byte[] data = new byte[1000];
+        new Random(0).nextBytes(data);
+        for (int off = 0; off < 9; off++) {
+            for (int len = 0; len < data.length - off; len += 37) {
+                crc.reset();
+                jdk.reset();
+                crc.update(data, off, len);
+                jdk.update(data, off, len);
+                Assert.assertEquals(jdk.getValue(), crc.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testChunking() throws Exception {
+        byte[] data = new byte[100 * 1024 + 13];
+        new Random(0).nextBytes(data);
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            String expected = hex(algorithm, data);
+
+            // odd-sized chunks and single bytes
+            StreamChecksum checksum = StreamChecksum.create(algorithm);
+            Random random = new Random(1);
+            int off = 0;
+            while (off < data.length) {
+                if (random.nextInt(4) == 0) {
+                    checksum.update(data[off++]);
+                } else {
+                    int len = Math.min(data.length - off, random.nextInt(100));
+                    checksum.update(data, off, len);
+                    off += len;
+                }
+            }
+            Assert.assertEquals(algorithm.toString(), expected, DatatypeConverter.printHexBinary(checksum.digest()));
+
+            // direct buffer (i.e. a mapped file)
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data).flip();
+            checksum = StreamChecksum.create(algorithm);
+            checksum.update(buffer);
+            Assert.assertEquals(algorithm.toString(), expected, DatatypeConverter.printHexBinary(checksum.digest()));
+        }
+    }
+
+    @Test
+    public void testEnhancedInputStream() throws Exception {
+        EnhancedInputStream stream = new EnhancedInputStream(new ByteArrayInputStream(CHECK), CHECK.length,
+                ChecksumAlgorithm.crc32c);
+        Assert.assertEquals(ChecksumAlgorithm.crc32c, stream.getChecksumAlgorithm());
+        Assert.assertEquals('1', stream.read());
+        SyncUtil.consumeAndCloseStream(stream);
+        Assert.assertEquals("E3069283", DatatypeConverter.printHexBinary(stream.getChecksum()));
+        try {
+            stream.getMd5Digest();
+            Assert.fail("MD5 is not enabled");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        stream = new EnhancedInputStream(new ByteArrayInputStream(CHECK), CHECK.length, null);
+        Assert.assertNull(stream.getChecksumAlgorithm());
+    }
+
+    private String hex(ChecksumAlgorithm algorithm, byte[] data) {
+        StreamChecksum checksum = StreamChecksum.create(algorithm);
+        checksum.update(data, 0, data.length);
+        return DatatypeConverter.printHexBinary(checksum.digest());
+    }
+}
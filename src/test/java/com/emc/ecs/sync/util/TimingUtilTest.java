@@ -22,9 +22,11 @@ import com.emc.ecs.sync.config.storage.TestConfig;
 import com.emc.ecs.sync.filter.AbstractFilter;
 import com.emc.ecs.sync.model.ObjectContext;
 import com.emc.ecs.sync.model.SyncObject;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TimingUtilTest {
@@ -67,6 +69,78 @@ public class TimingUtilTest {
         System.out.println("Per-call overhead is " + ((noOpConfig.getOverhead()) / (total) / 1000) + "µs");
     }
 
+    @Test
+    public void testPercentiles() throws Exception {
+        SyncOptions options = new SyncOptions().withTimingsEnabled(true).withTimingWindow(1000000);
+        TimingUtil.register(options);
+        try {
+            for (int i = 0; i < 20; i++) {
+                TimingUtil.startOperation(options, "Sleep");
+                Thread.sleep(i < 18 ? 1 : 50);
+                TimingUtil.completeOperation(options, "Sleep");
+            }
+            TimingUtil.startOperation(options, "Sleep");
+            TimingUtil.failOperation(options, "Sleep");
+
+            List<TimingUtil.TimingStats> stats = TimingUtil.getTimingStats(options);
+            Assert.assertEquals(1, stats.size());
+            TimingUtil.TimingStats sleepStats = stats.get(0);
+            Assert.assertEquals("Sleep", sleepStats.getName());
+            Assert.assertEquals(20, sleepStats.getCompleteCount());
+            Assert.assertEquals(1, sleepStats.getFailedCount());
+            Assert.assertTrue(sleepStats.getP50Time() >= 1000000 && sleepStats.getP50Time() < 50000000);
+            Assert.assertTrue(sleepStats.getP99Time() >= 50000000);
+            Assert.assertTrue(sleepStats.getMaxTime() >= sleepStats.getP999Time());
+            Assert.assertTrue(sleepStats.toString().contains("p50/p90/p99/p99.9"));
+
+            // stats are cumulative (not reset by a dump)
+            TimingUtil.logTimings(options);
+            Assert.assertEquals(20, TimingUtil.getTimingStats(options).get(0).getCompleteCount());
+        } finally {
+            TimingUtil.unregister(options);
+        }
+        Assert.assertTrue(TimingUtil.getTimingStats(options).isEmpty());
+    }
+
+    @Test
+    public void testStartTimesPerOperationAndThread() throws Exception {
+        final SyncOptions options = new SyncOptions().withTimingsEnabled(true).withTimingWindow(1000000);
+        TimingUtil.register(options);
+        try {
+            // overlapping operations on one thread keep their own start times
+            TimingUtil.startOperation(options, "Outer");
+            Thread.sleep(50);
+            TimingUtil.startOperation(options, "Inner");
+            TimingUtil.completeOperation(options, "Inner");
+            TimingUtil.completeOperation(options, "Outer");
+
+            List<TimingUtil.TimingStats> stats = TimingUtil.getTimingStats(options);
+            Assert.assertEquals(2, stats.size());
+            Assert.assertEquals("Inner", stats.get(0).getName());
+            Assert.assertTrue(stats.get(0).getMaxTime() < 50000000);
+            Assert.assertEquals("Outer", stats.get(1).getName());
+            Assert.assertTrue(stats.get(1).getMinTime() >= 50000000);
+
+            // a start on another thread doesn't count for this one
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TimingUtil.startOperation(options, "Other");
+                }
+            });
+            thread.start();
+            thread.join();
+            try {
+                TimingUtil.completeOperation(options, "Other");
+                Assert.fail("operation was completed without being started on this thread");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            TimingUtil.unregister(options);
+        }
+    }
+
     public static class NoOpFilter extends AbstractFilter<NoOpConfig> {
         @Override
         public void filter(ObjectContext objectContext) {